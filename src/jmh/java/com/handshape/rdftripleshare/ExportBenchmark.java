@@ -0,0 +1,81 @@
+package com.handshape.rdftripleshare;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks writing the outputs: the SQLite db, as writeModelToSqlite
+ * does, and the Turtle, both pretty and in blocks. Each run is seconds long
+ * at the larger size, so these are timed a run at a time.
+ *
+ * @author jturner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ExportBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int triples;
+
+    private Model model;
+    private Path directory;
+
+    @Setup
+    public void setUp() throws IOException {
+        model = SyntheticCorpus.instruments(triples);
+        directory = Files.createTempDirectory("export-benchmark");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public long sqlite() throws Exception {
+        Path db = directory.resolve("out.sqlite3");
+        new SqliteExporter(db).export(model);
+        return Files.size(db);
+    }
+
+    @Benchmark
+    public long prettyTurtle() throws IOException {
+        Path ttl = directory.resolve("out.ttl");
+        try (OutputStream out = Files.newOutputStream(ttl)) {
+            model.write(out, "TTL");
+        }
+        return Files.size(ttl);
+    }
+
+    @Benchmark
+    public long turtleBlocks() throws IOException {
+        Path ttl = directory.resolve("out.ttl");
+        try (OutputStream out = Files.newOutputStream(ttl)) {
+            RDFDataMgr.write(out, model, RDFFormat.TURTLE_BLOCKS);
+        }
+        return Files.size(ttl);
+    }
+}
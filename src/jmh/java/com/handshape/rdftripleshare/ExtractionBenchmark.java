@@ -0,0 +1,117 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks what the build does with each consolidated instrument: making
+ * IDs URL-safe, counting the words in the XML, and picking the citations out
+ * of the historical notes and resolving them. Runs against the sample act
+ * and the trimmed Legis.xml in src/jmh/resources/fixtures.
+ *
+ * @author jturner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    private final RdfGatheringAgent agent = new RdfGatheringAgent();
+    private byte[] act;
+    private Document actDocument;
+    private List<String> publishedIds;
+    private List<String> citations;
+    private InstrumentReferenceResolver resolver;
+
+    @Setup
+    public void setUp() throws Exception {
+        act = fixture("C-46.xml");
+        actDocument = new SAXBuilder().build(new ByteArrayInputStream(act));
+
+        // The IDs as the Gazette and RIAS sets publish them, with slashes and spaces.
+        publishedIds = new ArrayList<>();
+        Set<String> known = new TreeSet<>();
+        Document legis = new SAXBuilder().build(new ByteArrayInputStream(fixture("Legis.xml")));
+        for (Element list : legis.getRootElement().getChildren()) {
+            for (Element instrument : list.getChildren()) {
+                String id = instrument.getChildText("UniqueId");
+                publishedIds.add(id.replace('-', '/').replace('_', ' '));
+                known.add(id);
+            }
+        }
+        citations = new StreamingInstrumentExtractor().extract("C-46", new ByteArrayInputStream(act), "C-46.xml").getCitations();
+        resolver = new InstrumentReferenceResolver(known);
+    }
+
+    @Benchmark
+    public void toUrlSafeId(Blackhole blackhole) {
+        for (String id : publishedIds) {
+            blackhole.consume(agent.toUrlSafeId(id));
+        }
+    }
+
+    /**
+     * What the word count cost when it was taken from the JDOM tree, not
+     * counting building the tree.
+     */
+    @Benchmark
+    public int collectTextAndCountWords() {
+        return agent.countWordsIn(agent.collectTextFrom(actDocument.getRootElement()).toString());
+    }
+
+    @Benchmark
+    public ConsolidatedInstrument extractWithJdom() throws Exception {
+        return agent.extractWithJdom("C-46", new SAXBuilder().build(new ByteArrayInputStream(act)));
+    }
+
+    @Benchmark
+    public ConsolidatedInstrument extractStreaming() throws Exception {
+        return new StreamingInstrumentExtractor().extract("C-46", new ByteArrayInputStream(act), "C-46.xml");
+    }
+
+    @Benchmark
+    public void tokenizeCitations(Blackhole blackhole) {
+        for (String citation : citations) {
+            blackhole.consume(InstrumentReferenceResolver.tokenize(citation));
+        }
+    }
+
+    @Benchmark
+    public void resolveCitations(Blackhole blackhole) {
+        for (String citation : citations) {
+            blackhole.consume(resolver.resolve(citation));
+        }
+    }
+
+    static byte[] fixture(String name) throws IOException {
+        try (InputStream in = ExtractionBenchmark.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IOException("No fixture named " + name);
+            }
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.handshape.rdftripleshare;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonArray;
+import org.apache.jena.atlas.json.JsonObject;
+import org.apache.jena.atlas.json.JsonValue;
+
+/**
+ * Compares two sets of JMH results, as written by the jmh profile to
+ * target/jmh-result.json, benchmark by benchmark, and exits with status 1 if
+ * any got slower by more than the threshold.
+ * <p>
+ * {@code JmhResultDiff before.json after.json [threshold percent, default 10]}
+ *
+ * @author jturner
+ */
+public class JmhResultDiff {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: JmhResultDiff before.json after.json [threshold percent]");
+            System.exit(2);
+        }
+        Map<String, JsonObject> before = read(Path.of(args[0]));
+        Map<String, JsonObject> after = read(Path.of(args[1]));
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        int regressions = 0;
+        for (Map.Entry<String, JsonObject> entry : after.entrySet()) {
+            JsonObject was = before.get(entry.getKey());
+            if (was == null) {
+                System.out.printf("%-80s %12s -> %12.3f %s (new)%n", entry.getKey(), "", score(entry.getValue()), unit(entry.getValue()));
+                continue;
+            }
+            double change = 100 * (score(entry.getValue()) - score(was)) / score(was);
+            // Throughput is better higher; every other mode is a time, better lower.
+            boolean slower = "thrpt".equals(entry.getValue().get("mode").getAsString().value()) ? change < -threshold : change > threshold;
+            if (slower) {
+                regressions++;
+            }
+            System.out.printf("%-80s %12.3f -> %12.3f %s %+7.1f%%%s%n", entry.getKey(), score(was), score(entry.getValue()), unit(entry.getValue()),
+                    change, slower ? "  SLOWER" : "");
+        }
+        for (String key : before.keySet()) {
+            if (!after.containsKey(key)) {
+                System.out.printf("%-80s (gone)%n", key);
+            }
+        }
+        System.out.printf("%d of %d benchmarks slower by more than %.0f%%%n", regressions, after.size(), threshold);
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return each result, keyed by the benchmark's name and parameters.
+     */
+    private static Map<String, JsonObject> read(Path file) throws IOException {
+        Map<String, JsonObject> results = new TreeMap<>();
+        JsonArray array;
+        try (InputStream in = Files.newInputStream(file)) {
+            array = JSON.parseAny(in).getAsArray();
+        }
+        for (JsonValue value : array) {
+            JsonObject result = value.getAsObject();
+            StringBuilder key = new StringBuilder(result.get("benchmark").getAsString().value());
+            if (result.hasKey("params")) {
+                JsonObject params = result.get("params").getAsObject();
+                for (String param : new TreeSet<>(params.keys())) {
+                    key.append(' ').append(param).append('=').append(params.get(param).getAsString().value());
+                }
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+
+    private static double score(JsonObject result) {
+        return result.get("primaryMetric").getAsObject().get("score").getAsNumber().value().doubleValue();
+    }
+
+    private static String unit(JsonObject result) {
+        return result.get("primaryMetric").getAsObject().get("scoreUnit").getAsString().value();
+    }
+}
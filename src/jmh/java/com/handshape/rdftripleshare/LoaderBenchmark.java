@@ -0,0 +1,153 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks turning the CSV sets and the Gazette's index into triples. The
+ * RIAS and metadata sets are generated at the start of each run, the same
+ * every time, at the size given by the rows parameter; departments.csv is the
+ * real one, and the index page is the fixture the tests use. Each CSV set is
+ * read both by {@link ParallelCsvReader}, as the build reads them, and by
+ * Commons CSV, as it used to; run with -prof gc to compare what each
+ * allocates per row.
+ *
+ * @author jturner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoaderBenchmark {
+
+    @Param({"50000", "1000000"})
+    public int rows;
+
+    private final RdfGatheringAgent agent = new RdfGatheringAgent();
+    private Path directory;
+    private byte[] gazetteIndex;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("loader-benchmark");
+        agent.setDepartmentsCsv(new File("csv", "departments.csv"));
+        agent.setRiasCsv(writeRias(directory.resolve("regcan.csv"), rows).toFile());
+        agent.setMetadataCsv(writeMetadata(directory.resolve("metadata.csv"), rows).toFile());
+        gazetteIndex = Files.readAllBytes(Path.of(LoaderBenchmark.class.getResource("/fixtures/gazette/index-a.html").toURI()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public void departments(Blackhole blackhole) throws Exception {
+        agent.fetchAndParseDepartments(sink(blackhole));
+    }
+
+    @Benchmark
+    public void rias(Blackhole blackhole) throws Exception {
+        agent.fetchAndParseRias(sink(blackhole), new HashSet<>());
+    }
+
+    @Benchmark
+    public void metadata(Blackhole blackhole) throws Exception {
+        agent.fetchAndParseMetadata(sink(blackhole));
+    }
+
+    @Benchmark
+    public void departmentsWithCommonsCsv(Blackhole blackhole) throws Exception {
+        agent.parseDepartmentsWithCommonsCsv(sink(blackhole));
+    }
+
+    @Benchmark
+    public void riasWithCommonsCsv(Blackhole blackhole) throws Exception {
+        agent.parseRiasWithCommonsCsv(agent.getRiasCsv(), sink(blackhole), new HashSet<>());
+    }
+
+    @Benchmark
+    public void metadataWithCommonsCsv(Blackhole blackhole) throws Exception {
+        agent.parseMetadataWithCommonsCsv(agent.getMetadataCsv(), sink(blackhole));
+    }
+
+    @Benchmark
+    public Map<String, String> gazetteIndex() throws Exception {
+        Map<String, String> statutoryInstruments = new TreeMap<>();
+        Set<String> known = new HashSet<>();
+        org.jsoup.nodes.Document doc = Jsoup.parse(new ByteArrayInputStream(gazetteIndex), null, "https://www.gazette.gc.ca/");
+        agent.parseStatutoryInstrumentIndex(doc, statutoryInstruments, known);
+        return statutoryInstruments;
+    }
+
+    private static StreamRDF sink(Blackhole blackhole) {
+        return new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                blackhole.consume(triple);
+            }
+        };
+    }
+
+    /**
+     * Writes a regcan.csv shaped like the one from UQAM.
+     */
+    static Path writeRias(Path file, int rows) throws IOException {
+        Random random = new Random(rows);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("ID,regtext,sponsor,CBA.wordcount,rias.wordcount,consultation.wordcount");
+            for (int i = 0; i < rows; i++) {
+                String id = "SOR/" + (1980 + i % 40) + "-" + i;
+                out.printf("%s,\"Registration %s %s ACT Regulations Amending the Regulations Respecting Matter %d P.C. %d-%d %s\",\"Department %d\",%d,%d,%d%n",
+                        id, id, i % 3 == 0 ? "FOOD AND DRUGS" : "FISHERIES", i, 1980 + i % 40, random.nextInt(3000),
+                        "Whereas, pursuant to subsection 30(1) of the Act, a copy of the proposed Regulations was published", random.nextInt(100),
+                        random.nextInt(5000), random.nextInt(20000), random.nextInt(3000));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes a metadata.csv shaped like the one from the Privy Council Office.
+     */
+    static Path writeMetadata(Path file, int rows) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("instrument_number,category_item_id,category_item_desc_en,category_item_desc_fr");
+            for (int i = 0; i < rows; i++) {
+                out.printf("SOR/%d-%d,%d,\"Category %d, in English\",\"Catégorie %d, en français\"%n", 1980 + i % 40, i, i % 60, i % 60, i % 60);
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,194 @@
+package com.handshape.rdftripleshare;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.lang3.mutable.MutableBoolean;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+
+/**
+ * The build from start to finish: the sources the triples are gathered from,
+ * in the order they reach the outputs, and the outputs they're published to.
+ * The same sources are refreshed one by one by the {@link RefreshDaemon}.
+ * <p>
+ * Where the triples are gathered depends on the system properties:
+ * rdfshare.streaming sends them through a sorted spill straight to the
+ * outputs, so the heap doesn't grow with the corpus; rdfshare.store=tdb2
+ * loads them into TDB2 on disk, skipping the sources whose files haven't
+ * changed since the last build, compacts it, and writes the outputs from it;
+ * otherwise they're gathered into a model in memory.
+ * <p>
+ * The statutory instruments known to the acts and regulations are added to
+ * by the Gazette index and the RIAS, so the acts and regulations wait for
+ * them; the other sources run alongside.
+ *
+ * @author jturner
+ */
+public class Build {
+
+    private static final Logger LOGGER = Logger.getLogger(Build.class.getName());
+    private static final String KNOWN = "knownStatutoryInstruments";
+
+    private final RdfGatheringAgent agent;
+    private final List<Source> sources;
+
+    /**
+     * @param agent the agent the sources gather with.
+     */
+    public Build(RdfGatheringAgent agent) {
+        this.agent = agent;
+        Set<String> known = ConcurrentHashMap.newKeySet();
+        this.sources = List.of(
+                new Source("local turtle", List.of(), List.of(), out -> {
+                    MutableBoolean pass = new MutableBoolean(true);
+                    agent.fetchAndParseLocalTurtle(out, pass);
+                    if (pass.isFalse()) {
+                        throw new IOException("RDF parsing errors occurred in the local Turtle.");
+                    }
+                }, Path.of("rdf")),
+                new Source("statutory instruments", List.of(), List.of(KNOWN), out -> agent.fetchAndParseStatutoryInstruments(out, known)),
+                new Source("departments", List.of(), List.of(), agent::fetchAndParseDepartments, agent.getDepartmentsCsv().toPath()),
+                new Source("rias", List.of(), List.of(KNOWN), out -> agent.fetchAndParseRias(out, known), agent.getRiasCsv().toPath()),
+                new Source("acts and regulations", List.of(KNOWN), List.of(KNOWN), out -> agent.fetchAndParseActsAndConsolidatedRegs(out, known)),
+                new Source("metadata", List.of(), List.of(), agent::fetchAndParseMetadata, agent.getMetadataCsv().toPath()));
+    }
+
+    /**
+     * @return the sources, in the order their triples reach the outputs.
+     */
+    public List<Source> getSources() {
+        return sources;
+    }
+
+    /**
+     * Gathers every source and publishes the outputs, gathering where the
+     * system properties say. Nothing is published if a source fails.
+     *
+     * @param release where the outputs are staged and published.
+     * @return how long each output took, and how much was written to it.
+     * @throws Exception if a source or an output fails.
+     */
+    public List<FanOutWriter.SinkReport> run(ReleaseDirectory release) throws Exception {
+        if (Boolean.getBoolean("rdfshare.streaming")) {
+            return agent.writeStreamed(out -> gather(out, null), release);
+        }
+        TdbStore store = TdbStore.fromSystemProperties();
+        if (store != null) {
+            try (store) {
+                gather(StreamRDFLib.sinkNull(), store);
+                store.compact();
+                return agent.writeStore(store, release);
+            }
+        }
+        Model model = ModelFactory.createDefaultModel();
+        gather(StreamRDFLib.graph(model.getGraph()), null);
+        LOGGER.log(Level.INFO, "Parsed {0} triples.", model.size());
+        return agent.writeModel(model, release);
+    }
+
+    /**
+     * Runs every source, side by side where they can, into the stream.
+     *
+     * @param out where the triples go.
+     * @param store the store to load each source into, so that those whose
+     * files haven't changed can be skipped, or null.
+     * @throws IOException if a source fails.
+     */
+    private void gather(StreamRDF out, TdbStore store) throws IOException {
+        Pipeline pipeline = new Pipeline();
+        for (Source source : sources) {
+            pipeline.stage(source.name, source.consumes, source.produces, stored(store, source));
+        }
+        try {
+            pipeline.run(out);
+        } finally {
+            // Closing the source finishes the corpus archive, when the build is recording one.
+            agent.getDocumentSource().close();
+            // So that the next run opens a new one, rather than writing to or reading from this one.
+            agent.setDocumentSource(null);
+        }
+        agent.getMetrics().stages(pipeline.getTimings());
+    }
+
+    /**
+     * Only a source that produces nothing the others consume, and whose
+     * inputs are local files, can be skipped when they're unchanged; the rest
+     * are loaded every time.
+     */
+    private static Pipeline.Source stored(TdbStore store, Source source) {
+        if (store == null) {
+            return source.source;
+        }
+        String fingerprint = source.produces.isEmpty() && source.inputs.length > 0 ? TdbStore.fingerprint(source.inputs) : null;
+        return store.source(source.name, fingerprint, source.source);
+    }
+
+    /**
+     * Builds once, publishing to the directory given as the argument, or to
+     * target.
+     *
+     * @param args the directory to publish to.
+     * @throws Exception if the build fails.
+     */
+    public static void main(String[] args) throws Exception {
+        new Build(new RdfGatheringAgent()).run(new ReleaseDirectory(Path.of(args.length > 0 ? args[0] : "target")));
+    }
+
+    /**
+     * One of the build's sources.
+     */
+    public static final class Source {
+
+        private final String name;
+        private final Collection<String> consumes;
+        private final Collection<String> produces;
+        private final Pipeline.Source source;
+        private final Path[] inputs;
+
+        Source(String name, Collection<String> consumes, Collection<String> produces, Pipeline.Source source, Path... inputs) {
+            this.name = name;
+            this.consumes = consumes;
+            this.produces = produces;
+            this.source = source;
+            this.inputs = inputs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the names of the shared state the source reads.
+         */
+        public Collection<String> getConsumes() {
+            return consumes;
+        }
+
+        /**
+         * @return the names of the shared state the source writes.
+         */
+        public Collection<String> getProduces() {
+            return produces;
+        }
+
+        public Pipeline.Source getSource() {
+            return source;
+        }
+
+        /**
+         * @return the files or directories the source reads, if it reads
+         * nothing else, or none.
+         */
+        public Path[] getInputs() {
+            return inputs.clone();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.handshape.rdftripleshare;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Flight Recorder events the build emits, so that a recording of a build
+ * (-XX:StartFlightRecording) shows each document's fetch and parse, each
+ * stage, and each output's export alongside the JVM's own events. They cost
+ * next to nothing when nothing is recording.
+ *
+ * @author jturner
+ */
+public final class BuildEvents {
+
+    private static final String CATEGORY = "RDF Triple Share";
+
+    private BuildEvents() {
+    }
+
+    @Name("com.handshape.rdftripleshare.Fetch")
+    @Label("Fetch")
+    @Category(CATEGORY)
+    @Description("A document fetched, through the HTTP cache or from disk")
+    public static final class Fetch extends Event {
+
+        @Label("Source")
+        String source;
+        @Label("Location")
+        String location;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("From Cache")
+        boolean fromCache;
+    }
+
+    @Name("com.handshape.rdftripleshare.Parse")
+    @Label("Parse")
+    @Category(CATEGORY)
+    @Description("A fetched document parsed into triples")
+    public static final class Parse extends Event {
+
+        @Label("Source")
+        String source;
+        @Label("Location")
+        String location;
+        @Label("Triples")
+        long triples;
+        @Label("Parse Errors")
+        int parseErrors;
+    }
+
+    @Name("com.handshape.rdftripleshare.Stage")
+    @Label("Stage")
+    @Category(CATEGORY)
+    @Description("One stage of the build's pipeline")
+    public static final class Stage extends Event {
+
+        @Label("Stage")
+        String stage;
+        @Label("Triples")
+        long triples;
+        @Label("Buffered")
+        boolean buffered;
+    }
+
+    @Name("com.handshape.rdftripleshare.Export")
+    @Label("Export")
+    @Category(CATEGORY)
+    @Description("One output written, from its start to its finish")
+    public static final class Export extends Event {
+
+        @Label("Output")
+        String output;
+        @Label("Triples")
+        long triples;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+}
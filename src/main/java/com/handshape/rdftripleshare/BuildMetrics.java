@@ -0,0 +1,486 @@
+package com.handshape.rdftripleshare;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonArray;
+import org.apache.jena.atlas.json.JsonObject;
+
+/**
+ * Where a build's time, memory and bytes went: each document fetched and
+ * parsed, summed up by source with latency histograms, each stage of the
+ * pipeline, each output, and the HTTP cache's hit rate, written out as a
+ * JSON report for dashboards to track from build to build.
+ * <p>
+ * Documents are recorded from whichever thread fetches and parses them; a
+ * document's allocation is what that thread allocated between its fetch
+ * starting and its parse ending. The matching {@link BuildEvents} are
+ * emitted as it goes.
+ *
+ * @author jturner
+ */
+public class BuildMetrics {
+
+    private static final java.lang.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final long startedMillis = System.currentTimeMillis();
+    private final List<DocumentRecord> documents = new ArrayList<>();
+    private final Map<String, SourceTotals> sources = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new TreeMap<>();
+    private final List<Pipeline.StageTiming> stages = new ArrayList<>();
+    private final List<FanOutWriter.SinkReport> outputs = new ArrayList<>();
+    private HttpResponseCache cache;
+
+    /**
+     * Starts timing a document's fetch.
+     *
+     * @param source what the document is one of, like "consolidated
+     * instruments".
+     * @param location its URL or path.
+     * @return the document, to be closed once it's been parsed, whether or
+     * not that worked.
+     */
+    public Document document(String source, String location) {
+        return new Document(source, location);
+    }
+
+    /**
+     * Adds to a named count, like the number of citations that couldn't be
+     * resolved.
+     *
+     * @param name the count's name.
+     * @param delta how much to add.
+     */
+    public synchronized void count(String name, long delta) {
+        counters.merge(name, delta, Long::sum);
+    }
+
+    /**
+     * @param timings how the pipeline's stages fared.
+     */
+    public synchronized void stages(List<Pipeline.StageTiming> timings) {
+        stages.clear();
+        stages.addAll(timings);
+    }
+
+    /**
+     * @param reports how the outputs fared.
+     */
+    public synchronized void outputs(List<FanOutWriter.SinkReport> reports) {
+        outputs.clear();
+        outputs.addAll(reports);
+    }
+
+    /**
+     * @param cache the cache the documents were fetched through, whose
+     * totals go in the report.
+     */
+    public synchronized void cache(HttpResponseCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return each source's totals, in the order they were first seen.
+     */
+    public synchronized Map<String, SourceTotals> getSources() {
+        return new LinkedHashMap<>(sources);
+    }
+
+    public synchronized Map<String, Long> getCounters() {
+        return new TreeMap<>(counters);
+    }
+
+    /**
+     * @return the bytes the current thread has allocated so far, or -1 if the
+     * JVM can't say.
+     */
+    static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes everything recorded so far as JSON.
+     *
+     * @param file where to write the report, like target/build-report.json.
+     * @throws IOException if it can't be written.
+     */
+    public synchronized void writeReport(Path file) throws IOException {
+        JsonObject report = new JsonObject();
+        report.put("startedMillis", startedMillis);
+        report.put("elapsedMillis", System.currentTimeMillis() - startedMillis);
+        report.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        report.put("usedHeapBytes", Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+
+        JsonArray stageArray = new JsonArray();
+        for (Pipeline.StageTiming timing : stages) {
+            JsonObject stage = new JsonObject();
+            stage.put("name", timing.getName());
+            stage.put("triples", timing.getTriples());
+            stage.put("startedMicros", timing.getStartedNanos() / 1000);
+            stage.put("elapsedMicros", timing.getElapsedNanos() / 1000);
+            stage.put("allocatedBytes", timing.getAllocatedBytes());
+            stage.put("buffered", !timing.isDirect());
+            stageArray.add(stage);
+        }
+        report.put("stages", stageArray);
+
+        JsonObject sourceObject = new JsonObject();
+        for (SourceTotals totals : sources.values()) {
+            JsonObject source = new JsonObject();
+            source.put("documents", totals.documents);
+            source.put("fromCache", totals.fromCache);
+            source.put("bytes", totals.bytes);
+            source.put("triples", totals.triples);
+            source.put("parseErrors", totals.parseErrors);
+            source.put("allocatedBytes", totals.allocatedBytes);
+            source.put("fetchMicros", totals.fetch.toJson());
+            source.put("parseMicros", totals.parse.toJson());
+            sourceObject.put(totals.name, source);
+        }
+        report.put("sources", sourceObject);
+
+        JsonArray outputArray = new JsonArray();
+        for (FanOutWriter.SinkReport sink : outputs) {
+            JsonObject output = new JsonObject();
+            output.put("name", sink.getName());
+            output.put("triples", sink.getTriples());
+            output.put("bytes", sink.getBytes());
+            output.put("elapsedMicros", sink.getElapsedNanos() / 1000);
+            output.put("busyMicros", sink.getBusyNanos() / 1000);
+            outputArray.add(output);
+        }
+        report.put("outputs", outputArray);
+
+        if (cache != null) {
+            JsonObject httpCache = new JsonObject();
+            httpCache.put("hits", cache.getHits());
+            httpCache.put("misses", cache.getMisses());
+            httpCache.put("bytesSaved", cache.getBytesSaved());
+            httpCache.put("bytesDownloaded", cache.getBytesDownloaded());
+            httpCache.put("bytesTransferred", cache.getFetcher().getBytesTransferred());
+            httpCache.put("requests", cache.getFetcher().getRequests());
+            httpCache.put("retries", cache.getFetcher().getRetries());
+            httpCache.put("throttled", cache.getFetcher().getThrottled());
+            report.put("httpCache", httpCache);
+        }
+
+        JsonObject counterObject = new JsonObject();
+        counters.forEach(counterObject::put);
+        report.put("counters", counterObject);
+
+        JsonArray documentArray = new JsonArray();
+        for (DocumentRecord record : documents) {
+            JsonObject document = new JsonObject();
+            document.put("source", record.source);
+            document.put("location", record.location);
+            document.put("fromCache", record.fromCache);
+            document.put("bytes", record.bytes);
+            document.put("triples", record.triples);
+            document.put("parseErrors", record.parseErrors);
+            document.put("fetchMicros", record.fetchNanos / 1000);
+            document.put("parseMicros", record.parseNanos / 1000);
+            document.put("allocatedBytes", record.allocatedBytes);
+            documentArray.add(document);
+        }
+        report.put("documents", documentArray);
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (OutputStream out = Files.newOutputStream(file)) {
+            JSON.write(out, report);
+        }
+    }
+
+    private synchronized void record(DocumentRecord record) {
+        documents.add(record);
+        sources.computeIfAbsent(record.source, SourceTotals::new).add(record);
+    }
+
+    /**
+     * One document on its way through the build: fetched, then parsed, then
+     * closed.
+     */
+    public final class Document implements AutoCloseable {
+
+        private final String source;
+        private final String location;
+        private final long startedNanos = System.nanoTime();
+        private final long startingAllocation = allocatedBytes();
+        private final BuildEvents.Fetch fetchEvent = new BuildEvents.Fetch();
+        private final BuildEvents.Parse parseEvent = new BuildEvents.Parse();
+        private long fetchedNanos;
+        private boolean fromCache;
+        private long bytes = -1;
+        private long triples;
+        private int parseErrors;
+
+        Document(String source, String location) {
+            this.source = source;
+            this.location = location;
+            fetchEvent.begin();
+        }
+
+        /**
+         * Marks the end of the fetch, and the start of the parse.
+         *
+         * @param response the document's body.
+         */
+        public void fetched(DocumentSource.Response response) {
+            fetched(response.isFromCache(), response.getLength());
+        }
+
+        /**
+         * @param fromCache whether it came from the cache.
+         * @param bytes how long it is, or -1 if that isn't known.
+         */
+        public void fetched(boolean fromCache, long bytes) {
+            fetchedNanos = System.nanoTime();
+            this.fromCache = fromCache;
+            this.bytes = bytes;
+            fetchEvent.end();
+            if (fetchEvent.shouldCommit()) {
+                fetchEvent.source = source;
+                fetchEvent.location = location;
+                fetchEvent.bytes = bytes;
+                fetchEvent.fromCache = fromCache;
+                fetchEvent.commit();
+            }
+            parseEvent.begin();
+        }
+
+        public void addTriples(long count) {
+            triples += count;
+        }
+
+        public void parseError() {
+            parseErrors++;
+        }
+
+        /**
+         * Marks the end of the parse, and records the document.
+         */
+        @Override
+        public void close() {
+            long now = System.nanoTime();
+            if (fetchedNanos == 0) {
+                // It never got as far as being parsed.
+                fetchedNanos = now;
+                parseErrors = Math.max(parseErrors, 1);
+            } else {
+                parseEvent.end();
+                if (parseEvent.shouldCommit()) {
+                    parseEvent.source = source;
+                    parseEvent.location = location;
+                    parseEvent.triples = triples;
+                    parseEvent.parseErrors = parseErrors;
+                    parseEvent.commit();
+                }
+            }
+            long allocation = allocatedBytes();
+            record(new DocumentRecord(source, location, fromCache, bytes, triples, parseErrors, fetchedNanos - startedNanos, now - fetchedNanos,
+                    startingAllocation < 0 || allocation < 0 ? -1 : allocation - startingAllocation));
+        }
+    }
+
+    private static final class DocumentRecord {
+
+        private final String source;
+        private final String location;
+        private final boolean fromCache;
+        private final long bytes;
+        private final long triples;
+        private final int parseErrors;
+        private final long fetchNanos;
+        private final long parseNanos;
+        private final long allocatedBytes;
+
+        DocumentRecord(String source, String location, boolean fromCache, long bytes, long triples, int parseErrors, long fetchNanos, long parseNanos, long allocatedBytes) {
+            this.source = source;
+            this.location = location;
+            this.fromCache = fromCache;
+            this.bytes = bytes;
+            this.triples = triples;
+            this.parseErrors = parseErrors;
+            this.fetchNanos = fetchNanos;
+            this.parseNanos = parseNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    /**
+     * The totals for every document from one source.
+     */
+    public static final class SourceTotals {
+
+        private final String name;
+        private final Histogram fetch = new Histogram();
+        private final Histogram parse = new Histogram();
+        private long documents;
+        private long fromCache;
+        private long bytes;
+        private long triples;
+        private long parseErrors;
+        private long allocatedBytes;
+
+        SourceTotals(String name) {
+            this.name = name;
+        }
+
+        void add(DocumentRecord record) {
+            documents++;
+            if (record.fromCache) {
+                fromCache++;
+            }
+            bytes += Math.max(0, record.bytes);
+            triples += record.triples;
+            parseErrors += record.parseErrors;
+            allocatedBytes += Math.max(0, record.allocatedBytes);
+            fetch.add(record.fetchNanos / 1000);
+            parse.add(record.parseNanos / 1000);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDocuments() {
+            return documents;
+        }
+
+        public long getFromCache() {
+            return fromCache;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getTriples() {
+            return triples;
+        }
+
+        public long getParseErrors() {
+            return parseErrors;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * @return how long the documents took to fetch, in microseconds.
+         */
+        public Histogram getFetch() {
+            return fetch;
+        }
+
+        /**
+         * @return how long the documents took to parse, in microseconds.
+         */
+        public Histogram getParse() {
+            return parse;
+        }
+    }
+
+    /**
+     * A histogram with a bucket for each power of two, which is plenty to
+     * tell a slow endpoint from a fast one. Percentiles are the upper bound
+     * of the bucket they fall in, or the maximum if that's lower.
+     */
+    public static final class Histogram {
+
+        private final long[] buckets = new long[64];
+        private long count;
+        private long sum;
+        private long min = Long.MAX_VALUE;
+        private long max;
+
+        void add(long value) {
+            value = Math.max(0, value);
+            buckets[64 - Long.numberOfLeadingZeros(value)]++;
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        void addAll(Histogram other) {
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                buckets[bucket] += other.buckets[bucket];
+            }
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMin() {
+            return count == 0 ? 0 : min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         * @return the value that percentile of the values are at or under.
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                seen += buckets[bucket];
+                if (seen >= rank) {
+                    long upper = bucket == 0 ? 0 : (1L << bucket) - 1;
+                    return Math.max(getMin(), Math.min(upper, max));
+                }
+            }
+            return max;
+        }
+
+        JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.put("count", count);
+            json.put("min", getMin());
+            json.put("mean", getMean());
+            json.put("p50", getPercentile(50));
+            json.put("p90", getPercentile(90));
+            json.put("p99", getPercentile(99));
+            json.put("max", max);
+            // Bucket n holds values below 2^n and at or above 2^(n-1).
+            JsonObject counts = new JsonObject();
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                if (buckets[bucket] > 0) {
+                    counts.put("<" + (1L << bucket), buckets[bucket]);
+                }
+            }
+            json.put("buckets", counts);
+            return json;
+        }
+    }
+}
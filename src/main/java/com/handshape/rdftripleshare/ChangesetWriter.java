@@ -0,0 +1,501 @@
+package com.handshape.rdftripleshare;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * Works out what changed since the previous release, and writes it out as an
+ * RDF Patch, and as a SQL script that brings the previous release's
+ * out.sqlite3 up to date without rebuilding it.
+ * <p>
+ * The triples sent to this stream, and the triples in the previous release's
+ * artifact (N-Triples, Turtle or RDF Thrift, by its extension), are each put
+ * through an {@link ExternalSortingSink} into a file of sorted N-Triples
+ * lines. The two files are then merged line by line: a line only in the old
+ * one was removed, and a line only in the new one was added. Neither graph is
+ * ever held in memory, and the work is one sort of each plus one pass over
+ * both.
+ * <p>
+ * The db stores literals by their lexical forms alone, so triples that differ
+ * only in a literal's language or datatype are the same row. Those triples
+ * sort next to each other, so the rows are worked out a run of lines at a
+ * time: in the rows layout, the difference in the count of lines is inserted
+ * or deleted, and in the others, where each row is stored once, the row is
+ * only deleted once none of its lines are left.
+ * <p>
+ * If the db indexes literals for full-text search, the delta keeps its
+ * LITERALS table in step too, where there's a row for each line: one is
+ * deleted for each line removed, and inserted for each line added, whose
+ * predicate is indexed. The predicates are taken to be the ones the db was
+ * built with, as the layout is.
+ * <p>
+ * The short forms in the db depend on the prefixes, so if the previous
+ * artifact declares prefixes and they differ from this build's, no SQL delta
+ * is written, and the db has to be rebuilt. An N-Triples artifact has no
+ * prefixes, so they're taken to be unchanged. Nor is one written for a db
+ * with the closure tables, since those would take the whole graph to bring
+ * up to date. Blank nodes only match across builds if they were given the
+ * same labels.
+ *
+ * @author jturner
+ */
+public class ChangesetWriter implements StreamRDF, AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(ChangesetWriter.class.getName());
+
+    private final String previous;
+    private final Path patchFile;
+    private final Path sqlFile;
+    private final Path spillDirectory;
+    private final Map<String, String> prefixes = new LinkedHashMap<>();
+    private SqliteExporter.Layout layout = SqliteExporter.Layout.valueOf(System.getProperty("rdfshare.sqlite.layout", "rows").toUpperCase(Locale.ROOT));
+    private Set<String> fullTextPredicates = SqliteExporter.fullTextPredicatesFromSystemProperties();
+    private boolean closures = Boolean.getBoolean("rdfshare.sqlite.closures");
+    private ExternalSortingSink current;
+    private Writer currentLines;
+    private long added;
+    private long removed;
+    private boolean sqlWritten;
+
+    /**
+     * @param previous the previous release's artifact, as a file path or URL.
+     * @param patchFile where the RDF Patch is written.
+     * @param sqlFile where the SQL delta is written.
+     * @param spillDirectory where the sorts spill to; cleared away afterwards.
+     */
+    public ChangesetWriter(String previous, Path patchFile, Path sqlFile, Path spillDirectory) {
+        this.previous = previous;
+        this.patchFile = patchFile;
+        this.sqlFile = sqlFile;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * @param layout the layout of the db the SQL delta will be applied to;
+     * rdfshare.sqlite.layout by default, as for the {@link SqliteExporter}.
+     * @return this writer.
+     */
+    public ChangesetWriter setLayout(SqliteExporter.Layout layout) {
+        this.layout = layout;
+        return this;
+    }
+
+    /**
+     * @param predicates the predicates whose literals the db indexes for
+     * full-text search, {@link SqliteExporter#ALL_PREDICATES} for all of
+     * them, or null if it has no full-text index; as for the
+     * {@link SqliteExporter} by default.
+     * @return this writer.
+     */
+    public ChangesetWriter setFullText(Collection<String> predicates) {
+        this.fullTextPredicates = predicates == null ? null : new TreeSet<>(predicates);
+        return this;
+    }
+
+    /**
+     * @param closures whether the db has the closure tables described in
+     * {@link ClosureTables}, in which case no SQL delta is written;
+     * rdfshare.sqlite.closures by default, as for the {@link SqliteExporter}.
+     * @return this writer.
+     */
+    public ChangesetWriter setClosures(boolean closures) {
+        this.closures = closures;
+        return this;
+    }
+
+    /**
+     * @return how many triples were added since the previous release.
+     */
+    public long getAdded() {
+        return added;
+    }
+
+    /**
+     * @return how many triples were removed since the previous release.
+     */
+    public long getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return whether a SQL delta was written; it isn't when the prefixes
+     * changed, or the db has closure tables.
+     */
+    public boolean isSqlWritten() {
+        return sqlWritten;
+    }
+
+    /**
+     * @return how many bytes of patch and SQL were written.
+     */
+    public long getBytes() {
+        try {
+            return (Files.exists(patchFile) ? Files.size(patchFile) : 0) + (Files.exists(sqlFile) ? Files.size(sqlFile) : 0);
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void start() {
+        try {
+            FileUtils.deleteDirectory(spillDirectory.toFile());
+            Files.createDirectories(spillDirectory);
+            currentLines = Files.newBufferedWriter(spillDirectory.resolve("current.nt"), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to set up " + spillDirectory, ex);
+        }
+        current = new ExternalSortingSink(spillDirectory, new LineWriter(currentLines, new LinkedHashMap<>()));
+        current.start();
+        added = 0;
+        removed = 0;
+        sqlWritten = false;
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        current.triple(triple);
+    }
+
+    @Override
+    public void quad(Quad quad) {
+        triple(quad.asTriple());
+    }
+
+    @Override
+    public void base(String base) {
+    }
+
+    @Override
+    public void prefix(String prefix, String iri) {
+        prefixes.put(prefix, iri);
+    }
+
+    /**
+     * Sorts the previous release's triples, and writes the patch and the SQL
+     * delta.
+     */
+    @Override
+    public void finish() {
+        try {
+            current.finish();
+            currentLines.close();
+            Map<String, String> previousPrefixes = new LinkedHashMap<>();
+            Path previousLines = spillDirectory.resolve("previous.nt");
+            try (Writer out = Files.newBufferedWriter(previousLines, StandardCharsets.UTF_8)) {
+                ExternalSortingSink sorted = new ExternalSortingSink(spillDirectory, new LineWriter(out, previousPrefixes));
+                sorted.start();
+                // The parser starts and finishes the stream itself for some syntaxes and not others, so it's done here, once.
+                RDFParser.source(previous).checking(false).labelToNode(LabelToNode.createUseLabelEncoded()).build().parse(new StreamRDFWrapper(sorted) {
+                    @Override
+                    public void start() {
+                    }
+
+                    @Override
+                    public void finish() {
+                    }
+                });
+                sorted.finish();
+            }
+            boolean prefixesChanged = !previousPrefixes.isEmpty() && !previousPrefixes.equals(prefixes);
+            diff(previousLines, spillDirectory.resolve("current.nt"), previousPrefixes, !prefixesChanged && !closures);
+            if (prefixesChanged) {
+                LOGGER.warning("The prefixes changed since " + previous + ", so there's no SQL delta; the db has to be rebuilt.");
+            } else if (closures) {
+                LOGGER.warning("The db has closure tables, which a SQL delta can't bring up to date, so there's none; the db has to be rebuilt.");
+            }
+            LOGGER.log(Level.INFO, "Changes since {0}: {1} triples added, {2} removed.", new Object[]{previous, added, removed});
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to write the changes since " + previous, ex);
+        } finally {
+            try {
+                FileUtils.deleteDirectory(spillDirectory.toFile());
+            } catch (IOException ex) {
+                LOGGER.warning("Failed to clear away " + spillDirectory + ": " + ex);
+            }
+        }
+    }
+
+    /**
+     * Abandons a changeset that hasn't finished: closes the sorted lines so
+     * far and clears away the spill, leaving the patch and the SQL delta as
+     * they were.
+     */
+    @Override
+    public void close() {
+        try {
+            if (currentLines != null) {
+                currentLines.close();
+            }
+        } catch (IOException ex) {
+            // It's about to be deleted.
+        }
+        if (current != null) {
+            current.close();
+        }
+        FileUtils.deleteQuietly(spillDirectory.toFile());
+    }
+
+    private void diff(Path before, Path after, Map<String, String> previousPrefixes, boolean writeSql) throws IOException {
+        Files.deleteIfExists(sqlFile);
+        PrefixTrie shortForms = new PrefixTrie(prefixes);
+        try (BufferedReader old = Files.newBufferedReader(before, StandardCharsets.UTF_8);
+                BufferedReader fresh = Files.newBufferedReader(after, StandardCharsets.UTF_8);
+                Writer patch = Files.newBufferedWriter(patchFile, StandardCharsets.UTF_8);
+                Writer sql = writeSql ? Files.newBufferedWriter(sqlFile, StandardCharsets.UTF_8) : Writer.nullWriter()) {
+            patch.write("H id <uuid:" + UUID.randomUUID() + "> .\n");
+            patch.write("TX .\n");
+            for (Map.Entry<String, String> prefix : previousPrefixes.entrySet()) {
+                if (!prefix.getValue().equals(prefixes.get(prefix.getKey()))) {
+                    patch.write("PD " + prefix.getKey() + ": .\n");
+                }
+            }
+            for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+                if (!prefix.getValue().equals(previousPrefixes.get(prefix.getKey()))) {
+                    patch.write("PA " + prefix.getKey() + ": <" + prefix.getValue() + "> .\n");
+                }
+            }
+            sql.write("-- Brings the " + layout.name().toLowerCase(Locale.ROOT) + " layout db of " + previous + " up to date.\n");
+            sql.write("BEGIN TRANSACTION;\n");
+            Run run = new Run();
+            String oldLine = old.readLine();
+            String newLine = fresh.readLine();
+            String last = null;
+            while (oldLine != null || newLine != null) {
+                int order = oldLine == null ? 1 : newLine == null ? -1 : oldLine.compareTo(newLine);
+                String line = order <= 0 ? oldLine : newLine;
+                if (last != null && line.compareTo(last) <= 0) {
+                    throw new IllegalStateException("The sorted triples are out of order at " + line);
+                }
+                last = line;
+                if (!run.holds(line)) {
+                    run.write(sql, shortForms);
+                    run.reset(line);
+                }
+                if (order < 0) {
+                    patch.write("D " + line + "\n");
+                    literal(sql, shortForms, line, false);
+                    removed++;
+                    run.old++;
+                    oldLine = old.readLine();
+                } else if (order > 0) {
+                    patch.write("A " + line + "\n");
+                    literal(sql, shortForms, line, true);
+                    added++;
+                    run.fresh++;
+                    newLine = fresh.readLine();
+                } else {
+                    run.old++;
+                    run.fresh++;
+                    oldLine = old.readLine();
+                    newLine = fresh.readLine();
+                }
+            }
+            run.write(sql, shortForms);
+            patch.write("TC .\n");
+            sql.write("COMMIT;\n");
+            sql.write("ANALYZE;\n");
+        }
+        sqlWritten = writeSql;
+    }
+
+    /**
+     * Writes the change to the full-text index for a line that was added or
+     * removed, if it's a literal whose predicate is indexed.
+     */
+    private void literal(Writer sql, PrefixTrie shortForms, String line, boolean add) throws IOException {
+        if (fullTextPredicates == null || rowKey(line).length() == line.length()) {
+            return;
+        }
+        Triple triple = parse(line);
+        if (!triple.getSubject().isURI() || !triple.getObject().isLiteral()
+                || !(fullTextPredicates.contains(SqliteExporter.ALL_PREDICATES) || fullTextPredicates.contains(triple.getPredicate().getURI()))) {
+            return;
+        }
+        String text = quote(triple.getObject().getLiteralLexicalForm());
+        String lang = triple.getObject().getLiteralLanguage().isEmpty() ? "NULL" : quote(triple.getObject().getLiteralLanguage());
+        String s = quote(shortForms.shortForm(triple.getSubject().getURI()));
+        String p = quote(shortForms.shortForm(triple.getPredicate().getURI()));
+        if (add) {
+            sql.write("INSERT INTO LITERALS (TEXT, LANG, SUBJECT, PREDICATE) VALUES (" + text + ", " + lang + ", " + s + ", " + p + ");\n");
+        } else {
+            // Lines that differ only in their datatype are identical rows, so any one of them will do.
+            sql.write("DELETE FROM LITERALS WHERE rowid = (SELECT rowid FROM LITERALS WHERE SUBJECT = " + s + " AND PREDICATE = " + p
+                    + " AND TEXT = " + text + " AND LANG IS " + lang + " LIMIT 1);\n");
+        }
+    }
+
+    /**
+     * Applies a SQL delta to a db, one statement per line, as it was written.
+     *
+     * @param sqlFile the delta.
+     * @param db the db to bring up to date.
+     * @throws IOException if the delta can't be read.
+     * @throws SQLException if a statement fails; the transaction it was in is
+     * never committed, so the db is left as it was.
+     */
+    public static void apply(Path sqlFile, Path db) throws IOException, SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+                Statement stmt = conn.createStatement();
+                BufferedReader in = Files.newBufferedReader(sqlFile, StandardCharsets.UTF_8)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (!line.isBlank() && !line.startsWith("--")) {
+                    stmt.execute(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param text a string.
+     * @return it as a SQL string literal on a single line.
+     */
+    static String quote(String text) {
+        return "'" + text.replace("'", "''").replace("\r", "' || char(13) || '").replace("\n", "' || char(10) || '") + "'";
+    }
+
+    /**
+     * @param line an N-Triples line.
+     * @return the part of it that decides its row in the db: all of it, or
+     * for a literal, up to the closing quote.
+     */
+    static String rowKey(String line) {
+        int quote = line.lastIndexOf('"');
+        return quote < 0 ? line : line.substring(0, quote + 1);
+    }
+
+    /**
+     * A run of lines that are all the same row in the db, with how many of
+     * them were in each build.
+     */
+    private class Run {
+
+        private String key;
+        private String line;
+        private int old;
+        private int fresh;
+
+        boolean holds(String line) {
+            return key != null && line.startsWith(key) && rowKey(line).length() == key.length();
+        }
+
+        void reset(String line) {
+            this.key = rowKey(line);
+            this.line = line;
+            old = 0;
+            fresh = 0;
+        }
+
+        void write(Writer sql, PrefixTrie shortForms) throws IOException {
+            if (key == null || old == fresh || (layout != SqliteExporter.Layout.ROWS && old > 0 && fresh > 0)) {
+                return;
+            }
+            Triple triple = parse(line);
+            if (!triple.getSubject().isURI() || !triple.getPredicate().isURI()) {
+                // The db doesn't hold these.
+                return;
+            }
+            String s = quote(shortForms.shortForm(triple.getSubject().getURI()));
+            String p = quote(shortForms.shortForm(triple.getPredicate().getURI()));
+            String o = quote(SqliteExporter.objectTerm(shortForms, triple.getObject()));
+            String match = "SUBJECT = " + s + " AND PREDICATE = " + p + " AND OBJECT = " + o;
+            switch (layout) {
+                case DICTIONARY:
+                    if (fresh == 0) {
+                        sql.write("DELETE FROM TRIPLE_IDS WHERE SUBJECT = (SELECT ID FROM TERMS WHERE TERM = " + s + ") AND PREDICATE = (SELECT ID FROM TERMS WHERE TERM = " + p
+                                + ") AND OBJECT = (SELECT ID FROM TERMS WHERE TERM = " + o + ");\n");
+                    } else {
+                        for (String term : new String[]{s, p, o}) {
+                            sql.write("INSERT OR IGNORE INTO TERMS (TERM) VALUES (" + term + ");\n");
+                        }
+                        sql.write("INSERT OR IGNORE INTO TRIPLE_IDS (SUBJECT, PREDICATE, OBJECT) SELECT S.ID, P.ID, O.ID FROM TERMS S, TERMS P, TERMS O WHERE S.TERM = " + s
+                                + " AND P.TERM = " + p + " AND O.TERM = " + o + ";\n");
+                    }
+                    break;
+                case RANGE:
+                    if (fresh == 0) {
+                        sql.write("DELETE FROM TRIPLES WHERE " + match + ";\n");
+                    } else {
+                        sql.write("INSERT OR IGNORE INTO TRIPLES (SUBJECT, PREDICATE, OBJECT) VALUES (" + s + ", " + p + ", " + o + ");\n");
+                    }
+                    break;
+                default:
+                    if (fresh < old) {
+                        sql.write("DELETE FROM TRIPLES WHERE ID IN (SELECT ID FROM TRIPLES WHERE " + match + " LIMIT " + (old - fresh) + ");\n");
+                    }
+                    for (int i = old; i < fresh; i++) {
+                        sql.write("INSERT INTO TRIPLES (SUBJECT, PREDICATE, OBJECT) VALUES (" + s + ", " + p + ", " + o + ");\n");
+                    }
+                    break;
+            }
+        }
+    }
+
+    private static Triple parse(String line) {
+        Triple[] parsed = new Triple[1];
+        RDFParser.fromString(line).lang(Lang.NTRIPLES).labelToNode(LabelToNode.createUseLabelEncoded()).build().parse(new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                parsed[0] = triple;
+            }
+        });
+        return parsed[0];
+    }
+
+    /**
+     * Writes sorted triples out as N-Triples lines, in exactly the form they
+     * were sorted in, and keeps the prefixes that came with them.
+     */
+    private static class LineWriter extends StreamRDFBase {
+
+        private final Writer out;
+        private final Map<String, String> prefixes;
+
+        LineWriter(Writer out, Map<String, String> prefixes) {
+            this.out = out;
+            this.prefixes = prefixes;
+        }
+
+        @Override
+        public void prefix(String prefix, String iri) {
+            prefixes.put(prefix, iri);
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            try {
+                out.write(ExternalSortingSink.line(triple));
+                out.write('\n');
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+}
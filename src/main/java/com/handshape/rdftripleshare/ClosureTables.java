@@ -0,0 +1,144 @@
+package com.handshape.rdftripleshare;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Works out, once at build time, what clients would otherwise find by walking
+ * TRIPLES one hop at a time, and writes it to the db alongside it:
+ * <ul>
+ * <li>AMENDMENTS (INSTRUMENT, AMENDER, DEPTH): everything that ever amended
+ * an instrument, directly (at depth 1) or by amending an amendment.</li>
+ * <li>ACT_INSTRUMENTS (ACT, INSTRUMENT, DEPTH): the regulations an act
+ * enables (at depth 1), and everything that amended them, deeper down.</li>
+ * <li>PREDICATE_STATS (PREDICATE, TRIPLES, SUBJECTS, OBJECTS, MAX_OUT_DEGREE,
+ * MAX_IN_DEGREE): how many triples use each predicate, between how many
+ * subjects and objects, and the most any one subject or object has.</li>
+ * </ul>
+ * The closures are clustered on their first column, with a covering index
+ * the other way round, so "everything that ever amended X" and "everything X
+ * ever amended" are each one range read. Depths are the fewest hops, and
+ * cycles are followed only once. Terms are in the same short forms as
+ * TRIPLES, and rows are written in key order, so the tables pack tightly.
+ * <p>
+ * The amendment and enabling edges are held in memory while the closures are
+ * worked out; they're a small part of the triples.
+ *
+ * @author jturner
+ */
+final class ClosureTables {
+
+    private static final String AMENDS = "https://laws-lois.justice.gc.ca/ext/amends-instrument";
+    private static final String CONSOLIDATES = "https://laws-lois.justice.gc.ca/ext/consolidates";
+    private static final String ENABLING_ACT = "https://laws-lois.justice.gc.ca/ext/enabling-act";
+    private static final String ENABLES_REGULATION = "https://laws-lois.justice.gc.ca/ext/enables-regulation";
+
+    private final Connection conn;
+    private final PrefixTrie shortForms;
+    private final int maxDepth;
+    private final int batchSize;
+    private int batched;
+
+    /**
+     * @param conn the db, with TRIPLES loaded and indexed.
+     * @param shortForms the prefixes TRIPLES was written with.
+     * @param maxDepth the most hops to follow, or 0 for no limit.
+     * @param batchSize how many rows to send per JDBC batch.
+     */
+    ClosureTables(Connection conn, PrefixTrie shortForms, int maxDepth, int batchSize) {
+        this.conn = conn;
+        this.shortForms = shortForms;
+        this.maxDepth = maxDepth;
+        this.batchSize = batchSize;
+    }
+
+    void write() throws IOException, SQLException {
+        SqliteExporter.runScript(conn, "/ddl-closures.sql");
+        Map<String, Set<String>> amendedBy = new TreeMap<>();
+        edges(AMENDS, amendedBy, true);
+        edges(CONSOLIDATES, amendedBy, false);
+        Map<String, Set<String>> enables = new TreeMap<>();
+        edges(ENABLES_REGULATION, enables, false);
+        edges(ENABLING_ACT, enables, true);
+        conn.setAutoCommit(false);
+        try (PreparedStatement amendments = conn.prepareStatement("INSERT INTO AMENDMENTS (INSTRUMENT, AMENDER, DEPTH) VALUES (?, ?, ?)");
+                PreparedStatement hierarchy = conn.prepareStatement("INSERT INTO ACT_INSTRUMENTS (ACT, INSTRUMENT, DEPTH) VALUES (?, ?, ?)")) {
+            for (Map.Entry<String, Set<String>> instrument : amendedBy.entrySet()) {
+                insert(amendments, instrument.getKey(), walk(instrument.getKey(), instrument.getValue(), amendedBy));
+            }
+            for (Map.Entry<String, Set<String>> act : enables.entrySet()) {
+                insert(hierarchy, act.getKey(), walk(act.getKey(), act.getValue(), amendedBy));
+            }
+            amendments.executeBatch();
+            hierarchy.executeBatch();
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        SqliteExporter.runScript(conn, "/indexes-closures.sql");
+        SqliteExporter.runScript(conn, "/stats-closures.sql");
+    }
+
+    /**
+     * Adds the edges for a predicate to a map, from subject to object, or
+     * from object to subject.
+     */
+    private void edges(String predicate, Map<String, Set<String>> edges, boolean reversed) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT SUBJECT, OBJECT FROM TRIPLES WHERE PREDICATE = ?")) {
+            stmt.setString(1, shortForms.shortForm(predicate));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String from = reversed ? rs.getString(2) : rs.getString(1);
+                    String to = reversed ? rs.getString(1) : rs.getString(2);
+                    edges.computeIfAbsent(from, key -> new LinkedHashSet<>()).add(to);
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks breadth first from the first hop, then on along the amendments.
+     *
+     * @return each node reached, other than the origin, at the fewest hops
+     * it was reached in.
+     */
+    private List<Map.Entry<String, Integer>> walk(String origin, Set<String> firstHop, Map<String, Set<String>> amendedBy) {
+        List<Map.Entry<String, Integer>> reached = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        seen.add(origin);
+        List<String> frontier = new ArrayList<>(firstHop);
+        for (int depth = 1; !frontier.isEmpty() && (maxDepth == 0 || depth <= maxDepth); depth++) {
+            List<String> next = new ArrayList<>();
+            for (String node : frontier) {
+                if (seen.add(node)) {
+                    reached.add(Map.entry(node, depth));
+                    next.addAll(amendedBy.getOrDefault(node, Set.of()));
+                }
+            }
+            frontier = next;
+        }
+        return reached;
+    }
+
+    private void insert(PreparedStatement stmt, String origin, List<Map.Entry<String, Integer>> reached) throws SQLException {
+        for (Map.Entry<String, Integer> node : reached) {
+            stmt.setString(1, origin);
+            stmt.setString(2, node.getKey());
+            stmt.setInt(3, node.getValue());
+            stmt.addBatch();
+            if (++batched % batchSize == 0) {
+                stmt.executeBatch();
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.handshape.rdftripleshare;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What we extract from a single consolidated act or regulation: how long it
+ * is, how many sections it has, and the raw citations in its historical notes.
+ * Citations are kept unresolved, so that they can be resolved again against a
+ * later build's set of known instruments.
+ *
+ * @author jturner
+ */
+public class ConsolidatedInstrument {
+
+    private final String instrumentId;
+    private int wordCount;
+    private int sectionCount;
+    private final List<String> citations = new ArrayList<>();
+
+    public ConsolidatedInstrument(String instrumentId) {
+        this.instrumentId = instrumentId;
+    }
+
+    public String getInstrumentId() {
+        return instrumentId;
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public void setWordCount(int wordCount) {
+        this.wordCount = wordCount;
+    }
+
+    public int getSectionCount() {
+        return sectionCount;
+    }
+
+    public void setSectionCount(int sectionCount) {
+        this.sectionCount = sectionCount;
+    }
+
+    /**
+     * @return the trimmed historical note citations, in document order.
+     */
+    public List<String> getCitations() {
+        return citations;
+    }
+}
@@ -0,0 +1,90 @@
+package com.handshape.rdftripleshare;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A corpus of upstream documents recorded by a {@link CorpusRecorder}, served
+ * back exactly as they were recorded, so that a build can be repeated
+ * offline, byte for byte.
+ * <p>
+ * The archive is an ordinary zip, with each document stored under its URL's
+ * host, path and query, like
+ * "laws-lois.justice.gc.ca/eng/XML/Legis.xml", so it can be unpacked and
+ * looked through by hand.
+ *
+ * @author jturner
+ */
+public class CorpusArchive implements DocumentSource {
+
+    private final ZipFile zip;
+
+    /**
+     * @param file the archive.
+     * @throws IOException if it can't be opened.
+     */
+    public CorpusArchive(Path file) throws IOException {
+        this.zip = new ZipFile(file.toFile());
+    }
+
+    /**
+     * @param url a document's URL.
+     * @return the name the document is stored under. The scheme and port
+     * aren't part of it, so a corpus recorded from a local stand-in can be
+     * replayed on any port.
+     */
+    public static String entryName(URL url) {
+        StringBuilder name = new StringBuilder(url.getHost()).append(url.getPath().isEmpty() ? "/" : url.getPath());
+        if (url.getQuery() != null) {
+            name.append('?').append(url.getQuery());
+        }
+        if (name.charAt(name.length() - 1) == '/') {
+            // Names ending in a slash are directories, as far as zips are concerned.
+            name.append("index");
+        }
+        return name.toString();
+    }
+
+    @Override
+    public Response open(URL url) throws IOException {
+        ZipEntry entry = entry(entryName(url));
+        if (entry == null) {
+            throw new FileNotFoundException("Not in the corpus archive: " + url.toExternalForm());
+        }
+        return new Response(zip.getInputStream(entry), true, entry.getSize());
+    }
+
+    /**
+     * @return the names of the documents in the archive, in the order they
+     * were recorded.
+     */
+    public List<String> names() {
+        List<String> names = new ArrayList<>();
+        for (ZipEntry entry : Collections.list(zip.entries())) {
+            names.add(entry.getName());
+        }
+        return names;
+    }
+
+    ZipEntry entry(String name) {
+        ZipEntry entry = zip.getEntry(name);
+        return entry == null || entry.isDirectory() ? null : entry;
+    }
+
+    InputStream open(ZipEntry entry) throws IOException {
+        return zip.getInputStream(entry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+}
@@ -0,0 +1,98 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Fetches documents from another source and keeps a copy of every one in a
+ * {@link CorpusArchive}, which is only put in place, replacing any earlier
+ * one, once the recorder is closed.
+ * <p>
+ * Each document is read in full before it's handed on, which is no burden
+ * for the sizes involved.
+ *
+ * @author jturner
+ */
+public class CorpusRecorder implements DocumentSource {
+
+    // A fixed time for every entry, so the same documents recorded in the same order make the same archive.
+    private static final long ENTRY_TIME = 946684800000L;
+
+    private final Path archive;
+    private final Path temp;
+    private final DocumentSource delegate;
+    private final ZipOutputStream zip;
+    private final Set<String> recorded = new HashSet<>();
+
+    /**
+     * @param archive where to write the archive.
+     * @param delegate where to fetch the documents from.
+     * @throws IOException if the archive can't be started.
+     */
+    public CorpusRecorder(Path archive, DocumentSource delegate) throws IOException {
+        this.archive = archive;
+        this.delegate = delegate;
+        Path directory = archive.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        temp = Files.createTempFile(directory, "corpus", ".zip.tmp");
+        zip = new ZipOutputStream(Files.newOutputStream(temp));
+    }
+
+    @Override
+    public Response open(URL url) throws IOException {
+        byte[] body;
+        boolean fromCache;
+        try (Response in = delegate.open(url)) {
+            body = in.readAllBytes();
+            fromCache = in.isFromCache();
+        }
+        String name = CorpusArchive.entryName(url);
+        synchronized (zip) {
+            // Documents fetched more than once in a build, like Legis.xml, are only kept once.
+            if (recorded.add(name)) {
+                ZipEntry entry = new ZipEntry(name);
+                entry.setTime(ENTRY_TIME);
+                zip.putNextEntry(entry);
+                zip.write(body);
+                zip.closeEntry();
+            }
+        }
+        return new Response(new ByteArrayInputStream(body), fromCache, body.length);
+    }
+
+    /**
+     * @return how many documents have been recorded so far.
+     */
+    public int getRecorded() {
+        synchronized (zip) {
+            return recorded.size();
+        }
+    }
+
+    /**
+     * Finishes the archive and moves it into place.
+     *
+     * @throws IOException if it can't be.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (zip) {
+            zip.close();
+        }
+        try {
+            Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING);
+        }
+        delegate.close();
+    }
+}
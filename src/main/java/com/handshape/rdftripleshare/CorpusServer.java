@@ -0,0 +1,311 @@
+package com.handshape.rdftripleshare;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Serves a {@link CorpusArchive} over HTTP on the loopback interface, with
+ * as much latency, as little bandwidth, and as many failures as asked for, so
+ * that a build can be timed against a realistic network on a box with no
+ * access to the real one.
+ * <p>
+ * Documents are served at their archive names, under {@link #baseUrl()}, with
+ * the archive's CRC as their ETag, and gzipped for clients that ask. Failures
+ * are 503s, chosen at random from a fixed seed, so a given run of requests
+ * fails the same way every time.
+ *
+ * @author jturner
+ */
+public class CorpusServer implements Closeable {
+
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    private final CorpusArchive archive;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "corpus-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger gzipped = new AtomicInteger();
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile double failureRate;
+    private Random random = new Random(0);
+
+    /**
+     * Starts serving the archive.
+     *
+     * @param archive the documents to serve.
+     * @param port the port to listen on, or 0 for any free one.
+     * @throws IOException if the server can't be started.
+     */
+    public CorpusServer(CorpusArchive archive, int port) throws IOException {
+        this.archive = archive;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Starts serving the archive as the "rdfshare.corpus.replay.*" system
+     * properties say: port (any free one by default), latency-ms (0),
+     * bytes-per-second (0, for as fast as it'll go) and failure-rate (0, a
+     * fraction of requests).
+     *
+     * @param archive the documents to serve.
+     * @return the running server.
+     * @throws IOException if the server can't be started.
+     */
+    public static CorpusServer fromSystemProperties(CorpusArchive archive) throws IOException {
+        CorpusServer server = new CorpusServer(archive, Integer.getInteger("rdfshare.corpus.replay.port", 0));
+        server.setLatencyMillis(Long.getLong("rdfshare.corpus.replay.latency-ms", 0));
+        server.setBytesPerSecond(Long.getLong("rdfshare.corpus.replay.bytes-per-second", 0));
+        server.setFailureRate(Double.parseDouble(System.getProperty("rdfshare.corpus.replay.failure-rate", "0")));
+        return server;
+    }
+
+    /**
+     * @param latencyMillis how long to wait before answering each request.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param bytesPerSecond how fast to send each body, or 0 for as fast as
+     * possible.
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param failureRate the fraction of requests, from 0 to 1, to answer
+     * with a 503.
+     */
+    public void setFailureRate(double failureRate) {
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("The failure rate has to be between 0 and 1");
+        }
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @param seed what to seed the choice of failures with.
+     */
+    public synchronized void setSeed(long seed) {
+        random = new Random(seed);
+    }
+
+    public String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @param original a document's upstream URL.
+     * @return where this server serves it.
+     * @throws IOException if the URL can't be made.
+     */
+    public URL urlFor(URL original) throws IOException {
+        return new URL(baseUrl() + CorpusArchive.entryName(original));
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return how many responses were sent gzipped.
+     */
+    public int getGzipped() {
+        return gzipped.get();
+    }
+
+    /**
+     * @return a source that fetches each document from this server through
+     * the build's {@link HttpFetcher}, without any caching; closing it stops
+     * the server and closes the archive.
+     */
+    public DocumentSource source() {
+        return source(HttpFetcher.getDefault());
+    }
+
+    /**
+     * @param fetcher what to fetch through.
+     * @return a source that fetches each document from this server, without
+     * any caching; closing it stops the server and closes the archive.
+     */
+    public DocumentSource source(HttpFetcher fetcher) {
+        return new DocumentSource() {
+            @Override
+            public Response open(URL url) throws IOException {
+                URL served = urlFor(url);
+                HttpFetcher.Result result = fetcher.fetch(served, Map.of());
+                if (result.getStatus() != HttpURLConnection.HTTP_OK) {
+                    result.close();
+                    throw new IOException("HTTP " + result.getStatus() + " fetching " + url.toExternalForm() + " from " + served.toExternalForm());
+                }
+                return new Response(result.getBody(), false, -1);
+            }
+
+            @Override
+            public void close() throws IOException {
+                CorpusServer.this.close();
+            }
+        };
+    }
+
+    private boolean fails() {
+        if (failureRate == 0) {
+            return false;
+        }
+        synchronized (this) {
+            return random.nextDouble() < failureRate;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            String name = exchange.getRequestURI().getRawPath().substring(1);
+            if (exchange.getRequestURI().getRawQuery() != null) {
+                name += "?" + exchange.getRequestURI().getRawQuery();
+            }
+            ZipEntry entry = archive.entry(name);
+            if (fails()) {
+                failures.incrementAndGet();
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAVAILABLE, -1);
+                return;
+            } else if (entry == null) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+                return;
+            }
+            String etag = "\"" + Long.toHexString(entry.getCrc()) + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                return;
+            }
+            String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (accepted != null && accepted.contains("gzip")) {
+                gzipped.incrementAndGet();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+                // The pacing applies to the compressed bytes, as it would on a real link.
+                try (InputStream in = archive.open(entry); OutputStream out = new GZIPOutputStream(new PacedOutputStream(exchange.getResponseBody(), bytesPerSecond))) {
+                    in.transferTo(out);
+                }
+            } else {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, entry.getSize());
+                try (InputStream in = archive.open(entry); OutputStream out = new PacedOutputStream(exchange.getResponseBody(), bytesPerSecond)) {
+                    in.transferTo(out);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Holds writes back to a given number of bytes per second, if any.
+     */
+    private static class PacedOutputStream extends FilterOutputStream {
+
+        private final long bytesPerSecond;
+        private final long started = System.nanoTime();
+        private long sent;
+
+        PacedOutputStream(OutputStream out, long bytesPerSecond) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            for (int written = 0; written < length;) {
+                int chunk = Math.min(CHUNK_BYTES, length - written);
+                out.write(buffer, offset + written, chunk);
+                written += chunk;
+                sent += chunk;
+                if (bytesPerSecond > 0) {
+                    // Hold back until the bytes sent so far are due.
+                    long aheadNanos = sent * 1_000_000_000L / bytesPerSecond - (System.nanoTime() - started);
+                    if (aheadNanos > 0) {
+                        out.flush();
+                        try {
+                            Thread.sleep(aheadNanos / 1_000_000, (int) (aheadNanos % 1_000_000));
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops serving, and closes the archive.
+     *
+     * @throws IOException if the archive can't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        server.stop(0);
+        executor.shutdownNow();
+        archive.close();
+    }
+
+    /**
+     * Serves an archive until killed, as the rdfshare.corpus.replay.* system
+     * properties say.
+     *
+     * @param args the archive, target/corpus.zip by default.
+     * @throws IOException if it can't be served.
+     * @throws InterruptedException if interrupted while serving.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path file = Path.of(args.length > 0 ? args[0] : "target/corpus.zip");
+        CorpusArchive archive = new CorpusArchive(file);
+        CorpusServer server = fromSystemProperties(archive);
+        System.out.println("Serving " + archive.names().size() + " documents from " + file + " at " + server.baseUrl());
+        // The server's threads are daemons, so hold the JVM open.
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,96 @@
+package com.handshape.rdftripleshare;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Path;
+
+/**
+ * Where the build's upstream documents come from: the network, through the
+ * {@link HttpResponseCache}, or a {@link CorpusArchive} recorded from an
+ * earlier build, read directly or served by a {@link CorpusServer} over a
+ * simulated network.
+ *
+ * @author jturner
+ */
+public interface DocumentSource extends Closeable {
+
+    /**
+     * @param url the document to fetch.
+     * @return a stream of the body; the caller must close it.
+     * @throws IOException if the document can't be had.
+     */
+    Response open(URL url) throws IOException;
+
+    /**
+     * Lets go of whatever the source holds, finishing off anything it's
+     * writing.
+     *
+     * @throws IOException if that fails.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * Builds the source the "rdfshare.corpus.*" system properties call for:
+     * live (the default), record, which fetches live and keeps every
+     * document in the archive, or replay, which serves only what's in the
+     * archive, through a local server if rdfshare.corpus.replay.server is
+     * true.
+     *
+     * @param live the cache that live documents are fetched through.
+     * @return the configured source.
+     * @throws IOException if the archive can't be opened.
+     */
+    static DocumentSource fromSystemProperties(HttpResponseCache live) throws IOException {
+        Path archive = Path.of(System.getProperty("rdfshare.corpus.archive", "target/corpus.zip"));
+        String mode = System.getProperty("rdfshare.corpus.mode", "live");
+        switch (mode) {
+            case "live":
+                return live;
+            case "record":
+                return new CorpusRecorder(archive, live);
+            case "replay":
+                CorpusArchive corpus = new CorpusArchive(archive);
+                if (Boolean.getBoolean("rdfshare.corpus.replay.server")) {
+                    return CorpusServer.fromSystemProperties(corpus).source();
+                }
+                return corpus;
+            default:
+                throw new IllegalArgumentException("Unknown rdfshare.corpus.mode: " + mode);
+        }
+    }
+
+    /**
+     * A document's body, and where it came from.
+     */
+    final class Response extends FilterInputStream {
+
+        private final boolean fromCache;
+        private final long length;
+
+        public Response(InputStream in, boolean fromCache, long length) {
+            super(in);
+            this.fromCache = fromCache;
+            this.length = length;
+        }
+
+        /**
+         * @return whether the body was served from somewhere local, the
+         * cache or an archive, rather than fetched in full.
+         */
+        public boolean isFromCache() {
+            return fromCache;
+        }
+
+        /**
+         * @return the body's length in bytes, or -1 if it isn't known.
+         */
+        public long getLength() {
+            return length;
+        }
+    }
+}
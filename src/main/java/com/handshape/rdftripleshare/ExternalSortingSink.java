@@ -0,0 +1,293 @@
+package com.handshape.rdftripleshare;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * Takes a stream of triples in any order, duplicates and all, and passes them
+ * on to one or more destinations sorted (by subject, then predicate, then
+ * object) and with the duplicates removed, holding no more than a fixed
+ * number of them in memory at once.
+ * <p>
+ * Triples are buffered as N-Triples lines; whenever the buffer fills, it's
+ * sorted and spilled to a run file. When the stream finishes, the runs are
+ * merged and replayed to the destinations, preceded by every prefix seen. That
+ * makes it a drop-in for the dedup an in-memory graph would otherwise have
+ * provided, and since all of a subject's triples come out together, it's also
+ * what the block-by-block Turtle writer needs to write tidy Turtle.
+ *
+ * @author jturner
+ */
+public class ExternalSortingSink implements StreamRDF, AutoCloseable {
+
+    private final Path spillDirectory;
+    private final int maxTriplesInMemory;
+    private final List<StreamRDF> destinations;
+    private final Map<String, String> prefixes = new LinkedHashMap<>();
+    private final List<String> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private long distinctTriples;
+
+    /**
+     * Buffers as many triples as the rdfshare.streaming.spill-triples system
+     * property allows (200000 by default).
+     *
+     * @param spillDirectory where runs are spilled to; created if need be.
+     * @param destinations where the sorted triples go.
+     */
+    public ExternalSortingSink(Path spillDirectory, StreamRDF... destinations) {
+        this(spillDirectory, Integer.getInteger("rdfshare.streaming.spill-triples", 200000), destinations);
+    }
+
+    public ExternalSortingSink(Path spillDirectory, int maxTriplesInMemory, StreamRDF... destinations) {
+        if (maxTriplesInMemory < 1) {
+            throw new IllegalArgumentException("At least one triple has to fit in memory");
+        }
+        this.spillDirectory = spillDirectory;
+        this.maxTriplesInMemory = maxTriplesInMemory;
+        this.destinations = Arrays.asList(destinations);
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        buffer.add(line(triple));
+        if (buffer.size() >= maxTriplesInMemory) {
+            spill();
+        }
+    }
+
+    @Override
+    public void quad(Quad quad) {
+        // Everything ends up in the one graph.
+        triple(quad.asTriple());
+    }
+
+    @Override
+    public void base(String base) {
+        // N-Triples are always absolute, so there's nothing to resolve against.
+    }
+
+    @Override
+    public void prefix(String prefix, String iri) {
+        prefixes.put(prefix, iri);
+    }
+
+    /**
+     * Merges the runs and replays the result to the destinations, starting
+     * and finishing each of them.
+     */
+    @Override
+    public void finish() {
+        List<BufferedReader> readers = new ArrayList<>();
+        try {
+            List<Iterator<String>> sources = new ArrayList<>();
+            for (Path run : runs) {
+                BufferedReader reader = Files.newBufferedReader(run, StandardCharsets.UTF_8);
+                readers.add(reader);
+                sources.add(reader.lines().iterator());
+            }
+            Collections.sort(buffer);
+            sources.add(buffer.iterator());
+            for (StreamRDF destination : destinations) {
+                destination.start();
+                for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+                    destination.prefix(prefix.getKey(), prefix.getValue());
+                }
+            }
+            // Blank node labels are kept as they were written, so the same blank node in two runs is still the same node.
+            RDFParser.source(new MergedLines(sources)).lang(Lang.NTRIPLES).checking(false)
+                    .labelToNode(LabelToNode.createUseLabelEncoded()).build().parse(new StreamRDFBase() {
+                @Override
+                public void triple(Triple triple) {
+                    distinctTriples++;
+                    for (StreamRDF destination : destinations) {
+                        destination.triple(triple);
+                    }
+                }
+            });
+            for (StreamRDF destination : destinations) {
+                destination.finish();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            for (BufferedReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    // Deleting it is all that's left to do anyway.
+                }
+            }
+            close();
+        }
+    }
+
+    /**
+     * Drops whatever's been buffered or spilled and not yet passed on,
+     * deleting the runs, without finishing the destinations.
+     */
+    @Override
+    public void close() {
+        buffer.clear();
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException ex) {
+                run.toFile().deleteOnExit();
+            }
+        }
+        runs.clear();
+    }
+
+    /**
+     * @param triple a triple.
+     * @return the triple as the N-Triples line it's sorted by.
+     */
+    static String line(Triple triple) {
+        return NodeFmtLib.str(triple.getSubject()) + " " + NodeFmtLib.str(triple.getPredicate()) + " " + NodeFmtLib.str(triple.getObject()) + " .";
+    }
+
+    /**
+     * @return how many distinct triples were passed on.
+     */
+    public long getDistinctTriples() {
+        return distinctTriples;
+    }
+
+    /**
+     * @return how many runs have been spilled to disk so far.
+     */
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    private void spill() {
+        Collections.sort(buffer);
+        try {
+            Files.createDirectories(spillDirectory);
+            Path run = Files.createTempFile(spillDirectory, "run-", ".nt");
+            runs.add(run);
+            try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+                String previous = null;
+                for (String line : buffer) {
+                    if (!line.equals(previous)) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                    previous = line;
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to spill triples to " + spillDirectory, ex);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * The distinct lines of several sorted sources, merged into one sorted
+     * N-Triples document.
+     */
+    private static class MergedLines extends InputStream {
+
+        private final PriorityQueue<Source> queue = new PriorityQueue<>();
+        private String previous;
+        private byte[] line = new byte[0];
+        private int position;
+
+        MergedLines(List<Iterator<String>> sources) {
+            for (Iterator<String> lines : sources) {
+                Source source = new Source(lines);
+                if (source.advance()) {
+                    queue.add(source);
+                }
+            }
+        }
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return line[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, line.length - position);
+            System.arraycopy(line, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+
+        private boolean fill() {
+            while (position >= line.length) {
+                Source source = queue.poll();
+                if (source == null) {
+                    return false;
+                }
+                String next = source.head;
+                if (source.advance()) {
+                    queue.add(source);
+                }
+                if (!next.equals(previous)) {
+                    previous = next;
+                    line = (next + "\n").getBytes(StandardCharsets.UTF_8);
+                    position = 0;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Source implements Comparable<Source> {
+
+        private final Iterator<String> lines;
+        private String head;
+
+        Source(Iterator<String> lines) {
+            this.lines = lines;
+        }
+
+        boolean advance() {
+            head = lines.hasNext() ? lines.next() : null;
+            return head != null;
+        }
+
+        @Override
+        public int compareTo(Source other) {
+            return head.compareTo(other.head);
+        }
+    }
+}
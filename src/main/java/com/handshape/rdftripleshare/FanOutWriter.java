@@ -0,0 +1,452 @@
+package com.handshape.rdftripleshare;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.LongSupplier;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+/**
+ * Sends one stream of triples on to several sinks at once, each on a thread
+ * of its own, so that writing the outputs takes as long as the slowest of
+ * them rather than all of them added up. Triples are handed over in batches
+ * through a short queue per sink, so a slow sink holds the rest back rather
+ * than letting the backlog grow without bound.
+ * <p>
+ * Keeps count of how many triples and bytes each sink took, and how long it
+ * took over them, so that the build can report each output's throughput.
+ * <p>
+ * If a sink fails, the failure is rethrown from the next call made on this
+ * stream, and none of the sinks are finished. Instead, any sink that's
+ * {@link AutoCloseable} is closed, on its own thread, so that it lets go of
+ * whatever it has open, like a db connection or its spill files.
+ *
+ * @author jturner
+ */
+public class FanOutWriter implements StreamRDF {
+
+    private static final Object END = new Object();
+    private static final Object ABORT = new Object();
+
+    private final int batchSize;
+    private final int queueDepth;
+    private final List<Branch> branches = new ArrayList<>();
+    private Triple[] batch;
+    private int batched;
+    private boolean running;
+
+    public FanOutWriter() {
+        this(Integer.getInteger("rdfshare.export.batch-triples", 4096), 16);
+    }
+
+    /**
+     * @param batchSize how many triples are handed to the sinks at a time.
+     * @param queueDepth how many batches a sink may fall behind by before the
+     * stream waits for it.
+     */
+    public FanOutWriter(int batchSize, int queueDepth) {
+        if (batchSize < 1 || queueDepth < 1) {
+            throw new IllegalArgumentException("Batches and queues have to hold at least one");
+        }
+        this.batchSize = batchSize;
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * @param name what to call the sink in its report.
+     * @param sink where to send the triples.
+     * @return this writer.
+     */
+    public FanOutWriter add(String name, StreamRDF sink) {
+        return add(name, sink, () -> 0);
+    }
+
+    /**
+     * @param name what to call the sink in its report.
+     * @param sink where to send the triples.
+     * @param file the file the sink writes, whose size is reported once the
+     * sink has finished.
+     * @return this writer.
+     */
+    public FanOutWriter add(String name, StreamRDF sink, Path file) {
+        return add(name, sink, () -> {
+            try {
+                return Files.size(file);
+            } catch (IOException ex) {
+                return 0;
+            }
+        });
+    }
+
+    /**
+     * @param name what to call the sink in its report.
+     * @param out where to write the triples; left open.
+     * @param format a format that {@link StreamRDFWriter} can write a stream in.
+     * @return this writer.
+     */
+    public FanOutWriter add(String name, OutputStream out, RDFFormat format) {
+        CountingOutputStream counted = new CountingOutputStream(out);
+        return add(name, StreamRDFWriter.getWriterStream(new BufferedOutputStream(counted, 1 << 16), format), counted::getByteCount);
+    }
+
+    /**
+     * @param name what to call the sink in its report.
+     * @param sink where to send the triples.
+     * @param bytes how many bytes the sink wrote, asked once it's finished.
+     * @return this writer.
+     */
+    public FanOutWriter add(String name, StreamRDF sink, LongSupplier bytes) {
+        if (running) {
+            throw new IllegalStateException("Sinks can't be added once the stream has started");
+        }
+        branches.add(new Branch(name, sink, bytes, new ArrayBlockingQueue<>(queueDepth)));
+        return this;
+    }
+
+    /**
+     * Sends every triple in the model through this stream, starting and
+     * finishing it. URI subjects are sent in order, followed by blank ones,
+     * each with all of its triples together, so that the outputs come out
+     * grouped by subject and the same from one build to the next.
+     *
+     * @param model the model to write out.
+     */
+    public void write(Model model) {
+        start();
+        for (Map.Entry<String, String> prefix : model.getNsPrefixMap().entrySet()) {
+            prefix(prefix.getKey(), prefix.getValue());
+        }
+        List<Node> subjects = new ArrayList<>();
+        ExtendedIterator<Node> found = model.getGraph().find().mapWith(Triple::getSubject);
+        Node previous = null;
+        while (found.hasNext()) {
+            // An in-memory graph lists each subject's triples together, so this keeps the list short.
+            Node subject = found.next();
+            if (!subject.equals(previous)) {
+                subjects.add(subject);
+                previous = subject;
+            }
+        }
+        subjects.sort(Comparator.comparing((Node subject) -> subject.isBlank())
+                .thenComparing(subject -> subject.isURI() ? subject.getURI() : subject.toString(false)));
+        previous = null;
+        for (Node subject : subjects) {
+            if (!subject.equals(previous)) {
+                model.getGraph().find(subject, Node.ANY, Node.ANY).forEachRemaining(this::triple);
+            }
+            previous = subject;
+        }
+        finish();
+    }
+
+    @Override
+    public void start() {
+        if (running) {
+            throw new IllegalStateException("Already started");
+        }
+        running = true;
+        batch = new Triple[batchSize];
+        batched = 0;
+        for (Branch branch : branches) {
+            branch.start();
+        }
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        batch[batched++] = triple;
+        if (batched == batchSize) {
+            flush();
+        }
+    }
+
+    @Override
+    public void quad(Quad quad) {
+        triple(quad.asTriple());
+    }
+
+    @Override
+    public void base(String base) {
+        // The writers only use the prefixes.
+    }
+
+    @Override
+    public void prefix(String prefix, String iri) {
+        // Prefixes have to stay in order with the triples around them.
+        flush();
+        dispatch(new String[]{prefix, iri});
+    }
+
+    /**
+     * Waits for every sink to catch up and finish.
+     */
+    @Override
+    public void finish() {
+        flush();
+        dispatch(END);
+        join();
+        running = false;
+        rethrowFailure();
+    }
+
+    /**
+     * @return how each sink fared, in the order they were added; complete
+     * once the stream has finished.
+     */
+    public List<SinkReport> getReports() {
+        List<SinkReport> reports = new ArrayList<>();
+        for (Branch branch : branches) {
+            reports.add(new SinkReport(branch.name, branch.triples, branch.bytes.getAsLong(), branch.elapsedNanos, branch.busyNanos));
+        }
+        return reports;
+    }
+
+    private void flush() {
+        if (batched > 0) {
+            dispatch(Arrays.copyOf(batch, batched));
+            batched = 0;
+        }
+    }
+
+    private void dispatch(Object event) {
+        if (failure() != null) {
+            for (Branch branch : branches) {
+                put(branch, ABORT);
+            }
+            join();
+            running = false;
+            rethrowFailure();
+        }
+        for (Branch branch : branches) {
+            put(branch, event);
+        }
+    }
+
+    private static void put(Branch branch, Object event) {
+        try {
+            branch.queue.put(event);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting on " + branch.name, ex);
+        }
+    }
+
+    private void join() {
+        for (Branch branch : branches) {
+            try {
+                branch.thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting on " + branch.name, ex);
+            }
+        }
+    }
+
+    private Throwable failure() {
+        for (Branch branch : branches) {
+            if (branch.failure != null) {
+                return branch.failure;
+            }
+        }
+        return null;
+    }
+
+    private void rethrowFailure() {
+        Throwable failure = failure();
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException("A sink was interrupted", failure);
+        }
+    }
+
+    /**
+     * How long one sink took over its share of the stream.
+     */
+    public static final class SinkReport {
+
+        private final String name;
+        private final long triples;
+        private final long bytes;
+        private final long elapsedNanos;
+        private final long busyNanos;
+
+        SinkReport(String name, long triples, long bytes, long elapsedNanos, long busyNanos) {
+            this.name = name;
+            this.triples = triples;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.busyNanos = busyNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getTriples() {
+            return triples;
+        }
+
+        /**
+         * @return how many bytes the sink wrote, or 0 if that isn't known.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the time from the sink's start to the end of its finish.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return the part of the elapsed time the sink spent working rather
+         * than waiting for triples.
+         */
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        public double getTriplesPerSecond() {
+            return elapsedNanos == 0 ? 0 : triples * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %,d triples, %.1f MiB in %.1f s (%,.0f triples/s, %.1f MiB/s, busy %.0f%% of the time)",
+                    name, triples, bytes / 1048576.0, elapsedNanos / 1e9, getTriplesPerSecond(),
+                    elapsedNanos == 0 ? 0 : bytes / 1048576.0 * 1e9 / elapsedNanos, elapsedNanos == 0 ? 0 : busyNanos * 100.0 / elapsedNanos);
+        }
+    }
+
+    private static final class Branch implements Runnable {
+
+        private final String name;
+        private final StreamRDF sink;
+        private final LongSupplier bytes;
+        private final BlockingQueue<Object> queue;
+        private Thread thread;
+        private volatile Throwable failure;
+        private volatile long triples;
+        private volatile long elapsedNanos;
+        private volatile long busyNanos;
+
+        Branch(String name, StreamRDF sink, LongSupplier bytes, BlockingQueue<Object> queue) {
+            this.name = name;
+            this.sink = sink;
+            this.bytes = bytes;
+            this.queue = queue;
+        }
+
+        void start() {
+            failure = null;
+            triples = 0;
+            elapsedNanos = 0;
+            busyNanos = 0;
+            queue.clear();
+            thread = new Thread(this, "fan-out-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            boolean finished = false;
+            try {
+                finished = send();
+            } finally {
+                if (!finished && sink instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable) sink).close();
+                    } catch (Exception ex) {
+                        if (failure != null) {
+                            failure.addSuppressed(ex);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return whether the sink finished, rather than failing or being
+         * aborted.
+         */
+        private boolean send() {
+            BuildEvents.Export export = new BuildEvents.Export();
+            export.begin();
+            long started = System.nanoTime();
+            try {
+                sink.start();
+            } catch (RuntimeException | Error ex) {
+                failure = ex;
+            }
+            long busy = System.nanoTime() - started;
+            long count = 0;
+            while (true) {
+                Object event;
+                try {
+                    event = queue.take();
+                } catch (InterruptedException ex) {
+                    failure = ex;
+                    return false;
+                }
+                if (event == ABORT || (event == END && failure != null)) {
+                    return false;
+                } else if (failure != null) {
+                    // Keep taking, so that the stream never blocks on a sink that has given up.
+                    continue;
+                }
+                long before = System.nanoTime();
+                try {
+                    if (event instanceof Triple[]) {
+                        for (Triple triple : (Triple[]) event) {
+                            sink.triple(triple);
+                        }
+                        count += ((Triple[]) event).length;
+                    } else if (event instanceof String[]) {
+                        sink.prefix(((String[]) event)[0], ((String[]) event)[1]);
+                    } else {
+                        sink.finish();
+                    }
+                } catch (RuntimeException | Error ex) {
+                    failure = ex;
+                }
+                busy += System.nanoTime() - before;
+                triples = count;
+                busyNanos = busy;
+                elapsedNanos = System.nanoTime() - started;
+                if (event == END) {
+                    export.end();
+                    if (failure == null && export.shouldCommit()) {
+                        export.output = name;
+                        export.triples = count;
+                        export.bytes = bytes.getAsLong();
+                        export.commit();
+                    }
+                    return failure == null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.handshape.rdftripleshare;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.UnresolvedAddressException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Fetches over one shared {@link HttpClient}, so connections are kept alive
+ * and reused, over HTTP/2 where the server offers it. Bodies are asked for
+ * gzipped, and handed back already decompressed, as a stream.
+ * <p>
+ * Failed connections, and 429, 500, 502, 503 and 504 responses, are retried
+ * after an exponential backoff with full jitter, or after the server's
+ * Retry-After, if that's longer. Requests to each host are paced by a token
+ * bucket, which halves its rate whenever the host answers 429 or 503, and
+ * creeps back up to the configured rate as requests succeed.
+ *
+ * @author jturner
+ */
+public class HttpFetcher {
+
+    private static final Logger LOGGER = Logger.getLogger(HttpFetcher.class.getName());
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+    private static HttpFetcher defaultFetcher;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .build();
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final double requestsPerSecond;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+
+    /**
+     * @param maxAttempts how many times to try each request, at least once.
+     * @param backoffMillis the backoff before the first retry, which doubles
+     * with every retry after it.
+     * @param requestsPerSecond the most requests per second to send any one
+     * host, or 0 for no limit.
+     */
+    public HttpFetcher(int maxAttempts, long backoffMillis, double requestsPerSecond) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Every request has to be tried at least once");
+        }
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    /**
+     * Builds a fetcher from the "rdfshare.fetch.*" system properties: retries
+     * (4), backoff-ms (500) and rate, in requests per second per host (20).
+     *
+     * @return the configured fetcher.
+     */
+    public static HttpFetcher fromSystemProperties() {
+        return new HttpFetcher(Integer.getInteger("rdfshare.fetch.retries", 4) + 1,
+                Long.getLong("rdfshare.fetch.backoff-ms", 500),
+                Double.parseDouble(System.getProperty("rdfshare.fetch.rate", "20")));
+    }
+
+    /**
+     * @return the fetcher the build shares, configured from the system
+     * properties the first time it's asked for.
+     */
+    public static synchronized HttpFetcher getDefault() {
+        if (defaultFetcher == null) {
+            defaultFetcher = fromSystemProperties();
+        }
+        return defaultFetcher;
+    }
+
+    /**
+     * Fetches a URL, retrying as needed.
+     *
+     * @param url what to fetch.
+     * @param headers request headers to add, such as validators.
+     * @return the final response, which the caller must close. It may still
+     * be a failure, if the retries ran out.
+     * @throws IOException if no response could be had at all.
+     */
+    public Result fetch(URL url, Map<String, String> headers) throws IOException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(url.toURI()).timeout(REQUEST_TIMEOUT).header("Accept-Encoding", "gzip");
+        } catch (URISyntaxException ex) {
+            throw new IOException("Can't fetch " + url.toExternalForm(), ex);
+        }
+        headers.forEach(builder::header);
+        HttpRequest request = builder.GET().build();
+        TokenBucket bucket = requestsPerSecond > 0 ? buckets.computeIfAbsent(url.getHost(), host -> new TokenBucket(requestsPerSecond)) : null;
+        try {
+            for (int attempt = 1;; attempt++) {
+                if (bucket != null) {
+                    bucket.acquire();
+                }
+                requests.incrementAndGet();
+                HttpResponse<InputStream> response;
+                try {
+                    response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                } catch (IOException ex) {
+                    if (isUnresolved(ex)) {
+                        // No amount of retrying will help with a host that doesn't resolve.
+                        throw (IOException) new UnknownHostException(url.getHost()).initCause(ex);
+                    } else if (attempt >= maxAttempts) {
+                        throw ex;
+                    }
+                    LOGGER.log(Level.FINE, "Retrying " + url.toExternalForm() + " after " + ex);
+                    retries.incrementAndGet();
+                    Thread.sleep(backoff(attempt, 0));
+                    continue;
+                }
+                int status = response.statusCode();
+                if (status == 429 || status == 503) {
+                    throttled.incrementAndGet();
+                    if (bucket != null) {
+                        bucket.slowDown();
+                    }
+                } else if (bucket != null) {
+                    bucket.speedUp();
+                }
+                if (!isRetryable(status) || attempt >= maxAttempts) {
+                    return new Result(response, bytesTransferred);
+                }
+                response.body().close();
+                LOGGER.log(Level.FINE, "Retrying " + url.toExternalForm() + " after HTTP " + status);
+                retries.incrementAndGet();
+                Thread.sleep(backoff(attempt, retryAfterMillis(response)));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted fetching " + url.toExternalForm());
+        }
+    }
+
+    /**
+     * @return how many requests have been sent, retries included.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * @return how many responses were 429s or 503s.
+     */
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    /**
+     * @return how many body bytes came over the wire, before decompression.
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    /**
+     * @param host a host.
+     * @return the rate requests are currently being sent to it at, or 0 if
+     * there's no limit.
+     */
+    public double getRate(String host) {
+        TokenBucket bucket = buckets.get(host);
+        return bucket == null ? requestsPerSecond : bucket.getRate();
+    }
+
+    static boolean isRetryable(int status) {
+        return status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+    }
+
+    private static boolean isUnresolved(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof UnresolvedAddressException || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    long backoff(int attempt, long retryAfterMillis) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(attempt - 1, 30));
+        long jittered = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return Math.max(jittered, Math.min(retryAfterMillis, MAX_BACKOFF_MILLIS));
+    }
+
+    private static long retryAfterMillis(HttpResponse<?> response) {
+        // Only the delta-seconds form; an HTTP date falls back to the backoff.
+        try {
+            return response.headers().firstValue("Retry-After").map(value -> TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()))).orElse(0L);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * A response, with its body decompressed.
+     */
+    public static class Result implements Closeable {
+
+        private final HttpResponse<InputStream> response;
+        private final InputStream body;
+
+        Result(HttpResponse<InputStream> response, AtomicLong bytesTransferred) throws IOException {
+            this.response = response;
+            InputStream wire = new FilterInputStream(response.body()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        bytesTransferred.incrementAndGet();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = super.read(buffer, offset, length);
+                    if (read > 0) {
+                        bytesTransferred.addAndGet(read);
+                    }
+                    return read;
+                }
+            };
+            boolean gzipped = response.headers().firstValue("Content-Encoding").map(encoding -> encoding.trim().equalsIgnoreCase("gzip")).orElse(false);
+            if (gzipped && response.statusCode() == 200) {
+                try {
+                    // Reads the gzip header, so a bad or truncated body fails here.
+                    this.body = new GZIPInputStream(wire, 64 * 1024);
+                } catch (IOException ex) {
+                    wire.close();
+                    throw ex;
+                }
+            } else {
+                this.body = wire;
+            }
+        }
+
+        public int getStatus() {
+            return response.statusCode();
+        }
+
+        /**
+         * @param name a response header.
+         * @return its first value, or null if there isn't one.
+         */
+        public String getHeader(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        /**
+         * @return the decompressed body.
+         */
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+
+    /**
+     * Paces requests to one host: a bucket of up to a second's worth of
+     * tokens, refilled at the current rate, with one taken per request. The
+     * rate is halved on every throttling response, down to a twentieth of
+     * the configured rate, and grows back by a twentieth on every success.
+     */
+    static class TokenBucket {
+
+        private final double maxRate;
+        private double rate;
+        private double tokens;
+        private long refilledNanos = System.nanoTime();
+
+        TokenBucket(double maxRate) {
+            this.maxRate = maxRate;
+            this.rate = maxRate;
+            this.tokens = Math.max(1, maxRate);
+        }
+
+        void acquire() throws InterruptedException {
+            long waitNanos = reserve();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+
+        /**
+         * Takes a token, going into debt for it if there are none.
+         *
+         * @return how long to wait before the token is really there.
+         */
+        synchronized long reserve() {
+            long now = System.nanoTime();
+            tokens = Math.min(Math.max(1, rate), tokens + (now - refilledNanos) * rate / 1e9);
+            refilledNanos = now;
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+        }
+
+        synchronized void slowDown() {
+            rate = Math.max(maxRate / 20, rate / 2);
+        }
+
+        synchronized void speedUp() {
+            rate = Math.min(maxRate, rate + maxRate / 20);
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+    }
+}
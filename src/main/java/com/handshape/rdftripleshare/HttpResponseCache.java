@@ -0,0 +1,342 @@
+package com.handshape.rdftripleshare;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache of upstream HTTP responses. Bodies are stored alongside
+ * their ETag and Last-Modified validators, and every use of a cached body is
+ * revalidated with a conditional GET unless the cache is in offline mode. The
+ * total size of stored bodies is capped, with the least recently used entries
+ * evicted first. Everything fetched goes through an {@link HttpFetcher}.
+ * <p>
+ * Bodies are only opened under a read lock, and only evicted or replaced
+ * under the write lock, so an eviction never lands between finding a body
+ * and opening it, and two workers storing the same URL can't both take the
+ * body they replace off the total size. Once a body's open, deleting it
+ * doesn't disturb the reader. A body evicted
+ * after its validators were read is a miss, and fetched again in full.
+ *
+ * @author jturner
+ */
+public class HttpResponseCache implements DocumentSource {
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final HttpFetcher fetcher;
+    private final long maxBytes;
+    private final boolean offline;
+    private final ReadWriteLock entries = new ReentrantReadWriteLock();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+
+    /**
+     * @param directory where cached bodies and their validators are kept.
+     * @param maxBytes the most body bytes to keep before evicting.
+     * @param offline if true, never touch the network; serve only what's cached.
+     * @throws IOException if the cache directory can't be created or read.
+     */
+    public HttpResponseCache(Path directory, long maxBytes, boolean offline) throws IOException {
+        this(directory, maxBytes, offline, HttpFetcher.getDefault());
+    }
+
+    /**
+     * @param directory where cached bodies and their validators are kept.
+     * @param maxBytes the most body bytes to keep before evicting.
+     * @param offline if true, never touch the network; serve only what's cached.
+     * @param fetcher what to fetch through.
+     * @throws IOException if the cache directory can't be created or read.
+     */
+    public HttpResponseCache(Path directory, long maxBytes, boolean offline, HttpFetcher fetcher) throws IOException {
+        this.directory = directory;
+        this.fetcher = fetcher;
+        this.maxBytes = maxBytes;
+        this.offline = offline;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            storedBytes.set(files.filter(path -> path.toString().endsWith(BODY_SUFFIX)).mapToLong(path -> path.toFile().length()).sum());
+        }
+    }
+
+    /**
+     * Builds a cache from the "rdfshare.cache.*" system properties.
+     *
+     * @return the configured cache.
+     * @throws IOException if the cache directory can't be created or read.
+     */
+    public static HttpResponseCache fromSystemProperties() throws IOException {
+        return new HttpResponseCache(Path.of(System.getProperty("rdfshare.cache.dir", "target/http-cache")),
+                Long.getLong("rdfshare.cache.max-bytes", 2L * 1024 * 1024 * 1024),
+                Boolean.getBoolean("rdfshare.cache.offline"));
+    }
+
+    /**
+     * Opens the body of the given URL, from the cache where it's still valid
+     * and from the network where it isn't.
+     *
+     * @param url the document to fetch.
+     * @return a stream of the body, which says whether it came from the cache;
+     * the caller must close it.
+     * @throws IOException if the document can't be fetched, or isn't cached
+     * when in offline mode.
+     */
+    @Override
+    public Response open(URL url) throws IOException {
+        if (!url.getProtocol().startsWith("http")) {
+            return new Response(url.openStream(), false, -1);
+        }
+        final String key = keyFor(url);
+        final Path body = directory.resolve(key + BODY_SUFFIX);
+        final Path meta = directory.resolve(key + META_SUFFIX);
+        Properties validators = readValidators(meta, body);
+        if (offline) {
+            Response cached = validators == null ? null : serveFromCache(body);
+            if (cached == null) {
+                throw new FileNotFoundException("Not in offline cache: " + url.toExternalForm());
+            }
+            return cached;
+        }
+        Response response = fetch(url, body, meta, validators);
+        if (response == null) {
+            // Evicted since its validators were read, so there's nothing left for the 304 to vouch for.
+            response = fetch(url, body, meta, null);
+        }
+        return response;
+    }
+
+    /**
+     * @return the body, or null if the server said the cached body is still
+     * good but it's since been evicted.
+     */
+    private Response fetch(URL url, Path body, Path meta, Properties validators) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        if (validators != null) {
+            if (validators.getProperty("etag") != null) {
+                headers.put("If-None-Match", validators.getProperty("etag"));
+            }
+            if (validators.getProperty("last-modified") != null) {
+                headers.put("If-Modified-Since", validators.getProperty("last-modified"));
+            }
+        }
+        try (HttpFetcher.Result result = fetcher.fetch(url, headers)) {
+            int status = result.getStatus();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null) {
+                return serveFromCache(body);
+            } else if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status + " fetching " + url.toExternalForm());
+            }
+            misses.incrementAndGet();
+            return store(url, result, body, meta);
+        }
+    }
+
+    public HttpFetcher getFetcher() {
+        return fetcher;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded.get();
+    }
+
+    /**
+     * @return a one-line summary of the cache's effectiveness for this build.
+     */
+    public String summary() {
+        return "HTTP cache: " + getHits() + " hits, " + getMisses() + " misses, "
+                + getBytesSaved() + " bytes saved, " + getBytesDownloaded() + " bytes downloaded ("
+                + fetcher.getBytesTransferred() + " over the wire), " + fetcher.getRetries() + " retries"
+                + (offline ? " (offline)" : "");
+    }
+
+    /**
+     * @return the cached body, or null if it's been evicted.
+     */
+    private Response serveFromCache(Path body) throws IOException {
+        Response response = openBody(body, true);
+        if (response != null) {
+            hits.incrementAndGet();
+            bytesSaved.addAndGet(response.getLength());
+        }
+        return response;
+    }
+
+    /**
+     * @return the body, open, and its length taken from the same open file,
+     * or null if it isn't there.
+     */
+    private Response openBody(Path body, boolean fromCache) throws IOException {
+        entries.readLock().lock();
+        try {
+            SeekableByteChannel channel = Files.newByteChannel(body);
+            touch(body);
+            return new Response(Channels.newInputStream(channel), fromCache, channel.size());
+        } catch (NoSuchFileException ex) {
+            return null;
+        } finally {
+            entries.readLock().unlock();
+        }
+    }
+
+    private Response store(URL url, HttpFetcher.Result result, Path body, Path meta) throws IOException {
+        // Not named like a body, so that eviction leaves it alone while it's being written.
+        Path tempBody = Files.createTempFile(directory, "download", TEMP_SUFFIX);
+        Path tempMeta = null;
+        try {
+            long length;
+            try (InputStream in = result.getBody(); OutputStream out = Files.newOutputStream(tempBody)) {
+                length = in.transferTo(out);
+            }
+            bytesDownloaded.addAndGet(length);
+            Properties validators = new Properties();
+            validators.setProperty("url", url.toExternalForm());
+            if (result.getHeader("ETag") != null) {
+                validators.setProperty("etag", result.getHeader("ETag"));
+            }
+            if (result.getHeader("Last-Modified") != null) {
+                validators.setProperty("last-modified", result.getHeader("Last-Modified"));
+            }
+            tempMeta = Files.createTempFile(directory, "download", TEMP_SUFFIX);
+            try (Writer out = Files.newBufferedWriter(tempMeta, StandardCharsets.UTF_8)) {
+                validators.store(out, null);
+            }
+            Response response;
+            entries.writeLock().lock();
+            try {
+                long previousLength = body.toFile().length();
+                move(tempBody, body);
+                move(tempMeta, meta);
+                storedBytes.addAndGet(length - previousLength);
+                response = openBody(body, false);
+            } finally {
+                entries.writeLock().unlock();
+            }
+            if (storedBytes.get() > maxBytes) {
+                try {
+                    evict(body);
+                } catch (IOException ex) {
+                    if (response != null) {
+                        response.close();
+                    }
+                    throw ex;
+                }
+            }
+            return response;
+        } finally {
+            Files.deleteIfExists(tempBody);
+            if (tempMeta != null) {
+                Files.deleteIfExists(tempMeta);
+            }
+        }
+    }
+
+    private void evict(Path keep) throws IOException {
+        entries.writeLock().lock();
+        try {
+            List<Path> bodies = new ArrayList<>();
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(path -> path.toString().endsWith(BODY_SUFFIX) && !path.equals(keep)).forEach(bodies::add);
+            }
+            bodies.sort(Comparator.comparing(path -> path.toFile().lastModified()));
+            for (Path body : bodies) {
+                if (storedBytes.get() <= maxBytes) {
+                    break;
+                }
+                String name = body.getFileName().toString();
+                Path meta = body.resolveSibling(name.substring(0, name.length() - BODY_SUFFIX.length()) + META_SUFFIX);
+                long length = body.toFile().length();
+                Files.deleteIfExists(meta);
+                if (Files.deleteIfExists(body)) {
+                    storedBytes.addAndGet(-length);
+                }
+            }
+        } finally {
+            entries.writeLock().unlock();
+        }
+    }
+
+    private Properties readValidators(Path meta, Path body) {
+        if (!Files.exists(meta) || !Files.exists(body)) {
+            return null;
+        }
+        Properties validators = new Properties();
+        try (Reader in = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+            validators.load(in);
+        } catch (IOException ex) {
+            Logger.getLogger(HttpResponseCache.class.getName()).log(Level.WARNING, "Ignoring unreadable cache entry " + meta, ex);
+            return null;
+        }
+        return validators;
+    }
+
+    private static void touch(Path body) {
+        // The body's modification time doubles as its last-used time for LRU eviction.
+        body.toFile().setLastModified(System.currentTimeMillis());
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String keyFor(URL url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest(url.toExternalForm().getBytes(StandardCharsets.UTF_8))) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
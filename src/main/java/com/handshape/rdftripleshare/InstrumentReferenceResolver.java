@@ -0,0 +1,307 @@
+package com.handshape.rdftripleshare;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the citations in consolidated instruments' historical notes (like
+ * "SOR/2002-123, s. 4" or "2001, c. 27, s. 2") to statutory instrument IDs.
+ * Resolution is attempted against an index of the instruments known to the
+ * build, falling back to a set of shorthand rules for the ways the notes
+ * commonly abbreviate those IDs. Instances are safe for concurrent use, and
+ * keep count of how each citation was resolved.
+ *
+ * @author jturner
+ */
+public class InstrumentReferenceResolver {
+
+    private static final String REFERENCE_CHAPTER_MARKER = ", c. ";
+    private static final String REFERENCE_SECTION_MARKER = ", s. ";
+    private static final String REFERENCE_SECTIONS_MARKER = ", ss. ";
+
+    // toUrlSafeId's data quality fixes. These were always regexes, dots and all, so they stay regexes.
+    private static final Pattern STATUTES_2020_TYPO = Pattern.compile("S.C.2020");
+    private static final Pattern STATUTES_SPACING_TYPO = Pattern.compile("S._C._");
+    private static final Pattern REVISED_STATUTES_COMMA = Pattern.compile("R.S.C.,");
+    private static final int MAX_MEMOISED_IDS = 200_000;
+    private static final Map<String, String> URL_SAFE_IDS = new ConcurrentHashMap<>();
+
+    /**
+     * How a citation was resolved, if it was.
+     */
+    public enum Rule {
+        /** A year and chapter, like "2001, c. 27". */
+        ANNUAL_STATUTE,
+        /** The citation is a known instrument ID once made URL-safe. */
+        KNOWN_INSTRUMENT,
+        /** Shorthand: "S.C. 2001, c. 27" for the annual statute. */
+        STATUTES_OF_CANADA,
+        /** Shorthand: "C.R.C., c. 1035" for the consolidated regulation. */
+        CONSOLIDATED_REGULATION,
+        /** Shorthand: "R.S., 1985, c. A-1" for the act it revised. */
+        REVISED_STATUTE,
+        /** A known instrument ID once stray spaces and trailing periods are tidied away. */
+        TIDIED,
+        /** Not resolved. */
+        UNRESOLVED
+    }
+
+    /**
+     * A citation split into the instrument it refers to and the chapter or
+     * section within it.
+     */
+    public static class Citation {
+
+        private final String text;
+        private final String ref;
+        private final String chapter;
+        private final String section;
+        private String instrumentId;
+        private Rule rule = Rule.UNRESOLVED;
+
+        Citation(String text, String ref, String chapter, String section) {
+            this.text = text;
+            this.ref = ref;
+            this.chapter = chapter;
+            this.section = section;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return the part of the citation naming the instrument or year.
+         */
+        public String getRef() {
+            return ref;
+        }
+
+        public String getChapter() {
+            return chapter;
+        }
+
+        public String getSection() {
+            return section;
+        }
+
+        /**
+         * @return the resolved URL-safe instrument ID, or null if unresolved.
+         */
+        public String getInstrumentId() {
+            return instrumentId;
+        }
+
+        public Rule getRule() {
+            return rule;
+        }
+    }
+
+    private final Set<String> knownStatutoryInstruments;
+    private final Map<Rule, LongAdder> counts = new EnumMap<>(Rule.class);
+
+    /**
+     * @param knownStatutoryInstruments the instrument IDs known to the build;
+     * copied into a hash index, so later changes aren't seen.
+     */
+    public InstrumentReferenceResolver(Set<String> knownStatutoryInstruments) {
+        this.knownStatutoryInstruments = new HashSet<>(knownStatutoryInstruments);
+        for (Rule rule : Rule.values()) {
+            counts.put(rule, new LongAdder());
+        }
+    }
+
+    /**
+     * Makes an instrument identifier safe to use in a URL, correcting a few
+     * data quality problems in the published sets along the way. Results are
+     * memoised, since the same identifiers are cited over and over.
+     *
+     * @param item the identifier as published, like "SOR/2002-123".
+     * @return the URL-safe identifier, like "SOR-2002-123".
+     */
+    public static String toUrlSafeId(String item) {
+        String id = URL_SAFE_IDS.get(item);
+        if (id == null) {
+            id = computeUrlSafeId(item);
+            if (URL_SAFE_IDS.size() >= MAX_MEMOISED_IDS) {
+                URL_SAFE_IDS.clear();
+            }
+            URL_SAFE_IDS.put(item, id);
+        }
+        return id;
+    }
+
+    private static String computeUrlSafeId(String item) {
+        String id = item.trim()
+                .replace('/', '-')
+                .replace(' ', '_')
+                //The next few lines address data quality issues in the published set.
+                .replace("_\u2013_", "-")
+                .replace("_\u2014_", "-");
+        // Only run the patterns that could possibly match.
+        if (id.contains("2020")) {
+            id = STATUTES_2020_TYPO.matcher(id).replaceAll("S.C._2020");
+        }
+        if (id.contains("_C")) {
+            id = STATUTES_SPACING_TYPO.matcher(id).replaceAll("S.C._");
+        }
+        if (id.indexOf(',') >= 0) {
+            id = REVISED_STATUTES_COMMA.matcher(id).replaceAll("R.S.C.");
+        }
+        return id;
+    }
+
+    /**
+     * Splits a citation at the first ", c. " marker, or failing that the
+     * first ", s. " or ", ss. " marker, in a single scan.
+     *
+     * @param text the trimmed citation.
+     * @return the unresolved citation.
+     */
+    public static Citation tokenize(String text) {
+        int chapterAt = -1;
+        int sectionAt = -1;
+        int sectionsAt = -1;
+        for (int i = text.indexOf(", "); i >= 0 && chapterAt < 0; i = text.indexOf(", ", i + 1)) {
+            if (text.startsWith(REFERENCE_CHAPTER_MARKER, i)) {
+                chapterAt = i;
+            } else if (sectionAt < 0 && text.startsWith(REFERENCE_SECTION_MARKER, i)) {
+                sectionAt = i;
+            } else if (sectionsAt < 0 && text.startsWith(REFERENCE_SECTIONS_MARKER, i)) {
+                sectionsAt = i;
+            }
+        }
+        if (chapterAt >= 0) {
+            // These ones are almost always shorthand for the statutes.
+            String chapter = text.substring(chapterAt + REFERENCE_CHAPTER_MARKER.length()).trim();
+            int comma = chapter.indexOf(',');
+            if (comma >= 0) {
+                chapter = chapter.substring(0, comma).trim();
+            }
+            return new Citation(text, text.substring(0, chapterAt).trim(), chapter, null);
+        } else if (sectionAt >= 0) {
+            return new Citation(text, text.substring(0, sectionAt).trim(), null, text.substring(sectionAt + REFERENCE_SECTION_MARKER.length()).trim());
+        } else if (sectionsAt >= 0) {
+            return new Citation(text, text.substring(0, sectionsAt).trim(), null, text.substring(sectionsAt + REFERENCE_SECTIONS_MARKER.length()).trim());
+        }
+        return new Citation(text, text, null, null);
+    }
+
+    /**
+     * @param text a trimmed citation from a historical note.
+     * @return the citation, resolved if possible.
+     */
+    public Citation resolve(String text) {
+        Citation citation = tokenize(text);
+        String ref = citation.ref;
+        String chapter = citation.chapter;
+        if (isDigits(ref) && ref.length() == 4 && isDigits(chapter)) {
+            resolved(citation, Rule.ANNUAL_STATUTE, "S.C._" + ref + ",c._" + chapter);
+        } else if (knownStatutoryInstruments.contains(toUrlSafeId(ref))) {
+            resolved(citation, Rule.KNOWN_INSTRUMENT, toUrlSafeId(ref));
+        } else if (ref.startsWith("S.C. ") && ref.length() == 9 && isDigits(ref.substring(5)) && isDigits(chapter)) {
+            resolved(citation, Rule.STATUTES_OF_CANADA, "S.C._" + ref.substring(5) + ",c._" + chapter);
+        } else if (ref.equals("C.R.C.") && isDigits(chapter) && knownStatutoryInstruments.contains("C.R.C.,_c._" + chapter)) {
+            resolved(citation, Rule.CONSOLIDATED_REGULATION, "C.R.C.,_c._" + chapter);
+        } else if (chapter != null && isRevisedStatutes1985(ref) && resolveRevisedStatute(citation, chapter)) {
+            // Resolved.
+        } else {
+            String tidied = tidy(ref);
+            if (!tidied.equals(ref) && knownStatutoryInstruments.contains(toUrlSafeId(tidied))) {
+                resolved(citation, Rule.TIDIED, toUrlSafeId(tidied));
+            }
+        }
+        counts.get(citation.rule).increment();
+        return citation;
+    }
+
+    /**
+     * @return how many citations were resolved by each rule so far.
+     */
+    public Map<Rule, Long> getCounts() {
+        Map<Rule, Long> snapshot = new EnumMap<>(Rule.class);
+        for (Map.Entry<Rule, LongAdder> entry : counts.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return a one-line summary of how well citations resolved.
+     */
+    public String resolutionReport() {
+        Map<Rule, Long> snapshot = getCounts();
+        long total = 0;
+        for (long count : snapshot.values()) {
+            total += count;
+        }
+        long resolved = total - snapshot.get(Rule.UNRESOLVED);
+        StringBuilder report = new StringBuilder("Resolved ").append(resolved).append(" of ").append(total).append(" citations")
+                .append(String.format(" (%.1f%%)", total == 0 ? 100.0 : 100.0 * resolved / total));
+        String separator = ": ";
+        for (Map.Entry<Rule, Long> entry : snapshot.entrySet()) {
+            if (entry.getKey() != Rule.UNRESOLVED) {
+                report.append(separator).append(entry.getValue()).append(' ').append(entry.getKey().name().toLowerCase(Locale.ROOT).replace('_', ' '));
+                separator = ", ";
+            }
+        }
+        return report.toString();
+    }
+
+    private boolean resolveRevisedStatute(Citation citation, String chapter) {
+        // The 1985 revision's chapters are mostly the acts' own IDs, like "c. A-1"; the supplements
+        // are listed in the gazette index under their revised statute citation.
+        String chapterId = toUrlSafeId(chapter);
+        if (knownStatutoryInstruments.contains(chapterId)) {
+            resolved(citation, Rule.REVISED_STATUTE, chapterId);
+            return true;
+        } else if (knownStatutoryInstruments.contains("R.S.C._1985,_c._" + chapterId)) {
+            resolved(citation, Rule.REVISED_STATUTE, "R.S.C._1985,_c._" + chapterId);
+            return true;
+        }
+        return false;
+    }
+
+    private static void resolved(Citation citation, Rule rule, String instrumentId) {
+        citation.rule = rule;
+        citation.instrumentId = instrumentId;
+    }
+
+    private static boolean isRevisedStatutes1985(String ref) {
+        return ref.equals("R.S., 1985") || ref.equals("R.S.C., 1985") || ref.equals("R.S.C. 1985") || ref.equals("R.S. 1985");
+    }
+
+    private static String tidy(String ref) {
+        StringBuilder tidied = new StringBuilder(ref.length());
+        for (int i = 0; i < ref.length(); i++) {
+            char c = ref.charAt(i);
+            // Drop spaces on either side of a slash, as in "SOR/ 2002-123".
+            if (c == ' ' && ((i + 1 < ref.length() && ref.charAt(i + 1) == '/') || (i > 0 && ref.charAt(i - 1) == '/'))) {
+                continue;
+            }
+            tidied.append(c);
+        }
+        while (tidied.length() > 0 && (tidied.charAt(tidied.length() - 1) == '.' || tidied.charAt(tidied.length() - 1) == ',')) {
+            tidied.setLength(tidied.length() - 1);
+        }
+        return tidied.toString().trim();
+    }
+
+    private static boolean isDigits(String text) {
+        if (text == null || text.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,107 @@
+package com.handshape.rdftripleshare;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Keeps what was extracted from each consolidated instrument between builds,
+ * keyed by instrument ID and the CurrentToDate that Legis.xml reported for it.
+ * An instrument whose CurrentToDate hasn't moved doesn't need to be fetched or
+ * parsed again.
+ *
+ * @author jturner
+ */
+public class InstrumentShardStore {
+
+    private static final String SHARD_SUFFIX = ".properties";
+
+    private final Path directory;
+
+    public InstrumentShardStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the store configured by the "rdfshare.incremental" system
+     * properties, or null if incremental builds aren't turned on.
+     */
+    public static InstrumentShardStore fromSystemProperties() {
+        if (!Boolean.getBoolean("rdfshare.incremental")) {
+            return null;
+        }
+        return new InstrumentShardStore(Path.of(System.getProperty("rdfshare.incremental.dir", "target/instrument-shards")));
+    }
+
+    /**
+     * @param instrumentId the URL-safe instrument ID.
+     * @param currentToDate the instrument's CurrentToDate in this build.
+     * @return the stored shard, or null if there isn't one or it's out of date.
+     * @throws IOException if the shard exists but can't be read.
+     */
+    public ConsolidatedInstrument load(String instrumentId, String currentToDate) throws IOException {
+        Path shard = directory.resolve(instrumentId + SHARD_SUFFIX);
+        if (currentToDate == null || !Files.exists(shard)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader in = Files.newBufferedReader(shard, StandardCharsets.UTF_8)) {
+            properties.load(in);
+        }
+        if (!instrumentId.equals(properties.getProperty("instrumentId")) || !currentToDate.equals(properties.getProperty("currentToDate"))) {
+            return null;
+        }
+        ConsolidatedInstrument instrument = new ConsolidatedInstrument(instrumentId);
+        instrument.setWordCount(Integer.parseInt(properties.getProperty("wordCount")));
+        instrument.setSectionCount(Integer.parseInt(properties.getProperty("sectionCount")));
+        int citationCount = Integer.parseInt(properties.getProperty("citationCount"));
+        for (int i = 0; i < citationCount; i++) {
+            instrument.getCitations().add(properties.getProperty("citation." + i));
+        }
+        return instrument;
+    }
+
+    /**
+     * Stores a freshly-parsed instrument. Instruments without a CurrentToDate
+     * aren't stored, because there'd be no way to tell if they're stale.
+     *
+     * @param instrument the extracted instrument.
+     * @param currentToDate the instrument's CurrentToDate in this build.
+     * @throws IOException if the shard can't be written.
+     */
+    public void save(ConsolidatedInstrument instrument, String currentToDate) throws IOException {
+        if (currentToDate == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty("instrumentId", instrument.getInstrumentId());
+        properties.setProperty("currentToDate", currentToDate);
+        properties.setProperty("wordCount", String.valueOf(instrument.getWordCount()));
+        properties.setProperty("sectionCount", String.valueOf(instrument.getSectionCount()));
+        properties.setProperty("citationCount", String.valueOf(instrument.getCitations().size()));
+        for (int i = 0; i < instrument.getCitations().size(); i++) {
+            properties.setProperty("citation." + i, instrument.getCitations().get(i));
+        }
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "shard", ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                properties.store(out, null);
+            }
+            Path shard = directory.resolve(instrument.getInstrumentId() + SHARD_SUFFIX);
+            try {
+                Files.move(temp, shard, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, shard, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
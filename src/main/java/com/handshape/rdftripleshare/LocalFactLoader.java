@@ -0,0 +1,368 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.jena.atlas.lib.IRILib;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.ErrorHandler;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFWriter;
+
+/**
+ * Parses and validates the hand-written facts in the rdf directory.
+ * <p>
+ * Files are parsed side by side, each into a buffer of its own, and passed on
+ * in path order, so the triples and the parser's complaints come out in the
+ * same order however the parsing was scheduled. A file that parses without so
+ * much as a warning is kept in RDF Thrift form in a cache, keyed by a SHA-256
+ * of its path and contents; until it changes, it's read from there instead of
+ * being parsed and validated again.
+ * <p>
+ * Run on its own, it only validates, which is what a contributor needs to
+ * check a change: {@code LocalFactLoader [directory] [--no-cache]}.
+ *
+ * @author jturner
+ */
+public class LocalFactLoader {
+
+    // Bump whenever what goes into a cached file changes, so that older entries are left behind.
+    private static final String CACHE_VERSION = "1";
+
+    private final Path root;
+    private final Path cacheDirectory;
+    private int concurrency = Integer.getInteger("rdfshare.facts.concurrency", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * @param root the directory of facts.
+     * @param cacheDirectory where parsed files are cached, or null to parse
+     * every file every time.
+     */
+    public LocalFactLoader(Path root, Path cacheDirectory) {
+        this.root = root;
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @param root the directory of facts.
+     * @return a loader caching wherever the rdfshare.facts.cache.dir system
+     * property says (target/fact-cache by default), unless
+     * rdfshare.facts.cache is false.
+     */
+    public static LocalFactLoader fromSystemProperties(Path root) {
+        boolean cached = Boolean.parseBoolean(System.getProperty("rdfshare.facts.cache", "true"));
+        return new LocalFactLoader(root, cached ? Path.of(System.getProperty("rdfshare.facts.cache.dir", "target/fact-cache")) : null);
+    }
+
+    public LocalFactLoader setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Parses every file and sends the triples and prefixes on, a file at a
+     * time in path order. Doesn't start or finish the stream.
+     *
+     * @param out where the triples go, or null to only validate, in which
+     * case cached files aren't even read.
+     * @return what was found.
+     * @throws IOException if the directory or a file can't be read.
+     */
+    public Report load(StreamRDF out) throws IOException {
+        long start = System.nanoTime();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)).sorted().collect(Collectors.toList());
+        }
+        Report report = new Report();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        try {
+            // Only parse a little way ahead of what's been passed on, so that the buffers don't pile up.
+            Deque<Future<ParsedFile>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < files.size() || !pending.isEmpty()) {
+                while (next < files.size() && pending.size() < concurrency * 4) {
+                    Path file = files.get(next++);
+                    pending.add(workers.submit(() -> parse(file, out != null)));
+                }
+                ParsedFile parsed = pending.remove().get();
+                report.add(parsed);
+                if (out != null) {
+                    parsed.passOn(out);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing " + root, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private ParsedFile parse(Path file, boolean wanted) throws IOException {
+        ParsedFile parsed = new ParsedFile(file);
+        Lang lang;
+        switch (FilenameUtils.getExtension(file.toString())) {
+            case "ttl":
+                lang = Lang.TURTLE;
+                break;
+            case "nt":
+                lang = Lang.NTRIPLES;
+                break;
+            default:
+                parsed.problem("ERROR", "Unexpected file extension at " + file, true);
+                return parsed;
+        }
+        byte[] content = Files.readAllBytes(file);
+        String base = IRILib.filenameToIRI(file.toAbsolutePath().normalize().toString());
+        Path cached = cacheDirectory == null ? null : cacheDirectory.resolve(hash(base, content) + ".trdf");
+        if (cached != null && Files.exists(cached)) {
+            if (!wanted) {
+                // It's already been validated, and only validation is called for.
+                parsed.fromCache = true;
+                return parsed;
+            }
+            try {
+                RDFParser.source(cached).lang(Lang.RDFTHRIFT).build().parse(parsed);
+                parsed.fromCache = true;
+                return parsed;
+            } catch (RiotException ex) {
+                // A damaged entry; parse the file instead, and replace it.
+                parsed.events.clear();
+                parsed.triples = 0;
+            }
+        }
+        try {
+            RDFParser.source(new ByteArrayInputStream(content)).base(base).lang(lang).checking(true)
+                    .errorHandler(parsed).build().parse(parsed);
+        } catch (RiotException ex) {
+            // Already reported to the error handler.
+            parsed.failed = true;
+        }
+        if (cached != null && !parsed.failed && parsed.problems.isEmpty()) {
+            save(parsed, cached);
+        }
+        return parsed;
+    }
+
+    private static void save(ParsedFile parsed, Path cached) throws IOException {
+        Files.createDirectories(cached.getParent());
+        // Write it somewhere else and move it into place, so that a half-written entry is never read.
+        Path temp = Files.createTempFile(cached.getParent(), "fact-", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                StreamRDF writer = StreamRDFWriter.getWriterStream(out, RDFFormat.RDF_THRIFT);
+                writer.start();
+                parsed.passOn(writer);
+                writer.finish();
+            }
+            try {
+                Files.move(temp, cached, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String hash(String base, byte[] content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((CACHE_VERSION + "\n" + base + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(content);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Every JVM has SHA-256", ex);
+        }
+    }
+
+    /**
+     * What a load found: how many files there were, how many came from the
+     * cache, and the parser's warnings and errors, in path order.
+     */
+    public static final class Report {
+
+        private final List<String> problems = new ArrayList<>();
+        private int files;
+        private int fromCache;
+        private long triples;
+        private int errors;
+        private long elapsedNanos;
+
+        void add(ParsedFile parsed) {
+            files++;
+            if (parsed.fromCache) {
+                fromCache++;
+            }
+            triples += parsed.triples;
+            problems.addAll(parsed.problems);
+            if (parsed.failed) {
+                errors++;
+            }
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        public int getFromCache() {
+            return fromCache;
+        }
+
+        /**
+         * @return how many triples were parsed or read from the cache.
+         */
+        public long getTriples() {
+            return triples;
+        }
+
+        /**
+         * @return the warnings and errors, each as "LEVEL: path line:col -
+         * message", in path order and then in the order they were found.
+         */
+        public List<String> getProblems() {
+            return problems;
+        }
+
+        /**
+         * @return whether every file parsed without errors.
+         */
+        public boolean passed() {
+            return errors == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d files (%,d from the cache), %,d triples, %d with errors, %d warnings and errors in all, in %d ms",
+                    files, fromCache, triples, errors, problems.size(), elapsedNanos / 1_000_000);
+        }
+    }
+
+    /**
+     * One file's prefixes, triples and complaints, in the order the parser
+     * came across them.
+     */
+    private static final class ParsedFile extends StreamRDFBase implements ErrorHandler {
+
+        private final Path path;
+        private final List<Object> events = new ArrayList<>();
+        private final List<String> problems = new ArrayList<>();
+        private boolean fromCache;
+        private boolean failed;
+        private long triples;
+
+        ParsedFile(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            events.add(triple);
+            triples++;
+        }
+
+        @Override
+        public void prefix(String prefix, String iri) {
+            events.add(new String[]{prefix, iri});
+        }
+
+        @Override
+        public void warning(String message, long line, long col) {
+            problem("WARN", path + " " + line + ":" + col + " - " + message, false);
+        }
+
+        @Override
+        public void error(String message, long line, long col) {
+            problem("ERROR", path + " " + line + ":" + col + " - " + message, true);
+        }
+
+        @Override
+        public void fatal(String message, long line, long col) {
+            problem("FATAL", path + " " + line + ":" + col + " - " + message, true);
+            // Stop the parse, as the default handler does.
+            throw new RiotException(message);
+        }
+
+        void problem(String level, String description, boolean error) {
+            problems.add(level + ": " + description);
+            if (error) {
+                failed = true;
+            }
+        }
+
+        void passOn(StreamRDF out) {
+            for (Object event : events) {
+                if (event instanceof Triple) {
+                    out.triple((Triple) event);
+                } else {
+                    out.prefix(((String[]) event)[0], ((String[]) event)[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Validates a directory of facts, rdf by default, printing every warning
+     * and error and exiting with status 1 if there were any errors.
+     *
+     * @param args the directory, and --no-cache to ignore the cache.
+     * @throws IOException if the directory can't be read.
+     */
+    public static void main(String[] args) throws IOException {
+        Path directory = Path.of("rdf");
+        boolean cached = true;
+        for (String arg : args) {
+            if (arg.equals("--no-cache")) {
+                cached = false;
+            } else {
+                directory = Path.of(arg);
+            }
+        }
+        LocalFactLoader loader = cached ? fromSystemProperties(directory) : new LocalFactLoader(directory, null);
+        Report report = loader.load(null);
+        report.getProblems().forEach(System.err::println);
+        System.out.println("Validated " + report);
+        if (!report.passed()) {
+            System.exit(1);
+        }
+    }
+}
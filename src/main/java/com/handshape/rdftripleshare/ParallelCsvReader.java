@@ -0,0 +1,436 @@
+package com.handshape.rdftripleshare;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+
+/**
+ * Reads the RIAS, metadata and departments CSVs into triples, a good deal
+ * faster than Commons CSV once they run to hundreds of megabytes.
+ * <p>
+ * The file is memory-mapped, and split into chunks of about
+ * rdfshare.csv.chunk-bytes (4 MiB) that end on record boundaries. One pass
+ * over the bytes finds them, following the quoting, so a quoted value with a
+ * newline in it never straddles two chunks. The chunks are parsed on
+ * rdfshare.csv.concurrency workers (one per processor; with one, on the
+ * calling thread), which only make
+ * strings of the columns asked for, found by their index in the header once
+ * rather than by name on every row. Each chunk's triples are sent on in file
+ * order, whichever chunk finished first.
+ * <p>
+ * It reads CSV as CSVFormat.DEFAULT does: UTF-8, comma-separated, quoted with
+ * double quotes, which are doubled inside quotes, with CRLF, LF or CR line
+ * ends, and empty lines skipped. The first record is the header.
+ *
+ * @author jturner
+ */
+public class ParallelCsvReader {
+
+    /**
+     * Turns a record into triples. It's called on the workers, so it mustn't
+     * touch anything that isn't thread-safe.
+     */
+    public interface RecordHandler {
+
+        /**
+         * @param values the values of the columns asked for, in the order
+         * they were asked for; null where the record is too short to have
+         * one, or where it's empty, if empty values are null.
+         * @param out where the record's triples go.
+         */
+        void record(String[] values, StreamRDF out);
+    }
+
+    // Mappings are limited to 2 GiB, so the split walks the file in windows.
+    private static final long WINDOW_BYTES = 1L << 30;
+
+    private final Path file;
+    private int chunkBytes = Integer.getInteger("rdfshare.csv.chunk-bytes", 4 * 1024 * 1024);
+    private int concurrency = Integer.getInteger("rdfshare.csv.concurrency", Runtime.getRuntime().availableProcessors());
+    private boolean ignoreSurroundingSpaces;
+    private boolean emptyAsNull;
+
+    public ParallelCsvReader(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @param chunkBytes roughly how much of the file each worker parses at a
+     * time; a chunk runs on to the end of the record it's in.
+     * @return this reader.
+     */
+    public ParallelCsvReader setChunkBytes(int chunkBytes) {
+        if (chunkBytes < 1) {
+            throw new IllegalArgumentException("Chunks have to be at least a byte");
+        }
+        this.chunkBytes = chunkBytes;
+        return this;
+    }
+
+    /**
+     * @param concurrency how many chunks are parsed at once.
+     * @return this reader.
+     */
+    public ParallelCsvReader setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("CSV concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * @param ignoreSurroundingSpaces whether to trim spaces from around
+     * values, and let them come before a quote, as
+     * CSVFormat.withIgnoreSurroundingSpaces() does.
+     * @return this reader.
+     */
+    public ParallelCsvReader setIgnoreSurroundingSpaces(boolean ignoreSurroundingSpaces) {
+        this.ignoreSurroundingSpaces = ignoreSurroundingSpaces;
+        return this;
+    }
+
+    /**
+     * @param emptyAsNull whether empty values are passed on as null, as
+     * CSVFormat.withNullString("") does.
+     * @return this reader.
+     */
+    public ParallelCsvReader setEmptyAsNull(boolean emptyAsNull) {
+        this.emptyAsNull = emptyAsNull;
+        return this;
+    }
+
+    /**
+     * Parses every record after the header, and sends the triples the
+     * handler makes of them to a stream, in the order of the records.
+     *
+     * @param columns the names of the columns to pass to the handler.
+     * @param handler turns each record into triples.
+     * @param out where the triples go.
+     * @throws IOException if the file can't be read, it isn't valid CSV, or
+     * a column isn't in its header.
+     */
+    public void read(List<String> columns, RecordHandler handler, StreamRDF out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Header header = header(channel, size);
+            int[] slots = new int[header.names.size()];
+            Arrays.fill(slots, -1);
+            for (int slot = 0; slot < columns.size(); slot++) {
+                int index = header.names.indexOf(columns.get(slot));
+                if (index < 0) {
+                    throw new IOException("No column called " + columns.get(slot) + " in " + file + "; it has " + header.names);
+                }
+                slots[index] = slot;
+            }
+            int workerCount = (int) Math.max(1, Math.min(concurrency, (size - header.end) / chunkBytes + 1));
+            // With only one worker, there's nothing to gain by handing the chunks to another thread.
+            ExecutorService workers = workerCount > 1 ? Executors.newFixedThreadPool(workerCount) : null;
+            try {
+                Deque<Future<List<Triple>>> pending = new ArrayDeque<>();
+                Splitter splitter = new Splitter(header.end);
+                for (long windowStart = header.end; windowStart < size; windowStart += WINDOW_BYTES) {
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW_BYTES, size - windowStart));
+                    for (int i = 0; i < window.limit(); i++) {
+                        if (splitter.isRecordEnd(window.get(i)) && windowStart + i + 1 - splitter.chunkStart >= chunkBytes) {
+                            long chunkStart = splitter.chunkStart;
+                            long chunkEnd = windowStart + i + 1;
+                            pending.add(workers == null ? CompletableFuture.completedFuture(parse(channel, chunkStart, chunkEnd, slots, columns.size(), handler))
+                                    : workers.submit(() -> parse(channel, chunkStart, chunkEnd, slots, columns.size(), handler)));
+                            splitter.chunkStart = chunkEnd;
+                            // Keeps the parsed chunks waiting to be sent on, and the memory they hold, bounded.
+                            while (pending.size() > workerCount * 2) {
+                                send(pending.removeFirst(), out);
+                            }
+                        }
+                    }
+                }
+                if (splitter.chunkStart < size) {
+                    long chunkStart = splitter.chunkStart;
+                    pending.add(workers == null ? CompletableFuture.completedFuture(parse(channel, chunkStart, size, slots, columns.size(), handler))
+                            : workers.submit(() -> parse(channel, chunkStart, size, slots, columns.size(), handler)));
+                }
+                while (!pending.isEmpty()) {
+                    send(pending.removeFirst(), out);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading " + file, ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            } finally {
+                if (workers != null) {
+                    workers.shutdownNow();
+                }
+            }
+        }
+    }
+
+    private static void send(Future<List<Triple>> chunk, StreamRDF out) throws InterruptedException, ExecutionException {
+        for (Triple triple : chunk.get()) {
+            out.triple(triple);
+        }
+    }
+
+    /**
+     * Reads the header from the start of the file, past a byte order mark,
+     * if there is one, taking more of the file until the whole record's in.
+     */
+    private Header header(FileChannel channel, long size) throws IOException {
+        for (long prefix = Math.min(size, 64 * 1024);; prefix = Math.min(size, prefix * 2)) {
+            byte[] bytes = new byte[(int) prefix];
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, prefix).get(bytes);
+            int start = bytes.length >= 3 && (bytes[0] & 0xff) == 0xef && (bytes[1] & 0xff) == 0xbb && (bytes[2] & 0xff) == 0xbf ? 3 : 0;
+            Parser parser = new Parser(bytes, bytes.length, null, 0);
+            List<String> names = new ArrayList<>();
+            int end = parser.record(start, names);
+            // A header that ran to the end of what was read may go on further.
+            if (end < bytes.length || prefix == size) {
+                return new Header(names, end);
+            }
+        }
+    }
+
+    private List<Triple> parse(FileChannel channel, long start, long end, int[] slots, int columns, RecordHandler handler) throws IOException {
+        byte[] bytes = new byte[(int) (end - start)];
+        channel.map(FileChannel.MapMode.READ_ONLY, start, end - start).get(bytes);
+        List<Triple> triples = new ArrayList<>();
+        StreamRDF buffer = new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                triples.add(triple);
+            }
+        };
+        Parser parser = new Parser(bytes, bytes.length, slots, columns);
+        int pos = 0;
+        while (pos < bytes.length) {
+            try {
+                pos = parser.record(pos, null);
+            } catch (IOException ex) {
+                throw new IOException("Failed to parse " + file + " near byte " + (start + parser.errorAt) + ": " + ex.getMessage(), ex);
+            }
+            if (!parser.empty) {
+                handler.record(parser.values, buffer);
+            }
+        }
+        return triples;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static class Header {
+
+        private final List<String> names;
+        private final int end;
+
+        Header(List<String> names, int end) {
+            this.names = names;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Follows the quoting a byte at a time, to tell which newlines end
+     * records.
+     */
+    private class Splitter {
+
+        private static final int FIELD_START = 0;
+        private static final int UNQUOTED = 1;
+        private static final int QUOTED = 2;
+        private static final int QUOTE_IN_QUOTED = 3;
+
+        private long chunkStart;
+        private int state = FIELD_START;
+
+        Splitter(long chunkStart) {
+            this.chunkStart = chunkStart;
+        }
+
+        /**
+         * @return whether the byte is a newline that ends a record.
+         */
+        boolean isRecordEnd(byte b) {
+            switch (state) {
+                case QUOTED:
+                    if (b == '"') {
+                        state = QUOTE_IN_QUOTED;
+                    }
+                    return false;
+                case QUOTE_IN_QUOTED:
+                    if (b == '"') {
+                        // A doubled quote, still inside the quotes.
+                        state = QUOTED;
+                        return false;
+                    }
+                    break;
+                case FIELD_START:
+                    if (b == '"') {
+                        state = QUOTED;
+                        return false;
+                    }
+                    if (ignoreSurroundingSpaces && isSpace(b)) {
+                        return false;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (b == ',' || b == '\r' || b == '\n') {
+                state = FIELD_START;
+                return b == '\n';
+            }
+            state = UNQUOTED;
+            return false;
+        }
+    }
+
+    /**
+     * Parses the records in a chunk, making strings of the values in the
+     * columns asked for, and skipping the rest.
+     */
+    private class Parser {
+
+        private final byte[] bytes;
+        private final int length;
+        private final int[] slots;
+        private final String[] values;
+        private byte[] unescaped = new byte[256];
+        private boolean empty;
+        private int errorAt;
+
+        /**
+         * @param slots where each column's value goes in values, by its index
+         * in the header, or -1 to skip it; null when every value's wanted.
+         */
+        Parser(byte[] bytes, int length, int[] slots, int columns) {
+            this.bytes = bytes;
+            this.length = length;
+            this.slots = slots;
+            this.values = new String[columns];
+        }
+
+        /**
+         * Parses the record at pos into values, or, if all isn't null, adds
+         * every value to it.
+         *
+         * @return where the next record starts.
+         * @throws IOException if a quoted value is followed by anything but a
+         * comma or the end of the line.
+         */
+        int record(int pos, List<String> all) throws IOException {
+            Arrays.fill(values, null);
+            empty = pos < length && (bytes[pos] == '\n' || bytes[pos] == '\r');
+            for (int column = 0;; column++) {
+                int slot = all != null ? column : slots != null && column < slots.length ? slots[column] : -1;
+                if (ignoreSurroundingSpaces) {
+                    while (pos < length && isSpace(bytes[pos])) {
+                        pos++;
+                    }
+                }
+                String value = null;
+                if (pos < length && bytes[pos] == '"') {
+                    int start = pos + 1;
+                    int escapes = 0;
+                    for (pos = start;; pos++) {
+                        if (pos >= length) {
+                            errorAt = start - 1;
+                            throw new IOException("a quoted value runs on to the end of the file");
+                        }
+                        if (bytes[pos] == '"') {
+                            if (pos + 1 < length && bytes[pos + 1] == '"') {
+                                escapes++;
+                                pos++;
+                            } else {
+                                break;
+                            }
+                        }
+                    }
+                    if (slot >= 0) {
+                        value = escapes == 0 ? new String(bytes, start, pos - start, StandardCharsets.UTF_8) : unescape(start, pos, escapes);
+                    }
+                    pos++;
+                    // As with Commons CSV, spaces may follow the closing quote whether or not they're ignored elsewhere.
+                    while (pos < length && isSpace(bytes[pos])) {
+                        pos++;
+                    }
+                    if (pos < length && bytes[pos] != ',' && bytes[pos] != '\n' && bytes[pos] != '\r') {
+                        errorAt = pos;
+                        throw new IOException("invalid character between a quoted value and the delimiter");
+                    }
+                } else {
+                    int start = pos;
+                    while (pos < length && bytes[pos] != ',' && bytes[pos] != '\n' && bytes[pos] != '\r') {
+                        pos++;
+                    }
+                    int end = pos;
+                    if (ignoreSurroundingSpaces) {
+                        while (end > start && isSpace(bytes[end - 1])) {
+                            end--;
+                        }
+                    }
+                    if (slot >= 0) {
+                        value = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+                    }
+                }
+                if (value != null && emptyAsNull && value.isEmpty()) {
+                    value = null;
+                }
+                if (all != null) {
+                    all.add(value);
+                } else if (slot >= 0) {
+                    values[slot] = value;
+                }
+                if (pos >= length) {
+                    return pos;
+                }
+                if (bytes[pos] == ',') {
+                    pos++;
+                    continue;
+                }
+                // CRLF, LF or CR.
+                if (bytes[pos] == '\r' && pos + 1 < length && bytes[pos + 1] == '\n') {
+                    pos++;
+                }
+                return pos + 1;
+            }
+        }
+
+        private String unescape(int start, int end, int escapes) {
+            int count = end - start - escapes;
+            if (unescaped.length < count) {
+                unescaped = new byte[Math.max(count, unescaped.length * 2)];
+            }
+            int out = 0;
+            for (int pos = start; pos < end; pos++) {
+                unescaped[out++] = bytes[pos];
+                if (bytes[pos] == '"') {
+                    // The second of the pair.
+                    pos++;
+                }
+            }
+            return new String(unescaped, 0, count, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.handshape.rdftripleshare;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+
+/**
+ * Runs the stages of a build, each of which emits triples from one source,
+ * as many at once as their dependencies allow.
+ * <p>
+ * Each stage names the shared state it consumes and produces, like the set of
+ * known statutory instruments. A stage that consumes something waits for every
+ * stage that produces it, and stages that produce the same thing take turns in
+ * the order they were added, so that none of them sees it half-written. A
+ * stage that both consumes and produces something only waits for the
+ * producers added before it.
+ * <p>
+ * Whatever order the stages finish in, their triples reach the output in the
+ * order the stages were added, exactly as if they had run one after another.
+ * A stage that starts once every stage before it has been passed on writes
+ * straight to the output; any other is buffered until its turn comes.
+ *
+ * @author jturner
+ */
+public class Pipeline {
+
+    /**
+     * Emits one source's triples, without starting or finishing the stream.
+     */
+    @FunctionalInterface
+    public interface Source {
+
+        void emit(StreamRDF out) throws Exception;
+    }
+
+    private final int concurrency;
+    private final List<Stage> stages = new ArrayList<>();
+
+    /**
+     * Runs as many stages at once as the rdfshare.pipeline.concurrency system
+     * property allows (4 by default).
+     */
+    public Pipeline() {
+        this(Integer.getInteger("rdfshare.pipeline.concurrency", 4));
+    }
+
+    public Pipeline(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("At least one stage has to be able to run");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Adds a stage that depends on nothing, and that nothing depends on.
+     *
+     * @param name what to call the stage in its timing.
+     * @param source what the stage runs.
+     * @return this pipeline.
+     */
+    public Pipeline stage(String name, Source source) {
+        return stage(name, List.of(), List.of(), source);
+    }
+
+    /**
+     * @param name what to call the stage in its timing.
+     * @param consumes the names of the shared state the stage reads.
+     * @param produces the names of the shared state the stage writes.
+     * @param source what the stage runs.
+     * @return this pipeline.
+     */
+    public Pipeline stage(String name, Collection<String> consumes, Collection<String> produces, Source source) {
+        stages.add(new Stage(stages.size(), name, List.copyOf(consumes), List.copyOf(produces), source));
+        return this;
+    }
+
+    /**
+     * Runs every stage, sending their triples on to the stream. Doesn't start
+     * or finish the stream.
+     *
+     * @param out where the triples go.
+     * @throws IOException if a stage fails with one; any other failure is
+     * rethrown as is if it's unchecked, or wrapped in an
+     * IllegalStateException if not.
+     * @throws IllegalStateException if the stages depend on each other in a
+     * cycle.
+     */
+    public void run(StreamRDF out) throws IOException {
+        List<List<Stage>> dependents = new ArrayList<>();
+        int[] waitingOn = new int[stages.size()];
+        for (Stage stage : stages) {
+            dependents.add(new ArrayList<>());
+            stage.reset();
+        }
+        for (Stage stage : stages) {
+            for (Stage other : stages) {
+                if (dependsOn(stage, other)) {
+                    dependents.get(other.index).add(stage);
+                    waitingOn[stage.index]++;
+                }
+            }
+        }
+        checkForCycles(dependents, waitingOn.clone());
+
+        long started = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        CompletionService<Stage> completions = new ExecutorCompletionService<>(workers);
+        int nextToPass = 0;
+        int running = 0;
+        try {
+            for (Stage stage : stages) {
+                if (waitingOn[stage.index] == 0) {
+                    submit(completions, stage, out, nextToPass, started);
+                    running++;
+                }
+            }
+            while (running > 0) {
+                Stage done = completions.take().get();
+                running--;
+                while (nextToPass < stages.size() && stages.get(nextToPass).done) {
+                    stages.get(nextToPass).passOn(out);
+                    nextToPass++;
+                }
+                for (Stage dependent : dependents.get(done.index)) {
+                    if (--waitingOn[dependent.index] == 0) {
+                        submit(completions, dependent, out, nextToPass, started);
+                        running++;
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running the pipeline", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * @return how each stage fared in the last run, in the order the stages
+     * were added.
+     */
+    public List<StageTiming> getTimings() {
+        List<StageTiming> timings = new ArrayList<>();
+        for (Stage stage : stages) {
+            timings.add(new StageTiming(stage.name, stage.triples, stage.startedNanos, stage.elapsedNanos, stage.allocatedBytes, stage.buffer == null));
+        }
+        return timings;
+    }
+
+    private void submit(CompletionService<Stage> completions, Stage stage, StreamRDF out, int nextToPass, long started) {
+        // Only the next stage due to be passed on may write to the output; nothing else will until it's done.
+        boolean direct = stage.index == nextToPass;
+        completions.submit(() -> {
+            stage.run(direct ? out : null, started);
+            return stage;
+        });
+    }
+
+    private static boolean dependsOn(Stage stage, Stage other) {
+        if (stage == other) {
+            return false;
+        }
+        for (String name : stage.consumes) {
+            if (other.produces.contains(name) && (!stage.produces.contains(name) || other.index < stage.index)) {
+                return true;
+            }
+        }
+        for (String name : stage.produces) {
+            if (other.produces.contains(name) && other.index < stage.index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkForCycles(List<List<Stage>> dependents, int[] waitingOn) {
+        List<Stage> ready = new ArrayList<>();
+        for (Stage stage : stages) {
+            if (waitingOn[stage.index] == 0) {
+                ready.add(stage);
+            }
+        }
+        int reached = 0;
+        while (!ready.isEmpty()) {
+            Stage stage = ready.remove(ready.size() - 1);
+            reached++;
+            for (Stage dependent : dependents.get(stage.index)) {
+                if (--waitingOn[dependent.index] == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (reached < stages.size()) {
+            List<String> stuck = new ArrayList<>();
+            for (Stage stage : stages) {
+                if (waitingOn[stage.index] > 0) {
+                    stuck.add(stage.name);
+                }
+            }
+            throw new IllegalStateException("These stages depend on each other in a cycle: " + stuck);
+        }
+    }
+
+    /**
+     * When a stage ran, how long it took, how much it allocated, and how many
+     * triples it emitted.
+     */
+    public static final class StageTiming {
+
+        private final String name;
+        private final long triples;
+        private final long startedNanos;
+        private final long elapsedNanos;
+        private final long allocatedBytes;
+        private final boolean direct;
+
+        StageTiming(String name, long triples, long startedNanos, long elapsedNanos, long allocatedBytes, boolean direct) {
+            this.name = name;
+            this.triples = triples;
+            this.startedNanos = startedNanos;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.direct = direct;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getTriples() {
+            return triples;
+        }
+
+        /**
+         * @return how long after the pipeline started the stage did.
+         */
+        public long getStartedNanos() {
+            return startedNanos;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return what the stage's own thread allocated, not counting any
+         * workers it handed work to, or -1 if the JVM can't say.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * @return whether the stage wrote straight to the output rather than
+         * being buffered.
+         */
+        public boolean isDirect() {
+            return direct;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %,d triples in %.1f s, starting at %.1f s, %.1f MiB allocated%s", name, triples, elapsedNanos / 1e9, startedNanos / 1e9,
+                    allocatedBytes / 1048576.0, direct ? "" : ", buffered");
+        }
+    }
+
+    private static final class Stage {
+
+        private final int index;
+        private final String name;
+        private final List<String> consumes;
+        private final List<String> produces;
+        private final Source source;
+        private volatile boolean done;
+        private List<Object> buffer;
+        private long triples;
+        private long startedNanos;
+        private long elapsedNanos;
+        private long allocatedBytes;
+
+        Stage(int index, String name, List<String> consumes, List<String> produces, Source source) {
+            this.index = index;
+            this.name = name;
+            this.consumes = consumes;
+            this.produces = produces;
+            this.source = source;
+        }
+
+        void reset() {
+            done = false;
+            buffer = null;
+            triples = 0;
+            startedNanos = 0;
+            elapsedNanos = 0;
+            allocatedBytes = 0;
+        }
+
+        void run(StreamRDF out, long pipelineStarted) throws Exception {
+            BuildEvents.Stage stageEvent = new BuildEvents.Stage();
+            stageEvent.begin();
+            long allocation = BuildMetrics.allocatedBytes();
+            long start = System.nanoTime();
+            startedNanos = start - pipelineStarted;
+            StreamRDF destination;
+            if (out == null) {
+                buffer = new ArrayList<>();
+                destination = new StreamRDFBase() {
+                    @Override
+                    public void triple(Triple triple) {
+                        buffer.add(triple);
+                    }
+
+                    @Override
+                    public void prefix(String prefix, String iri) {
+                        buffer.add(new String[]{prefix, iri});
+                    }
+                };
+            } else {
+                destination = new StreamRDFWrapper(out) {
+                    @Override
+                    public void start() {
+                    }
+
+                    @Override
+                    public void finish() {
+                    }
+
+                    @Override
+                    public void triple(Triple triple) {
+                        triples++;
+                        super.triple(triple);
+                    }
+                };
+            }
+            source.emit(destination);
+            if (buffer != null) {
+                for (Object event : buffer) {
+                    if (event instanceof Triple) {
+                        triples++;
+                    }
+                }
+            }
+            elapsedNanos = System.nanoTime() - start;
+            allocatedBytes = allocation < 0 ? -1 : BuildMetrics.allocatedBytes() - allocation;
+            stageEvent.end();
+            if (stageEvent.shouldCommit()) {
+                stageEvent.stage = name;
+                stageEvent.triples = triples;
+                stageEvent.buffered = buffer != null;
+                stageEvent.commit();
+            }
+            done = true;
+        }
+
+        void passOn(StreamRDF out) {
+            if (buffer == null) {
+                return;
+            }
+            for (Object event : buffer) {
+                if (event instanceof Triple) {
+                    out.triple((Triple) event);
+                } else {
+                    out.prefix(((String[]) event)[0], ((String[]) event)[1]);
+                }
+            }
+            // The triples are the output's now, so there's no need to keep holding them.
+            buffer.clear();
+        }
+    }
+}
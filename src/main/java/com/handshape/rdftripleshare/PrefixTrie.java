@@ -0,0 +1,101 @@
+package com.handshape.rdftripleshare;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shortens URIs to their prefixed forms, like
+ * {@link org.apache.jena.shared.PrefixMapping#shortForm(String)}, but by
+ * walking a trie of the namespaces one character at a time rather than trying
+ * each namespace in turn. Where more than one namespace matches, the longest
+ * wins, rather than whichever the prefix map happens to try first.
+ * <p>
+ * Safe for concurrent use once built, but not while prefixes are being added.
+ *
+ * @author jturner
+ */
+public final class PrefixTrie {
+
+    private final TrieNode root = new TrieNode();
+    private final Map<String, TrieNode> nodesByPrefix = new HashMap<>();
+
+    public PrefixTrie() {
+    }
+
+    public PrefixTrie(Map<String, String> prefixes) {
+        for (Map.Entry<String, String> entry : prefixes.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @param prefix the prefix, like "schema".
+     * @param namespace the URI it stands for, like "https://schema.org/";
+     * replaces the prefix's old namespace, and any prefix already given for
+     * the same namespace.
+     */
+    public void put(String prefix, String namespace) {
+        TrieNode old = nodesByPrefix.remove(prefix);
+        if (old != null) {
+            old.prefix = null;
+        }
+        TrieNode node = root;
+        for (int i = 0; i < namespace.length(); i++) {
+            node = node.childOrCreate(namespace.charAt(i));
+        }
+        if (node.prefix != null) {
+            nodesByPrefix.remove(node.prefix);
+        }
+        node.prefix = prefix;
+        nodesByPrefix.put(prefix, node);
+    }
+
+    /**
+     * @param uri a URI.
+     * @return the URI as prefix:local for the longest matching namespace, or
+     * the URI itself if no namespace matches.
+     */
+    public String shortForm(String uri) {
+        TrieNode node = root;
+        String prefix = null;
+        int matched = 0;
+        for (int i = 0; node != null; i++) {
+            if (node.prefix != null) {
+                prefix = node.prefix;
+                matched = i;
+            }
+            node = i < uri.length() ? node.child(uri.charAt(i)) : null;
+        }
+        return prefix == null ? uri : prefix + ":" + uri.substring(matched);
+    }
+
+    private static final class TrieNode {
+
+        // Namespaces mostly run on for long stretches with a single child, so a short array beats a map.
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private String prefix;
+
+        TrieNode child(char key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == key) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        TrieNode childOrCreate(char key) {
+            TrieNode child = child(key);
+            if (child == null) {
+                child = new TrieNode();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = key;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
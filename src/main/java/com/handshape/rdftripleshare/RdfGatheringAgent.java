@@ -4,44 +4,50 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.xml.stream.XMLStreamException;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
-import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.mutable.MutableBoolean;
-import org.apache.jena.rdf.model.AnonId;
-import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.rdf.model.RDFVisitor;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
-import org.apache.jena.rdf.model.StmtIterator;
 import org.apache.jena.rdf.model.impl.PropertyImpl;
-import org.apache.jena.riot.RDFParser;
-import org.apache.jena.riot.system.ErrorHandler;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.lang.StreamRDFCounting;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFWrapper;
 import org.jdom2.Content;
 import org.jdom2.Document;
 import org.jdom2.Element;
@@ -51,6 +57,14 @@ import org.jsoup.Jsoup;
 import org.jsoup.select.Elements;
 
 /**
+ * Gathers facts about statutory instruments from the local turtle and CSV
+ * files and the published sources, as RDF.
+ * <p>
+ * Each fetchAndParse method emits its triples to a {@link StreamRDF}, so that
+ * they can go straight to writers (see {@link ExternalSortingSink}) without the
+ * whole corpus being held in memory, and has a {@link Model} counterpart that
+ * adds them to the model instead. The methods don't call start() or finish()
+ * on the stream; that's up to whoever owns it.
  *
  * @author jturner
  */
@@ -60,13 +74,10 @@ public class RdfGatheringAgent {
     private static final String STATUTORY_INSTRUMENT_PREFIX = "https://www.canada.ca/en/privy-council/ext/statutory-instrument/";
     private static final String ANNUAL_STATUTE_URL_PREFIX = "https://laws.justice.gc.ca/eng/AnnualStatutes/"; // Suffix with "year underscore chapter"
     private static final String LEGIS_URL = "https://laws-lois.justice.gc.ca/eng/XML/Legis.xml";
+    private static final String CONSOLIDATED_XML_URL_PREFIX = "https://laws-lois.justice.gc.ca/eng/XML/"; // Suffix with "instrument id dot xml"
     private static final String CONSOLIDATED_INDEX_OF_STATUTORY_INSTRUMENTS_URL
             = "https://canadagazette.gc.ca/rp-pr/p2/2020/2020-12-31-c4/?-eng.html";
 
-    private static final String REFERENCE_CHAPTER_MARKER = ", c. ";
-    private static final String REFERENCE_SECTION_MARKER = ", s. ";
-    private static final String REFERENCE_SECTIONS_MARKER = ", ss. ";
-
     // Declare the set of predicates that we'll be generating programmatically. The justice ones are all made-up.
     final PropertyImpl sponsorProperty = new PropertyImpl("https://www.gazette.gc.ca/ext/sponsor");
     final PropertyImpl consultationWordCountProperty = new PropertyImpl("https://www.gazette.gc.ca/ext/consultation-word-count");
@@ -84,133 +95,508 @@ public class RdfGatheringAgent {
     final PropertyImpl departmentHeadProperty = new PropertyImpl("https://www.tpsgc-pwgsc.gc.ca/recgen/ext/department-head");
     final PropertyImpl metadataLabelProperty = new PropertyImpl("https://www.csps-efpc.gc.ca/ext/instrument-references");
 
+    // The CSV columns each set is read from, in the order their handlers take them.
+    private static final List<String> DEPARTMENT_COLUMNS = List.of("ORG_ID", "ORGNAME_EN", "ORGNAME_FR", "DEPT_HEAD_EN");
+    private static final List<String> METADATA_COLUMNS = List.of("instrument_number", "category_item_desc_en");
+    private static final List<String> RIAS_COLUMNS = List.of("ID", "regtext", "sponsor", "CBA.wordcount", "rias.wordcount", "consultation.wordcount");
+
+    // Where the justice XML comes from, and how hard we're allowed to lean on it. Overridable with system properties.
+    private String legisUrl = System.getProperty("rdfshare.legis.url", LEGIS_URL);
+    private String consolidatedXmlUrlPrefix = System.getProperty("rdfshare.consolidated.url.prefix", CONSOLIDATED_XML_URL_PREFIX);
+    private String gazetteIndexUrl = System.getProperty("rdfshare.gazette.url", CONSOLIDATED_INDEX_OF_STATUTORY_INSTRUMENTS_URL);
+    private File departmentsCsv = new File("csv" + File.separator + "departments.csv");
+    private File riasCsv = new File("regcan.csv");
+    private File metadataCsv = new File("metadata.csv");
+    private int fetchConcurrency = Integer.getInteger("rdfshare.fetch.concurrency", 8);
+    private int perHostConcurrency = Integer.getInteger("rdfshare.fetch.per-host", 4);
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    // SAXBuilders are reusable, but not thread-safe, so each worker gets its own.
+    private final ThreadLocal<SAXBuilder> saxBuilders = ThreadLocal.withInitial(SAXBuilder::new);
+    private final ThreadLocal<StreamingInstrumentExtractor> instrumentExtractors = ThreadLocal.withInitial(StreamingInstrumentExtractor::new);
+    private HttpResponseCache httpCache;
+    private DocumentSource documentSource;
+    private BuildMetrics metrics = new BuildMetrics();
+    private InstrumentShardStore shardStore = InstrumentShardStore.fromSystemProperties();
+
+    /**
+     * @return the cache that live upstream documents are fetched through,
+     * configured from system properties unless one has been set.
+     * @throws IOException if the cache directory can't be opened.
+     */
+    public synchronized HttpResponseCache getHttpCache() throws IOException {
+        if (httpCache == null) {
+            httpCache = HttpResponseCache.fromSystemProperties();
+        }
+        return httpCache;
+    }
+
+    public synchronized void setHttpCache(HttpResponseCache httpCache) {
+        if (documentSource == this.httpCache) {
+            documentSource = null;
+        }
+        this.httpCache = httpCache;
+    }
+
+    /**
+     * @return where all upstream documents come from: the HTTP cache, unless
+     * the rdfshare.corpus.mode system property says to record them to an
+     * archive or replay them from one, or another source has been set.
+     * @throws IOException if the cache or the archive can't be opened.
+     */
+    public synchronized DocumentSource getDocumentSource() throws IOException {
+        if (documentSource == null) {
+            documentSource = DocumentSource.fromSystemProperties(getHttpCache());
+        }
+        return documentSource;
+    }
+
+    public synchronized void setDocumentSource(DocumentSource documentSource) {
+        this.documentSource = documentSource;
+    }
+
+    /**
+     * @return where every document fetched and parsed is recorded.
+     */
+    public BuildMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(BuildMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Turns on incremental builds of the consolidated acts and regulations.
+     *
+     * @param shardStore where per-instrument results are kept between builds,
+     * or null to fetch and parse every instrument every time.
+     */
+    public void setShardStore(InstrumentShardStore shardStore) {
+        this.shardStore = shardStore;
+    }
+
+    public void setLegisUrl(String legisUrl) {
+        this.legisUrl = legisUrl;
+    }
+
+    public void setConsolidatedXmlUrlPrefix(String consolidatedXmlUrlPrefix) {
+        this.consolidatedXmlUrlPrefix = consolidatedXmlUrlPrefix;
+    }
+
+    /**
+     * @param gazetteIndexUrl the URL of the Gazette's consolidated index of
+     * statutory instruments, with a "?" where each section's letter goes.
+     */
+    public void setGazetteIndexUrl(String gazetteIndexUrl) {
+        this.gazetteIndexUrl = gazetteIndexUrl;
+    }
+
+    public File getDepartmentsCsv() {
+        return departmentsCsv;
+    }
+
+    public void setDepartmentsCsv(File departmentsCsv) {
+        this.departmentsCsv = departmentsCsv;
+    }
+
+    public File getRiasCsv() {
+        return riasCsv;
+    }
+
+    public void setRiasCsv(File riasCsv) {
+        this.riasCsv = riasCsv;
+    }
+
+    public File getMetadataCsv() {
+        return metadataCsv;
+    }
+
+    public void setMetadataCsv(File metadataCsv) {
+        this.metadataCsv = metadataCsv;
+    }
+
+    /**
+     * Sets the maximum number of consolidated instruments fetched and parsed
+     * at once.
+     *
+     * @param fetchConcurrency the number of worker threads; 1 is sequential.
+     */
+    public void setFetchConcurrency(int fetchConcurrency) {
+        if (fetchConcurrency < 1) {
+            throw new IllegalArgumentException("Fetch concurrency must be at least 1");
+        }
+        this.fetchConcurrency = fetchConcurrency;
+    }
+
+    /**
+     * Sets the maximum number of requests that may be open against any single
+     * host at once, regardless of the overall fetch concurrency.
+     *
+     * @param perHostConcurrency the politeness cap per host.
+     */
+    public void setPerHostConcurrency(int perHostConcurrency) {
+        if (perHostConcurrency < 1) {
+            throw new IllegalArgumentException("Per-host concurrency must be at least 1");
+        }
+        this.perHostConcurrency = perHostConcurrency;
+        hostPermits.clear();
+    }
+
     public void fetchAndParseLocalTurtle(Model model, MutableBoolean pass) throws IOException {
+        fetchAndParseLocalTurtle(into(model), pass);
+    }
+
+    public void fetchAndParseLocalTurtle(StreamRDF out, MutableBoolean pass) throws IOException {
         // Iterate through the "rdf" directory for turtle files.
         // Manually-coded facts and shorthand prefixes can be declared in the turtle.
-        File root = new File("rdf");
-
-        Files.walk(root.toPath()).filter(path -> Files.exists(path, LinkOption.NOFOLLOW_LINKS)).filter(path -> path.toFile().isFile()).forEach(path -> {
-            ErrorHandler handler = new RdfParsingErrorHandler(pass, path);
-            switch (FilenameUtils.getExtension(path.toString())) {
-                case "ttl":
-                case "nt":
-                    RDFParser.source(path).checking(true).errorHandler(handler).build().parse(model);
-                    break;
-                default:
-                    System.err.println("ERROR: Unexpected file extension at " + path);
-                    pass.setFalse();
-                    break;
+        LocalFactLoader.Report report = LocalFactLoader.fromSystemProperties(Path.of("rdf")).load(out);
+        for (String problem : report.getProblems()) {
+            Logger.getLogger(RdfGatheringAgent.class
+                    .getName()).log(Level.WARNING, problem);
+        }
+        if (!report.passed()) {
+            pass.setFalse();
+        }
+        metrics.count("localFacts.files", report.getFiles());
+        metrics.count("localFacts.fromCache", report.getFromCache());
+        metrics.count("localFacts.triples", report.getTriples());
+        metrics.count("localFacts.problems", report.getProblems().size());
+        Logger.getLogger(RdfGatheringAgent.class
+                .getName()).log(Level.INFO, "Local facts: {0}", report);
+    }
+
+    /**
+     * Writes the model out to target/out.sqlite3 alone, with its manifest,
+     * staged and renamed into place like {@link #writeModel(Model)}'s outputs,
+     * and leaving the others as they are.
+     *
+     * @param model the model to write out.
+     * @throws IOException if the db can't be written or moved into place.
+     * @throws SQLException if the export fails; the published db is left as
+     * it was.
+     */
+    public void writeModelToSqlite(Model model) throws IOException, SQLException {
+        // Setup DDL/SQL is in resources called "/ddl.sql" and "/ddl-dictionary.sql", depending on layout.
+        // Optimization is in a resource called "finalize.sql"
+        ReleaseDirectory release = new ReleaseDirectory(Path.of("target"), List.of("out.sqlite3", "out.sqlite3.manifest.json"));
+        new SqliteExporter(release.stage().resolve("out.sqlite3")).export(model);
+        release.publish();
+    }
+
+    /**
+     * Writes the model out as target/out.ttl, target/out.trdf (RDF Thrift,
+     * which loads far faster than re-parsing the Turtle) and
+     * target/out.sqlite3, in a single walk of the model, with the three
+     * written at once. If the rdfshare.shards system property is true, it's
+     * written out in shards to target/shards as well, and if
+     * rdfshare.changeset.previous is set, the changes since then are written
+     * too. They're all written to target/staging first, with
+     * build-report.json, and renamed into place once they're complete (see
+     * {@link ReleaseDirectory}).
+     *
+     * @param model the model to write out.
+     * @return how long each output took, and how much was written to it.
+     * @throws IOException if an output can't be written.
+     */
+    public List<FanOutWriter.SinkReport> writeModel(Model model) throws IOException {
+        return writeModel(model, new ReleaseDirectory(Path.of("target")));
+    }
+
+    /**
+     * Publishes the same outputs as {@link #writeModel(Model)} to a release
+     * directory of the caller's choosing.
+     *
+     * @param model the model to write out.
+     * @param release where the outputs are staged and published.
+     * @return how long each output took, and how much was written to it.
+     * @throws IOException if an output can't be written.
+     */
+    public List<FanOutWriter.SinkReport> writeModel(Model model, ReleaseDirectory release) throws IOException {
+        return publish(release, false, writer -> writer.write(model));
+    }
+
+    /**
+     * Writes the same outputs as {@link #writeModel(Model)}, streamed from a
+     * store in its index order rather than from a model.
+     *
+     * @param store the store to write out.
+     * @return how long each output took, and how much was written to it.
+     * @throws IOException if an output can't be written.
+     */
+    public List<FanOutWriter.SinkReport> writeStore(TdbStore store) throws IOException {
+        return writeStore(store, new ReleaseDirectory(Path.of("target")));
+    }
+
+    /**
+     * Publishes the same outputs as {@link #writeModel(Model)}, streamed from
+     * a store in its index order rather than from a model.
+     *
+     * @param store the store to write out.
+     * @param release where the outputs are staged and published.
+     * @return how long each output took, and how much was written to it.
+     * @throws IOException if an output can't be written.
+     */
+    public List<FanOutWriter.SinkReport> writeStore(TdbStore store, ReleaseDirectory release) throws IOException {
+        return publish(release, false, store::export);
+    }
+
+    /**
+     * Publishes the same outputs as {@link #writeModel(Model)}, and out.nt,
+     * straight from a source's triples, through a sorted spill to
+     * rdfshare.streaming.spill-dir (target/spill) that drops the duplicates,
+     * so the heap doesn't grow with the corpus. If the source fails, nothing
+     * is published.
+     *
+     * @param source where the triples come from.
+     * @param release where the outputs are staged and published.
+     * @return how long each output took, and how much was written to it.
+     * @throws IOException if the source or an output fails with one; any
+     * other checked failure of the source is wrapped in an
+     * IllegalStateException.
+     */
+    public List<FanOutWriter.SinkReport> writeStreamed(Pipeline.Source source, ReleaseDirectory release) throws IOException {
+        return publish(release, true, writer -> {
+            ExternalSortingSink sorted = new ExternalSortingSink(Path.of(System.getProperty("rdfshare.streaming.spill-dir", "target/spill")), writer);
+            StreamRDFCounting out = StreamRDFLib.count(sorted);
+            out.start();
+            try {
+                source.emit(out);
+            } catch (IOException | RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
             }
+            out.finish();
+            metrics.count("triples", out.countTriples());
+            metrics.count("triples.distinct", sorted.getDistinctTriples());
         });
     }
 
-    public void writeModelToSqlite(Model model) throws IOException, NoSuchElementException {
-        // Write the given model out to a nicely-packed SQLite db.
-        // Setup DDL/SQL is in a test resource called "/ddl.sql"
-        // Optimization is in a test resource called "finalize.sql"
-        try {
-            Connection conn = DriverManager.getConnection("jdbc:sqlite:target/out.sqlite3");
-            try (Statement stmt = conn.createStatement()) {
-                String ddlFile = IOUtils.toString(getClass().getResourceAsStream("/ddl.sql"), "UTF-8");
-                String lines[] = ddlFile.split("\\r?\\n");
-                for (String line : lines) {
-                    stmt.execute(line);
-                }
+    /**
+     * Writes the outputs to the staging directory, with the build report,
+     * and publishes them.
+     */
+    private List<FanOutWriter.SinkReport> publish(ReleaseDirectory release, boolean ntriples, Write write) throws IOException {
+        Path staging = release.stage();
+        if (Boolean.getBoolean("rdfshare.shards") && System.getProperty("rdfshare.shards.dir") == null) {
+            // The exporter leaves shards that haven't changed as they are, so it has to find them there.
+            release.seed("shards");
+        }
+        Path sqlite = staging.resolve("out.sqlite3");
+        List<FanOutWriter.SinkReport> reports;
+        try (OutputStream ttl = Files.newOutputStream(staging.resolve("out.ttl"));
+                OutputStream thrift = Files.newOutputStream(staging.resolve("out.trdf"));
+                OutputStream nt = ntriples ? Files.newOutputStream(staging.resolve("out.nt")) : null) {
+            FanOutWriter writer = new FanOutWriter()
+                    .add("out.ttl", ttl, RDFFormat.TURTLE_BLOCKS)
+                    .add("out.trdf", thrift, RDFFormat.RDF_THRIFT);
+            if (nt != null) {
+                writer.add("out.nt", nt, RDFFormat.NTRIPLES);
             }
-            conn.setAutoCommit(false);
-            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO TRIPLES (SUBJECT, OBJECT, PREDICATE) VALUES (?, ?, ?)")) {
-                StmtIterator stmts = model.listStatements();
-                while (stmts.hasNext()) {
-                    //Namespace conflict for JDBC Statements and Jena Statements!
-                    org.apache.jena.rdf.model.Statement triple = stmts.nextStatement();
-                    String rdfObject = (String) triple.getObject().visitWith(new RDFVisitor() {
-                        @Override
-                        public Object visitBlank(Resource r, AnonId id) {
-                            return id.toString();
-                        }
+            writer.add("out.sqlite3", new SqliteExporter(sqlite).sink(), sqlite);
+            addShards(writer, staging);
+            addChangeset(writer, staging);
+            write.to(writer);
+            reports = writer.getReports();
+        }
+        metrics.outputs(reports);
+        metrics.cache(getHttpCache());
+        metrics.writeReport(staging.resolve("build-report.json"));
+        release.publish();
+        return reports;
+    }
 
-                        @Override
-                        public Object visitURI(Resource r, String uri) {
-                            return model.shortForm(uri);
-                        }
+    /**
+     * Adds the sharded export to the outputs, if the rdfshare.shards system
+     * property asks for it: to rdfshare.shards.dir, if that's set, as it
+     * goes, and otherwise to the shards directory alongside the others.
+     */
+    private void addShards(FanOutWriter writer, Path directory) {
+        if (Boolean.getBoolean("rdfshare.shards")) {
+            String shardsDir = System.getProperty("rdfshare.shards.dir");
+            ShardedExporter shards = new ShardedExporter(shardsDir == null ? directory.resolve("shards") : Path.of(shardsDir));
+            writer.add("shards", shards, shards::getBytes);
+        }
+    }
 
-                        @Override
-                        public Object visitLiteral(Literal l) {
-                            return "\"" + l.getLexicalForm() + "\"";
-                        }
-                    });
-                    if (triple.getSubject().getURI() != null && triple.getPredicate().getURI() != null) {
-                        stmt.setString(1, model.shortForm(triple.getSubject().getURI()));
-                        stmt.setString(2, rdfObject);
-                        stmt.setString(3, model.shortForm(triple.getPredicate().getURI()));
-                        stmt.execute();
-                    }
-                }
+    /**
+     * Adds the changes since the previous release to the outputs, if the
+     * rdfshare.changeset.previous system property names that release's
+     * out.nt, out.ttl or out.trdf: an RDF Patch to out.rdfp, and a SQL script
+     * bringing its out.sqlite3 up to date to out.delta.sql.
+     */
+    private void addChangeset(FanOutWriter writer, Path directory) {
+        String previous = System.getProperty("rdfshare.changeset.previous");
+        if (previous != null) {
+            ChangesetWriter changeset = new ChangesetWriter(previous, directory.resolve("out.rdfp"), directory.resolve("out.delta.sql"),
+                    Path.of(System.getProperty("rdfshare.streaming.spill-dir", "target/spill"), "changeset"));
+            writer.add("changeset", changeset, changeset::getBytes);
+        }
+    }
 
-                stmt.execute();
-            }
-            for (Map.Entry<String, String> entry : model.getNsPrefixMap().entrySet()) {
-                try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO PREFIXES (PREFIX, URL) VALUES (?, ?)")) {
-                    stmt.setString(1, entry.getKey());
-                    stmt.setString(2, entry.getValue());
-                    System.out.println(entry.getKey() + " -> " + entry.getValue());
-                    stmt.execute();
+    /**
+     * Sends the triples to the outputs.
+     */
+    @FunctionalInterface
+    private interface Write {
+
+        void to(FanOutWriter writer) throws IOException;
+    }
+
+    public void fetchAndParseDepartments(Model model) throws JDOMException, IOException {
+        fetchAndParseDepartments(into(model));
+    }
+
+    public void fetchAndParseDepartments(StreamRDF stream) throws JDOMException, IOException {
+        try (BuildMetrics.Document document = metrics.document("departments", departmentsCsv.getPath())) {
+            document.fetched(false, departmentsCsv.length());
+            parseDepartments(counting(stream, document));
+        }
+    }
+
+    private void parseDepartments(StreamRDF out) throws IOException {
+        new ParallelCsvReader(departmentsCsv.toPath()).setIgnoreSurroundingSpaces(true).setEmptyAsNull(true)
+                .read(DEPARTMENT_COLUMNS, this::departmentRecord, out);
+    }
+
+    private void departmentRecord(String[] values, StreamRDF out) {
+        if (values[0] == null) {
+            return;
+        }
+        final Resource subject = ResourceFactory.createResource("https://www.tpsgc-pwgsc.gc.ca/recgen/orgid/" + values[0]);
+        if (values[1] != null) {
+            add(out, subject, orgnameProperty, values[1]);
+        }
+        if (values[2] != null) {
+            add(out, subject, orgnameProperty, values[2], "fr");
+        }
+        if (values[3] != null) {
+            add(out, subject, departmentHeadProperty, values[3]);
+        }
+    }
+
+    /**
+     * The Commons CSV equivalent of parsing departments.csv, kept as the
+     * reference for {@link ParallelCsvReader}'s results.
+     */
+    void parseDepartmentsWithCommonsCsv(StreamRDF out) throws IOException {
+        try (FileReader in = new FileReader(departmentsCsv, StandardCharsets.UTF_8)) {
+            Iterable<CSVRecord> records = CSVFormat.DEFAULT.withNullString("").withIgnoreSurroundingSpaces().withHeader().parse(in);
+            for (CSVRecord record : records) {
+                final Resource subject = ResourceFactory.createResource("https://www.tpsgc-pwgsc.gc.ca/recgen/orgid/" + record.get("ORG_ID").trim());
+                if (record.get("ORGNAME_EN") != null && record.get("ORGNAME_EN") != "") {
+                    add(out, subject, orgnameProperty, record.get("ORGNAME_EN"));
                 }
-            }
-            conn.commit();
-            conn.setAutoCommit(true);
-            try (Statement stmt = conn.createStatement()) {
-                String ddlFile = IOUtils.toString(getClass().getResourceAsStream("/finalize.sql"), "UTF-8");
-                String lines[] = ddlFile.split("\\r?\\n");
-                for (String line : lines) {
-                    stmt.execute(line);
+                if (record.get("ORGNAME_FR") != null && record.get("ORGNAME_FR") != "") {
+                    add(out, subject, orgnameProperty, record.get("ORGNAME_FR"), "fr");
+                }
+                if (record.get("DEPT_HEAD_EN") != null && record.get("DEPT_HEAD_EN") != "") {
+                    add(out, subject, departmentHeadProperty, record.get("DEPT_HEAD_EN"));
                 }
             }
-            conn.close();
-        } catch (SQLException ex) {
-            Logger.getLogger(RdfGatheringAgent.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
-    public void fetchAndParseDepartments(Model model) throws JDOMException, IOException {
-        FileReader in = new FileReader("csv" + File.separator + "departments.csv", StandardCharsets.UTF_8);
-        Iterable<CSVRecord> records = CSVFormat.DEFAULT.withNullString("").withIgnoreSurroundingSpaces().withHeader().parse(in);
-        for (CSVRecord record : records) {
-            final Resource subject = ResourceFactory.createResource("https://www.tpsgc-pwgsc.gc.ca/recgen/orgid/" + record.get("ORG_ID").trim());
-            if (record.get("ORGNAME_EN") != null && record.get("ORGNAME_EN") != "") {
-                model.add(subject, orgnameProperty, record.get("ORGNAME_EN"));
-            }
-            if (record.get("ORGNAME_FR") != null && record.get("ORGNAME_FR") != "") {
-                model.add(subject, orgnameProperty, record.get("ORGNAME_FR"), "fr");
-            }
-            if (record.get("DEPT_HEAD_EN") != null && record.get("DEPT_HEAD_EN") != "") {
-                model.add(subject, departmentHeadProperty, record.get("DEPT_HEAD_EN"));
+    public void fetchAndParseMetadata(Model model) throws IOException {
+        fetchAndParseMetadata(into(model));
+    }
+
+    public void fetchAndParseMetadata(StreamRDF stream) throws IOException {
+        File file = metadataCsv;
+        if (file.exists()) {
+            try (BuildMetrics.Document document = metrics.document("metadata", file.getPath())) {
+                document.fetched(false, file.length());
+                parseMetadata(file, counting(stream, document));
             }
         }
     }
 
-    public void fetchAndParseMetadata(Model model) throws IOException {
-        File file = new File("metadata.csv");
-        if (file.exists()) {
-            FileReader in = new FileReader(file, StandardCharsets.UTF_8);
+    private void parseMetadata(File file, StreamRDF out) throws IOException {
+        new ParallelCsvReader(file.toPath()).read(METADATA_COLUMNS, this::metadataRecord, out);
+    }
+
+    private void metadataRecord(String[] values, StreamRDF out) {
+        if (values[0] != null && values[1] != null && !values[1].isEmpty()) {
+            add(out, ResourceFactory.createResource(STATUTORY_INSTRUMENT_PREFIX + toUrlSafeId(values[0])), metadataLabelProperty, values[1]);
+        }
+    }
+
+    /**
+     * The Commons CSV equivalent of parsing metadata.csv, kept as the
+     * reference for {@link ParallelCsvReader}'s results.
+     */
+    void parseMetadataWithCommonsCsv(File file, StreamRDF out) throws IOException {
+        try (FileReader in = new FileReader(file, StandardCharsets.UTF_8)) {
             Iterable<CSVRecord> records = CSVFormat.DEFAULT.withHeader().parse(in);
             for (CSVRecord record : records) {
                 final Resource subject = ResourceFactory.createResource(STATUTORY_INSTRUMENT_PREFIX + toUrlSafeId(record.get("instrument_number")));
                 if (record.get("category_item_desc_en") != null && !record.get("category_item_desc_en").isEmpty()) {
-                    model.add(subject, metadataLabelProperty, record.get("category_item_desc_en"));
+                    add(out, subject, metadataLabelProperty, record.get("category_item_desc_en"));
                 }
             }
         }
     }
 
     public void fetchAndParseRias(Model model, Set<String> knownStatutoryInstruments) throws IOException {
+        fetchAndParseRias(into(model), knownStatutoryInstruments);
+    }
+
+    public void fetchAndParseRias(StreamRDF stream, Set<String> knownStatutoryInstruments) throws IOException {
         // Parse the regacan set from UQAM. Need to find a long-term home for this.
-        File file = new File("regcan.csv");
+        File file = riasCsv;
         if (file.exists()) {
-            FileReader in = new FileReader(file, StandardCharsets.UTF_8);
+            try (BuildMetrics.Document document = metrics.document("rias", file.getPath())) {
+                document.fetched(false, file.length());
+                parseRias(file, counting(stream, document), knownStatutoryInstruments);
+            }
+        }
+    }
+
+    private void parseRias(File file, StreamRDF out, Set<String> knownStatutoryInstruments) throws IOException {
+        // The records are handled on the reader's workers, and the known set needn't be thread-safe, so it's added to after.
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        new ParallelCsvReader(file.toPath()).read(RIAS_COLUMNS, (values, chunk) -> riasRecord(values, chunk, ids), out);
+        knownStatutoryInstruments.addAll(ids);
+    }
+
+    private void riasRecord(String[] values, StreamRDF out, Set<String> ids) {
+        String id = values[0];
+        if (id == null) {
+            return;
+        }
+        // The "SOR" identifiers Justice uses in their URLs are mangled, because the real strings use reserved URL characters.
+        String urlSafeId = toUrlSafeId(id);
+        final Resource subject = ResourceFactory.createResource(STATUTORY_INSTRUMENT_PREFIX + urlSafeId);
+        ids.add(urlSafeId);
+        String regText = values[1];
+        if (regText != null) {
+            // Skips "Registration " and the ID in place, rather than cutting them off.
+            int start = regText.startsWith("Registration ") ? 13 : 0;
+            if (regText.startsWith(id, start)) {
+                start += id.length();
+            }
+            int pc = regText.indexOf(" P.C. ", start);
+            if (pc >= 0) {
+                int act = regText.indexOf("ACT", start);
+                add(out, subject, titleProperty, regText.substring(act >= 0 && act < pc ? act + 3 : start, pc).trim());
+            }
+        }
+        if (values[2] != null) {
+            add(out, subject, sponsorProperty, values[2]);
+        }
+        addCount(out, subject, cbaWordCountProperty, values[3]);
+        addCount(out, subject, riasWordCountProperty, values[4]);
+        addCount(out, subject, consultationWordCountProperty, values[5]);
+    }
+
+    /**
+     * The Commons CSV equivalent of parsing regcan.csv, kept as the reference
+     * for {@link ParallelCsvReader}'s results.
+     */
+    void parseRiasWithCommonsCsv(File file, StreamRDF out, Set<String> knownStatutoryInstruments) throws IOException {
+        try (FileReader in = new FileReader(file, StandardCharsets.UTF_8)) {
             Iterable<CSVRecord> records = CSVFormat.DEFAULT.withHeader().parse(in);
             for (CSVRecord record : records) {
-                // The "SOR" identifiers Justice uses in their URLs are mangled, because the real strings use reserved URL characters.
                 final Resource subject = ResourceFactory.createResource(STATUTORY_INSTRUMENT_PREFIX + toUrlSafeId(record.get("ID")));
                 knownStatutoryInstruments.add(toUrlSafeId(record.get("ID")));
                 String regText = record.get("regtext");
@@ -226,68 +612,91 @@ public class RdfGatheringAgent {
                     if (regText.contains("ACT") && regText.indexOf("ACT") < regText.indexOf(" P.C. ")) {
                         startIndex = regText.indexOf("ACT") + 3;
                     }
-                    model.add(subject, titleProperty, regText.substring(startIndex, regText.indexOf(" P.C. ")).trim());
+                    add(out, subject, titleProperty, regText.substring(startIndex, regText.indexOf(" P.C. ")).trim());
                 }
-                model.add(subject, sponsorProperty, record.get("sponsor"));
-                model.add(subject, cbaWordCountProperty, record.get("CBA.wordcount"));
-                model.add(subject, riasWordCountProperty, record.get("rias.wordcount"));
-                model.add(subject, consultationWordCountProperty, record.get("consultation.wordcount"));
+                add(out, subject, sponsorProperty, record.get("sponsor"));
+                addCount(out, subject, cbaWordCountProperty, record.get("CBA.wordcount"));
+                addCount(out, subject, riasWordCountProperty, record.get("rias.wordcount"));
+                addCount(out, subject, consultationWordCountProperty, record.get("consultation.wordcount"));
+            }
+        }
+    }
+
+    /**
+     * Picks the instruments out of one section of the Gazette's index.
+     *
+     * @param doc the section's page.
+     * @param statutoryInstruments where to put each instrument's ID and name.
+     * @param knownStatutoryInstrumentIds where to add the IDs of regulations.
+     */
+    void parseStatutoryInstrumentIndex(org.jsoup.nodes.Document doc, Map<String, String> statutoryInstruments, Set<String> knownStatutoryInstrumentIds) {
+        Elements h2 = doc.body().select("h2");
+        for (String text : h2.eachText()) {
+            if (text.contains("[") && text.contains("]")) {
+                String instrument = toUrlSafeId(text.substring(text.indexOf("[") + 1, text.indexOf("]")).trim());
+                String name = text.replaceAll("\\[(^])*\\]", "").trim();
+                statutoryInstruments.put(instrument, name);
+            }
+        }
+        Elements actOrdCatEng = doc.body().select("span.actOrdCatEng");
+        for (org.jsoup.nodes.Element el : actOrdCatEng) {
+            for (String text : el.parent().select("span.actOrdEng").eachText()) {
+                if (text.contains("C.R.C.,")) {
+                    String instrument = toUrlSafeId(text.substring(text.lastIndexOf("C.R.C.,")).trim());
+                    String name = el.text() + " " + text.substring(0, text.lastIndexOf("C.R.C.,")).replaceAll("\\s+", " ").trim();
+                    statutoryInstruments.put(instrument, name);
+                } else if (text.contains(",")) {
+                    String instrument = toUrlSafeId(text.substring(text.lastIndexOf(",") + 1).trim());
+                    String name = el.text() + " " + text.substring(0, text.lastIndexOf(",")).replaceAll("\\s+", " ").trim();
+                    statutoryInstruments.put(instrument, name);
+                }
+
+            }
+        }
+        Elements actRegEngNoBold = doc.body().select("li.actRegEngNoBold");
+        for (org.jsoup.nodes.Element el : actRegEngNoBold) {
+            String text = el.selectFirst("strong").text();
+            if (text.contains("C.R.C.,")) {
+                String instrument = toUrlSafeId(text.substring(text.lastIndexOf("C.R.C.,")).trim());
+                String name = text.substring(0, text.lastIndexOf("C.R.C.,")).replaceAll("\\s+", " ").trim();
+                statutoryInstruments.put(instrument, name);
+                knownStatutoryInstrumentIds.add(instrument);
+            } else if (text.contains(",")) {
+                String instrument = toUrlSafeId(text.substring(text.lastIndexOf(",") + 1).trim());
+                String name = text.substring(0, text.lastIndexOf(",")).replaceAll("\\s+", " ").trim();
+                statutoryInstruments.put(instrument, name);
+                knownStatutoryInstrumentIds.add(instrument);
             }
         }
     }
 
     public void fetchAndParseStatutoryInstruments(Model model, Set<String> knownStatutoryInstrumentIds) throws JDOMException, IOException {
+        fetchAndParseStatutoryInstruments(into(model), knownStatutoryInstrumentIds);
+    }
+
+    public void fetchAndParseStatutoryInstruments(StreamRDF out, Set<String> knownStatutoryInstrumentIds) throws JDOMException, IOException {
         Map<String, String> statutoryInstruments = new TreeMap<>();
         String[] sections = "a,b,c,d,e,f,g,h,i,j,k,l,m,n,o,p,q,r,s,t,u,v,w,x,y,z,other-autre".split(",");
         for (String section : sections) {
-            URL u = new URL(CONSOLIDATED_INDEX_OF_STATUTORY_INSTRUMENTS_URL.replace("?", section));
+            URL u = new URL(gazetteIndexUrl.replace("?", section));
             Logger.getLogger(RdfGatheringAgent.class
                     .getName()).log(Level.INFO, "Fetching " + u.toExternalForm());
-            try {
-                org.jsoup.nodes.Document doc = Jsoup.parse(u, 10000);
-                Elements h2 = doc.body().select("h2");
-                for (String text : h2.eachText()) {
-                    if (text.contains("[") && text.contains("]")) {
-                        String instrument = toUrlSafeId(text.substring(text.indexOf("[") + 1, text.indexOf("]")).trim());
-                        String name = text.replaceAll("\\[(^])*\\]", "").trim();
-                        statutoryInstruments.put(instrument, name);
-                    }
-                }
-                Elements actOrdCatEng = doc.body().select("span.actOrdCatEng");
-                for (org.jsoup.nodes.Element el : actOrdCatEng) {
-                    for (String text : el.parent().select("span.actOrdEng").eachText()) {
-                        if (text.contains("C.R.C.,")) {
-                            String instrument = toUrlSafeId(text.substring(text.lastIndexOf("C.R.C.,")).trim());
-                            String name = el.text() + " " + text.substring(0, text.lastIndexOf("C.R.C.,")).replaceAll("\\s+", " ").trim();
-                            statutoryInstruments.put(instrument, name);
-                        } else if (text.contains(",")) {
-                            String instrument = toUrlSafeId(text.substring(text.lastIndexOf(",") + 1).trim());
-                            String name = el.text() + " " + text.substring(0, text.lastIndexOf(",")).replaceAll("\\s+", " ").trim();
-                            statutoryInstruments.put(instrument, name);
-                        }
-
-                    }
-                }
-                Elements actRegEngNoBold = doc.body().select("li.actRegEngNoBold");
-                for (org.jsoup.nodes.Element el : actRegEngNoBold) {
-                    String text = el.selectFirst("strong").text();
-                    if (text.contains("C.R.C.,")) {
-                        String instrument = toUrlSafeId(text.substring(text.lastIndexOf("C.R.C.,")).trim());
-                        String name = text.substring(0, text.lastIndexOf("C.R.C.,")).replaceAll("\\s+", " ").trim();
-                        statutoryInstruments.put(instrument, name);
-                        knownStatutoryInstrumentIds.add(instrument);
-                    } else if (text.contains(",")) {
-                        String instrument = toUrlSafeId(text.substring(text.lastIndexOf(",") + 1).trim());
-                        String name = text.substring(0, text.lastIndexOf(",")).replaceAll("\\s+", " ").trim();
-                        statutoryInstruments.put(instrument, name);
-                        knownStatutoryInstrumentIds.add(instrument);
-                    }
+            try (BuildMetrics.Document document = metrics.document("gazette index", u.toExternalForm())) {
+                org.jsoup.nodes.Document doc;
+                try (DocumentSource.Response in = getDocumentSource().open(u)) {
+                    document.fetched(in);
+                    doc = Jsoup.parse(in, null, u.toExternalForm());
                 }
+                int before = statutoryInstruments.size();
+                parseStatutoryInstrumentIndex(doc, statutoryInstruments, knownStatutoryInstrumentIds);
+                // The titles are emitted once every section is in, so count the instruments each section named.
+                document.addTriples(statutoryInstruments.size() - before);
             } catch (IOException ex) {
                 Logger.getLogger(RdfGatheringAgent.class
                         .getName()).log(Level.WARNING, "Failed to fetch " + u.toExternalForm(), ex);
             }
         }
+        int unparsable = 0;
         for (Map.Entry<String, String> entry : statutoryInstruments.entrySet()) {
 //            System.out.println("[" + entry.getKey() + "] " + entry.getValue());
             if (entry.getKey().startsWith("C.R.C.")
@@ -296,23 +705,46 @@ public class RdfGatheringAgent {
                     || entry.getKey().startsWith("S.C._")
                     || entry.getKey().startsWith("SI-")
                     || entry.getKey().startsWith("SOR-")) {
-                model.add(ResourceFactory.createResource(STATUTORY_INSTRUMENT_PREFIX + entry.getKey()), this.titleProperty, String.valueOf(entry.getValue()));
+                add(out, ResourceFactory.createResource(STATUTORY_INSTRUMENT_PREFIX + entry.getKey()), this.titleProperty, String.valueOf(entry.getValue()));
             } else {
-                System.out.println("Unparsable instrument: [" + entry.getKey() + "] " + entry.getValue());
+                Logger.getLogger(RdfGatheringAgent.class
+                        .getName()).log(Level.FINE, "Unparsable instrument: [{0}] {1}", new Object[]{entry.getKey(), entry.getValue()});
+                unparsable++;
             }
         }
+        if (unparsable > 0) {
+            Logger.getLogger(RdfGatheringAgent.class
+                    .getName()).log(Level.INFO, "Unparsable instruments in the Gazette index: {0}", unparsable);
+        }
+        metrics.count("statutoryInstruments.unparsable", unparsable);
     }
 
-    private void fetchAndParseConsolidatedStatutoryInstrument(Model model, String instrumentId, Set<String> statutoryInstrumentIds, Map<String, String> unknownStatutoryInstrumentIds) throws JDOMException, IOException {
-        final Resource amendedReg = ResourceFactory.createResource(STATUTORY_INSTRUMENT_PREFIX + instrumentId);
-        SAXBuilder builder = new SAXBuilder();
-        final String xmlUrl = "https://laws-lois.justice.gc.ca/eng/XML/" + instrumentId + ".xml";
-        System.out.println(xmlUrl);
-        Document doc = builder.build(xmlUrl);
-        TreeSet<String> amendingRegIds = new TreeSet<>();
-        int wordCount = countWordsIn(collectTextFrom(doc.getRootElement()).toString());
+    private ConsolidatedInstrument fetchConsolidatedStatutoryInstrument(String instrumentId, BuildMetrics.Document document) throws IOException {
+        final String xmlUrl = consolidatedXmlUrlPrefix + instrumentId + ".xml";
+        Logger.getLogger(RdfGatheringAgent.class
+                .getName()).log(Level.FINE, "Fetching {0}", xmlUrl);
+        Semaphore permits = hostPermits.computeIfAbsent(new URL(xmlUrl).getHost(), host -> new Semaphore(perHostConcurrency, true));
+        permits.acquireUninterruptibly();
+        try (DocumentSource.Response in = getDocumentSource().open(new URL(xmlUrl))) {
+            document.fetched(in);
+            // Some acts run to tens of megabytes of XML, so they're streamed rather than built into a tree.
+            return instrumentExtractors.get().extract(instrumentId, in, xmlUrl);
+        } catch (XMLStreamException ex) {
+            document.parseError();
+            throw new IOException("Failed to parse " + xmlUrl, ex);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * The tree-based equivalent of {@link StreamingInstrumentExtractor}, kept
+     * as the reference for its results.
+     */
+    ConsolidatedInstrument extractWithJdom(String instrumentId, Document doc) {
+        ConsolidatedInstrument instrument = new ConsolidatedInstrument(instrumentId);
+        instrument.setWordCount(countWordsIn(collectTextFrom(doc.getRootElement()).toString()));
         int sectionCount = 0;
-        // TODO Numebr of section
         if (doc.getRootElement().getChild("Body") != null) {
             for (Element section : doc.getRootElement().getChild("Body").getChildren("Section")) {
                 sectionCount++;
@@ -320,51 +752,110 @@ public class RdfGatheringAgent {
                     for (Element historicalNoteSubItem : historicalNote.getChildren("HistoricalNoteSubItem")) {
                         String[] items = collectTextFrom(historicalNoteSubItem).toString().split(";");
                         for (String item : items) {
-                            item = item.trim();
-                            String ref = item;
-                            String refSection = null;
-                            String refChapter = null;
-                            if (ref.contains(REFERENCE_CHAPTER_MARKER)) {
-                                // These ones are almost always shorthand for the statutes?
-                                refChapter = ref.substring(ref.indexOf(REFERENCE_CHAPTER_MARKER) + REFERENCE_CHAPTER_MARKER.length()).trim();
-                                if (refChapter.contains(",")) {
-                                    refChapter = refChapter.substring(0, refChapter.indexOf(",")).trim();
-                                }
-                                ref = ref.substring(0, ref.indexOf(REFERENCE_CHAPTER_MARKER)).trim();
-                            } else if (ref.contains(REFERENCE_SECTION_MARKER)) {
-                                refSection = ref.substring(ref.indexOf(REFERENCE_SECTION_MARKER) + REFERENCE_SECTION_MARKER.length()).trim();
-                                ref = ref.substring(0, ref.indexOf(REFERENCE_SECTION_MARKER)).trim();
-                            } else if (ref.contains(REFERENCE_SECTIONS_MARKER)) {
-                                refSection = ref.substring(ref.indexOf(REFERENCE_SECTIONS_MARKER) + REFERENCE_SECTIONS_MARKER.length()).trim();
-                                ref = ref.substring(0, ref.indexOf(REFERENCE_SECTIONS_MARKER)).trim();
-                            }
-                            if (ref.matches("\\d{4}") && refChapter != null && refChapter.matches("\\d+")) { // It's one of the annual statutes.
-                                amendingRegIds.add("S.C._" + ref + ",c._" + refChapter);
-                            } else if (statutoryInstrumentIds.contains(toUrlSafeId(ref))) {
-                                amendingRegIds.add(toUrlSafeId(ref));
-                            } else {
-                                // We may have to come up with a routine to figure out the shorthand that got used here.
-                                // System.out.println("Unknown reference to amending instrument: " + toUrlSafeId(ref) + " from (" + ref + ")");
-                                unknownStatutoryInstrumentIds.put(ref, item);
-                            }
+                            instrument.getCitations().add(item.trim());
                         }
                     }
                 }
             }
         }
+        instrument.setSectionCount(sectionCount);
+        return instrument;
+    }
+
+    private void addConsolidatedStatutoryInstrument(StreamRDF out, ConsolidatedInstrument instrument, InstrumentReferenceResolver resolver, Map<String, String> unknownStatutoryInstrumentIds) {
+        final Resource amendedReg = ResourceFactory.createResource(STATUTORY_INSTRUMENT_PREFIX + instrument.getInstrumentId());
+        TreeSet<String> amendingRegIds = new TreeSet<>();
+        for (String item : instrument.getCitations()) {
+            InstrumentReferenceResolver.Citation citation = resolver.resolve(item);
+            if (citation.getInstrumentId() != null) {
+                amendingRegIds.add(citation.getInstrumentId());
+            } else {
+                unknownStatutoryInstrumentIds.put(citation.getRef(), item);
+            }
+        }
         for (String amendingRegId : amendingRegIds) {
             final Resource amendingReg = ResourceFactory.createResource(STATUTORY_INSTRUMENT_PREFIX + amendingRegId);
-            model.add(amendedReg, consolidatesProperty, amendingReg);
-            model.add(amendingReg, amendsInstrumentProperty, amendedReg);
+            add(out, amendedReg, consolidatesProperty, amendingReg);
+            add(out, amendingReg, amendsInstrumentProperty, amendedReg);
         }
-        model.add(amendedReg, wordCountProperty, String.valueOf(wordCount));
-        model.add(amendedReg, sectionCountProperty, String.valueOf(sectionCount));
+        add(out, amendedReg, wordCountProperty, String.valueOf(instrument.getWordCount()));
+        add(out, amendedReg, sectionCountProperty, String.valueOf(instrument.getSectionCount()));
+    }
 
+    private void fetchAndParseConsolidatedStatutoryInstruments(StreamRDF out, List<String> statutoryInstrumentIds, Map<String, String> currentToDates, Set<String> knownStatutoryInstruments, Map<String, String> unknownStatutoryInstrumentIds) throws IOException {
+        // Each instrument is fetched and parsed into its own buffer by a pool of workers. The buffers are merged
+        // back in list order, so the triples come out in the same order no matter which worker finished first.
+        // In incremental mode, instruments whose CurrentToDate hasn't moved are taken from their stored shard instead.
+        final InstrumentReferenceResolver resolver = new InstrumentReferenceResolver(knownStatutoryInstruments);
+        final InstrumentShardStore shards = shardStore;
+        final AtomicInteger reusedShards = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(fetchConcurrency);
+        try {
+            List<Future<ConsolidatedInstrumentBuffer>> futures = new ArrayList<>(statutoryInstrumentIds.size());
+            for (String statutoryInstrumentId : statutoryInstrumentIds) {
+                futures.add(workers.submit(() -> {
+                    final String instrumentId = toUrlSafeId(statutoryInstrumentId);
+                    final String currentToDate = currentToDates.get(statutoryInstrumentId);
+                    ConsolidatedInstrument instrument = shards == null ? null : shards.load(instrumentId, currentToDate);
+                    if (instrument != null) {
+                        reusedShards.incrementAndGet();
+                        ConsolidatedInstrumentBuffer buffer = new ConsolidatedInstrumentBuffer();
+                        addConsolidatedStatutoryInstrument(buffer, instrument, resolver, buffer.unknownStatutoryInstrumentIds);
+                        return buffer;
+                    }
+                    try (BuildMetrics.Document document = metrics.document("consolidated instruments", consolidatedXmlUrlPrefix + instrumentId + ".xml")) {
+                        instrument = fetchConsolidatedStatutoryInstrument(instrumentId, document);
+                        if (shards != null) {
+                            shards.save(instrument, currentToDate);
+                        }
+                        ConsolidatedInstrumentBuffer buffer = new ConsolidatedInstrumentBuffer();
+                        addConsolidatedStatutoryInstrument(buffer, instrument, resolver, buffer.unknownStatutoryInstrumentIds);
+                        document.addTriples(buffer.triples.size());
+                        return buffer;
+                    }
+                }));
+            }
+            for (Future<ConsolidatedInstrumentBuffer> future : futures) {
+                ConsolidatedInstrumentBuffer buffer = future.get();
+                for (Triple triple : buffer.triples) {
+                    out.triple(triple);
+                }
+                unknownStatutoryInstrumentIds.putAll(buffer.unknownStatutoryInstrumentIds);
+            }
+            if (shards != null) {
+                Logger.getLogger(RdfGatheringAgent.class
+                        .getName()).log(Level.INFO, "Reused {0} of {1} consolidated instrument shards", new Object[]{reusedShards.get(), statutoryInstrumentIds.size()});
+                metrics.count("consolidatedInstruments.reusedShards", reusedShards.get());
+            }
+            Logger.getLogger(RdfGatheringAgent.class
+                    .getName()).log(Level.INFO, resolver.resolutionReport());
+            for (Map.Entry<InstrumentReferenceResolver.Rule, Long> entry : resolver.getCounts().entrySet()) {
+                metrics.count("citations." + entry.getKey().name().toLowerCase(Locale.ROOT), entry.getValue());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching consolidated instruments", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
     }
 
     public void fetchAndParseActsAndConsolidatedRegs(Model model, Set<String> knownStatutoryInstruments) throws JDOMException, IOException {
-        SAXBuilder builder = new SAXBuilder();
-        Document doc = builder.build(LEGIS_URL);
+        fetchAndParseActsAndConsolidatedRegs(into(model), knownStatutoryInstruments);
+    }
+
+    public void fetchAndParseActsAndConsolidatedRegs(StreamRDF out, Set<String> knownStatutoryInstruments) throws JDOMException, IOException {
+        Document doc;
+        try (BuildMetrics.Document document = metrics.document("legis", legisUrl);
+                DocumentSource.Response in = getDocumentSource().open(new URL(legisUrl))) {
+            document.fetched(in);
+            doc = saxBuilders.get().build(in, legisUrl);
+        }
         Element actsRegList = doc.getRootElement();
         Element acts = actsRegList.getChild("Acts");
         Element regulations = actsRegList.getChild("Regulations");
@@ -380,6 +871,7 @@ public class RdfGatheringAgent {
         Map<String, Map<String, String>> actIdToAttributes = new HashMap<>();
         Map<String, Map<String, String>> regIdToAttributes = new HashMap<>();
         List<String> statutoryInstrumentIds = new ArrayList<>();
+        Map<String, String> currentToDates = new HashMap<>();
         TreeMap<String, String> unknownStatutoryInstrumentIds = new TreeMap<>();
         //Map the XML reference ids to the actual unique ID for each.
         for (Element regElement : regList) {
@@ -395,10 +887,11 @@ public class RdfGatheringAgent {
                 regIdToUniqueId.put(regElement.getAttributeValue("olid"), regElement.getChildText("UniqueId"));
                 attributes.put("instrumentURI", STATUTORY_INSTRUMENT_PREFIX + toUrlSafeId(regElement.getChildTextTrim("UniqueId")));
                 attributes.put("currentToDate", regElement.getChildTextTrim("CurrentToDate"));
+                currentToDates.put(uniqueId, attributes.get("currentToDate"));
                 // The following two properties are language dependent -- we should do the same for French
 //                model.add(ResourceFactory.createResource(attributes.get("instrumentURI")), titleProperty,
 //                        regElement.getChildTextTrim("Title"), language);
-                model.add(ResourceFactory.createResource(attributes.get("instrumentURI")), urlProperty,
+                add(out, ResourceFactory.createResource(attributes.get("instrumentURI")), urlProperty,
                         regElement.getChildTextTrim("LinkToHTMLToC"), language);
                 statutoryInstrumentIds.add(uniqueId);
                 knownStatutoryInstruments.add(uniqueId);
@@ -416,51 +909,100 @@ public class RdfGatheringAgent {
                 englishActCount++;
                 attributes.put("instrumentURI", STATUTORY_INSTRUMENT_PREFIX + toUrlSafeId(actElement.getChildTextTrim("UniqueId")));
                 attributes.put("currentToDate", actElement.getChildTextTrim("CurrentToDate"));
+                currentToDates.put(uniqueId, attributes.get("currentToDate"));
                 if (actElement.getChild("RegsMadeUnderAct") != null) {
                     for (Element reg : actElement.getChild("RegsMadeUnderAct").getChildren("Reg")) {
                         String regUniqueId = regIdToUniqueId.get(reg.getAttributeValue("idRef"));
                         Map<String, String> regAttributes = regIdToAttributes.get(regUniqueId);
-                        model.add(ResourceFactory.createResource(regAttributes.get("instrumentURI")), enablingActProperty,
+                        add(out, ResourceFactory.createResource(regAttributes.get("instrumentURI")), enablingActProperty,
                                 ResourceFactory.createResource(attributes.get("instrumentURI")));
-                        model.add(ResourceFactory.createResource(attributes.get("instrumentURI")), enablesRegProperty,
+                        add(out, ResourceFactory.createResource(attributes.get("instrumentURI")), enablesRegProperty,
                                 ResourceFactory.createResource(regAttributes.get("instrumentURI")));
                     }
                 }
                 // The following two properties are language dependent -- we should do the same for French
-                model.add(ResourceFactory.createResource(attributes.get("instrumentURI")), titleProperty,
+                add(out, ResourceFactory.createResource(attributes.get("instrumentURI")), titleProperty,
                         actElement.getChildTextTrim("Title"), language);
-                model.add(ResourceFactory.createResource(attributes.get("instrumentURI")), urlProperty,
+                add(out, ResourceFactory.createResource(attributes.get("instrumentURI")), urlProperty,
                         actElement.getChildTextTrim("LinkToHTMLToC").replace("/index.html", ""), language);
                 statutoryInstrumentIds.add(uniqueId);
                 knownStatutoryInstruments.add(uniqueId);
             }
         }
-        for (String statutoryInstrumentId : statutoryInstrumentIds) {
-            fetchAndParseConsolidatedStatutoryInstrument(model, toUrlSafeId(statutoryInstrumentId), knownStatutoryInstruments, unknownStatutoryInstrumentIds);
-        }
+        fetchAndParseConsolidatedStatutoryInstruments(out, statutoryInstrumentIds, currentToDates, knownStatutoryInstruments, unknownStatutoryInstrumentIds);
         for (Map.Entry<String, String> entry : unknownStatutoryInstrumentIds.entrySet()) {
-            System.out.println("Unknown Statutory Instrument ID: " + entry.getKey() + " from " + entry.getValue());
+            Logger.getLogger(RdfGatheringAgent.class
+                    .getName()).log(Level.FINE, "Unknown Statutory Instrument ID: {0} from {1}", new Object[]{entry.getKey(), entry.getValue()});
         }
-        System.out.println("Number of Unknown Statutory Instruments references: " + unknownStatutoryInstrumentIds.size());
+        Logger.getLogger(RdfGatheringAgent.class
+                .getName()).log(Level.INFO, "Number of Unknown Statutory Instruments references: {0}", unknownStatutoryInstrumentIds.size());
+        metrics.count("citations.unknownInstruments", unknownStatutoryInstrumentIds.size());
         Logger.getLogger(RdfGatheringAgent.class
                 .getName()).log(Level.INFO, "English Acts: {0}", englishActCount);
         Logger.getLogger(RdfGatheringAgent.class
                 .getName()).log(Level.INFO, "English Regulations: {0}", englishRegCount);
     }
 
-    private String toUrlSafeId(String item) {
-        return item.trim()
-                .replaceAll("/", "-")
-                .replaceAll(" ", "_")
-                //The next few lines address data quality issues in the published set.
-                .replaceAll("_\u2013_", "-")
-                .replaceAll("_\u2014_", "-")
-                .replaceAll("S.C.2020", "S.C._2020")
-                .replaceAll("S._C._", "S.C._")
-                .replaceAll("R.S.C.,", "R.S.C.");
+    /**
+     * @return the stream, counting the triples sent to it against the
+     * document.
+     */
+    private static StreamRDF counting(StreamRDF out, BuildMetrics.Document document) {
+        return new StreamRDFWrapper(out) {
+            @Override
+            public void triple(Triple triple) {
+                document.addTriples(1);
+                super.triple(triple);
+            }
+        };
+    }
+
+    private static StreamRDF into(Model model) {
+        return StreamRDFLib.graph(model.getGraph());
+    }
+
+    private static void add(StreamRDF out, Resource subject, Property predicate, RDFNode object) {
+        out.triple(Triple.create(subject.asNode(), predicate.asNode(), object.asNode()));
     }
 
-    private CharSequence collectTextFrom(Element el) {
+    private static void add(StreamRDF out, Resource subject, Property predicate, String object) {
+        out.triple(Triple.create(subject.asNode(), predicate.asNode(), NodeFactory.createLiteral(object)));
+    }
+
+    /**
+     * Adds a count as an xsd:integer, if it is one, or as it was given, if
+     * it's not (an "NA", say).
+     */
+    private static void addCount(StreamRDF out, Resource subject, Property predicate, String count) {
+        if (count == null) {
+            return;
+        }
+        out.triple(Triple.create(subject.asNode(), predicate.asNode(), isInteger(count)
+                ? NodeFactory.createLiteral(count, XSDDatatype.XSDinteger) : NodeFactory.createLiteral(count)));
+    }
+
+    private static boolean isInteger(String value) {
+        int start = value.startsWith("-") || value.startsWith("+") ? 1 : 0;
+        if (value.length() == start) {
+            return false;
+        }
+        for (int i = start; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void add(StreamRDF out, Resource subject, Property predicate, String object, String language) {
+        out.triple(Triple.create(subject.asNode(), predicate.asNode(), NodeFactory.createLiteral(object, language)));
+    }
+
+    String toUrlSafeId(String item) {
+        return InstrumentReferenceResolver.toUrlSafeId(item);
+    }
+
+    CharSequence collectTextFrom(Element el) {
         StringBuilder returnable = new StringBuilder();
         for (Content con : el.getDescendants()) {
             if (con.getCType() == Content.CType.Text || con.getCType() == Content.CType.CDATA) {
@@ -476,7 +1018,7 @@ public class RdfGatheringAgent {
         return returnable;
     }
 
-    private int countWordsIn(String text) {
+    int countWordsIn(String text) {
         if (text == null || text.isEmpty()) {
             return 0;
         }
@@ -485,35 +1027,14 @@ public class RdfGatheringAgent {
         return words.length;
     }
 
-    private class RdfParsingErrorHandler implements ErrorHandler {
-
-        private final MutableBoolean pass;
-        private final Path path;
+    private static class ConsolidatedInstrumentBuffer extends StreamRDFBase {
 
-        public RdfParsingErrorHandler(MutableBoolean pass, Path path) {
-            this.pass = pass;
-            this.path = path;
-        }
+        private final List<Triple> triples = new ArrayList<>();
+        private final Map<String, String> unknownStatutoryInstrumentIds = new TreeMap<>();
 
         @Override
-        public void warning(String message, long line, long col) {
-            logParseEvent("WARN", line, col, message);
-        }
-
-        @Override
-        public void error(String message, long line, long col) {
-            logParseEvent("ERROR", line, col, message);
-            pass.setFalse();
-        }
-
-        @Override
-        public void fatal(String message, long line, long col) {
-            logParseEvent("FATAL", line, col, message);
-            pass.setFalse();
-        }
-
-        private void logParseEvent(String level, long line, long col, String message) {
-            System.err.println(level + ": " + path + " " + line + ":" + col + " - " + message);
+        public void triple(Triple triple) {
+            triples.add(triple);
         }
     }
 
@@ -0,0 +1,262 @@
+package com.handshape.rdftripleshare;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.compose.MultiUnion;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.sparql.graph.GraphFactory;
+
+/**
+ * Keeps a build running, rather than starting it cold each time: one
+ * {@link RdfGatheringAgent}, with its HTTP cache, parsers and shard store,
+ * stays resident, and each source is refreshed on its own schedule. After a
+ * refresh that changed anything, the outputs are written to a staging
+ * directory and renamed into place (see {@link ReleaseDirectory}), so the
+ * published out.sqlite3 is never one half-written.
+ * <p>
+ * Each source's triples are kept in a graph of their own, which a refresh
+ * replaces whole, and the outputs are written from the union of them all. A
+ * source whose inputs are local files is only run again when they change; the
+ * rest run every time, though the HTTP cache's conditional GETs and, with
+ * rdfshare.incremental, the instrument shards make that cheap when upstream
+ * hasn't moved. Refreshes and publishing run one at a time, on a single
+ * thread, so a refresh never races a release.
+ * <p>
+ * The statutory instruments known to the acts and regulations are kept from
+ * one refresh to the next, as they're added to by the Gazette index and the
+ * RIAS, which don't necessarily run first.
+ *
+ * @author jturner
+ */
+public class RefreshDaemon implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(RefreshDaemon.class.getName());
+    // In minutes; a source that isn't here is checked every minute.
+    private static final Map<String, Integer> DEFAULT_INTERVALS = Map.of("statutory instruments", 24 * 60, "acts and regulations", 6 * 60);
+
+    private final RdfGatheringAgent agent;
+    private final ReleaseDirectory release;
+    private final Map<String, Source> sources = new LinkedHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "refresh-daemon"));
+    private long releases;
+    // Whether a source has changed since the last release, because publishing it failed.
+    private boolean unpublished;
+
+    /**
+     * @param agent the agent the sources gather with.
+     * @param directory where the outputs are published.
+     */
+    public RefreshDaemon(RdfGatheringAgent agent, Path directory) {
+        this.agent = agent;
+        this.release = new ReleaseDirectory(directory);
+    }
+
+    /**
+     * Sets up a daemon with the {@link Build}'s sources, each refreshed every
+     * rdfshare.daemon.&lt;source&gt;.interval-minutes: local-turtle,
+     * departments, rias and metadata, whose files are checked every minute,
+     * statutory-instruments (the Gazette index), daily, and
+     * acts-and-regulations, every six hours.
+     *
+     * @param agent the agent the sources gather with.
+     * @param directory where the outputs are published.
+     * @return the daemon, not yet started.
+     */
+    public static RefreshDaemon fromSystemProperties(RdfGatheringAgent agent, Path directory) {
+        RefreshDaemon daemon = new RefreshDaemon(agent, directory);
+        for (Build.Source source : new Build(agent).getSources()) {
+            daemon.source(source.getName(), interval(source.getName(), DEFAULT_INTERVALS.getOrDefault(source.getName(), 1)), source.getSource(), source.getInputs());
+        }
+        return daemon;
+    }
+
+    private static Duration interval(String source, int defaultMinutes) {
+        return Duration.ofMinutes(Integer.getInteger("rdfshare.daemon." + source.replace(' ', '-') + ".interval-minutes", defaultMinutes));
+    }
+
+    /**
+     * Adds a source. The first release has the sources' triples in the order
+     * they're added.
+     *
+     * @param name the source's name.
+     * @param interval how long to wait between the end of one refresh and the
+     * start of the next.
+     * @param source the source.
+     * @param inputs the files or directories it reads, if it reads nothing
+     * else, so it's only run again when they change.
+     * @return this daemon.
+     */
+    public RefreshDaemon source(String name, Duration interval, Pipeline.Source source, Path... inputs) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("The interval between refreshes of " + name + " has to be positive");
+        }
+        sources.put(name, new Source(name, interval, source, inputs));
+        return this;
+    }
+
+    /**
+     * Gathers every source, in order, publishes the first release, and
+     * schedules each source's refreshes.
+     *
+     * @throws Exception if a source fails, or the first release can't be
+     * published.
+     */
+    public synchronized void start() throws Exception {
+        for (Source source : sources.values()) {
+            source.refresh();
+        }
+        publish();
+        for (Source source : sources.values()) {
+            long millis = source.interval.toMillis();
+            scheduler.scheduleWithFixedDelay(() -> refreshAndPublish(source.name), millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs a source again, unless its inputs haven't changed since it last
+     * ran, and publishes a new release if it did, or if the last attempt to
+     * publish failed. A source that fails keeps the triples it had, and is
+     * tried again at its next refresh.
+     *
+     * @param name the source.
+     * @return whether a new release was published.
+     */
+    public synchronized boolean refreshAndPublish(String name) {
+        Source source = sources.get(name);
+        if (source == null) {
+            throw new IllegalArgumentException("No source called " + name);
+        }
+        try {
+            if (source.refresh()) {
+                unpublished = true;
+            }
+            if (!unpublished) {
+                return false;
+            }
+            publish();
+            return true;
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "Failed to refresh " + name + "; the last release stands.", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the outputs from every source's latest triples to the staging
+     * directory, with a build report covering what's been fetched and parsed
+     * since the last release, and swaps them into place.
+     *
+     * @throws IOException if an output can't be written or moved.
+     */
+    private void publish() throws IOException {
+        long started = System.nanoTime();
+        List<FanOutWriter.SinkReport> published = agent.writeModel(union(), release);
+        agent.setMetrics(new BuildMetrics());
+        unpublished = false;
+        releases++;
+        LOGGER.log(Level.INFO, "Published release {0} in {1} ms: {2}", new Object[]{releases, (System.nanoTime() - started) / 1_000_000, published});
+    }
+
+    /**
+     * @return every source's triples, each once, with all of their prefixes.
+     */
+    private Model union() {
+        // An empty graph first, to take the prefixes.
+        Graph prefixes = GraphFactory.createDefaultGraph();
+        MultiUnion union = new MultiUnion();
+        union.addGraph(prefixes);
+        union.setBaseGraph(prefixes);
+        for (Source source : sources.values()) {
+            union.addGraph(source.graph);
+            prefixes.getPrefixMapping().setNsPrefixes(source.graph.getPrefixMapping());
+        }
+        return ModelFactory.createModelForGraph(union);
+    }
+
+    /**
+     * @return how many releases have been published.
+     */
+    public synchronized long getReleases() {
+        return releases;
+    }
+
+    /**
+     * Stops refreshing, once any refresh under way is done, and closes the
+     * agent's document source.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        agent.getDocumentSource().close();
+    }
+
+    /**
+     * Runs until it's killed, publishing to the directory given as the
+     * argument, or to target.
+     *
+     * @param args the directory to publish to.
+     * @throws Exception if the first release fails.
+     */
+    public static void main(String[] args) throws Exception {
+        RefreshDaemon daemon = fromSystemProperties(new RdfGatheringAgent(), Path.of(args.length > 0 ? args[0] : "target"));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                daemon.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Failed to close the document source", ex);
+            }
+        }));
+        daemon.start();
+    }
+
+    private static class Source {
+
+        private final String name;
+        private final Duration interval;
+        private final Pipeline.Source source;
+        private final Path[] inputs;
+        private Graph graph = GraphFactory.createDefaultGraph();
+        private String fingerprint;
+
+        Source(String name, Duration interval, Pipeline.Source source, Path[] inputs) {
+            this.name = name;
+            this.interval = interval;
+            this.source = source;
+            this.inputs = inputs;
+        }
+
+        /**
+         * @return whether the source ran, rather than being skipped.
+         */
+        boolean refresh() throws Exception {
+            String current = inputs.length == 0 ? null : TdbStore.fingerprint(inputs);
+            if (current != null && current.equals(fingerprint)) {
+                return false;
+            }
+            Graph refreshed = GraphFactory.createDefaultGraph();
+            source.emit(StreamRDFLib.graph(refreshed));
+            LOGGER.log(Level.INFO, "Refreshed {0}: {1} triples, {2} before", new Object[]{name, refreshed.size(), graph.size()});
+            graph = refreshed;
+            fingerprint = current;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.handshape.rdftripleshare;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Where a build's artifacts are published, with a staging directory inside it
+ * that they're written to first, and then renamed into place from, so
+ * that whoever's reading out.sqlite3 or out.ttl sees either the last release
+ * or this one, never one half-written.
+ * <p>
+ * Each file is swapped on its own, in one rename, which replaces the old one
+ * in a single step on POSIX filesystems; readers that already have the old
+ * one open carry on reading it. Manifests go last, so that they don't name
+ * anything that isn't there yet. A directory, such as the shards, is never
+ * swapped whole: its files are renamed in one at a time, in the same order,
+ * and whatever the release doesn't have is removed after its manifest is in.
+ * A reader going by the old manifest until then may find a file it names
+ * already replaced, but never missing. Likewise, once everything's in, any of
+ * the artifacts it publishes that the release didn't stage, like an
+ * out.delta.sql from a build that had a previous release to compare with, is
+ * removed, so it isn't left published beside a release it doesn't apply to.
+ * Anything else in the directory, which may well be Maven's target, is left
+ * alone.
+ * <p>
+ * A directory can be seeded with the published copy of its files before
+ * anything's written to it, so that an export that leaves unchanged files
+ * alone, like {@link ShardedExporter}, still can. Seeded files are hard links
+ * to the published ones, where the filesystem allows, so they're published
+ * again without being touched, modification time and all.
+ *
+ * @author jturner
+ */
+public class ReleaseDirectory {
+
+    /**
+     * Everything {@link RdfGatheringAgent} can publish.
+     */
+    public static final Set<String> ARTIFACTS = Set.of("out.ttl", "out.trdf", "out.nt", "out.sqlite3", "out.sqlite3.manifest.json",
+            "out.rdfp", "out.delta.sql", "shards", "build-report.json");
+
+    private final Path directory;
+    private final Path staging;
+    private final Set<String> artifacts;
+
+    /**
+     * @param directory where the artifacts are published.
+     */
+    public ReleaseDirectory(Path directory) {
+        this(directory, ARTIFACTS);
+    }
+
+    /**
+     * @param directory where the artifacts are published.
+     * @param artifacts the names of the files and directories a release can
+     * publish there, which are removed from it when a release doesn't.
+     */
+    public ReleaseDirectory(Path directory, Collection<String> artifacts) {
+        this.directory = directory;
+        this.staging = directory.resolve("staging");
+        this.artifacts = Set.copyOf(artifacts);
+    }
+
+    /**
+     * Empties the staging directory, creating it if need be.
+     *
+     * @return where the next release's artifacts are to be written.
+     * @throws IOException if it can't be emptied or created.
+     */
+    public Path stage() throws IOException {
+        FileUtils.deleteDirectory(staging.toFile());
+        Files.createDirectories(staging);
+        return staging;
+    }
+
+    /**
+     * Fills a directory in the staging directory with the files published
+     * under the same name, if there are any. Whatever's then written there
+     * has to replace them by renaming, never by writing into them, since
+     * until they're replaced they can be the published files themselves.
+     *
+     * @param name the directory's name.
+     * @return the staged directory.
+     * @throws IOException if the files can't be linked or copied.
+     */
+    public Path seed(String name) throws IOException {
+        Path published = directory.resolve(name);
+        Path staged = staging.resolve(name);
+        Files.createDirectories(staged);
+        if (Files.isDirectory(published)) {
+            try (Stream<Path> files = Files.list(published)) {
+                for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                    Path link = staged.resolve(file.getFileName());
+                    try {
+                        Files.createLink(link, file);
+                    } catch (IOException | UnsupportedOperationException ex) {
+                        Files.copy(file, link, StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                }
+            }
+        }
+        return staged;
+    }
+
+    /**
+     * Moves everything in the staging directory into place, replacing what
+     * was there, removes the artifacts that weren't staged, and removes the
+     * staging directory.
+     *
+     * @return the artifacts published, in the order they were swapped in.
+     * @throws IOException if one can't be moved; those already moved stay
+     * published.
+     */
+    public List<Path> publish() throws IOException {
+        List<Path> published = new ArrayList<>();
+        for (Path artifact : list(staging)) {
+            Path target = directory.resolve(artifact.getFileName());
+            if (Files.isDirectory(artifact)) {
+                publishDirectory(artifact, target);
+            } else {
+                // On POSIX, an atomic move is a rename(2), which replaces the target.
+                Files.move(artifact, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            published.add(target);
+        }
+        for (String artifact : artifacts) {
+            Path stale = directory.resolve(artifact);
+            if (!published.contains(stale) && Files.exists(stale, LinkOption.NOFOLLOW_LINKS)) {
+                FileUtils.forceDelete(stale.toFile());
+            }
+        }
+        FileUtils.deleteDirectory(staging.toFile());
+        return published;
+    }
+
+    private void publishDirectory(Path staged, Path target) throws IOException {
+        Files.createDirectories(target);
+        Set<Path> names = new HashSet<>();
+        for (Path entry : list(staged)) {
+            Path into = target.resolve(entry.getFileName());
+            names.add(entry.getFileName());
+            if (Files.isDirectory(entry)) {
+                publishDirectory(entry, into);
+            } else if (!Files.exists(into) || !Files.isSameFile(entry, into)) {
+                Files.move(entry, into, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        for (Path stale : list(target)) {
+            if (!names.contains(stale.getFileName())) {
+                FileUtils.forceDelete(stale.toFile());
+            }
+        }
+    }
+
+    /**
+     * @return what's in a directory, manifests last.
+     */
+    private static List<Path> list(Path directory) throws IOException {
+        try (Stream<Path> list = Files.list(directory)) {
+            return list.sorted(Comparator.comparing((Path path) -> path.getFileName().toString().endsWith(".json"))
+                    .thenComparing(Path::getFileName))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+}
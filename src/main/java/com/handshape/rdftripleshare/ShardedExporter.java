@@ -0,0 +1,445 @@
+package com.handshape.rdftripleshare;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonArray;
+import org.apache.jena.atlas.json.JsonObject;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * Writes the triples out as many small, sorted N-Triples files rather than
+ * one big one, with a shards.json manifest saying which subjects are in
+ * which file, so that a client after one act can fetch the few kilobytes it
+ * needs rather than the whole corpus.
+ * <p>
+ * In prefix mode, subjects are grouped by their namespace, taking in the
+ * first segment of the local name where there is one, like "inst:" or
+ * "recgen:orgid/"; in hash mode, they're all in one group. Each group is
+ * then split, by the CRC-32 of the subject's IRI, into as many equal ranges
+ * of the hash, a power of two, as it takes to keep the shards under the
+ * size limit. Each shard's lines are sorted, so a shard whose triples didn't
+ * change is written byte for byte as it was, and keeps its checksum, for as
+ * long as its group keeps the same number of shards.
+ * <p>
+ * A group's shards are named after its namespace, with anything a file name
+ * can't hold turned into hyphens, so "recgen:orgid/" is recgen-orgid.nt, or
+ * recgen-orgid.00.nt to recgen-orgid.1f.nt when it's split. If namespaces
+ * come out with the same name, each is told apart by a "~" and the CRC-32 of
+ * the namespace, so a namespace's files are named the same from one export
+ * to the next, whatever order the subjects arrive in.
+ * <p>
+ * Triples are spilled to a file per group as they arrive, so memory use is
+ * bounded by the size of a shard, not the corpus. Failures are thrown as
+ * {@link UncheckedIOException}s.
+ *
+ * @author jturner
+ */
+public class ShardedExporter implements StreamRDF, AutoCloseable {
+
+    /**
+     * How subjects are grouped before they're split by hash.
+     */
+    public enum Mode {
+        /**
+         * By namespace.
+         */
+        PREFIX,
+        /**
+         * All together.
+         */
+        HASH
+    }
+
+    private static final String MANIFEST = "shards.json";
+    private static final int MAX_SPLIT_BITS = 12;
+
+    private final Path directory;
+    private final Path spillDirectory;
+    private final PrefixTrie shortForms = new PrefixTrie();
+    private final Map<String, String> namespaces = new TreeMap<>();
+    // By namespace.
+    private final Map<String, Group> groups = new TreeMap<>();
+    private final List<Shard> shards = new ArrayList<>();
+    private Mode mode = Mode.valueOf(System.getProperty("rdfshare.shards.mode", "prefix").toUpperCase(Locale.ROOT));
+    private long maxShardBytes = Long.getLong("rdfshare.shards.max-bytes", 8L * 1024 * 1024);
+    private long bytes;
+
+    /**
+     * @param directory where the shards and their manifest are written; any
+     * shards already there that aren't part of this export are removed.
+     */
+    public ShardedExporter(Path directory) {
+        this.directory = directory;
+        this.spillDirectory = directory.resolve(".spill");
+    }
+
+    public ShardedExporter setMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * @param maxShardBytes the size shards are kept under, on average.
+     * @return this exporter.
+     */
+    public ShardedExporter setMaxShardBytes(long maxShardBytes) {
+        this.maxShardBytes = maxShardBytes;
+        return this;
+    }
+
+    public Path getManifestFile() {
+        return directory.resolve(MANIFEST);
+    }
+
+    /**
+     * @return how many bytes of shards were written, once finished.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return how many shards were written, once finished.
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * @param iri a subject's IRI.
+     * @return its hash, as the manifest's ranges use it: the CRC-32 of the
+     * IRI's UTF-8 bytes.
+     */
+    public static long hash(String iri) {
+        CRC32 crc = new CRC32();
+        crc.update(iri.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    @Override
+    public void start() {
+        groups.clear();
+        shards.clear();
+        bytes = 0;
+        try {
+            FileUtils.deleteDirectory(spillDirectory.toFile());
+            Files.createDirectories(spillDirectory);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to set up " + spillDirectory, ex);
+        }
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        Node subject = triple.getSubject();
+        String iri = subject.isURI() ? subject.getURI() : subject.isBlank() ? subject.getBlankNodeLabel() : subject.toString();
+        String line = NodeFmtLib.str(subject) + " " + NodeFmtLib.str(triple.getPredicate()) + " " + NodeFmtLib.str(triple.getObject()) + " .\n";
+        Group group = group(subject.isURI() ? iri : null);
+        try {
+            group.writer.write(Long.toString(hash(iri)));
+            group.writer.write('\t');
+            group.writer.write(line);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to spill to " + group.spill, ex);
+        }
+        // Near enough to the bytes, for deciding how many ways to split.
+        group.bytes += line.length();
+    }
+
+    @Override
+    public void quad(Quad quad) {
+        triple(quad.asTriple());
+    }
+
+    @Override
+    public void base(String base) {
+        // N-Triples are always absolute, so there's nothing to resolve against.
+    }
+
+    @Override
+    public void prefix(String prefix, String iri) {
+        shortForms.put(prefix, iri);
+        namespaces.put(prefix, iri);
+    }
+
+    /**
+     * Splits each group into its shards, writes them and the manifest, and
+     * clears away the spill and any shards left from an earlier export.
+     */
+    @Override
+    public void finish() {
+        try {
+            Map<String, Integer> names = new HashMap<>();
+            for (Group group : groups.values()) {
+                names.merge(group.name, 1, Integer::sum);
+            }
+            for (Group group : groups.values()) {
+                group.writer.close();
+                int bits = 0;
+                while (bits < MAX_SPLIT_BITS && (group.bytes >> bits) > maxShardBytes) {
+                    bits++;
+                }
+                // Namespaces that only differ in characters a file name can't hold; keep them apart.
+                String name = names.get(group.name) > 1 ? group.name + "~" + String.format("%08x", hash(group.namespace)) : group.name;
+                split(group, name, bits);
+            }
+            writeManifest();
+            Set<String> written = new HashSet<>();
+            for (Shard shard : shards) {
+                written.add(shard.file);
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.nt")) {
+                for (Path file : files) {
+                    if (!written.contains(file.getFileName().toString())) {
+                        Files.delete(file);
+                    }
+                }
+            }
+            FileUtils.deleteDirectory(spillDirectory.toFile());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to write the shards to " + directory, ex);
+        }
+    }
+
+    /**
+     * Abandons an export that hasn't finished: closes the spill files and
+     * clears them away, leaving the shards as they were.
+     */
+    @Override
+    public void close() {
+        for (Group group : groups.values()) {
+            try {
+                group.writer.close();
+            } catch (IOException ex) {
+                // It's about to be deleted.
+            }
+        }
+        groups.clear();
+        FileUtils.deleteQuietly(spillDirectory.toFile());
+    }
+
+    private Group group(String iri) {
+        String name = "other";
+        String namespace = "";
+        if (mode == Mode.HASH) {
+            name = "all";
+        } else if (iri != null) {
+            String shortForm = shortForms.shortForm(iri);
+            int colon = shortForm.indexOf(':');
+            if (!shortForm.equals(iri) && colon > 0) {
+                String prefix = shortForm.substring(0, colon);
+                String local = shortForm.substring(colon + 1);
+                int slash = local.indexOf('/');
+                String segment = slash > 0 ? local.substring(0, slash + 1) : "";
+                name = (prefix + "-" + segment).replaceAll("[^A-Za-z0-9_-]+", "-").replaceAll("-+$", "");
+                namespace = namespaces.get(prefix) + segment;
+            }
+        }
+        Group group = groups.get(namespace);
+        if (group == null) {
+            Path spill = spillDirectory.resolve(groups.size() + ".spill");
+            try {
+                group = new Group(name, namespace, spill, Files.newBufferedWriter(spill, StandardCharsets.UTF_8));
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Failed to spill to " + spill, ex);
+            }
+            groups.put(namespace, group);
+        }
+        return group;
+    }
+
+    private void split(Group group, String name, int bits) throws IOException {
+        int count = 1 << bits;
+        List<Path> parts = new ArrayList<>();
+        List<Writer> writers = new ArrayList<>();
+        try {
+            if (bits == 0) {
+                parts.add(group.spill);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    Path part = group.spill.resolveSibling(group.spill.getFileName() + "." + i + ".part");
+                    parts.add(part);
+                    writers.add(Files.newBufferedWriter(part, StandardCharsets.UTF_8));
+                }
+                try (BufferedReader reader = Files.newBufferedReader(group.spill, StandardCharsets.UTF_8)) {
+                    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                        int tab = line.indexOf('\t');
+                        int part = (int) (Long.parseLong(line.substring(0, tab)) >>> (32 - bits));
+                        writers.get(part).write(line);
+                        writers.get(part).write('\n');
+                    }
+                }
+            }
+        } finally {
+            for (Writer writer : writers) {
+                writer.close();
+            }
+        }
+        long span = (1L << 32) / count;
+        for (int i = 0; i < count; i++) {
+            // A dot, which the names never have, so a split group's shards can't take another group's name.
+            String file = bits == 0 ? name + ".nt" : name + "." + String.format("%0" + ((bits + 3) / 4) + "x", i) + ".nt";
+            writeShard(parts.get(i), new Shard(file, group.namespace, i * span, (i + 1) * span));
+        }
+    }
+
+    private void writeShard(Path part, Shard shard) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(part, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line.substring(line.indexOf('\t') + 1));
+            }
+        }
+        if (lines.isEmpty()) {
+            return;
+        }
+        Collections.sort(lines);
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        Path temp = Files.createTempFile(spillDirectory, "shard", ".nt");
+        try (DigestOutputStream digest = new DigestOutputStream(Files.newOutputStream(temp), sha256);
+                Writer out = new BufferedWriter(new OutputStreamWriter(digest, StandardCharsets.UTF_8), 1 << 16)) {
+            String previous = null;
+            for (String line : lines) {
+                if (!line.equals(previous)) {
+                    out.write(line);
+                    out.write('\n');
+                    shard.triples++;
+                }
+                previous = line;
+            }
+        }
+        shard.bytes = Files.size(temp);
+        shard.sha256 = hex(sha256.digest());
+        Path target = directory.resolve(shard.file);
+        if (Files.exists(target) && Files.size(target) == shard.bytes && shard.sha256.equals(sha256(target))) {
+            // Unchanged, so leave it be, modification time and all, for anything syncing the directory.
+            Files.delete(temp);
+        } else {
+            move(temp, target);
+        }
+        bytes += shard.bytes;
+        shards.add(shard);
+    }
+
+    private void writeManifest() throws IOException {
+        JsonObject manifest = new JsonObject();
+        manifest.put("mode", mode.name().toLowerCase(Locale.ROOT));
+        manifest.put("hash", "crc32 of the subject IRI's UTF-8 bytes, or of a blank node's label");
+        manifest.put("triples", shards.stream().mapToLong(shard -> shard.triples).sum());
+        manifest.put("bytes", bytes);
+        JsonObject prefixes = new JsonObject();
+        namespaces.forEach(prefixes::put);
+        manifest.put("prefixes", prefixes);
+        JsonArray list = new JsonArray();
+        for (Shard shard : shards) {
+            JsonObject json = new JsonObject();
+            json.put("file", shard.file);
+            json.put("namespace", shard.namespace);
+            json.put("hashStart", shard.hashStart);
+            json.put("hashEnd", shard.hashEnd);
+            json.put("triples", shard.triples);
+            json.put("bytes", shard.bytes);
+            json.put("sha256", shard.sha256);
+            list.add(json);
+        }
+        manifest.put("shards", list);
+        Path temp = Files.createTempFile(spillDirectory, "manifest", ".json");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            JSON.write(out, manifest);
+        }
+        move(temp, getManifestFile());
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try {
+            return hex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static final class Group {
+
+        private final String name;
+        private final String namespace;
+        private final Path spill;
+        private final Writer writer;
+        private long bytes;
+
+        Group(String name, String namespace, Path spill, Writer writer) {
+            this.name = name;
+            this.namespace = namespace;
+            this.spill = spill;
+            this.writer = writer;
+        }
+    }
+
+    private static final class Shard {
+
+        private final String file;
+        private final String namespace;
+        private final long hashStart;
+        private final long hashEnd;
+        private long triples;
+        private long bytes;
+        private String sha256;
+
+        Shard(String file, String namespace, long hashStart, long hashEnd) {
+            this.file = file;
+            this.namespace = namespace;
+            this.hashStart = hashStart;
+            this.hashEnd = hashEnd;
+        }
+    }
+}
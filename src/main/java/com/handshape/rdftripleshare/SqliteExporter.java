@@ -0,0 +1,531 @@
+package com.handshape.rdftripleshare;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.IOUtils;
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonArray;
+import org.apache.jena.atlas.json.JsonObject;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.shared.PrefixMapping;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * Writes a model, or a stream of triples, out to a nicely-packed SQLite db.
+ * Rows are inserted in JDBC batches inside a single transaction, and
+ * secondary indexes are only built once everything's loaded.
+ * <p>
+ * Terms are written in their prefixed short forms, using the longest matching
+ * namespace, with literals in double quotes. Whatever the layout, the db has a TRIPLES (SUBJECT, OBJECT, PREDICATE) table
+ * or view of those terms, and a PREFIXES table to expand them with.
+ * <p>
+ * Optionally, the literals of some predicates are indexed for full-text search
+ * in an FTS5 LITERALS (TEXT, LANG, SUBJECT, PREDICATE) table, so a client
+ * looking for a title or an organisation name doesn't have to scan every row
+ * of TRIPLES with LIKE. The tokenizer folds case and strips diacritics, so
+ * "ministere" finds "Ministère", but doesn't stem, since stemmers are for one
+ * language and the literals are in two. Prefix queries like "regul*" read a
+ * range of the term index rather than the table, with two- and
+ * three-character prefixes indexed outright.
+ * <p>
+ * Also optionally, the amendment and enabling chains are walked at build time,
+ * and their closures written out, so a client can read everything that ever
+ * amended an instrument in one range read rather than a hop at a time.
+ *
+ * @author jturner
+ */
+public class SqliteExporter {
+
+    private static final Logger LOGGER = Logger.getLogger(SqliteExporter.class.getName());
+
+    /**
+     * How the triples are laid out in the db.
+     */
+    public enum Layout {
+        /**
+         * A TRIPLES table holding the text of every term in every row.
+         */
+        ROWS("/ddl.sql", "/indexes.sql"),
+        /**
+         * Each distinct term stored once in TERMS, with TRIPLE_IDS holding
+         * only their integer IDs. TRIPLES is a view that joins them back up.
+         */
+        DICTIONARY("/ddl-dictionary.sql", "/indexes-dictionary.sql"),
+        /**
+         * For clients reading the db over HTTP range requests, where every
+         * page costs a round trip. TRIPLES is clustered on (SUBJECT,
+         * PREDICATE, OBJECT) with covering (PREDICATE, OBJECT, SUBJECT) and
+         * (OBJECT, SUBJECT, PREDICATE) indexes, so any lookup bound on a
+         * leading column is answered from one b-tree without visiting
+         * another. Rows should be inserted in subject order so that each
+         * subject's rows share pages, which {@link #export(Model)} does, and
+         * an {@link ExternalSortingSink} does for {@link #sink()}. Duplicate
+         * rows are dropped.
+         */
+        RANGE("/ddl-range.sql", "/indexes-range.sql");
+
+        private final String ddlResource;
+        private final String indexResource;
+
+        Layout(String ddlResource, String indexResource) {
+            this.ddlResource = ddlResource;
+            this.indexResource = indexResource;
+        }
+    }
+
+    /**
+     * What's indexed for full-text search by default: titles, organisation
+     * names and department heads.
+     */
+    public static final Set<String> DEFAULT_FULL_TEXT_PREDICATES = Set.of("https://schema.org/name",
+            "https://www.tpsgc-pwgsc.gc.ca/recgen/ext/org-name", "https://www.tpsgc-pwgsc.gc.ca/recgen/ext/department-head");
+    /**
+     * Stands for every predicate, to index all literals.
+     */
+    public static final String ALL_PREDICATES = "*";
+
+    private final Path databaseFile;
+    private Layout layout = Layout.valueOf(System.getProperty("rdfshare.sqlite.layout", "rows").toUpperCase(Locale.ROOT));
+    private int batchSize = Integer.getInteger("rdfshare.sqlite.batch-size", 10000);
+    private int pageSize = Integer.getInteger("rdfshare.sqlite.page-size", 4096);
+    private Set<String> fullTextPredicates = fullTextPredicatesFromSystemProperties();
+    private boolean closures = Boolean.getBoolean("rdfshare.sqlite.closures");
+    private int closureMaxDepth = Integer.getInteger("rdfshare.sqlite.closures.max-depth", 0);
+
+    public SqliteExporter(Path databaseFile) {
+        this.databaseFile = databaseFile;
+    }
+
+    public SqliteExporter setLayout(Layout layout) {
+        this.layout = layout;
+        return this;
+    }
+
+    /**
+     * @param predicates the predicates whose literals are indexed for
+     * full-text search, {@link #ALL_PREDICATES} for all of them, or null for
+     * no full-text index. By default, there's one over
+     * {@link #DEFAULT_FULL_TEXT_PREDICATES} if the rdfshare.sqlite.fts system
+     * property is true, or over the comma-separated IRIs in
+     * rdfshare.sqlite.fts.predicates if that's set too.
+     * @return this exporter.
+     */
+    public SqliteExporter setFullText(Collection<String> predicates) {
+        this.fullTextPredicates = predicates == null ? null : new TreeSet<>(predicates);
+        return this;
+    }
+
+    /**
+     * @return the predicates whose literals are indexed for full-text search
+     * by default, as {@link #setFullText(Collection)} describes, or null.
+     */
+    static Set<String> fullTextPredicatesFromSystemProperties() {
+        return !Boolean.getBoolean("rdfshare.sqlite.fts") ? null
+                : System.getProperty("rdfshare.sqlite.fts.predicates") == null ? DEFAULT_FULL_TEXT_PREDICATES
+                : new TreeSet<>(Arrays.asList(System.getProperty("rdfshare.sqlite.fts.predicates").split("\\s*,\\s*")));
+    }
+
+    /**
+     * @param closures whether to precompute the amendment closures, the acts'
+     * hierarchies of instruments and the per-predicate statistics, as
+     * described in {@link ClosureTables}; rdfshare.sqlite.closures by
+     * default.
+     * @param maxDepth the most hops the closures follow, or 0 for no limit;
+     * rdfshare.sqlite.closures.max-depth by default.
+     * @return this exporter.
+     */
+    public SqliteExporter setClosures(boolean closures, int maxDepth) {
+        this.closures = closures;
+        this.closureMaxDepth = maxDepth;
+        return this;
+    }
+
+    public SqliteExporter setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param pageSize the db's page size in bytes; a power of two from 512 to
+     * 65536.
+     * @return this exporter.
+     */
+    public SqliteExporter setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * @return where the manifest describing the db is written.
+     */
+    public Path getManifestFile() {
+        return databaseFile.resolveSibling(databaseFile.getFileName() + ".manifest.json");
+    }
+
+    /**
+     * Replaces the db with the contents of the given model, and writes a
+     * manifest alongside it listing its page size, the root page of each
+     * table and index, and the planner's statistics, so that a client reading
+     * pages directly can find its way around without reading the schema
+     * first.
+     *
+     * @param model the model to export.
+     * @throws IOException if the db file or the SQL scripts can't be read.
+     * @throws SQLException if the export fails.
+     */
+    public void export(Model model) throws IOException, SQLException {
+        Sink sink = new Sink();
+        try {
+            sink.start();
+            for (Map.Entry<String, String> entry : model.getNsPrefixMap().entrySet()) {
+                sink.prefix(entry.getKey(), entry.getValue());
+            }
+            if (layout == Layout.RANGE) {
+                sendSortedBySubject(model, sink);
+            } else {
+                StmtIterator stmts = model.listStatements();
+                while (stmts.hasNext()) {
+                    sink.triple(stmts.nextStatement().asTriple());
+                }
+            }
+            sink.finish();
+        } catch (ExportException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            }
+            throw (IOException) ex.getCause();
+        } finally {
+            sink.close();
+        }
+    }
+
+    /**
+     * A stream that replaces the db with the triples sent to it, once it's
+     * finished. Prefixes have to arrive before the triples that use them, so
+     * that the triples are written in their short forms; an
+     * {@link ExternalSortingSink} upstream sees to that, and for the range
+     * layout, to the subject order too.
+     * <p>
+     * Memory use doesn't grow with the number of triples, except for the
+     * dictionary layout's map of the distinct terms. Failures are thrown as
+     * {@link ExportException}s. The stream is {@link AutoCloseable}, so that
+     * an export abandoned before it finishes can let go of the db.
+     *
+     * @return a stream to send the triples to.
+     */
+    public StreamRDF sink() {
+        return new Sink();
+    }
+
+    private void sendSortedBySubject(Model model, StreamRDF sink) {
+        PrefixTrie prefixes = new PrefixTrie(model.getNsPrefixMap());
+        Map<String, Resource> subjects = new TreeMap<>();
+        ResIterator subjectIterator = model.listSubjects();
+        while (subjectIterator.hasNext()) {
+            Resource subject = subjectIterator.nextResource();
+            if (subject.getURI() != null) {
+                subjects.put(prefixes.shortForm(subject.getURI()), subject);
+            }
+        }
+        List<Triple> triples = new ArrayList<>();
+        for (Resource subject : subjects.values()) {
+            triples.clear();
+            StmtIterator stmts = subject.listProperties();
+            while (stmts.hasNext()) {
+                triples.add(stmts.nextStatement().asTriple());
+            }
+            triples.sort(Comparator.comparing((Triple triple) -> prefixes.shortForm(triple.getPredicate().getURI()))
+                    .thenComparing(triple -> objectTerm(prefixes, triple.getObject())));
+            for (Triple triple : triples) {
+                sink.triple(triple);
+            }
+        }
+    }
+
+    /**
+     * Thrown by the stream returned from {@link #sink()} when the export
+     * fails, wrapping the SQLException or IOException behind it.
+     */
+    public static class ExportException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        ExportException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    private class Sink implements StreamRDF, AutoCloseable {
+
+        private final PrefixMapping prefixes = PrefixMapping.Factory.create();
+        private final PrefixTrie shortForms = new PrefixTrie();
+        private final Map<String, Integer> termIds = new HashMap<>();
+        private Connection conn;
+        private PreparedStatement tripleStmt;
+        private PreparedStatement termStmt;
+        private PreparedStatement literalStmt;
+        private int batched;
+
+        @Override
+        public void start() {
+            if (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1) {
+                throw new IllegalArgumentException("SQLite page sizes are powers of two from 512 to 65536, not " + pageSize);
+            }
+            try {
+                // Start from an empty file rather than dropping tables, so that a change of layout can't trip over the old one.
+                Files.deleteIfExists(databaseFile);
+                conn = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+                try (Statement stmt = conn.createStatement()) {
+                    // Only takes effect before the first table is created.
+                    stmt.execute("PRAGMA page_size = " + pageSize);
+                }
+                runScript(conn, layout.ddlResource);
+                if (fullTextPredicates != null) {
+                    runScript(conn, "/ddl-fts.sql");
+                    literalStmt = conn.prepareStatement("INSERT INTO LITERALS (TEXT, LANG, SUBJECT, PREDICATE) VALUES (?, ?, ?, ?)");
+                }
+                conn.setAutoCommit(false);
+                switch (layout) {
+                    case DICTIONARY:
+                        termStmt = conn.prepareStatement("INSERT INTO TERMS (ID, TERM) VALUES (?, ?)");
+                        tripleStmt = conn.prepareStatement("INSERT OR IGNORE INTO TRIPLE_IDS (SUBJECT, PREDICATE, OBJECT) VALUES (?, ?, ?)");
+                        break;
+                    case RANGE:
+                        tripleStmt = conn.prepareStatement("INSERT OR IGNORE INTO TRIPLES (SUBJECT, PREDICATE, OBJECT) VALUES (?, ?, ?)");
+                        break;
+                    default:
+                        tripleStmt = conn.prepareStatement("INSERT INTO TRIPLES (SUBJECT, PREDICATE, OBJECT) VALUES (?, ?, ?)");
+                        break;
+                }
+            } catch (IOException | SQLException ex) {
+                close();
+                throw new ExportException(ex);
+            }
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            if (!triple.getSubject().isURI() || !triple.getPredicate().isURI()) {
+                return;
+            }
+            String subject = shortForms.shortForm(triple.getSubject().getURI());
+            String predicate = shortForms.shortForm(triple.getPredicate().getURI());
+            String object = objectTerm(shortForms, triple.getObject());
+            try {
+                if (layout == Layout.DICTIONARY) {
+                    tripleStmt.setInt(1, termId(subject));
+                    tripleStmt.setInt(2, termId(predicate));
+                    tripleStmt.setInt(3, termId(object));
+                } else {
+                    tripleStmt.setString(1, subject);
+                    tripleStmt.setString(2, predicate);
+                    tripleStmt.setString(3, object);
+                }
+                tripleStmt.addBatch();
+                if (literalStmt != null && triple.getObject().isLiteral()
+                        && (fullTextPredicates.contains(ALL_PREDICATES) || fullTextPredicates.contains(triple.getPredicate().getURI()))) {
+                    String lang = triple.getObject().getLiteralLanguage();
+                    literalStmt.setString(1, triple.getObject().getLiteralLexicalForm());
+                    literalStmt.setString(2, lang.isEmpty() ? null : lang);
+                    literalStmt.setString(3, subject);
+                    literalStmt.setString(4, predicate);
+                    literalStmt.addBatch();
+                }
+                if (++batched % batchSize == 0) {
+                    if (termStmt != null) {
+                        // Terms first, so the triples never get ahead of them.
+                        termStmt.executeBatch();
+                    }
+                    tripleStmt.executeBatch();
+                    if (literalStmt != null) {
+                        literalStmt.executeBatch();
+                    }
+                }
+            } catch (SQLException ex) {
+                close();
+                throw new ExportException(ex);
+            }
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            triple(quad.asTriple());
+        }
+
+        @Override
+        public void base(String base) {
+        }
+
+        @Override
+        public void prefix(String prefix, String iri) {
+            prefixes.setNsPrefix(prefix, iri);
+            shortForms.put(prefix, iri);
+        }
+
+        @Override
+        public void finish() {
+            try {
+                if (termStmt != null) {
+                    termStmt.executeBatch();
+                }
+                tripleStmt.executeBatch();
+                if (literalStmt != null) {
+                    literalStmt.executeBatch();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO PREFIXES (PREFIX, URL) VALUES (?, ?)")) {
+                    for (Map.Entry<String, String> entry : prefixes.getNsPrefixMap().entrySet()) {
+                        stmt.setString(1, entry.getKey());
+                        stmt.setString(2, entry.getValue());
+                        LOGGER.log(Level.FINE, "{0} -> {1}", new Object[]{entry.getKey(), entry.getValue()});
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                conn.commit();
+                conn.setAutoCommit(true);
+                runScript(conn, layout.indexResource);
+                if (fullTextPredicates != null) {
+                    runScript(conn, "/indexes-fts.sql");
+                }
+                if (closures) {
+                    new ClosureTables(conn, shortForms, closureMaxDepth, batchSize).write();
+                }
+                runScript(conn, "/finalize.sql");
+                writeManifest(conn, prefixes);
+            } catch (IOException | SQLException ex) {
+                throw new ExportException(ex);
+            } finally {
+                close();
+            }
+        }
+
+        private int termId(String term) throws SQLException {
+            Integer id = termIds.get(term);
+            if (id == null) {
+                id = termIds.size() + 1;
+                termIds.put(term, id);
+                termStmt.setInt(1, id);
+                termStmt.setString(2, term);
+                termStmt.addBatch();
+            }
+            return id;
+        }
+
+        /**
+         * Closes the connection, rolling back whatever wasn't committed. Does
+         * nothing once it's closed.
+         */
+        @Override
+        public void close() {
+            try {
+                if (conn != null) {
+                    // Closes the prepared statements along with it.
+                    conn.close();
+                }
+            } catch (SQLException ex) {
+                // Nothing more can be done with it.
+            }
+            conn = null;
+        }
+    }
+
+    private void writeManifest(Connection conn, PrefixMapping prefixMapping) throws IOException, SQLException {
+        JsonObject manifest = new JsonObject();
+        manifest.put("layout", layout.name().toLowerCase(Locale.ROOT));
+        manifest.put("pageSize", queryLong(conn, "PRAGMA page_size"));
+        manifest.put("pageCount", queryLong(conn, "PRAGMA page_count"));
+        manifest.put("triples", queryLong(conn, "SELECT COUNT(*) FROM TRIPLES"));
+        JsonObject prefixes = new JsonObject();
+        for (Map.Entry<String, String> entry : prefixMapping.getNsPrefixMap().entrySet()) {
+            prefixes.put(entry.getKey(), entry.getValue());
+        }
+        manifest.put("prefixes", prefixes);
+        if (fullTextPredicates != null) {
+            JsonArray fullText = new JsonArray();
+            fullTextPredicates.forEach(fullText::add);
+            manifest.put("fullText", fullText);
+        }
+        JsonArray btrees = new JsonArray();
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT type, name, tbl_name, rootpage FROM sqlite_master WHERE rootpage > 0 ORDER BY rootpage")) {
+            while (rs.next()) {
+                JsonObject btree = new JsonObject();
+                btree.put("type", rs.getString(1));
+                btree.put("name", rs.getString(2));
+                btree.put("table", rs.getString(3));
+                btree.put("rootPage", rs.getLong(4));
+                btrees.add(btree);
+            }
+        }
+        manifest.put("btrees", btrees);
+        // What ANALYZE found: row counts, then the average rows per distinct value of each index's leading columns.
+        JsonObject stats = new JsonObject();
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT coalesce(idx, tbl), stat FROM sqlite_stat1 ORDER BY 1")) {
+            while (rs.next()) {
+                stats.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        manifest.put("stats", stats);
+        try (OutputStream out = Files.newOutputStream(getManifestFile())) {
+            JSON.write(out, manifest);
+        }
+    }
+
+    private static long queryLong(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    static String objectTerm(PrefixTrie prefixes, Node object) {
+        if (object.isBlank()) {
+            return object.getBlankNodeLabel();
+        } else if (object.isURI()) {
+            return prefixes.shortForm(object.getURI());
+        }
+        return "\"" + object.getLiteralLexicalForm() + "\"";
+    }
+
+    static void runScript(Connection conn, String resource) throws IOException, SQLException {
+        String script;
+        try (InputStream in = SqliteExporter.class.getResourceAsStream(resource)) {
+            script = IOUtils.toString(in, "UTF-8");
+        }
+        try (Statement stmt = conn.createStatement()) {
+            for (String line : script.split("\\r?\\n")) {
+                if (!line.isBlank()) {
+                    stmt.execute(line);
+                }
+            }
+        }
+    }
+}
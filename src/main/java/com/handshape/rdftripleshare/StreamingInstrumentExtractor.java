@@ -0,0 +1,190 @@
+package com.handshape.rdftripleshare;
+
+import java.io.InputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Extracts a {@link ConsolidatedInstrument} from consolidated act or
+ * regulation XML in a single streaming pass, without building a document tree
+ * or materialising the instrument's text.
+ * <p>
+ * The results are the same as collecting all of the document's text with
+ * single spaces between text nodes and splitting it on "\\W+": words are
+ * counted as runs of ASCII word characters, text node boundaries break words,
+ * and a document whose text starts with a non-word character counts one extra
+ * (empty) leading word. Only the text of Body/Section/HistoricalNote/
+ * HistoricalNoteSubItem elements is kept, to be split into citations.
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author jturner
+ */
+public class StreamingInstrumentExtractor {
+
+    // The JDK's parser folds CDATA into ordinary character events unless asked not to.
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    public StreamingInstrumentExtractor() {
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        if (factory.isPropertySupported(REPORT_CDATA)) {
+            factory.setProperty(REPORT_CDATA, true);
+        }
+    }
+
+    /**
+     * @param instrumentId the URL-safe instrument ID.
+     * @param in the instrument XML.
+     * @param systemId the location of the XML, for resolving relative
+     * references.
+     * @return what was extracted from the instrument.
+     * @throws XMLStreamException if the XML is malformed.
+     */
+    public ConsolidatedInstrument extract(String instrumentId, InputStream in, String systemId) throws XMLStreamException {
+        ConsolidatedInstrument instrument = new ConsolidatedInstrument(instrumentId);
+        XMLStreamReader reader = factory.createXMLStreamReader(systemId, in);
+        try {
+            WordCounter words = new WordCounter();
+            // Text of the current text node, only kept while inside a HistoricalNoteSubItem.
+            StringBuilder node = new StringBuilder();
+            StringBuilder subItem = null;
+            int depth = 0;
+            int sectionCount = 0;
+            boolean bodySeen = false;
+            boolean inBody = false;
+            boolean inSection = false;
+            boolean inHistoricalNote = false;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        endTextNode(words, node, subItem);
+                        depth++;
+                        if (depth == 2 && !bodySeen && isUnqualified(reader, "Body")) {
+                            bodySeen = true;
+                            inBody = true;
+                        } else if (depth == 3 && inBody && isUnqualified(reader, "Section")) {
+                            sectionCount++;
+                            inSection = true;
+                        } else if (depth == 4 && inSection && isUnqualified(reader, "HistoricalNote")) {
+                            inHistoricalNote = true;
+                        } else if (depth == 5 && inHistoricalNote && isUnqualified(reader, "HistoricalNoteSubItem")) {
+                            subItem = new StringBuilder();
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        endTextNode(words, node, subItem);
+                        if (depth == 5 && subItem != null) {
+                            for (String item : subItem.toString().split(";")) {
+                                instrument.getCitations().add(item.trim());
+                            }
+                            subItem = null;
+                        } else if (depth == 4) {
+                            inHistoricalNote = false;
+                        } else if (depth == 3) {
+                            inSection = false;
+                        } else if (depth == 2) {
+                            inBody = false;
+                        }
+                        depth--;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        if (depth > 0) {
+                            words.accept(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                            if (subItem != null) {
+                                node.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                            }
+                        }
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        // CDATA sections are text nodes of their own.
+                        endTextNode(words, node, subItem);
+                        words.accept(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        if (subItem != null) {
+                            node.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                        endTextNode(words, node, subItem);
+                        break;
+                    default:
+                        // Comments and processing instructions split text nodes, too.
+                        endTextNode(words, node, subItem);
+                        break;
+                }
+            }
+            instrument.setWordCount(words.count());
+            instrument.setSectionCount(sectionCount);
+        } finally {
+            reader.close();
+        }
+        return instrument;
+    }
+
+    private static boolean isUnqualified(XMLStreamReader reader, String localName) {
+        return localName.equals(reader.getLocalName()) && (reader.getNamespaceURI() == null || reader.getNamespaceURI().isEmpty());
+    }
+
+    private static void endTextNode(WordCounter words, StringBuilder node, StringBuilder subItem) {
+        words.boundary();
+        if (subItem != null) {
+            String value = node.toString().trim();
+            if (!value.isEmpty()) {
+                if (subItem.length() != 0) {
+                    subItem.append(' ');
+                }
+                subItem.append(value);
+            }
+        }
+        node.setLength(0);
+    }
+
+    /**
+     * Counts words the way splitting on "\\W+" would, one chunk of text at a
+     * time.
+     */
+    static class WordCounter {
+
+        private int words;
+        private boolean inWord;
+        private boolean started;
+        private boolean leadingNonWord;
+
+        void accept(char[] text, int start, int length) {
+            for (int i = start; i < start + length; i++) {
+                char c = text[i];
+                if (!started) {
+                    // Leading whitespace is trimmed away before splitting.
+                    if (c <= ' ') {
+                        continue;
+                    }
+                    started = true;
+                    leadingNonWord = !isWordChar(c);
+                }
+                if (isWordChar(c)) {
+                    if (!inWord) {
+                        words++;
+                        inWord = true;
+                    }
+                } else {
+                    inWord = false;
+                }
+            }
+        }
+
+        void boundary() {
+            inWord = false;
+        }
+
+        int count() {
+            // A leading separator leaves an empty first word; trailing ones are dropped.
+            return words == 0 ? 0 : words + (leadingNonWord ? 1 : 0);
+        }
+
+        private static boolean isWordChar(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.handshape.rdftripleshare;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.jena.tdb2.TDB2Factory;
+import org.apache.jena.tdb2.sys.TDBInternal;
+
+/**
+ * Gathers the build's triples into a Jena TDB2 database on disk, rather than
+ * an in-memory model, so the heap doesn't have to hold the whole corpus.
+ * <p>
+ * Each source's triples go into a named graph of their own, and are added in
+ * write transactions of a fixed number of triples, which is how TDB2 loads
+ * fastest without any one transaction's journal growing with the corpus.
+ * The database is kept between builds, along with a fingerprint of each
+ * source's inputs, so a source whose inputs haven't changed since it was last
+ * loaded is skipped, and its graph reused as it is.
+ * <p>
+ * TDB2 never reuses the space of what's deleted from it until it's compacted,
+ * and the sources that can't be skipped replace their graphs every build, so
+ * the database would otherwise grow with every build. After the sources are
+ * loaded, {@link #compact()} copies what's live to a fresh generation of the
+ * database and removes the old one.
+ * <p>
+ * The outputs read the union of the sources' graphs, which comes out of the
+ * store's index in subject order, with each subject's triples together and no
+ * duplicates, so there's nothing to sort or deduplicate on the way out.
+ *
+ * @author jturner
+ */
+public class TdbStore implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(TdbStore.class.getName());
+    private static final String SOURCE_PREFIX = "urn:rdfshare:source:";
+    private static final Node FINGERPRINT = NodeFactory.createURI("urn:rdfshare:fingerprint");
+
+    private final Path directory;
+    private final int batchTriples;
+    private final Dataset dataset;
+    private final DatasetGraph dsg;
+    private final List<String> skipped = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean deleted = new AtomicBoolean();
+
+    /**
+     * @param directory where the database is kept; created if need be.
+     * @param batchTriples how many triples to add per write transaction.
+     */
+    public TdbStore(Path directory, int batchTriples) {
+        if (batchTriples < 1) {
+            throw new IllegalArgumentException("At least one triple has to be added per transaction");
+        }
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to create " + directory, ex);
+        }
+        this.directory = directory;
+        this.batchTriples = batchTriples;
+        this.dataset = TDB2Factory.connectDataset(directory.toString());
+        this.dsg = dataset.asDatasetGraph();
+    }
+
+    /**
+     * @return the store configured by the "rdfshare.store" system properties,
+     * or null if the build gathers into memory: "rdfshare.store" is "tdb2" to
+     * use one, in rdfshare.store.dir (target/tdb2), adding
+     * rdfshare.store.batch-triples (100000) triples per transaction.
+     */
+    public static TdbStore fromSystemProperties() {
+        if (!"tdb2".equalsIgnoreCase(System.getProperty("rdfshare.store", "memory"))) {
+            return null;
+        }
+        return new TdbStore(Path.of(System.getProperty("rdfshare.store.dir", "target/tdb2")), Integer.getInteger("rdfshare.store.batch-triples", 100000));
+    }
+
+    /**
+     * Wraps a source so that its triples are loaded into the store, in place
+     * of whatever it loaded last time, unless its inputs haven't changed since
+     * then. The source writes to the store rather than to the stream it's
+     * given, so its stage passes nothing on.
+     *
+     * @param name the source's name, which names its graph.
+     * @param fingerprint a fingerprint of the source's inputs, as from
+     * {@link #fingerprint(Path...)}, or null if there's no telling whether
+     * they've changed without running it.
+     * @param source the source.
+     * @return the wrapped source.
+     */
+    public Pipeline.Source source(String name, String fingerprint, Pipeline.Source source) {
+        return out -> {
+            Node sourceNode = NodeFactory.createURI(SOURCE_PREFIX + URLEncoder.encode(name, StandardCharsets.UTF_8));
+            if (fingerprint != null && fingerprint.equals(Txn.calculateRead(dsg, () -> storedFingerprint(sourceNode)))) {
+                LOGGER.info("Skipping " + name + "; its inputs haven't changed since it was loaded.");
+                skipped.add(name);
+                return;
+            }
+            // The fingerprint goes first and comes back last, so a load that fails partway is run again next time.
+            Txn.executeWrite(dsg, () -> {
+                dsg.getDefaultGraph().remove(sourceNode, FINGERPRINT, Node.ANY);
+                if (dsg.find(sourceNode, Node.ANY, Node.ANY, Node.ANY).hasNext()) {
+                    dsg.deleteAny(sourceNode, Node.ANY, Node.ANY, Node.ANY);
+                    deleted.set(true);
+                }
+            });
+            Loader loader = new Loader(sourceNode);
+            source.emit(loader);
+            loader.flush();
+            if (fingerprint != null) {
+                Txn.executeWrite(dsg, () -> dsg.getDefaultGraph().add(Triple.create(sourceNode, FINGERPRINT, NodeFactory.createLiteral(fingerprint))));
+            }
+        };
+    }
+
+    /**
+     * Compacts the database, if a source's old triples have been deleted
+     * since it was opened or last compacted, and removes the generation it
+     * was compacted from. Nothing else may be using the database meanwhile.
+     *
+     * @throws UncheckedIOException if the old generation can't be removed.
+     */
+    public void compact() {
+        if (!deleted.getAndSet(false)) {
+            return;
+        }
+        long started = System.nanoTime();
+        DatabaseMgr.compact(dsg);
+        // TDB2 lets go of the old generation, but leaves it on disk.
+        List<Path> generations = generations();
+        for (Path old : generations.subList(0, generations.size() - 1)) {
+            try {
+                FileUtils.deleteDirectory(old.toFile());
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Failed to remove " + old + " after compacting", ex);
+            }
+        }
+        LOGGER.log(Level.INFO, "Compacted {0} in {1} ms.", new Object[]{directory, (System.nanoTime() - started) / 1_000_000});
+    }
+
+    /**
+     * @return the database's generations, oldest first; the last is the one
+     * in use.
+     */
+    List<Path> generations() {
+        try (Stream<Path> list = Files.list(directory)) {
+            return list.filter(path -> Files.isDirectory(path) && path.getFileName().toString().matches("Data-\\d+"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to list " + directory, ex);
+        }
+    }
+
+    /**
+     * @param inputs files or directories; directories are walked.
+     * @return a fingerprint of the paths, sizes and modification times of
+     * every file among the inputs.
+     */
+    public static String fingerprint(Path... inputs) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Path input : inputs) {
+                List<Path> files;
+                if (Files.isDirectory(input)) {
+                    try (Stream<Path> walk = Files.walk(input)) {
+                        files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                    }
+                } else {
+                    files = List.of(input);
+                }
+                for (Path file : files) {
+                    String entry = Files.exists(file) ? file + "\t" + Files.size(file) + "\t" + Files.getLastModifiedTime(file).toMillis() : file + "\tmissing";
+                    digest.update((entry + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to fingerprint the inputs", ex);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Sends every source's triples to a stream, in the store's index order,
+     * preceded by the prefixes, starting and finishing it.
+     *
+     * @param out where the triples go.
+     * @return how many triples were sent.
+     */
+    public long export(StreamRDF out) {
+        return Txn.calculateRead(dsg, () -> {
+            long triples = 0;
+            out.start();
+            dsg.getDefaultGraph().getPrefixMapping().getNsPrefixMap().forEach(out::prefix);
+            Iterator<Triple> union = dsg.getUnionGraph().find();
+            while (union.hasNext()) {
+                out.triple(union.next());
+                triples++;
+            }
+            out.finish();
+            return triples;
+        });
+    }
+
+    /**
+     * @return the names of the sources skipped so far, because their inputs
+     * hadn't changed.
+     */
+    public List<String> getSkipped() {
+        return new ArrayList<>(skipped);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Lets go of the database, leaving it on disk for the next build.
+     */
+    @Override
+    public void close() {
+        TDBInternal.expel(dsg);
+    }
+
+    private String storedFingerprint(Node sourceNode) {
+        Iterator<Triple> stored = dsg.getDefaultGraph().find(sourceNode, FINGERPRINT, Node.ANY);
+        return stored.hasNext() ? stored.next().getObject().getLiteralLexicalForm() : null;
+    }
+
+    /**
+     * Adds a source's triples to its graph a batch at a time.
+     */
+    private class Loader extends StreamRDFBase {
+
+        private final Node graph;
+        private final List<Triple> batch = new ArrayList<>();
+        private final Map<String, String> prefixes = new LinkedHashMap<>();
+
+        Loader(Node graph) {
+            this.graph = graph;
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            batch.add(triple);
+            if (batch.size() >= batchTriples) {
+                flush();
+            }
+        }
+
+        @Override
+        public void prefix(String prefix, String iri) {
+            prefixes.put(prefix, iri);
+        }
+
+        void flush() {
+            if (batch.isEmpty() && prefixes.isEmpty()) {
+                return;
+            }
+            Txn.executeWrite(dsg, () -> {
+                prefixes.forEach(dsg.getDefaultGraph().getPrefixMapping()::setNsPrefix);
+                for (Triple triple : batch) {
+                    dsg.add(graph, triple.getSubject(), triple.getPredicate(), triple.getObject());
+                }
+            });
+            prefixes.clear();
+            batch.clear();
+        }
+    }
+}
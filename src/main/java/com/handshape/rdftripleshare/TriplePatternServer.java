@@ -0,0 +1,503 @@
+package com.handshape.rdftripleshare;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Answers triple-pattern queries against an exported db over HTTP, in the
+ * style of Linked Data Fragments, so that a client can look up what it needs
+ * rather than fetch the whole of out.sqlite3.
+ * <p>
+ * A GET of /fragments, with any of subject, predicate and object bound as
+ * query parameters, returns a page of the matching triples as N-Triples,
+ * followed by the fragment's total count (void:triples) and, if there's
+ * more, a hydra:next link to the next page, which is in a Link header too.
+ * Terms may be given as full IRIs, with or without angle brackets, in any
+ * prefixed form the db knows, or as quoted literals.
+ * <p>
+ * The db is opened read-only through a small pool of connections, each with
+ * its statements prepared once, and the prefixes are read once, at startup.
+ * Fragments are kept in an LRU cache, and served with an ETag and
+ * Cache-Control, so repeated patterns never reach the db at all. Each
+ * pattern's count is cached on its own, so that paging through a pattern
+ * counts it only once, which for a pattern with nothing or only a predicate
+ * bound is a scan of the whole table.
+ *
+ * @author jturner
+ */
+public class TriplePatternServer implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(TriplePatternServer.class.getName());
+    private static final String VOID = "http://rdfs.org/ns/void#";
+    private static final String HYDRA = "http://www.w3.org/ns/hydra/core#";
+    private static final String[] COLUMNS = {"SUBJECT", "PREDICATE", "OBJECT"};
+
+    private final Path database;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final BlockingQueue<Queries> pool;
+    private final PrefixTrie shortForms = new PrefixTrie();
+    private final Map<String, String> namespaces = new HashMap<>();
+    private final Map<String, Fragment> cache;
+    private final Map<String, Long> counts;
+    private final String version;
+    private final BuildMetrics.Histogram latencies = new BuildMetrics.Histogram();
+    private final BuildMetrics.Histogram cachedLatencies = new BuildMetrics.Histogram();
+    private int pageSize = Integer.getInteger("rdfshare.tpf.page-size", 100);
+    private int maxAgeSeconds = Integer.getInteger("rdfshare.tpf.max-age", 3600);
+    private long hits;
+    private long misses;
+    private long countQueries;
+
+    /**
+     * Opens the db and starts serving it.
+     *
+     * @param database the exported db, in any layout.
+     * @param port the port to listen on, or 0 for any free one.
+     * @param connections how many queries can run against the db at once.
+     * @param cacheEntries how many fragments to keep.
+     * @throws IOException if the server can't be started.
+     * @throws SQLException if the db can't be opened.
+     */
+    public TriplePatternServer(Path database, int port, int connections, int cacheEntries) throws IOException, SQLException {
+        this.database = database;
+        if (!Files.isRegularFile(database)) {
+            throw new IOException("No db at " + database);
+        }
+        // The file's size and modification time stand in for its version in the ETags.
+        version = Long.toHexString(Files.size(database)) + "-" + Long.toHexString(Files.getLastModifiedTime(database).toMillis());
+        cache = new LinkedHashMap<>(cacheEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Fragment> eldest) {
+                return size() > cacheEntries;
+            }
+        };
+        counts = new LinkedHashMap<>(cacheEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > cacheEntries;
+            }
+        };
+        pool = new ArrayBlockingQueue<>(connections);
+        for (int i = 0; i < connections; i++) {
+            pool.add(new Queries());
+        }
+        try (PreparedStatement stmt = pool.peek().connection.prepareStatement("SELECT PREFIX, URL FROM PREFIXES"); ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                shortForms.put(rs.getString(1), rs.getString(2));
+                namespaces.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        executor = Executors.newFixedThreadPool(connections * 2, runnable -> {
+            Thread thread = new Thread(runnable, "triple-pattern-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/fragments", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Serves a db as the "rdfshare.tpf.*" system properties say: port (8080),
+     * connections (4), cache-entries (10000), page-size (100) and max-age,
+     * in seconds (3600).
+     *
+     * @param database the exported db.
+     * @return the running server.
+     * @throws IOException if the server can't be started.
+     * @throws SQLException if the db can't be opened.
+     */
+    public static TriplePatternServer fromSystemProperties(Path database) throws IOException, SQLException {
+        return new TriplePatternServer(database, Integer.getInteger("rdfshare.tpf.port", 8080),
+                Integer.getInteger("rdfshare.tpf.connections", 4), Integer.getInteger("rdfshare.tpf.cache-entries", 10000));
+    }
+
+    /**
+     * @param pageSize how many triples to a page.
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/fragments";
+    }
+
+    public synchronized long getCacheHits() {
+        return hits;
+    }
+
+    public synchronized long getCacheMisses() {
+        return misses;
+    }
+
+    /**
+     * @return how many times a pattern's triples have been counted in the db.
+     */
+    public synchronized long getCountQueries() {
+        return countQueries;
+    }
+
+    /**
+     * @return how long requests took to answer, from the request line to the
+     * last byte of the body, in microseconds.
+     */
+    public synchronized BuildMetrics.Histogram getLatencies() {
+        BuildMetrics.Histogram copy = new BuildMetrics.Histogram();
+        copy.addAll(latencies);
+        return copy;
+    }
+
+    /**
+     * @return how long requests answered from the cache took, in
+     * microseconds.
+     */
+    public synchronized BuildMetrics.Histogram getCachedLatencies() {
+        BuildMetrics.Histogram copy = new BuildMetrics.Histogram();
+        copy.addAll(cachedLatencies);
+        return copy;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long started = System.nanoTime();
+        boolean cached = false;
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+                return;
+            }
+            Map<String, String> params = parameters(exchange.getRequestURI().getRawQuery());
+            String[] pattern = new String[3];
+            for (int i = 0; i < 3; i++) {
+                String term = params.get(COLUMNS[i].toLowerCase(Locale.ROOT));
+                pattern[i] = term == null || term.isEmpty() ? null : storedForm(term);
+            }
+            int page;
+            try {
+                page = Integer.parseInt(params.getOrDefault("page", "1"));
+            } catch (NumberFormatException ex) {
+                page = 0;
+            }
+            // Any further, and the page's offset wouldn't fit in an int.
+            if (page < 1 || page > Integer.MAX_VALUE / pageSize) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_REQUEST, -1);
+                return;
+            }
+            String patternKey = pattern[0] + "\u0000" + pattern[1] + "\u0000" + pattern[2];
+            String key = page + "\u0000" + patternKey;
+            Fragment fragment;
+            synchronized (this) {
+                fragment = cache.get(key);
+                cached = fragment != null;
+                if (cached) {
+                    hits++;
+                }
+            }
+            if (!cached) {
+                fragment = query(key, patternKey, pattern, page);
+            }
+            exchange.getResponseHeaders().set("ETag", fragment.etag);
+            exchange.getResponseHeaders().set("Cache-Control", "public, max-age=" + maxAgeSeconds);
+            if (fragment.next != null) {
+                exchange.getResponseHeaders().set("Link", "<" + fragment.next + ">; rel=\"next\"");
+            }
+            if (fragment.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/n-triples; charset=utf-8");
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, fragment.body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(fragment.body);
+            }
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARNING, "Failed to answer " + exchange.getRequestURI(), ex);
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, -1);
+        } finally {
+            exchange.close();
+            long micros = (System.nanoTime() - started) / 1000;
+            synchronized (this) {
+                latencies.add(micros);
+                if (cached) {
+                    cachedLatencies.add(micros);
+                }
+            }
+        }
+    }
+
+    private Fragment query(String key, String patternKey, String[] pattern, int page) throws IOException, SQLException {
+        Long count;
+        synchronized (this) {
+            misses++;
+            count = counts.get(patternKey);
+        }
+        Queries queries = borrow();
+        List<String[]> rows = new ArrayList<>();
+        try {
+            if (count == null) {
+                count = queries.count(pattern);
+                synchronized (this) {
+                    countQueries++;
+                    counts.put(patternKey, count);
+                }
+            }
+            queries.page(pattern, (page - 1) * pageSize, pageSize + 1, rows);
+        } finally {
+            pool.add(queries);
+        }
+        String self = fragmentUrl(pattern, page);
+        String next = rows.size() > pageSize ? fragmentUrl(pattern, page + 1) : null;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StreamRDF out = StreamRDFWriter.getWriterStream(bytes, RDFFormat.NTRIPLES);
+        out.start();
+        for (String[] row : rows.subList(0, Math.min(pageSize, rows.size()))) {
+            out.triple(Triple.create(node(row[0]), node(row[1]), node(row[2])));
+        }
+        Node fragmentNode = NodeFactory.createURI(self);
+        out.triple(Triple.create(fragmentNode, NodeFactory.createURI(VOID + "triples"), NodeFactory.createLiteral(Long.toString(count), XSDDatatype.XSDinteger)));
+        out.triple(Triple.create(fragmentNode, NodeFactory.createURI(HYDRA + "itemsPerPage"), NodeFactory.createLiteral(Integer.toString(pageSize), XSDDatatype.XSDinteger)));
+        if (next != null) {
+            out.triple(Triple.create(fragmentNode, NodeFactory.createURI(HYDRA + "next"), NodeFactory.createURI(next)));
+        }
+        out.finish();
+        byte[] body = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        Fragment fragment = new Fragment(body, "\"" + version + "-" + Long.toHexString(crc.getValue()) + "\"", next);
+        synchronized (this) {
+            cache.put(key, fragment);
+        }
+        return fragment;
+    }
+
+    private Queries borrow() throws IOException {
+        try {
+            return pool.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * @param term a term as a client might give it.
+     * @return the term as the db stores it: prefixed by the longest matching
+     * namespace, or quoted if it's a literal.
+     */
+    String storedForm(String term) {
+        if (term.startsWith("\"")) {
+            // The db keeps only the lexical form, so any language or datatype is dropped.
+            int end = term.lastIndexOf('"');
+            return end > 0 ? term.substring(0, end + 1) : term + "\"";
+        } else if (term.startsWith("_:")) {
+            return term.substring(2);
+        } else if (term.startsWith("<") && term.endsWith(">")) {
+            return shortForms.shortForm(term.substring(1, term.length() - 1));
+        }
+        return shortForms.shortForm(expand(term));
+    }
+
+    private String expand(String term) {
+        int colon = term.indexOf(':');
+        if (colon >= 0) {
+            String namespace = namespaces.get(term.substring(0, colon));
+            if (namespace != null) {
+                return namespace + term.substring(colon + 1);
+            }
+        }
+        return term;
+    }
+
+    private Node node(String stored) {
+        if (stored.length() >= 2 && stored.startsWith("\"") && stored.endsWith("\"")) {
+            return NodeFactory.createLiteral(stored.substring(1, stored.length() - 1));
+        }
+        String expanded = expand(stored);
+        if (expanded.equals(stored) && stored.indexOf(':') < 0) {
+            // Neither prefixed nor absolute, so it's a blank node's label.
+            return NodeFactory.createBlankNode(stored);
+        }
+        return NodeFactory.createURI(expanded);
+    }
+
+    private String fragmentUrl(String[] pattern, int page) {
+        StringBuilder url = new StringBuilder(baseUrl()).append('?');
+        for (int i = 0; i < 3; i++) {
+            if (pattern[i] != null) {
+                url.append(COLUMNS[i].toLowerCase(Locale.ROOT)).append('=').append(URLEncoder.encode(pattern[i], StandardCharsets.UTF_8)).append('&');
+            }
+        }
+        return url.append("page=").append(page).toString();
+    }
+
+    private static Map<String, String> parameters(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Stops serving, and closes the db.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        for (Queries queries : pool) {
+            try {
+                queries.connection.close();
+            } catch (SQLException ex) {
+                // Nothing more can be done with it.
+            }
+        }
+    }
+
+    /**
+     * Serves a db until killed, as the rdfshare.tpf.* system properties say.
+     * Unless the sun.net.httpserver.nodelay system property says otherwise,
+     * it's set to true: without TCP_NODELAY, the JDK's server sends headers
+     * and body in separate segments, and every keep-alive request then waits
+     * out the client's delayed ACK, some 40 ms. It's JVM-wide, and read once,
+     * when the first server starts, so an application embedding the server
+     * has to set it itself, before then.
+     *
+     * @param args the db, target/out.sqlite3 by default.
+     * @throws Exception if it can't be served.
+     */
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        TriplePatternServer server = fromSystemProperties(Path.of(args.length > 0 ? args[0] : "target/out.sqlite3"));
+        System.out.println("Serving triple patterns at " + server.baseUrl());
+        // The server's threads are daemons, so hold the JVM open.
+        Thread.currentThread().join();
+    }
+
+    private static final class Fragment {
+
+        private final byte[] body;
+        private final String etag;
+        private final String next;
+
+        Fragment(byte[] body, String etag, String next) {
+            this.body = body;
+            this.etag = etag;
+            this.next = next;
+        }
+    }
+
+    /**
+     * A read-only connection, with a statement prepared for each shape of
+     * pattern the first time it's asked for.
+     */
+    private final class Queries {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        Queries() throws SQLException {
+            SQLiteConfig config = new SQLiteConfig();
+            config.setReadOnly(true);
+            connection = DriverManager.getConnection("jdbc:sqlite:" + database, config.toProperties());
+        }
+
+        long count(String[] pattern) throws SQLException {
+            PreparedStatement stmt = prepare("SELECT COUNT(*) FROM TRIPLES" + where(pattern));
+            bind(stmt, pattern);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+
+        void page(String[] pattern, int offset, int limit, List<String[]> rows) throws SQLException {
+            // Ordered, so that each page picks up where the last left off.
+            PreparedStatement stmt = prepare("SELECT SUBJECT, PREDICATE, OBJECT FROM TRIPLES" + where(pattern) + " ORDER BY SUBJECT, PREDICATE, OBJECT LIMIT ? OFFSET ?");
+            int next = bind(stmt, pattern);
+            stmt.setInt(next, limit);
+            stmt.setInt(next + 1, offset);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new String[]{rs.getString(1), rs.getString(2), rs.getString(3)});
+                }
+            }
+        }
+
+        private PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = connection.prepareStatement(sql);
+                statements.put(sql, stmt);
+            }
+            return stmt;
+        }
+
+        private String where(String[] pattern) {
+            StringBuilder where = new StringBuilder();
+            for (int i = 0; i < 3; i++) {
+                if (pattern[i] != null) {
+                    where.append(where.length() == 0 ? " WHERE " : " AND ").append(COLUMNS[i]).append(" = ?");
+                }
+            }
+            return where.toString();
+        }
+
+        private int bind(PreparedStatement stmt, String[] pattern) throws SQLException {
+            int parameter = 1;
+            for (String term : pattern) {
+                if (term != null) {
+                    stmt.setString(parameter++, term);
+                }
+            }
+            return parameter;
+        }
+    }
+}
@@ -0,0 +1,3 @@
+CREATE TABLE AMENDMENTS (INSTRUMENT TEXT NOT NULL, AMENDER TEXT NOT NULL, DEPTH INTEGER NOT NULL, PRIMARY KEY (INSTRUMENT, AMENDER)) WITHOUT ROWID;
+CREATE TABLE ACT_INSTRUMENTS (ACT TEXT NOT NULL, INSTRUMENT TEXT NOT NULL, DEPTH INTEGER NOT NULL, PRIMARY KEY (ACT, INSTRUMENT)) WITHOUT ROWID;
+CREATE TABLE PREDICATE_STATS (PREDICATE TEXT NOT NULL, TRIPLES INTEGER NOT NULL, SUBJECTS INTEGER NOT NULL, OBJECTS INTEGER NOT NULL, MAX_OUT_DEGREE INTEGER NOT NULL, MAX_IN_DEGREE INTEGER NOT NULL, PRIMARY KEY (PREDICATE)) WITHOUT ROWID;
@@ -0,0 +1,8 @@
+CREATE TABLE TERMS (ID INTEGER NOT NULL, TERM TEXT NOT NULL, PRIMARY KEY (ID));
+CREATE TABLE TRIPLE_IDS (SUBJECT INTEGER NOT NULL, PREDICATE INTEGER NOT NULL, OBJECT INTEGER NOT NULL, PRIMARY KEY (SUBJECT, PREDICATE, OBJECT)) WITHOUT ROWID;
+CREATE VIEW TRIPLES AS SELECT S.TERM AS SUBJECT, O.TERM AS OBJECT, P.TERM AS PREDICATE FROM TRIPLE_IDS T JOIN TERMS S ON S.ID = T.SUBJECT JOIN TERMS P ON P.ID = T.PREDICATE JOIN TERMS O ON O.ID = T.OBJECT;
+CREATE TABLE PREFIXES (ID INTEGER NOT NULL, PREFIX TEXT, URL TEXT, PRIMARY KEY (ID));
+CREATE INDEX PREFIX_INDEX ON PREFIXES (PREFIX);
+CREATE INDEX URL_INDEX ON PREFIXES (URL);
+PRAGMA journal_mode = MEMORY;
+PRAGMA synchronous = OFF;
\ No newline at end of file
@@ -0,0 +1 @@
+CREATE VIRTUAL TABLE LITERALS USING fts5(TEXT, LANG UNINDEXED, SUBJECT UNINDEXED, PREDICATE UNINDEXED, tokenize = 'unicode61 remove_diacritics 2', prefix = '2 3');
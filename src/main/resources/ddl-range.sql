@@ -0,0 +1,6 @@
+CREATE TABLE TRIPLES (SUBJECT TEXT NOT NULL, PREDICATE TEXT NOT NULL, OBJECT TEXT NOT NULL, PRIMARY KEY (SUBJECT, PREDICATE, OBJECT)) WITHOUT ROWID;
+CREATE TABLE PREFIXES (ID INTEGER NOT NULL, PREFIX TEXT, URL TEXT, PRIMARY KEY (ID));
+CREATE INDEX PREFIX_INDEX ON PREFIXES (PREFIX);
+CREATE INDEX URL_INDEX ON PREFIXES (URL);
+PRAGMA journal_mode = MEMORY;
+PRAGMA synchronous = OFF;
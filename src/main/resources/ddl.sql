@@ -1,9 +1,6 @@
 DROP TABLE IF EXISTS TRIPLES;
 DROP TABLE IF EXISTS PREFIXES;
 CREATE TABLE TRIPLES (ID INTEGER NOT NULL, SUBJECT TEXT, OBJECT TEXT, PREDICATE TEXT, PRIMARY KEY (ID));
-CREATE INDEX SUBJECT_INDEX ON TRIPLES (SUBJECT);
-CREATE INDEX OBJECT_INDEX ON TRIPLES (OBJECT);
-CREATE INDEX PREDICATE_INDEX ON TRIPLES (PREDICATE);
 CREATE TABLE PREFIXES (ID INTEGER NOT NULL, PREFIX TEXT, URL TEXT, PRIMARY KEY (ID));
 CREATE INDEX PREFIX_INDEX ON PREFIXES (PREFIX);
 CREATE INDEX URL_INDEX ON PREFIXES (URL);
@@ -1,4 +1,3 @@
 ANALYZE;
 pragma journal_mode = delete;
-pragma page_size = 4096;
 vacuum;
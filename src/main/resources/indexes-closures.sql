@@ -0,0 +1,2 @@
+CREATE INDEX AMENDMENTS_BY_AMENDER ON AMENDMENTS (AMENDER, INSTRUMENT, DEPTH);
+CREATE INDEX ACT_INSTRUMENTS_BY_INSTRUMENT ON ACT_INSTRUMENTS (INSTRUMENT, ACT, DEPTH);
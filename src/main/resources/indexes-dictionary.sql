@@ -0,0 +1,3 @@
+CREATE UNIQUE INDEX TERM_INDEX ON TERMS (TERM);
+CREATE INDEX TRIPLE_PREDICATE_INDEX ON TRIPLE_IDS (PREDICATE, OBJECT);
+CREATE INDEX TRIPLE_OBJECT_INDEX ON TRIPLE_IDS (OBJECT, PREDICATE);
@@ -0,0 +1 @@
+INSERT INTO LITERALS (LITERALS) VALUES ('optimize');
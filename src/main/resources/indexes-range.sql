@@ -0,0 +1,2 @@
+CREATE INDEX TRIPLES_POS ON TRIPLES (PREDICATE, OBJECT, SUBJECT);
+CREATE INDEX TRIPLES_OSP ON TRIPLES (OBJECT, SUBJECT, PREDICATE);
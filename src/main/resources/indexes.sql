@@ -0,0 +1,3 @@
+CREATE INDEX SUBJECT_INDEX ON TRIPLES (SUBJECT);
+CREATE INDEX OBJECT_INDEX ON TRIPLES (OBJECT);
+CREATE INDEX PREDICATE_INDEX ON TRIPLES (PREDICATE);
@@ -0,0 +1 @@
+INSERT INTO PREDICATE_STATS SELECT P.PREDICATE, COUNT(*), COUNT(DISTINCT P.SUBJECT), COUNT(DISTINCT P.OBJECT), (SELECT MAX(N) FROM (SELECT COUNT(*) AS N FROM TRIPLES S WHERE S.PREDICATE = P.PREDICATE GROUP BY S.SUBJECT)), (SELECT MAX(N) FROM (SELECT COUNT(*) AS N FROM TRIPLES O WHERE O.PREDICATE = P.PREDICATE GROUP BY O.OBJECT)) FROM TRIPLES P GROUP BY P.PREDICATE;
@@ -0,0 +1,134 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonArray;
+import org.apache.jena.atlas.json.JsonObject;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs part of the build against the fixtures while recording, and checks
+ * what went into the build report and the Flight Recorder.
+ *
+ * @author jturner
+ */
+public class BuildMetricsTest {
+
+    // The sizes of the fixture instruments, and of Legis.xml.
+    private static final long INSTRUMENT_BYTES = 1279 + 671 + 335 + 607;
+    private static final long LEGIS_BYTES = 1812;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void recordsEveryDocumentStageAndOutput() throws Exception {
+        Path jfr = tempDir.resolve("build.jfr");
+        RdfGatheringAgent agent = new RdfGatheringAgent();
+        try (FixtureHttpServer server = new FixtureHttpServer("/fixtures/justice"); Recording recording = new Recording()) {
+            for (String event : List.of("Fetch", "Parse", "Stage", "Export")) {
+                recording.enable("com.handshape.rdftripleshare." + event);
+            }
+            recording.start();
+            agent.setHttpCache(new HttpResponseCache(tempDir.resolve("cache"), Long.MAX_VALUE, false));
+            agent.setShardStore(null);
+            agent.setLegisUrl(server.baseUrl() + "Legis.xml");
+            agent.setConsolidatedXmlUrlPrefix(server.baseUrl());
+
+            Set<String> known = new TreeSet<>();
+            Pipeline pipeline = new Pipeline(2)
+                    .stage("departments", agent::fetchAndParseDepartments)
+                    .stage("acts and regulations", List.of("known"), List.of("known"), out -> agent.fetchAndParseActsAndConsolidatedRegs(out, known));
+            FanOutWriter outputs = new FanOutWriter().add("out.nt", new ByteArrayOutputStream(), RDFFormat.NTRIPLES);
+            outputs.start();
+            pipeline.run(outputs);
+            outputs.finish();
+            // Again, so that everything comes from the cache.
+            agent.fetchAndParseActsAndConsolidatedRegs(new StreamRDFBase(), known);
+            recording.stop();
+            recording.dump(jfr);
+
+            BuildMetrics metrics = agent.getMetrics();
+            metrics.stages(pipeline.getTimings());
+            metrics.outputs(outputs.getReports());
+            metrics.cache(agent.getHttpCache());
+        }
+
+        Path file = tempDir.resolve("build-report.json");
+        agent.getMetrics().writeReport(file);
+        JsonObject report = JSON.read(file.toString());
+
+        JsonObject sources = report.get("sources").getAsObject();
+        JsonObject instruments = sources.get("consolidated instruments").getAsObject();
+        Assertions.assertEquals(8, number(instruments, "documents"));
+        Assertions.assertEquals(4, number(instruments, "fromCache"));
+        Assertions.assertEquals(2 * INSTRUMENT_BYTES, number(instruments, "bytes"));
+        Assertions.assertEquals(0, number(instruments, "parseErrors"));
+        Assertions.assertTrue(number(instruments, "triples") > 0);
+        JsonObject fetch = instruments.get("fetchMicros").getAsObject();
+        Assertions.assertEquals(8, number(fetch, "count"));
+        Assertions.assertTrue(number(fetch, "min") <= number(fetch, "p50") && number(fetch, "p50") <= number(fetch, "max"), fetch.toString());
+        JsonObject legis = sources.get("legis").getAsObject();
+        Assertions.assertEquals(2, number(legis, "documents"));
+        Assertions.assertEquals(2 * LEGIS_BYTES, number(legis, "bytes"));
+        JsonObject departments = sources.get("departments").getAsObject();
+        Assertions.assertEquals(1, number(departments, "documents"));
+
+        JsonArray stages = report.get("stages").getAsArray();
+        Assertions.assertEquals(2, stages.size());
+        long stageTriples = 0;
+        for (int i = 0; i < stages.size(); i++) {
+            stageTriples += number(stages.get(i).getAsObject(), "triples");
+        }
+        Assertions.assertEquals(number(departments, "triples"), number(stages.get(0).getAsObject(), "triples"));
+        JsonObject output = report.get("outputs").getAsArray().get(0).getAsObject();
+        Assertions.assertEquals(stageTriples, number(output, "triples"));
+        Assertions.assertEquals(5, number(report.get("httpCache").getAsObject(), "hits"), "Legis.xml should have come from the cache too.");
+        Assertions.assertEquals(11, report.get("documents").getAsArray().size());
+        Assertions.assertTrue(report.get("counters").getAsObject().hasKey("citations.unknownInstruments"));
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(jfr);
+        Assertions.assertEquals(11, count(events, "Fetch"));
+        Assertions.assertEquals(11, count(events, "Parse"));
+        Assertions.assertEquals(2, count(events, "Stage"));
+        Assertions.assertEquals(1, count(events, "Export"));
+        Set<String> fetched = events.stream().filter(event -> event.getEventType().getName().endsWith(".Fetch"))
+                .map(event -> event.getString("source")).collect(Collectors.toCollection(TreeSet::new));
+        Assertions.assertEquals(Set.of("consolidated instruments", "departments", "legis"), fetched);
+    }
+
+    @Test
+    public void histogramPercentilesFallInTheRightBucket() {
+        BuildMetrics.Histogram histogram = new BuildMetrics.Histogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.add(value);
+        }
+        Assertions.assertEquals(1000, histogram.getCount());
+        Assertions.assertEquals(1, histogram.getMin());
+        Assertions.assertEquals(500, histogram.getMean());
+        // 500 lies in [256, 512), and 990 in [512, 1024), capped at the maximum.
+        Assertions.assertEquals(511, histogram.getPercentile(50));
+        Assertions.assertEquals(1000, histogram.getPercentile(99));
+        Assertions.assertEquals(1, histogram.getPercentile(0));
+    }
+
+    private static long number(JsonObject object, String key) {
+        return object.get(key).getAsNumber().value().longValue();
+    }
+
+    private static long count(List<RecordedEvent> events, String name) {
+        return events.stream().filter(event -> event.getEventType().getName().equals("com.handshape.rdftripleshare." + name)).count();
+    }
+}
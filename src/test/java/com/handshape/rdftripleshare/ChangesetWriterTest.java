@@ -0,0 +1,210 @@
+package com.handshape.rdftripleshare;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFParser;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Changes a synthetic corpus, and checks that the patch and the SQL delta
+ * between the two take the old release to the new one.
+ *
+ * @author jturner
+ */
+public class ChangesetWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final RdfGatheringAgent agent = new RdfGatheringAgent();
+
+    @Test
+    public void patchTakesThePreviousReleaseToThisOne() throws Exception {
+        Model before = SyntheticCorpus.instruments(5000);
+        Model after = changed(before);
+        ChangesetWriter changeset = diff(before, after, Lang.TURTLE, SqliteExporter.Layout.ROWS);
+
+        Assertions.assertEquals(after.difference(before).size(), changeset.getAdded());
+        Assertions.assertEquals(before.difference(after).size(), changeset.getRemoved());
+        Graph patched = ModelFactory.createDefaultModel().add(before).getGraph();
+        List<String> lines = Files.readAllLines(tempDir.resolve("out.rdfp"), StandardCharsets.UTF_8);
+        Assertions.assertTrue(lines.get(0).startsWith("H id <uuid:"));
+        Assertions.assertEquals("TX .", lines.get(1));
+        Assertions.assertEquals("TC .", lines.get(lines.size() - 1));
+        for (String line : lines) {
+            if (line.startsWith("A ")) {
+                patched.add(parse(line.substring(2)));
+            } else if (line.startsWith("D ")) {
+                Triple triple = parse(line.substring(2));
+                Assertions.assertTrue(patched.contains(triple), line);
+                patched.delete(triple);
+            }
+        }
+        Assertions.assertTrue(patched.isIsomorphicWith(after.getGraph()));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"ROWS, false", "DICTIONARY, false", "RANGE, false", "ROWS, true", "DICTIONARY, true", "RANGE, true"})
+    public void sqlDeltaTakesThePreviousDbToThisOne(SqliteExporter.Layout layout, boolean fullText) throws Exception {
+        Model before = SyntheticCorpus.instruments(5000);
+        Model after = changed(before);
+        Set<String> predicates = fullText ? SqliteExporter.DEFAULT_FULL_TEXT_PREDICATES : null;
+        // N-Triples carries no prefixes, so they're taken to be the same.
+        ChangesetWriter changeset = diff(before, after, Lang.NTRIPLES, layout, predicates);
+        Assertions.assertTrue(changeset.isSqlWritten());
+
+        Path db = tempDir.resolve("before.sqlite3");
+        new SqliteExporter(db).setLayout(layout).setFullText(predicates).export(before);
+        ChangesetWriter.apply(tempDir.resolve("out.delta.sql"), db);
+        Path rebuilt = tempDir.resolve("after.sqlite3");
+        new SqliteExporter(rebuilt).setLayout(layout).setFullText(predicates).export(after);
+        Assertions.assertEquals(rows(rebuilt), rows(db));
+        if (fullText) {
+            Assertions.assertEquals(literals(rebuilt), literals(db));
+            Assertions.assertEquals(List.of("inst:SOR-2030-1"), match(db, "brand new"));
+        }
+    }
+
+    @Test
+    public void changedPrefixesMeanNoSqlDelta() throws Exception {
+        Model before = SyntheticCorpus.instruments(500);
+        Model after = ModelFactory.createDefaultModel().add(before).setNsPrefixes(before.getNsPrefixMap());
+        after.setNsPrefix("act", SyntheticCorpus.INST);
+        ChangesetWriter changeset = diff(before, after, Lang.TURTLE, SqliteExporter.Layout.ROWS);
+        Assertions.assertFalse(changeset.isSqlWritten());
+        Assertions.assertFalse(Files.exists(tempDir.resolve("out.delta.sql")));
+        Assertions.assertEquals(0, changeset.getAdded() + changeset.getRemoved());
+        Assertions.assertTrue(Files.readString(tempDir.resolve("out.rdfp")).contains("PA act: <" + SyntheticCorpus.INST + "> ."));
+    }
+
+    @Test
+    public void closureTablesMeanNoSqlDelta() throws Exception {
+        Model before = SyntheticCorpus.instruments(500);
+        Model after = changed(before);
+        Path previous = tempDir.resolve("previous.nt");
+        try (OutputStream out = Files.newOutputStream(previous)) {
+            RDFDataMgr.write(out, before, Lang.NTRIPLES);
+        }
+        Files.writeString(tempDir.resolve("out.delta.sql"), "-- From the release before.");
+        ChangesetWriter changeset = new ChangesetWriter(previous.toString(), tempDir.resolve("out.rdfp"), tempDir.resolve("out.delta.sql"), tempDir.resolve("spill"))
+                .setClosures(true);
+        new FanOutWriter().add("changeset", changeset, changeset::getBytes).write(after);
+        Assertions.assertFalse(changeset.isSqlWritten());
+        Assertions.assertFalse(Files.exists(tempDir.resolve("out.delta.sql")));
+        Assertions.assertEquals(after.difference(before).size(), changeset.getAdded(), "The patch should still be written.");
+    }
+
+    @Test
+    public void quotesSqlOntoOneLine() {
+        Assertions.assertEquals("'It''s' || char(10) || 'here'", ChangesetWriter.quote("It's\nhere"));
+        Assertions.assertEquals("<s> <p> \"a \\\"b\\\"\"", ChangesetWriter.rowKey("<s> <p> \"a \\\"b\\\"\"@en ."));
+        Assertions.assertEquals("<s> <p> <o> .", ChangesetWriter.rowKey("<s> <p> <o> ."));
+    }
+
+    private ChangesetWriter diff(Model before, Model after, Lang lang, SqliteExporter.Layout layout) throws Exception {
+        return diff(before, after, lang, layout, null);
+    }
+
+    private ChangesetWriter diff(Model before, Model after, Lang lang, SqliteExporter.Layout layout, Set<String> fullText) throws Exception {
+        Path previous = tempDir.resolve("previous." + lang.getFileExtensions().get(0));
+        try (OutputStream out = Files.newOutputStream(previous)) {
+            RDFDataMgr.write(out, before, lang);
+        }
+        ChangesetWriter changeset = new ChangesetWriter(previous.toString(), tempDir.resolve("out.rdfp"), tempDir.resolve("out.delta.sql"), tempDir.resolve("spill"))
+                .setLayout(layout)
+                .setFullText(fullText);
+        new FanOutWriter().add("changeset", changeset, changeset::getBytes).write(after);
+        Assertions.assertFalse(Files.exists(tempDir.resolve("spill")), "The spill should have been cleared away.");
+        return changeset;
+    }
+
+    /**
+     * Removes some triples, adds others, and adds and removes literals that
+     * differ from ones that stay only in their language, which are the same
+     * row in the db.
+     */
+    private Model changed(Model before) {
+        Model after = ModelFactory.createDefaultModel().add(before).setNsPrefixes(before.getNsPrefixMap());
+        Graph graph = after.getGraph();
+        List<Triple> triples = graph.find().toList();
+        Collections.shuffle(triples, new Random(7));
+        for (Triple triple : triples.subList(0, 50)) {
+            graph.delete(triple);
+        }
+        Node reg = NodeFactory.createURI(SyntheticCorpus.INST + "SOR-1985-5");
+        Node title = agent.titleProperty.asNode();
+        graph.add(Triple.create(reg, NodeFactory.createURI("https://schema.org/description"), NodeFactory.createLiteral("It's \"new\",\nover two lines")));
+        graph.add(Triple.create(NodeFactory.createURI(SyntheticCorpus.INST + "SOR-2030-1"), title, NodeFactory.createLiteral("Brand New Regulations", "en")));
+        for (int i = 0; i < 3; i++) {
+            Node act = NodeFactory.createURI(SyntheticCorpus.INST + "A-" + i);
+            // Same row, a language more, then a language less.
+            graph.add(Triple.create(act, title, NodeFactory.createLiteral("Act Number " + i)));
+            graph.delete(Triple.create(act, title, NodeFactory.createLiteral("Act Number " + i, "en")));
+        }
+        Node act = NodeFactory.createURI(SyntheticCorpus.INST + "A-3");
+        graph.add(Triple.create(act, title, NodeFactory.createLiteral("Act Number 3", "fr")));
+        return after;
+    }
+
+    private static Triple parse(String line) {
+        Graph graph = ModelFactory.createDefaultModel().getGraph();
+        RDFParser.fromString(line).lang(Lang.NTRIPLES).parse(graph);
+        return graph.find().next();
+    }
+
+    private static List<String> rows(Path db) throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT SUBJECT, PREDICATE, OBJECT FROM TRIPLES")) {
+            while (rs.next()) {
+                rows.add(rs.getString(1) + " " + rs.getString(2) + " " + rs.getString(3));
+            }
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static List<String> literals(Path db) throws Exception {
+        return query(db, "SELECT SUBJECT || ' ' || PREDICATE || ' ' || TEXT || ' ' || IFNULL(LANG, '') FROM LITERALS ORDER BY 1");
+    }
+
+    private static List<String> match(Path db, String text) throws Exception {
+        return query(db, "SELECT DISTINCT SUBJECT FROM LITERALS WHERE LITERALS MATCH '" + text + "' ORDER BY 1");
+    }
+
+    private static List<String> query(Path db, String sql) throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                rows.add(rs.getString(1));
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,85 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs the acts and consolidated regulations stage, and the Gazette index
+ * stage, against local stand-ins for the Justice and Gazette servers.
+ *
+ * @author jturner
+ */
+public class ConsolidatedFetchTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void parallelFetchIsBoundedAndDeterministic() throws Exception {
+        try (FixtureHttpServer server = new FixtureHttpServer("/fixtures/justice")) {
+            server.setLatencyMillis(200);
+
+            byte[] sequential = buildTurtle(server, 1, 1);
+            Assertions.assertEquals(1, server.maxInFlight(), "Sequential build overlapped requests.");
+
+            server.resetCounters();
+            byte[] parallel = buildTurtle(server, 8, 2);
+            // Legis.xml, then the four instruments, two at a time, each held long enough to overlap.
+            Assertions.assertEquals(5, server.requestCount(), "Every document should have come from the server, not a cache.");
+            Assertions.assertEquals(2, server.maxInFlight(), "The instruments weren't fetched two at a time.");
+
+            Assertions.assertArrayEquals(sequential, parallel, "Parallel build differs from the sequential build.");
+            Assertions.assertArrayEquals(parallel, buildTurtle(server, 8, 4), "Repeated builds are not byte-identical.");
+        }
+    }
+
+    @Test
+    public void gazetteIndexNamesTheInstruments() throws Exception {
+        try (FixtureHttpServer server = new FixtureHttpServer("/fixtures/gazette")) {
+            RdfGatheringAgent agent = new RdfGatheringAgent();
+            agent.setHttpCache(new HttpResponseCache(tempDir.resolve("cache"), Long.MAX_VALUE, false));
+            // No "?" to fill in, so every section is the one fixture page.
+            agent.setGazetteIndexUrl(server.baseUrl() + "index-a.html");
+            Model model = ModelFactory.createDefaultModel();
+            Set<String> known = new TreeSet<>();
+            agent.fetchAndParseStatutoryInstruments(model, known);
+
+            Assertions.assertEquals(60, known.size(), known.toString());
+            Assertions.assertTrue(known.contains("SOR-1981-111"));
+            Assertions.assertTrue(known.contains("C.R.C.,_c._1000"));
+            Assertions.assertTrue(known.contains("SI-1993-155"));
+            Assertions.assertFalse(known.contains("SI-1990-10"), "Proclamations aren't regulations.");
+            Resource regulation = model.createResource(SyntheticCorpus.INST + "SOR-1981-111");
+            Assertions.assertEquals("Access to Information Regulations, No. 1", model.getProperty(regulation, agent.titleProperty).getString());
+            Resource proclamation = model.createResource(SyntheticCorpus.INST + "SI-1990-10");
+            Assertions.assertEquals("Proclamation Proclamation Bringing Certain Provisions of the Access to Information Act into Force",
+                    model.getProperty(proclamation, agent.titleProperty).getString());
+        }
+    }
+
+    private byte[] buildTurtle(FixtureHttpServer server, int concurrency, int perHost) throws Exception {
+        Model model = ModelFactory.createDefaultModel();
+        Set<String> knownStatutoryInstruments = new TreeSet<>();
+        knownStatutoryInstruments.add("SOR-2019-5");
+        RdfGatheringAgent agent = new RdfGatheringAgent();
+        // A cache of its own, and empty, so that every build fetches everything.
+        agent.setHttpCache(new HttpResponseCache(Files.createTempDirectory(tempDir, "cache"), Long.MAX_VALUE, false));
+        agent.setLegisUrl(server.baseUrl() + "Legis.xml");
+        agent.setConsolidatedXmlUrlPrefix(server.baseUrl());
+        agent.setFetchConcurrency(concurrency);
+        agent.setPerHostConcurrency(perHost);
+        agent.fetchAndParseActsAndConsolidatedRegs(model, knownStatutoryInstruments);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.write(out, "TTL");
+        return out.toByteArray();
+    }
+}
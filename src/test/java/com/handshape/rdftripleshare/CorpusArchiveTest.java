@@ -0,0 +1,118 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.jena.riot.RDFFormat;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Records the acts and regulations from the fixtures, then replays them from
+ * the archive, directly and through a {@link CorpusServer}, and checks the
+ * triples come out the same.
+ *
+ * @author jturner
+ */
+public class CorpusArchiveTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void replaysWhatWasRecorded() throws Exception {
+        Path archive = tempDir.resolve("corpus.zip");
+        String recorded;
+        String upstream;
+        try (FixtureHttpServer server = new FixtureHttpServer("/fixtures/justice")) {
+            upstream = new URL(server.baseUrl()).getHost();
+            RdfGatheringAgent agent = agent(server.baseUrl());
+            CorpusRecorder recorder = new CorpusRecorder(archive, agent.getHttpCache());
+            agent.setDocumentSource(recorder);
+            recorded = actsAndRegulations(agent);
+            recorder.close();
+            Assertions.assertEquals(5, recorder.getRecorded(), "Legis.xml and four instruments.");
+        }
+
+        // The fixture server's gone, so everything has to come from the archive.
+        try (CorpusArchive corpus = new CorpusArchive(archive)) {
+            Assertions.assertEquals(5, corpus.names().size());
+            Assertions.assertTrue(corpus.names().contains(upstream + "/Legis.xml"), corpus.names().toString());
+            RdfGatheringAgent agent = agent("http://" + upstream + ":1/");
+            agent.setDocumentSource(corpus);
+            Assertions.assertEquals(recorded, actsAndRegulations(agent));
+            Assertions.assertThrows(FileNotFoundException.class, () -> corpus.open(new URL("http://" + upstream + "/missing.xml")));
+        }
+
+        try (CorpusServer server = new CorpusServer(new CorpusArchive(archive), 0)) {
+            server.setLatencyMillis(20);
+            server.setBytesPerSecond(64 * 1024);
+            RdfGatheringAgent agent = agent("http://" + upstream + ":1/");
+            agent.setDocumentSource(server.source());
+            long started = System.nanoTime();
+            Assertions.assertEquals(recorded, actsAndRegulations(agent));
+            Assertions.assertEquals(5, server.getRequests());
+            // The instruments are fetched side by side, but not before Legis.xml has come back.
+            Assertions.assertTrue(System.nanoTime() - started >= 2 * 20_000_000L, "Every request should have waited out the latency.");
+        }
+    }
+
+    @Test
+    public void failsRequestsAtTheConfiguredRate() throws Exception {
+        Path archive = tempDir.resolve("corpus.zip");
+        URL legis;
+        try (FixtureHttpServer fixtures = new FixtureHttpServer("/fixtures/justice");
+                CorpusRecorder recorder = new CorpusRecorder(archive, new HttpResponseCache(tempDir.resolve("cache"), Long.MAX_VALUE, false))) {
+            legis = new URL(fixtures.baseUrl() + "Legis.xml");
+            recorder.open(legis).close();
+        }
+        try (CorpusServer server = new CorpusServer(new CorpusArchive(archive), 0)) {
+            // One attempt per request, so every failure shows.
+            DocumentSource source = server.source(new HttpFetcher(1, 0, 0));
+            server.setFailureRate(1);
+            Assertions.assertThrows(IOException.class, () -> source.open(legis));
+            server.setFailureRate(0);
+            try (DocumentSource.Response response = source.open(legis)) {
+                Assertions.assertTrue(new String(response.readAllBytes(), StandardCharsets.UTF_8).contains("<ActsRegList"));
+            }
+            server.setFailureRate(0.5);
+            for (int i = 0; i < 100; i++) {
+                try {
+                    source.open(legis).close();
+                } catch (IOException ex) {
+                    // Expected, about half the time.
+                }
+            }
+            Assertions.assertTrue(server.getFailures() > 1 + 25 && server.getFailures() < 1 + 75, "Failures: " + server.getFailures());
+        }
+    }
+
+    private RdfGatheringAgent agent(String baseUrl) throws IOException {
+        RdfGatheringAgent agent = new RdfGatheringAgent();
+        agent.setHttpCache(new HttpResponseCache(tempDir.resolve("cache-" + System.nanoTime()), Long.MAX_VALUE, false));
+        agent.setShardStore(null);
+        agent.setLegisUrl(baseUrl + "Legis.xml");
+        agent.setConsolidatedXmlUrlPrefix(baseUrl);
+        return agent;
+    }
+
+    private static String actsAndRegulations(RdfGatheringAgent agent) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FanOutWriter out = new FanOutWriter().add("out.nt", bytes, RDFFormat.NTRIPLES);
+        out.start();
+        Set<String> known = new TreeSet<>();
+        agent.fetchAndParseActsAndConsolidatedRegs(out, known);
+        out.finish();
+        Set<String> lines = new TreeSet<>();
+        for (String line : bytes.toString(StandardCharsets.UTF_8).split("\n")) {
+            lines.add(line);
+        }
+        return String.join("\n", lines);
+    }
+}
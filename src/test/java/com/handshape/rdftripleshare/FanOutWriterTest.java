@@ -0,0 +1,197 @@
+package com.handshape.rdftripleshare;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that writing several outputs at once from one pass gives the same
+ * outputs as writing them one at a time, and benchmarks the two, and the
+ * loading of Turtle against RDF Thrift, when run with
+ * -Drdfshare.benchmark=true.
+ *
+ * @author jturner
+ */
+public class FanOutWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void everyOutputGetsEveryTriple() throws Exception {
+        Model model = SyntheticCorpus.instruments(5000);
+        Node blank = NodeFactory.createBlankNode();
+        model.getGraph().add(Triple.create(blank, new RdfGatheringAgent().titleProperty.asNode(), NodeFactory.createLiteral("Sans titre", "fr")));
+        model.getGraph().add(Triple.create(NodeFactory.createURI(SyntheticCorpus.INST + "SOR-1980-0"), new RdfGatheringAgent().consolidatesProperty.asNode(), blank));
+
+        ByteArrayOutputStream ttl = new ByteArrayOutputStream();
+        ByteArrayOutputStream nt = new ByteArrayOutputStream();
+        ByteArrayOutputStream thrift = new ByteArrayOutputStream();
+        Model copy = ModelFactory.createDefaultModel();
+        Path sqlite = tempDir.resolve("fan-out.sqlite3");
+        // Small batches and short queues, so that the sinks keep waiting on each other.
+        FanOutWriter writer = new FanOutWriter(64, 2)
+                .add("ttl", ttl, RDFFormat.TURTLE_BLOCKS)
+                .add("nt", nt, RDFFormat.NTRIPLES)
+                .add("thrift", thrift, RDFFormat.RDF_THRIFT)
+                .add("model", StreamRDFLib.graph(copy.getGraph()))
+                .add("sqlite", new SqliteExporter(sqlite).sink(), sqlite);
+        writer.write(model);
+
+        Assertions.assertTrue(model.isIsomorphicWith(copy));
+        Assertions.assertEquals(model.getNsPrefixMap(), copy.getNsPrefixMap());
+        Assertions.assertTrue(model.isIsomorphicWith(read(ttl, Lang.TURTLE)), "The Turtle should read back as the same graph.");
+        Assertions.assertTrue(model.isIsomorphicWith(read(nt, Lang.NTRIPLES)), "The N-Triples should read back as the same graph.");
+        Assertions.assertTrue(model.isIsomorphicWith(read(thrift, Lang.RDFTHRIFT)), "The RDF Thrift should read back as the same graph.");
+        Path exported = tempDir.resolve("export.sqlite3");
+        new SqliteExporter(exported).export(model);
+        Assertions.assertEquals(SqliteExporterTest.triples(exported), SqliteExporterTest.triples(sqlite));
+
+        List<FanOutWriter.SinkReport> reports = writer.getReports();
+        Assertions.assertEquals(5, reports.size());
+        for (FanOutWriter.SinkReport report : reports) {
+            Assertions.assertEquals(model.size(), report.getTriples(), report.getName());
+            Assertions.assertTrue(report.getElapsedNanos() >= report.getBusyNanos(), report.toString());
+        }
+        Assertions.assertEquals(ttl.size(), reports.get(0).getBytes());
+        Assertions.assertEquals(thrift.size(), reports.get(2).getBytes());
+        Assertions.assertEquals(0, reports.get(3).getBytes());
+        Assertions.assertEquals(Files.size(sqlite), reports.get(4).getBytes());
+    }
+
+    @Test
+    public void failingSinkStopsTheStream() {
+        Model model = SyntheticCorpus.instruments(5000);
+        FanOutWriter writer = new FanOutWriter(16, 1)
+                .add("nt", new ByteArrayOutputStream(), RDFFormat.NTRIPLES)
+                .add("broken", new StreamRDFBase() {
+                    private int triples;
+
+                    @Override
+                    public void triple(Triple triple) {
+                        if (++triples == 100) {
+                            throw new IllegalStateException("Disk full");
+                        }
+                    }
+                });
+        IllegalStateException thrown = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30),
+                () -> Assertions.assertThrows(IllegalStateException.class, () -> writer.write(model)));
+        Assertions.assertEquals("Disk full", thrown.getMessage());
+    }
+
+    @Test
+    public void failingSinkLetsTheOthersGoOfTheirFiles() throws Exception {
+        Model model = SyntheticCorpus.instruments(5000);
+        Path sqlite = tempDir.resolve("aborted.sqlite3");
+        Path shards = tempDir.resolve("shards");
+        FanOutWriter writer = new FanOutWriter(16, 1)
+                .add("sqlite", new SqliteExporter(sqlite).setBatchSize(1).sink(), sqlite)
+                .add("shards", new ShardedExporter(shards))
+                .add("broken", new StreamRDFBase() {
+                    @Override
+                    public void triple(Triple triple) {
+                        // Only once the export is holding the db's write lock, which it would keep if it were never closed.
+                        while (!Files.exists(sqlite) || writable(sqlite)) {
+                            Thread.onSpinWait();
+                        }
+                        throw new IllegalStateException("Disk full");
+                    }
+                });
+        IllegalStateException thrown = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30),
+                () -> Assertions.assertThrows(IllegalStateException.class, () -> writer.write(model)));
+        Assertions.assertEquals("Disk full", thrown.getMessage());
+        Assertions.assertTrue(writable(sqlite), "The aborted export should have closed its connection to the db.");
+        Assertions.assertFalse(Files.exists(shards.resolve(".spill")), "The aborted shards should have cleared away their spill.");
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "rdfshare.benchmark", matches = "true")
+    public void benchmarkSinglePass() throws Exception {
+        Model model = SyntheticCorpus.instruments(Integer.getInteger("rdfshare.benchmark.triples", 1_000_000));
+        Path ttl = tempDir.resolve("out.ttl");
+        Path thrift = tempDir.resolve("out.trdf");
+        Path sqlite = tempDir.resolve("out.sqlite3");
+        for (int round = 0; round < 2; round++) {
+            // The way the build used to do it: pretty Turtle, then the db, one after the other.
+            long start = System.nanoTime();
+            try (OutputStream out = Files.newOutputStream(ttl)) {
+                model.write(out, "TTL");
+            }
+            new SqliteExporter(sqlite).export(model);
+            long sequential = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<FanOutWriter.SinkReport> reports;
+            try (OutputStream ttlOut = Files.newOutputStream(ttl); OutputStream thriftOut = Files.newOutputStream(thrift)) {
+                FanOutWriter writer = new FanOutWriter()
+                        .add("out.ttl", ttlOut, RDFFormat.TURTLE_BLOCKS)
+                        .add("out.trdf", thriftOut, RDFFormat.RDF_THRIFT)
+                        .add("out.sqlite3", new SqliteExporter(sqlite).sink(), sqlite);
+                writer.write(model);
+                reports = writer.getReports();
+            }
+            long singlePass = System.nanoTime() - start;
+            System.out.printf("%d triples: pretty Turtle then SQLite in %d ms; Turtle, RDF Thrift and SQLite in one pass in %d ms%n",
+                    model.size(), sequential / 1_000_000, singlePass / 1_000_000);
+            reports.forEach(System.out::println);
+
+            System.out.printf("Parsing out.ttl took %d ms, out.trdf %d ms; loading them into a model took %d ms and %d ms%n",
+                    load(ttl, Lang.TURTLE, false) / 1_000_000, load(thrift, Lang.RDFTHRIFT, false) / 1_000_000,
+                    load(ttl, Lang.TURTLE, true) / 1_000_000, load(thrift, Lang.RDFTHRIFT, true) / 1_000_000);
+        }
+    }
+
+    /**
+     * @return whether a write transaction can be started on the db right
+     * away, which it can't while another connection is part way through one.
+     */
+    private static boolean writable(Path db) {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+                Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = 0");
+            stmt.execute("BEGIN IMMEDIATE");
+            stmt.execute("ROLLBACK");
+            return true;
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private static Model read(ByteArrayOutputStream bytes, Lang lang) {
+        Model model = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(model, new ByteArrayInputStream(bytes.toByteArray()), lang);
+        return model;
+    }
+
+    private static long load(Path file, Lang lang, boolean intoModel) throws Exception {
+        long start = System.nanoTime();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            RDFDataMgr.parse(intoModel ? StreamRDFLib.graph(ModelFactory.createDefaultModel().getGraph()) : StreamRDFLib.count(), in, lang);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,133 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Fetches from a {@link CorpusServer} that fails, throttles and gzips on
+ * demand.
+ *
+ * @author jturner
+ */
+public class HttpFetcherTest {
+
+    private static final URL DOCUMENT = url("http://laws-lois.justice.gc.ca/eng/XML/Legis.xml");
+
+    @TempDir
+    Path tempDir;
+
+    private byte[] body;
+    private Path archive;
+
+    @BeforeEach
+    public void recordOneDocument() throws Exception {
+        StringBuilder xml = new StringBuilder("<ActsRegList>\n");
+        for (int i = 0; i < 2000; i++) {
+            xml.append("  <Act id=\"A").append(i).append("\"><Title>Act number ").append(i).append("</Title></Act>\n");
+        }
+        body = xml.append("</ActsRegList>\n").toString().getBytes(StandardCharsets.UTF_8);
+        archive = tempDir.resolve("corpus.zip");
+        try (CorpusRecorder recorder = new CorpusRecorder(archive, url -> new DocumentSource.Response(new ByteArrayInputStream(body), false, body.length))) {
+            recorder.open(DOCUMENT).close();
+        }
+    }
+
+    @Test
+    public void retriesThroughInjectedFailures() throws Exception {
+        try (CorpusServer server = new CorpusServer(new CorpusArchive(archive), 0)) {
+            server.setFailureRate(0.5);
+            HttpFetcher fetcher = new HttpFetcher(10, 1, 0);
+            for (int i = 0; i < 40; i++) {
+                Assertions.assertArrayEquals(body, fetch(fetcher, server));
+            }
+            Assertions.assertTrue(server.getFailures() > 0);
+            Assertions.assertEquals(server.getFailures(), fetcher.getRetries());
+            Assertions.assertEquals(server.getRequests(), fetcher.getRequests());
+        }
+    }
+
+    @Test
+    public void givesUpAfterTheLastAttempt() throws Exception {
+        try (CorpusServer server = new CorpusServer(new CorpusArchive(archive), 0)) {
+            server.setFailureRate(1);
+            HttpFetcher fetcher = new HttpFetcher(3, 1, 0);
+            try (HttpFetcher.Result result = fetcher.fetch(server.urlFor(DOCUMENT), Map.of())) {
+                Assertions.assertEquals(503, result.getStatus());
+            }
+            Assertions.assertEquals(3, server.getRequests());
+            Assertions.assertEquals(2, fetcher.getRetries());
+        }
+    }
+
+    @Test
+    public void asksForGzipAndDecompresses() throws Exception {
+        try (CorpusServer server = new CorpusServer(new CorpusArchive(archive), 0)) {
+            HttpFetcher fetcher = new HttpFetcher(1, 0, 0);
+            Assertions.assertArrayEquals(body, fetch(fetcher, server));
+            Assertions.assertEquals(1, server.getGzipped());
+            Assertions.assertTrue(fetcher.getBytesTransferred() < body.length / 4, "Only " + fetcher.getBytesTransferred() + " of " + body.length + " bytes should have been sent.");
+        }
+    }
+
+    @Test
+    public void slowsDownWhenThrottledAndRecovers() throws Exception {
+        try (CorpusServer server = new CorpusServer(new CorpusArchive(archive), 0)) {
+            HttpFetcher fetcher = new HttpFetcher(1, 0, 1000);
+            String host = server.urlFor(DOCUMENT).getHost();
+            server.setFailureRate(1);
+            for (int i = 0; i < 3; i++) {
+                fetcher.fetch(server.urlFor(DOCUMENT), Map.of()).close();
+            }
+            Assertions.assertEquals(125, fetcher.getRate(host), 0.001);
+            Assertions.assertEquals(3, fetcher.getThrottled());
+            server.setFailureRate(0);
+            for (int i = 0; i < 20; i++) {
+                fetch(fetcher, server);
+            }
+            Assertions.assertEquals(1000, fetcher.getRate(host), 0.001);
+        }
+    }
+
+    @Test
+    public void tokenBucketPacesPastItsBurst() {
+        HttpFetcher.TokenBucket bucket = new HttpFetcher.TokenBucket(10);
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals(0, bucket.reserve(), "The first second's worth should go straight out.");
+        }
+        long wait = bucket.reserve();
+        Assertions.assertTrue(wait > 50_000_000 && wait <= 100_000_000, "Waited " + wait + "ns");
+    }
+
+    @Test
+    public void backoffHonoursRetryAfter() {
+        HttpFetcher fetcher = new HttpFetcher(5, 100, 0);
+        for (int i = 0; i < 100; i++) {
+            long backoff = fetcher.backoff(3, 0);
+            Assertions.assertTrue(backoff >= 0 && backoff <= 400, "Backoff " + backoff);
+            Assertions.assertTrue(fetcher.backoff(1, 2000) >= 2000);
+        }
+    }
+
+    private static byte[] fetch(HttpFetcher fetcher, CorpusServer server) throws Exception {
+        try (HttpFetcher.Result result = fetcher.fetch(server.urlFor(DOCUMENT), Map.of()); InputStream in = result.getBody()) {
+            Assertions.assertEquals(200, result.getStatus());
+            return in.readAllBytes();
+        }
+    }
+
+    private static URL url(String url) {
+        try {
+            return new URL(url);
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
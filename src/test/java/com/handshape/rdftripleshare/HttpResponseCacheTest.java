@@ -0,0 +1,131 @@
+package com.handshape.rdftripleshare;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author jturner
+ */
+public class HttpResponseCacheTest {
+
+    @TempDir
+    Path cacheDir;
+
+    @Test
+    public void revalidatesWithConditionalGet() throws Exception {
+        try (FixtureHttpServer server = new FixtureHttpServer("/fixtures/justice")) {
+            HttpResponseCache cache = new HttpResponseCache(cacheDir, Long.MAX_VALUE, false);
+            URL url = new URL(server.baseUrl() + "A-1.xml");
+            String first = read(cache, url);
+            String second = read(cache, url);
+            Assertions.assertEquals(first, second);
+            Assertions.assertEquals(2, server.requestCount());
+            Assertions.assertEquals(1, server.notModifiedCount());
+            Assertions.assertEquals(1, cache.getMisses());
+            Assertions.assertEquals(1, cache.getHits());
+            Assertions.assertEquals(first.getBytes("UTF-8").length, cache.getBytesSaved());
+        }
+    }
+
+    @Test
+    public void offlineModeServesOnlyFromCache() throws Exception {
+        URL cached;
+        URL uncached;
+        try (FixtureHttpServer server = new FixtureHttpServer("/fixtures/justice")) {
+            cached = new URL(server.baseUrl() + "A-1.xml");
+            uncached = new URL(server.baseUrl() + "C-46.xml");
+            read(new HttpResponseCache(cacheDir, Long.MAX_VALUE, false), cached);
+        }
+        // The server is gone, so anything that isn't cached has to fail.
+        HttpResponseCache offline = new HttpResponseCache(cacheDir, Long.MAX_VALUE, true);
+        Assertions.assertTrue(read(offline, cached).contains("Access to Information Act"));
+        Assertions.assertThrows(FileNotFoundException.class, () -> read(offline, uncached));
+        Assertions.assertEquals(1, offline.getHits());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries() throws Exception {
+        try (FixtureHttpServer server = new FixtureHttpServer("/fixtures/justice")) {
+            URL legis = new URL(server.baseUrl() + "Legis.xml");
+            URL act = new URL(server.baseUrl() + "A-1.xml");
+            URL reg = new URL(server.baseUrl() + "SOR-83-507.xml");
+            // Room for Legis.xml and one of the smaller documents, but not all three.
+            long cap = read(new HttpResponseCache(cacheDir, Long.MAX_VALUE, false), legis).length() + 1500;
+            HttpResponseCache cache = new HttpResponseCache(cacheDir, cap, false);
+            read(cache, act);
+            Thread.sleep(1100);
+            read(cache, legis);
+            Thread.sleep(1100);
+            read(cache, reg);
+
+            HttpResponseCache offline = new HttpResponseCache(cacheDir, cap, true);
+            Assertions.assertThrows(FileNotFoundException.class, () -> read(offline, act));
+            read(offline, legis);
+            read(offline, reg);
+            Assertions.assertTrue(Files.list(cacheDir).mapToLong(path -> path.toFile().length()).sum() < cap + 1024);
+        }
+    }
+
+    @Test
+    public void evictionDoesNotPullBodiesFromUnderConcurrentReaders() throws Exception {
+        List<String> documents = List.of("Legis.xml", "A-1.xml", "C-46.xml", "C.R.C.,_c._1035.xml", "SOR-83-507.xml");
+        try (FixtureHttpServer server = new FixtureHttpServer("/fixtures/justice")) {
+            Map<URL, String> expected = new LinkedHashMap<>();
+            long largest = 0;
+            for (String document : documents) {
+                URL url = new URL(server.baseUrl() + document);
+                try (InputStream in = getClass().getResourceAsStream("/fixtures/justice/" + document)) {
+                    expected.put(url, IOUtils.toString(in, "UTF-8"));
+                }
+                largest = Math.max(largest, expected.get(url).getBytes("UTF-8").length);
+            }
+            // Room for any one document and not much else, so nearly every store evicts another worker's entry.
+            HttpResponseCache cache = new HttpResponseCache(cacheDir, largest + 100, false, new HttpFetcher(1, 0, 0));
+            List<URL> urls = new ArrayList<>(expected.keySet());
+            ExecutorService workers = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<?>> reads = new ArrayList<>();
+                for (int i = 0; i < 400; i++) {
+                    URL url = urls.get(i % urls.size());
+                    reads.add(workers.submit(() -> {
+                        Assertions.assertEquals(expected.get(url), read(cache, url), url.toString());
+                        return null;
+                    }));
+                }
+                for (Future<?> read : reads) {
+                    read.get();
+                }
+            } finally {
+                workers.shutdownNow();
+            }
+            Assertions.assertEquals(400, cache.getHits() + cache.getMisses());
+            Assertions.assertTrue(cache.getHits() > 0, "Nothing was served from the cache.");
+            try (Stream<Path> files = Files.list(cacheDir)) {
+                Assertions.assertTrue(files.noneMatch(path -> path.toString().endsWith(".tmp")), "A download was left behind.");
+            }
+        }
+    }
+
+    private static String read(HttpResponseCache cache, URL url) throws IOException {
+        try (InputStream in = cache.open(url)) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that incremental builds of the consolidated acts and regulations only
+ * fetch what changed, and still come out the same as full builds.
+ *
+ * @author jturner
+ */
+public class IncrementalBuildTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void incrementalBuildMatchesFullBuild() throws Exception {
+        try (FixtureHttpServer server = new FixtureHttpServer("/fixtures/justice")) {
+            InstrumentShardStore shards = new InstrumentShardStore(tempDir.resolve("shards"));
+
+            byte[] full = buildTurtle(server, "Legis.xml", null);
+            Assertions.assertEquals(5, server.requestCount());
+
+            // The first incremental build has nothing to reuse.
+            server.resetCounters();
+            Assertions.assertArrayEquals(full, buildTurtle(server, "Legis.xml", shards));
+            Assertions.assertEquals(5, server.requestCount());
+
+            // The second has everything.
+            server.resetCounters();
+            Assertions.assertArrayEquals(full, buildTurtle(server, "Legis.xml", shards));
+            Assertions.assertEquals(1, server.requestCount(), "Only Legis.xml should have been fetched.");
+
+            // Only the Criminal Code's CurrentToDate moved.
+            server.resetCounters();
+            Assertions.assertArrayEquals(buildTurtle(server, "Legis-updated.xml", null), buildTurtle(server, "Legis-updated.xml", shards));
+            Assertions.assertEquals(5 + 2, server.requestCount(), "Only Legis.xml and C-46.xml should have been fetched incrementally.");
+        }
+    }
+
+    @Test
+    public void reusedShardsAreResolvedAgainstCurrentInstruments() throws Exception {
+        try (FixtureHttpServer server = new FixtureHttpServer("/fixtures/justice")) {
+            InstrumentShardStore shards = new InstrumentShardStore(tempDir.resolve("shards"));
+            buildTurtle(server, "Legis.xml", shards);
+            // SOR/2002-123 wasn't known when the shards were written, but is now.
+            Set<String> known = new TreeSet<>();
+            known.add("SOR-2002-123");
+            Assertions.assertArrayEquals(buildTurtle(server, "Legis.xml", null, known), buildTurtle(server, "Legis.xml", shards, known));
+        }
+    }
+
+    private byte[] buildTurtle(FixtureHttpServer server, String legis, InstrumentShardStore shards) throws Exception {
+        return buildTurtle(server, legis, shards, new TreeSet<>());
+    }
+
+    private byte[] buildTurtle(FixtureHttpServer server, String legis, InstrumentShardStore shards, Set<String> known) throws Exception {
+        Model model = ModelFactory.createDefaultModel();
+        RdfGatheringAgent agent = new RdfGatheringAgent();
+        agent.setHttpCache(new HttpResponseCache(tempDir.resolve("cache"), Long.MAX_VALUE, false));
+        agent.setLegisUrl(server.baseUrl() + legis);
+        agent.setConsolidatedXmlUrlPrefix(server.baseUrl());
+        agent.setShardStore(shards);
+        agent.fetchAndParseActsAndConsolidatedRegs(model, new TreeSet<>(known));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.write(out, "TTL");
+        return out.toByteArray();
+    }
+}
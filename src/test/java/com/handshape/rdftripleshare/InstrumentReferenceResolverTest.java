@@ -0,0 +1,175 @@
+package com.handshape.rdftripleshare;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Checks the reference resolver against the original resolution code, and
+ * benchmarks the two when run with -Drdfshare.benchmark=true.
+ *
+ * @author jturner
+ */
+public class InstrumentReferenceResolverTest {
+
+    private static final Set<String> KNOWN = new HashSet<>(Arrays.asList(
+            "A-1", "C-46", "I-3.3", "SOR-83-507", "SOR-2002-123", "SI-2000-12", "C.R.C.,_c._1035", "R.S.C._1985,_c._1_(5th_Supp.)"));
+
+    @Test
+    public void urlSafeIdsMatchTheOriginalRegexes() {
+        List<String> samples = new ArrayList<>(Arrays.asList(
+                "SOR/2002-123", " SI/2000-12 ", "C.R.C., c. 1035", "R.S.C., 1985, c. 1 (5th Supp.)", "S.C.2020, c. 5",
+                "S. C. 2019, c. 29", "SOR/2019 – 5", "SOR/2019 — 5", "SXCY2020", "S_C_2020", "R S C , 1970"));
+        Random random = new Random(42);
+        String alphabet = "SCR.,_ /20–—c";
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder sample = new StringBuilder();
+            for (int j = random.nextInt(16); j > 0; j--) {
+                sample.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            samples.add(sample.toString());
+        }
+        for (String sample : samples) {
+            Assertions.assertEquals(legacyToUrlSafeId(sample), InstrumentReferenceResolver.toUrlSafeId(sample), sample);
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+        "2001, c. 27, s. 2|S.C._2001,c._27|ANNUAL_STATUTE",
+        "SOR/83-507, s. 2|SOR-83-507|KNOWN_INSTRUMENT",
+        "SI/2000-12, ss. 1 to 3|SI-2000-12|KNOWN_INSTRUMENT",
+        "SOR/2002-123|SOR-2002-123|KNOWN_INSTRUMENT",
+        "S.C. 2019, c. 29, s. 1|S.C._2019,c._29|STATUTES_OF_CANADA",
+        "C.R.C., c. 1035, s. 3|C.R.C.,_c._1035|CONSOLIDATED_REGULATION",
+        "R.S., 1985, c. A-1, s. 1|A-1|REVISED_STATUTE",
+        "R.S., 1985, c. 1 (5th Supp.), s. 12|R.S.C._1985,_c._1_(5th_Supp.)|REVISED_STATUTE",
+        "SOR/ 2002-123, s. 4|SOR-2002-123|TIDIED",
+        "SOR/2002-123.|SOR-2002-123|TIDIED",
+        "R.S., c. C-34, s. 1||UNRESOLVED",
+        "C.R.C., c. 999||UNRESOLVED",
+        "SOR/2099-1, s. 1||UNRESOLVED"
+    })
+    public void resolvesCitations(String text, String instrumentId, InstrumentReferenceResolver.Rule rule) {
+        InstrumentReferenceResolver.Citation citation = new InstrumentReferenceResolver(KNOWN).resolve(text);
+        Assertions.assertEquals(instrumentId, citation.getInstrumentId());
+        Assertions.assertEquals(rule, citation.getRule());
+    }
+
+    @Test
+    public void resolvesEverythingTheOriginalCodeDid() {
+        InstrumentReferenceResolver resolver = new InstrumentReferenceResolver(KNOWN);
+        for (String citation : syntheticCitations(5000)) {
+            String[] legacy = legacyResolve(citation, KNOWN);
+            InstrumentReferenceResolver.Citation resolved = resolver.resolve(citation);
+            Assertions.assertEquals(legacy[1], resolved.getRef(), citation);
+            if (legacy[0] != null) {
+                Assertions.assertEquals(legacy[0], resolved.getInstrumentId(), citation);
+            }
+        }
+        Locale locale = Locale.getDefault();
+        String report;
+        // Where lower-casing an I doesn't give an i.
+        Locale.setDefault(new Locale("tr"));
+        try {
+            report = resolver.resolutionReport();
+        } finally {
+            Locale.setDefault(locale);
+        }
+        Assertions.assertTrue(report.matches("Resolved \\d+ of 5000 citations \\(.*%\\): [a-z0-9 ,]+"), report);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "rdfshare.benchmark", matches = "true")
+    public void benchmarkAgainstOriginal() {
+        List<String> citations = syntheticCitations(200000);
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            int resolved = 0;
+            for (String citation : citations) {
+                if (legacyResolve(citation, KNOWN)[0] != null) {
+                    resolved++;
+                }
+            }
+            report("Original", citations.size(), resolved, System.nanoTime() - start);
+            InstrumentReferenceResolver resolver = new InstrumentReferenceResolver(KNOWN);
+            start = System.nanoTime();
+            resolved = 0;
+            for (String citation : citations) {
+                if (resolver.resolve(citation).getInstrumentId() != null) {
+                    resolved++;
+                }
+            }
+            report("Resolver", citations.size(), resolved, System.nanoTime() - start);
+            System.out.println(resolver.resolutionReport());
+        }
+    }
+
+    private static void report(String name, int citations, int resolved, long nanos) {
+        System.out.printf("%s: %.0f citations/s, %.1f%% resolved%n", name, citations / (nanos / 1e9), 100.0 * resolved / citations);
+    }
+
+    static List<String> syntheticCitations(int count) {
+        String[] shapes = {
+            "%d, c. %d, s. %d", "SOR/83-507, s. %d", "SOR/%d-%d", "S.C. %d, c. %d, s. %d", "C.R.C., c. 1035, s. %d",
+            "R.S., 1985, c. A-1, s. %d", "R.S., c. C-34, s. %d", "SOR/ 2002-123, s. %d", "SI/2000-12, ss. %d to %d", "%d, c. %d"
+        };
+        Random random = new Random(7);
+        List<String> citations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String shape = shapes[random.nextInt(shapes.length)];
+            citations.add(String.format(shape, 1985 + random.nextInt(36), 1 + random.nextInt(50), 1 + random.nextInt(300)));
+        }
+        return citations;
+    }
+
+    /**
+     * The original toUrlSafeId, for comparison.
+     */
+    private static String legacyToUrlSafeId(String item) {
+        return item.trim()
+                .replaceAll("/", "-")
+                .replaceAll(" ", "_")
+                .replaceAll("_–_", "-")
+                .replaceAll("_—_", "-")
+                .replaceAll("S.C.2020", "S.C._2020")
+                .replaceAll("S._C._", "S.C._")
+                .replaceAll("R.S.C.,", "R.S.C.");
+    }
+
+    /**
+     * The original citation resolution, for comparison.
+     *
+     * @return the resolved ID or null, and the unresolved ref.
+     */
+    private static String[] legacyResolve(String item, Set<String> statutoryInstrumentIds) {
+        String ref = item;
+        String refChapter = null;
+        if (ref.contains(", c. ")) {
+            refChapter = ref.substring(ref.indexOf(", c. ") + 5).trim();
+            if (refChapter.contains(",")) {
+                refChapter = refChapter.substring(0, refChapter.indexOf(",")).trim();
+            }
+            ref = ref.substring(0, ref.indexOf(", c. ")).trim();
+        } else if (ref.contains(", s. ")) {
+            ref = ref.substring(0, ref.indexOf(", s. ")).trim();
+        } else if (ref.contains(", ss. ")) {
+            ref = ref.substring(0, ref.indexOf(", ss. ")).trim();
+        }
+        if (ref.matches("\\d{4}") && refChapter != null && refChapter.matches("\\d+")) {
+            return new String[]{"S.C._" + ref + ",c._" + refChapter, ref};
+        } else if (statutoryInstrumentIds.contains(legacyToUrlSafeId(ref))) {
+            return new String[]{legacyToUrlSafeId(ref), ref};
+        }
+        return new String[]{null, ref};
+    }
+}
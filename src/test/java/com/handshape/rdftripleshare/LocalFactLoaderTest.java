@@ -0,0 +1,137 @@
+package com.handshape.rdftripleshare;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that parsing the fact directory side by side, and from the cache,
+ * gives what parsing it a file at a time did, and benchmarks validating a
+ * large tree when run with -Drdfshare.benchmark=true.
+ *
+ * @author jturner
+ */
+public class LocalFactLoaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void matchesParsingOneFileAtATime() throws Exception {
+        Path facts = facts(tempDir.resolve("rdf"), 40, 25);
+        Files.writeString(facts.resolve("blank.ttl"), "@prefix schema: <https://schema.org/> .\n[] schema:name \"Anonymous\" ; schema:about [ schema:name \"Nested\" ] .\n");
+        Model expected = ModelFactory.createDefaultModel();
+        List<String> expectedSubjects = new ArrayList<>();
+        for (Path file : files(facts)) {
+            RDFParser.source(file).build().parse(subjects(expectedSubjects, StreamRDFLib.graph(expected.getGraph())));
+        }
+
+        LocalFactLoader loader = new LocalFactLoader(facts, tempDir.resolve("cache")).setConcurrency(4);
+        for (int pass = 0; pass < 2; pass++) {
+            Model actual = ModelFactory.createDefaultModel();
+            List<String> actualSubjects = new ArrayList<>();
+            LocalFactLoader.Report report = loader.load(subjects(actualSubjects, StreamRDFLib.graph(actual.getGraph())));
+            Assertions.assertTrue(report.passed());
+            Assertions.assertEquals(41, report.getFiles());
+            Assertions.assertEquals(pass == 0 ? 0 : 41, report.getFromCache(), "The second pass should come from the cache.");
+            Assertions.assertEquals(expected.size(), report.getTriples());
+            Assertions.assertTrue(expected.isIsomorphicWith(actual));
+            Assertions.assertEquals(expected.getNsPrefixMap(), actual.getNsPrefixMap());
+            Assertions.assertEquals(expectedSubjects, actualSubjects, "The triples should come out in the same order.");
+        }
+
+        Files.writeString(facts.resolve("facts-3.ttl"), "@prefix schema: <https://schema.org/> .\n<http://example.com/changed> schema:name \"Changed\" .\n");
+        Model changed = ModelFactory.createDefaultModel();
+        LocalFactLoader.Report report = loader.load(StreamRDFLib.graph(changed.getGraph()));
+        Assertions.assertEquals(40, report.getFromCache(), "Only the changed file should have been parsed again.");
+        Assertions.assertTrue(changed.contains(changed.createResource("http://example.com/changed"), null));
+    }
+
+    @Test
+    public void problemsAreReportedInPathOrder() throws Exception {
+        Path facts = Files.createDirectories(tempDir.resolve("rdf"));
+        Files.writeString(facts.resolve("a.ttl"), "@prefix schema: <https://schema.org/> .\n<http://example.com/a> schema:name .\n");
+        Files.writeString(facts.resolve("b.ttl"), "@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .\n<http://example.com/b> <http://example.com/count> \"many\"^^xsd:integer .\n");
+        Files.writeString(facts.resolve("c.txt"), "Notes\n");
+        Files.writeString(facts.resolve("d.nt"), "<http://example.com/d> <http://example.com/p> \"fine\" .\n");
+
+        LocalFactLoader loader = new LocalFactLoader(facts, tempDir.resolve("cache")).setConcurrency(4);
+        for (int pass = 0; pass < 2; pass++) {
+            LocalFactLoader.Report report = loader.load(null);
+            Assertions.assertFalse(report.passed());
+            List<String> problems = report.getProblems();
+            Assertions.assertEquals(3, problems.size(), problems.toString());
+            Assertions.assertTrue(problems.get(0).startsWith("FATAL: " + facts.resolve("a.ttl") + " 2:"), problems.get(0));
+            Assertions.assertTrue(problems.get(1).startsWith("WARN: " + facts.resolve("b.ttl") + " 2:"), problems.get(1));
+            Assertions.assertEquals("ERROR: Unexpected file extension at " + facts.resolve("c.txt"), problems.get(2));
+            // Only the clean file is cached, so the others are complained about every time.
+            Assertions.assertEquals(pass, report.getFromCache());
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "rdfshare.benchmark", matches = "true")
+    public void benchmarkValidation() throws Exception {
+        int fileCount = Integer.getInteger("rdfshare.benchmark.files", 3000);
+        Path facts = facts(tempDir.resolve("rdf"), fileCount, 100);
+        long start = System.nanoTime();
+        for (Path file : files(facts)) {
+            // What fetchAndParseLocalTurtle used to do with each file.
+            RDFParser.source(file).checking(true).build().parse(new StreamRDFBase());
+        }
+        System.out.printf("%,d files, one at a time: %d ms%n", fileCount, (System.nanoTime() - start) / 1_000_000);
+        LocalFactLoader loader = new LocalFactLoader(facts, tempDir.resolve("cache"));
+        for (int pass = 0; pass < 3; pass++) {
+            System.out.println("Validated " + loader.load(null) + " on " + Runtime.getRuntime().availableProcessors() + " processors");
+        }
+    }
+
+    /**
+     * Writes a tree of Turtle files, a few per directory, each with prefixes
+     * and triples of its own.
+     */
+    private static Path facts(Path root, int files, int triplesPerFile) throws Exception {
+        for (int i = 0; i < files; i++) {
+            // One file straight under the root, as with rdf/prefixes.ttl.
+            Path directory = Files.createDirectories(i == 3 ? root : root.resolve(String.valueOf((char) ('a' + i % 5))).resolve(String.valueOf(i % 7)));
+            StringBuilder turtle = new StringBuilder("@prefix schema: <https://schema.org/> .\n@prefix inst: <" + SyntheticCorpus.INST + "> .\n");
+            for (int j = 0; j < triplesPerFile; j++) {
+                turtle.append("inst:SOR-").append(i).append('-').append(j).append(" schema:name \"Regulations respecting matter ")
+                        .append(j).append("\"@en ; schema:identifier ").append(j).append(" .\n");
+            }
+            Files.writeString(directory.resolve("facts-" + i + ".ttl"), turtle);
+        }
+        return root;
+    }
+
+    private static List<Path> files(Path root) throws Exception {
+        try (Stream<Path> walk = Files.walk(root)) {
+            return walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static StreamRDF subjects(List<String> subjects, StreamRDF out) {
+        return new StreamRDFWrapper(out) {
+            @Override
+            public void triple(Triple triple) {
+                subjects.add(triple.getSubject().isURI() ? triple.getSubject().getURI() : "_:");
+                super.triple(triple);
+            }
+        };
+    }
+}
@@ -0,0 +1,146 @@
+package com.handshape.rdftripleshare;
+
+import java.io.File;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Reads awkward CSV in chunks small enough to split it anywhere, and checks
+ * it comes out as Commons CSV reads it, and that the CSV sets come out as
+ * they did when Commons CSV read them.
+ *
+ * @author jturner
+ */
+public class ParallelCsvReaderTest {
+
+    private static final String[] VALUES = {"plain", "", "with, a comma", "with \"quotes\"", "two\nlines", "two\r\nlines",
+        "été – café", "  padded  ", "\"", "ACT"};
+    private static final Node P = NodeFactory.createURI("https://example.com/p");
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @CsvSource({"1, false", "7, false", "64, false", "1048576, false", "1, true", "64, true"})
+    public void readsWhatCommonsCsvReads(int chunkBytes, boolean commonsOptions) throws Exception {
+        Path csv = tempDir.resolve("awkward.csv");
+        Files.writeString(csv, awkward(new Random(chunkBytes), 500), StandardCharsets.UTF_8);
+        CSVFormat format = commonsOptions ? CSVFormat.DEFAULT.withNullString("").withIgnoreSurroundingSpaces().withHeader() : CSVFormat.DEFAULT.withHeader();
+        List<String> expected = new ArrayList<>();
+        try (Reader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            for (CSVRecord record : format.parse(in)) {
+                expected.add(record.get("d") + "|" + record.get("b"));
+            }
+        }
+        List<String> actual = new ArrayList<>();
+        new ParallelCsvReader(csv).setChunkBytes(chunkBytes).setConcurrency(3)
+                .setIgnoreSurroundingSpaces(commonsOptions).setEmptyAsNull(commonsOptions)
+                .read(List.of("d", "b"), (values, out) -> out.triple(Triple.create(P, P, NodeFactory.createLiteral(values[0] + "|" + values[1]))),
+                        collect(actual));
+        Assertions.assertEquals(500, expected.size());
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void csvSetsComeOutAsTheyDidWithCommonsCsv() throws Exception {
+        RdfGatheringAgent agent = new RdfGatheringAgent();
+        File rias = tempDir.resolve("regcan.csv").toFile();
+        Files.writeString(rias.toPath(), "ID,regtext,sponsor,CBA.wordcount,rias.wordcount,consultation.wordcount\n"
+                + "SOR/2002-123,Registration SOR/2002-123 FISHERIES ACT Regulations Amending the Fishery Regulations P.C. 2002-456 Whereas,\"Fisheries and Oceans\",120,4500,NA\n"
+                + "SI/2005-1,\"Registration SI/2005-1 Order Fixing the Day,\nover two lines P.C. 2005-1\",Privy Council,0,-,\n"
+                + "\n"
+                + "SOR/2010-7,No council number here,\"\",17,18,19\n", StandardCharsets.UTF_8);
+        File metadata = tempDir.resolve("metadata.csv").toFile();
+        Files.writeString(metadata.toPath(), "instrument_number,category_item_id,category_item_desc_en,category_item_desc_fr\r\n"
+                + "SOR/2002-123,4,\"Fisheries, in English\",\"Pêches, en français\"\r\n"
+                + "SI/2005-1,5,,\r\n", StandardCharsets.UTF_8);
+        agent.setRiasCsv(rias);
+        agent.setMetadataCsv(metadata);
+
+        List<Triple> reference = new ArrayList<>();
+        Set<String> referenceKnown = new TreeSet<>();
+        agent.parseRiasWithCommonsCsv(rias, triples(reference), referenceKnown);
+        agent.parseMetadataWithCommonsCsv(metadata, triples(reference));
+        agent.parseDepartmentsWithCommonsCsv(triples(reference));
+
+        List<Triple> parsed = new ArrayList<>();
+        Set<String> known = new TreeSet<>();
+        agent.fetchAndParseRias(triples(parsed), known);
+        agent.fetchAndParseMetadata(triples(parsed));
+        agent.fetchAndParseDepartments(triples(parsed));
+
+        Assertions.assertEquals(reference, parsed);
+        Assertions.assertEquals(referenceKnown, known);
+        Assertions.assertEquals(Set.of("SOR-2002-123", "SI-2005-1", "SOR-2010-7"), known);
+        Assertions.assertTrue(parsed.contains(Triple.create(NodeFactory.createURI("https://www.canada.ca/en/privy-council/ext/statutory-instrument/SOR-2002-123"),
+                agent.cbaWordCountProperty.asNode(), NodeFactory.createLiteral("120", XSDDatatype.XSDinteger))), "Word counts should be integers.");
+        Assertions.assertTrue(parsed.contains(Triple.create(NodeFactory.createURI("https://www.canada.ca/en/privy-council/ext/statutory-instrument/SOR-2002-123"),
+                agent.consultationWordCountProperty.asNode(), NodeFactory.createLiteral("NA"))), "What isn't a count should be kept as it was.");
+    }
+
+    /**
+     * @return a CSV of four columns, with every value drawn from the awkward
+     * ones, quoted where it has to be and sometimes where it needn't be, with
+     * a mix of line ends, and the odd empty line.
+     */
+    private static String awkward(Random random, int rows) {
+        StringBuilder csv = new StringBuilder("a,b,c,d\n");
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < 4; column++) {
+                if (column > 0) {
+                    csv.append(',');
+                }
+                String value = VALUES[random.nextInt(VALUES.length)];
+                boolean mustQuote = value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r");
+                if (mustQuote || random.nextInt(4) == 0) {
+                    csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+                } else {
+                    csv.append(value);
+                }
+            }
+            csv.append(random.nextBoolean() ? "\r\n" : "\n");
+            if (random.nextInt(20) == 0) {
+                csv.append('\n');
+            }
+        }
+        return csv.toString();
+    }
+
+    private static StreamRDF collect(List<String> values) {
+        return new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                values.add(triple.getObject().getLiteralLexicalForm());
+            }
+        };
+    }
+
+    private static StreamRDF triples(List<Triple> triples) {
+        return new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                triples.add(triple);
+            }
+        };
+    }
+}
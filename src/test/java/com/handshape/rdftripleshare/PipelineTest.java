@@ -0,0 +1,155 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author jturner
+ */
+public class PipelineTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void independentStagesRunTogetherButComeOutInOrder() throws Exception {
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        CountDownLatch secondFinished = new CountDownLatch(1);
+        Pipeline pipeline = new Pipeline(2)
+                .stage("first", out -> {
+                    bothRunning.countDown();
+                    Assertions.assertTrue(bothRunning.await(10, TimeUnit.SECONDS), "The stages should have run at the same time.");
+                    // Finish last, so that the second stage has to be held back.
+                    Assertions.assertTrue(secondFinished.await(10, TimeUnit.SECONDS));
+                    emit(out, "first", 3);
+                })
+                .stage("second", out -> {
+                    bothRunning.countDown();
+                    emit(out, "second", 2);
+                    secondFinished.countDown();
+                });
+        List<String> subjects = new ArrayList<>();
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> pipeline.run(collect(subjects)));
+        Assertions.assertEquals(List.of("first-0", "first-1", "first-2", "second-0", "second-1"), subjects);
+
+        List<Pipeline.StageTiming> timings = pipeline.getTimings();
+        Assertions.assertEquals(3, timings.get(0).getTriples());
+        Assertions.assertTrue(timings.get(0).isDirect());
+        Assertions.assertEquals(2, timings.get(1).getTriples());
+        Assertions.assertFalse(timings.get(1).isDirect(), "The second stage finished first, so it should have been buffered.");
+    }
+
+    @Test
+    public void consumersWaitForEveryProducer() throws Exception {
+        Set<String> known = Collections.synchronizedSet(new TreeSet<>());
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Pipeline pipeline = new Pipeline(4)
+                .stage("consumer", List.of("known"), List.of(), out -> {
+                    order.add("consumer");
+                    Assertions.assertEquals(Set.of("a", "b", "c"), known);
+                })
+                .stage("producer a", List.of(), List.of("known"), out -> {
+                    Thread.sleep(100);
+                    order.add("producer a");
+                    known.add("a");
+                })
+                .stage("independent", out -> emit(out, "independent", 1))
+                .stage("producer b", List.of(), List.of("known"), out -> {
+                    order.add("producer b");
+                    known.add("b");
+                })
+                .stage("producer and consumer", List.of("known"), List.of("known"), out -> {
+                    Assertions.assertEquals(Set.of("a", "b"), known);
+                    order.add("producer and consumer");
+                    known.add("c");
+                });
+        pipeline.run(new StreamRDFBase());
+        Assertions.assertEquals(List.of("producer a", "producer b", "producer and consumer", "consumer"), order);
+    }
+
+    @Test
+    public void runsTheAgentLikeTheSequentialChain() throws Exception {
+        try (FixtureHttpServer server = new FixtureHttpServer("/fixtures/justice")) {
+            RdfGatheringAgent agent = new RdfGatheringAgent();
+            agent.setHttpCache(new HttpResponseCache(tempDir.resolve("cache"), Long.MAX_VALUE, false));
+            agent.setLegisUrl(server.baseUrl() + "Legis.xml");
+            agent.setConsolidatedXmlUrlPrefix(server.baseUrl());
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            StreamRDF sequential = StreamRDFWriter.getWriterStream(expected, RDFFormat.NTRIPLES);
+            sequential.start();
+            Set<String> known = new TreeSet<>();
+            agent.fetchAndParseDepartments(sequential);
+            agent.fetchAndParseActsAndConsolidatedRegs(sequential, known);
+            agent.fetchAndParseMetadata(sequential);
+            sequential.finish();
+
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            StreamRDF pipelined = StreamRDFWriter.getWriterStream(actual, RDFFormat.NTRIPLES);
+            pipelined.start();
+            Set<String> pipelinedKnown = new TreeSet<>();
+            new Pipeline(3)
+                    .stage("departments", agent::fetchAndParseDepartments)
+                    .stage("acts and regulations", List.of("known"), List.of("known"), out -> agent.fetchAndParseActsAndConsolidatedRegs(out, pipelinedKnown))
+                    .stage("metadata", agent::fetchAndParseMetadata)
+                    .run(pipelined);
+            pipelined.finish();
+
+            Assertions.assertTrue(expected.size() > 0);
+            Assertions.assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"), "The triples should come out in the same order.");
+            Assertions.assertEquals(known, pipelinedKnown);
+        }
+    }
+
+    @Test
+    public void cyclesAndFailuresAreReported() {
+        Pipeline cycle = new Pipeline()
+                .stage("a", List.of("x"), List.of("y"), out -> {
+                })
+                .stage("b", List.of("y"), List.of("x"), out -> {
+                });
+        IllegalStateException ex = Assertions.assertThrows(IllegalStateException.class, () -> cycle.run(new StreamRDFBase()));
+        Assertions.assertTrue(ex.getMessage().contains("[a, b]"), ex.getMessage());
+
+        Pipeline failing = new Pipeline()
+                .stage("fine", out -> emit(out, "fine", 1))
+                .stage("broken", out -> {
+                    throw new IOException("Not found");
+                });
+        Assertions.assertEquals("Not found", Assertions.assertThrows(IOException.class, () -> failing.run(new StreamRDFBase())).getMessage());
+    }
+
+    private static void emit(StreamRDF out, String name, int count) {
+        for (int i = 0; i < count; i++) {
+            out.triple(Triple.create(NodeFactory.createURI(name + "-" + i), NodeFactory.createURI("p"), NodeFactory.createLiteral("o")));
+        }
+    }
+
+    private static StreamRDF collect(List<String> subjects) {
+        return new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                subjects.add(triple.getSubject().getURI());
+            }
+        };
+    }
+}
@@ -0,0 +1,40 @@
+package com.handshape.rdftripleshare;
+
+import java.util.Map;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author jturner
+ */
+public class PrefixTrieTest {
+
+    @Test
+    public void matchesThePrefixMapping() {
+        Model model = SyntheticCorpus.instruments(2000);
+        PrefixTrie trie = new PrefixTrie(model.getNsPrefixMap());
+        StmtIterator stmts = model.listStatements();
+        while (stmts.hasNext()) {
+            String uri = stmts.nextStatement().getSubject().getURI();
+            Assertions.assertEquals(model.shortForm(uri), trie.shortForm(uri));
+        }
+        Assertions.assertEquals("http://example.com/x", trie.shortForm("http://example.com/x"));
+    }
+
+    @Test
+    public void longestNamespaceWins() {
+        PrefixTrie trie = new PrefixTrie(Map.of("jus", "https://laws.justice.gc.ca/", "regs", "https://laws.justice.gc.ca/eng/regulations/"));
+        Assertions.assertEquals("regs:SOR-86-946", trie.shortForm("https://laws.justice.gc.ca/eng/regulations/SOR-86-946"));
+        Assertions.assertEquals("jus:eng/acts/A-1", trie.shortForm("https://laws.justice.gc.ca/eng/acts/A-1"));
+        Assertions.assertEquals("jus:", trie.shortForm("https://laws.justice.gc.ca/"));
+        Assertions.assertEquals("https://laws.justice.gc.ca", trie.shortForm("https://laws.justice.gc.ca"));
+
+        trie.put("regs", "https://laws-lois.justice.gc.ca/eng/regulations/");
+        Assertions.assertEquals("jus:eng/regulations/SOR-86-946", trie.shortForm("https://laws.justice.gc.ca/eng/regulations/SOR-86-946"));
+        trie.put("law", "https://laws.justice.gc.ca/");
+        Assertions.assertEquals("law:eng/acts/A-1", trie.shortForm("https://laws.justice.gc.ca/eng/acts/A-1"));
+    }
+}
@@ -0,0 +1,149 @@
+package com.handshape.rdftripleshare;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Refreshes a daemon's sources by hand, and checks what it publishes, and
+ * that readers of the published db only ever see whole releases.
+ *
+ * @author jturner
+ */
+public class RefreshDaemonTest {
+
+    private static final int FIXED_TRIPLES = 4;
+
+    @TempDir
+    Path tempDir;
+
+    private Path names;
+    private Path published;
+    private final AtomicBoolean failing = new AtomicBoolean();
+    private int fixedRuns;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        names = tempDir.resolve("names.txt");
+        published = tempDir.resolve("published");
+        Files.createDirectories(published);
+        writeNames(3);
+    }
+
+    @Test
+    public void publishesOnlyWhenASourceChanges() throws Exception {
+        try (RefreshDaemon daemon = daemon()) {
+            daemon.start();
+            Assertions.assertEquals(1, daemon.getReleases());
+            for (String artifact : List.of("out.ttl", "out.trdf", "out.sqlite3", "out.sqlite3.manifest.json", "build-report.json")) {
+                Assertions.assertTrue(Files.isRegularFile(published.resolve(artifact)), artifact);
+            }
+            Assertions.assertFalse(Files.exists(published.resolve("staging")), "The staging directory should have been cleared away.");
+            Assertions.assertEquals(FIXED_TRIPLES + 3, triples());
+
+            Assertions.assertFalse(daemon.refreshAndPublish("names"), "The names haven't changed.");
+            Assertions.assertEquals(1, daemon.getReleases());
+
+            writeNames(5);
+            Assertions.assertTrue(daemon.refreshAndPublish("names"));
+            Assertions.assertEquals(2, daemon.getReleases());
+            Assertions.assertEquals(FIXED_TRIPLES + 5, triples());
+
+            // A source with no files to check runs every time.
+            Assertions.assertTrue(daemon.refreshAndPublish("fixed"));
+            Assertions.assertEquals(2, fixedRuns);
+
+            // A source that fails leaves the last release standing, and its triples in the next one.
+            failing.set(true);
+            Assertions.assertFalse(daemon.refreshAndPublish("fixed"));
+            Assertions.assertEquals(3, daemon.getReleases());
+            Assertions.assertEquals(FIXED_TRIPLES + 5, triples());
+        }
+    }
+
+    @Test
+    public void readersNeverSeeAPartialRelease() throws Exception {
+        try (RefreshDaemon daemon = daemon()) {
+            daemon.start();
+            Set<Long> seen = ConcurrentHashMap.newKeySet();
+            List<Exception> errors = new CopyOnWriteArrayList<>();
+            AtomicBoolean done = new AtomicBoolean();
+            Thread reader = new Thread(() -> {
+                while (!done.get()) {
+                    try {
+                        seen.add(triples());
+                    } catch (Exception ex) {
+                        errors.add(ex);
+                    }
+                }
+            });
+            reader.start();
+            try {
+                for (int release = 0; release < 10; release++) {
+                    writeNames(release % 2 == 0 ? 6 : 3);
+                    Assertions.assertTrue(daemon.refreshAndPublish("names"));
+                }
+            } finally {
+                done.set(true);
+                reader.join();
+            }
+            Assertions.assertEquals(List.of(), errors);
+            Assertions.assertEquals(Set.of((long) FIXED_TRIPLES + 3, (long) FIXED_TRIPLES + 6), seen);
+        }
+    }
+
+    private RefreshDaemon daemon() throws Exception {
+        RdfGatheringAgent agent = new RdfGatheringAgent();
+        agent.setHttpCache(new HttpResponseCache(tempDir.resolve("cache"), Long.MAX_VALUE, false));
+        return new RefreshDaemon(agent, published)
+                .source("names", Duration.ofHours(1), out -> {
+                    for (String name : Files.readAllLines(names)) {
+                        out.triple(Triple.create(NodeFactory.createURI("https://example.com/" + name), NodeFactory.createURI("https://schema.org/name"), NodeFactory.createLiteral(name)));
+                    }
+                }, names)
+                .source("fixed", Duration.ofHours(1), out -> {
+                    if (failing.get()) {
+                        throw new IllegalStateException("Upstream is down");
+                    }
+                    fixedRuns++;
+                    out.prefix("ex", "https://example.com/");
+                    for (int i = 0; i < FIXED_TRIPLES; i++) {
+                        out.triple(Triple.create(NodeFactory.createURI("https://example.com/fixed"), NodeFactory.createURI("https://schema.org/position"), NodeFactory.createLiteral(String.valueOf(i))));
+                    }
+                });
+    }
+
+    private void writeNames(int count) throws Exception {
+        // Each write is a different size, so the fingerprint changes even within the same millisecond.
+        Files.writeString(names, IntStream.range(0, count).mapToObj(i -> "name" + i).collect(Collectors.joining("\n")));
+    }
+
+    private long triples() throws Exception {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + published.resolve("out.sqlite3"), config.toProperties());
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM TRIPLES")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
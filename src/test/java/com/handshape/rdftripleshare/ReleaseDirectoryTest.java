@@ -0,0 +1,44 @@
+package com.handshape.rdftripleshare;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Publishes releases by hand, and checks what's left published after each.
+ *
+ * @author jturner
+ */
+public class ReleaseDirectoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void removesTheArtifactsAReleaseDoesNotStage() throws Exception {
+        ReleaseDirectory release = new ReleaseDirectory(tempDir);
+        Files.writeString(tempDir.resolve("unrelated.txt"), "not an artifact");
+
+        Path staging = release.stage();
+        Files.writeString(staging.resolve("out.sqlite3"), "release 1");
+        Files.writeString(staging.resolve("out.delta.sql"), "-- release 0 to 1");
+        Files.writeString(staging.resolve("out.nt"), "release 1");
+        Files.createDirectories(staging.resolve("shards"));
+        Files.writeString(staging.resolve("shards").resolve("inst.nt"), "release 1");
+        release.publish();
+        Assertions.assertEquals("-- release 0 to 1", Files.readString(tempDir.resolve("out.delta.sql")));
+
+        // No previous release to compare with, no streaming, and no shards this time.
+        staging = release.stage();
+        Files.writeString(staging.resolve("out.sqlite3"), "release 2");
+        release.publish();
+        Assertions.assertEquals("release 2", Files.readString(tempDir.resolve("out.sqlite3")));
+        Assertions.assertFalse(Files.exists(tempDir.resolve("out.delta.sql")), "The delta from release 0 to 1 doesn't apply to release 2.");
+        Assertions.assertFalse(Files.exists(tempDir.resolve("out.nt")));
+        Assertions.assertFalse(Files.exists(tempDir.resolve("shards")));
+        Assertions.assertTrue(Files.exists(tempDir.resolve("unrelated.txt")), "Only the artifacts should have been removed.");
+        Assertions.assertFalse(Files.exists(tempDir.resolve("staging")));
+    }
+}
@@ -0,0 +1,226 @@
+package com.handshape.rdftripleshare;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonArray;
+import org.apache.jena.atlas.json.JsonObject;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Shards a synthetic corpus and checks that every triple lands in the shard
+ * the manifest says it will, once, and that a release leaves the shards that
+ * didn't change as they were.
+ *
+ * @author jturner
+ */
+public class ShardedExporterTest {
+
+    private static final long MAX_SHARD_BYTES = 64 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void everyTripleIsInTheShardTheManifestNames() throws Exception {
+        Model model = SyntheticCorpus.instruments(20000);
+        ShardedExporter exporter = new ShardedExporter(tempDir).setMode(ShardedExporter.Mode.PREFIX).setMaxShardBytes(MAX_SHARD_BYTES);
+        new FanOutWriter().add("shards", exporter, exporter::getBytes).write(model);
+
+        JsonObject manifest = JSON.read(exporter.getManifestFile().toString());
+        JsonArray shards = manifest.get("shards").getAsArray();
+        Assertions.assertEquals(exporter.getShardCount(), shards.size());
+        Model all = ModelFactory.createDefaultModel();
+        long total = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            JsonObject shard = shards.get(i).getAsObject();
+            Path file = tempDir.resolve(shard.get("file").getAsString().value());
+            Assertions.assertEquals(number(shard, "bytes"), Files.size(file));
+            Assertions.assertEquals(shard.get("sha256").getAsString().value(), sha256(file));
+            // Hashing splits unevenly, so allow some slack over the average.
+            Assertions.assertTrue(Files.size(file) < 2 * MAX_SHARD_BYTES, file + " is " + Files.size(file) + " bytes");
+            String namespace = shard.get("namespace").getAsString().value();
+            long start = number(shard, "hashStart");
+            long end = number(shard, "hashEnd");
+            Model part = ModelFactory.createDefaultModel();
+            RDFDataMgr.read(part, file.toString(), Lang.NTRIPLES);
+            Assertions.assertEquals(number(shard, "triples"), part.size());
+            part.getGraph().find().forEachRemaining(triple -> {
+                String subject = triple.getSubject().getURI();
+                Assertions.assertTrue(subject.startsWith(namespace), subject + " isn't in " + namespace);
+                long hash = ShardedExporter.hash(subject);
+                Assertions.assertTrue(hash >= start && hash < end, subject + " is outside " + shard);
+            });
+            total += part.size();
+            all.add(part);
+        }
+        Assertions.assertEquals(model.size(), total, "Every triple should be in exactly one shard.");
+        Assertions.assertTrue(all.isIsomorphicWith(model));
+        Assertions.assertTrue(shards.size() > 4, "The instruments should have been split.");
+        Assertions.assertTrue(Files.exists(tempDir.resolve("recgen-orgid.nt")), "Departments should have a shard of their own.");
+    }
+
+    @Test
+    public void unchangedShardsKeepTheirChecksums() throws Exception {
+        Model model = SyntheticCorpus.instruments(20000);
+        ShardedExporter exporter = new ShardedExporter(tempDir).setMode(ShardedExporter.Mode.HASH).setMaxShardBytes(MAX_SHARD_BYTES);
+        new FanOutWriter().add("shards", exporter, exporter::getBytes).write(model);
+        Map<String, String> before = checksums(exporter);
+        Path stale = tempDir.resolve("left-over.nt");
+        Files.writeString(stale, "");
+
+        // One more triple, on one subject, and the triples sent in a different order.
+        String subject = SyntheticCorpus.INST + "SOR-1985-5";
+        model.getGraph().add(Triple.create(NodeFactory.createURI(subject), NodeFactory.createURI("https://schema.org/description"), NodeFactory.createLiteral("Changed")));
+        exporter.start();
+        model.getNsPrefixMap().forEach(exporter::prefix);
+        model.getGraph().find().toList().stream().sorted((a, b) -> b.toString().compareTo(a.toString())).forEach(exporter::triple);
+        exporter.finish();
+        Map<String, String> after = checksums(exporter);
+
+        Assertions.assertEquals(before.keySet(), after.keySet());
+        int changed = 0;
+        for (String file : before.keySet()) {
+            if (!before.get(file).equals(after.get(file))) {
+                changed++;
+            }
+        }
+        Assertions.assertEquals(1, changed, "Only the shard holding " + subject + " should have changed.");
+        Assertions.assertFalse(Files.exists(stale), "Shards that aren't in the manifest should be cleared away.");
+    }
+
+    @Test
+    public void releasesLeaveUnchangedShardsAsTheyWere() throws Exception {
+        Model model = SyntheticCorpus.instruments(20000);
+        ReleaseDirectory release = new ReleaseDirectory(tempDir);
+        Path shards = tempDir.resolve("shards");
+        publishShards(release, model);
+        Map<String, Object> before = files(shards);
+        Path stale = shards.resolve("left-over.nt");
+        Files.writeString(stale, "");
+
+        String subject = SyntheticCorpus.INST + "SOR-1985-5";
+        model.getGraph().add(Triple.create(NodeFactory.createURI(subject), NodeFactory.createURI("https://schema.org/description"), NodeFactory.createLiteral("Changed")));
+        publishShards(release, model);
+        Map<String, Object> after = files(shards);
+
+        Assertions.assertEquals(before.keySet(), after.keySet());
+        int replaced = 0;
+        for (String file : before.keySet()) {
+            if (!before.get(file).equals(after.get(file))) {
+                replaced++;
+            }
+        }
+        // The same file, not a copy of it, so its modification time is as it was too.
+        Assertions.assertEquals(1, replaced, "Only the shard holding " + subject + " should have been replaced.");
+        Assertions.assertFalse(Files.exists(stale), "Shards that aren't in the release should be cleared away.");
+        Assertions.assertFalse(Files.exists(tempDir.resolve("staging")));
+    }
+
+    @Test
+    public void shardsOfDifferentNamespacesNeverShareAFile() throws Exception {
+        String recgen = "https://example.com/recgen/";
+        Model model = ModelFactory.createDefaultModel();
+        model.setNsPrefix("recgen", recgen);
+        // Enough subjects straight under recgen: to split it dozens of ways, and a namespace for each name a split could give its shards.
+        for (int i = 0; i < 1000; i++) {
+            model.getGraph().add(Triple.create(NodeFactory.createURI(recgen + "org" + i), NodeFactory.createURI("https://schema.org/name"), NodeFactory.createLiteral("Org " + i)));
+        }
+        for (int i = 0; i < 256; i++) {
+            model.getGraph().add(Triple.create(NodeFactory.createURI(recgen + String.format("%02x", i) + "/x"), NodeFactory.createURI("https://schema.org/name"), NodeFactory.createLiteral("X")));
+        }
+        ShardedExporter exporter = new ShardedExporter(tempDir).setMode(ShardedExporter.Mode.PREFIX).setMaxShardBytes(1024);
+        new FanOutWriter().add("shards", exporter, exporter::getBytes).write(model);
+
+        Map<String, String> checksums = checksums(exporter);
+        Assertions.assertEquals(exporter.getShardCount(), checksums.size(), "Each shard should have a file of its own.");
+        Assertions.assertTrue(checksums.keySet().stream().anyMatch(file -> file.startsWith("recgen.")), "recgen: should have been split.");
+        for (Map.Entry<String, String> shard : checksums.entrySet()) {
+            Assertions.assertEquals(shard.getValue(), sha256(tempDir.resolve(shard.getKey())), shard.getKey());
+        }
+    }
+
+    @Test
+    public void clashingNamesAreTheSameWhateverTheOrder() throws Exception {
+        String dotted = "https://example.com/dotted/";
+        String hyphenated = "https://example.com/hyphenated/";
+        Model model = ModelFactory.createDefaultModel();
+        // Both come out as a-b.
+        model.setNsPrefix("a.b", dotted);
+        model.setNsPrefix("a-b", hyphenated);
+        model.getGraph().add(Triple.create(NodeFactory.createURI(dotted + "one"), NodeFactory.createURI("https://schema.org/name"), NodeFactory.createLiteral("One")));
+        model.getGraph().add(Triple.create(NodeFactory.createURI(hyphenated + "two"), NodeFactory.createURI("https://schema.org/name"), NodeFactory.createLiteral("Two")));
+        String dottedFile = String.format("a-b~%08x.nt", ShardedExporter.hash(dotted));
+        String hyphenatedFile = String.format("a-b~%08x.nt", ShardedExporter.hash(hyphenated));
+
+        ShardedExporter exporter = new ShardedExporter(tempDir).setMode(ShardedExporter.Mode.PREFIX);
+        for (boolean reversed : new boolean[]{false, true}) {
+            exporter.start();
+            model.getNsPrefixMap().forEach(exporter::prefix);
+            model.getGraph().find().toList().stream()
+                    .sorted((a, b) -> reversed ? b.toString().compareTo(a.toString()) : a.toString().compareTo(b.toString()))
+                    .forEach(exporter::triple);
+            exporter.finish();
+            Assertions.assertEquals(Set.of(dottedFile, hyphenatedFile), checksums(exporter).keySet());
+            Assertions.assertTrue(Files.readString(tempDir.resolve(dottedFile)).contains(dotted + "one"));
+            Assertions.assertTrue(Files.readString(tempDir.resolve(hyphenatedFile)).contains(hyphenated + "two"));
+        }
+    }
+
+    private static void publishShards(ReleaseDirectory release, Model model) throws Exception {
+        release.stage();
+        ShardedExporter exporter = new ShardedExporter(release.seed("shards")).setMode(ShardedExporter.Mode.HASH).setMaxShardBytes(MAX_SHARD_BYTES);
+        new FanOutWriter().add("shards", exporter, exporter::getBytes).write(model);
+        release.publish();
+    }
+
+    /**
+     * @return each shard's file key, which stays the same for as long as it's
+     * the same file.
+     */
+    private static Map<String, Object> files(Path shards) throws Exception {
+        Map<String, Object> files = new HashMap<>();
+        try (DirectoryStream<Path> list = Files.newDirectoryStream(shards, "*.nt")) {
+            for (Path file : list) {
+                files.put(file.getFileName().toString(), Files.readAttributes(file, BasicFileAttributes.class).fileKey());
+            }
+        }
+        return files;
+    }
+
+    private static Map<String, String> checksums(ShardedExporter exporter) {
+        Map<String, String> checksums = new HashMap<>();
+        JsonArray shards = JSON.read(exporter.getManifestFile().toString()).get("shards").getAsArray();
+        for (int i = 0; i < shards.size(); i++) {
+            JsonObject shard = shards.get(i).getAsObject();
+            checksums.put(shard.get("file").getAsString().value(), shard.get("sha256").getAsString().value());
+        }
+        return checksums;
+    }
+
+    private static String sha256(Path file) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static long number(JsonObject object, String key) {
+        return object.get(key).getAsNumber().value().longValue();
+    }
+}
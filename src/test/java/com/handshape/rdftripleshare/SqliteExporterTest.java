@@ -0,0 +1,517 @@
+package com.handshape.rdftripleshare;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.apache.jena.atlas.json.JSON;
+import org.apache.jena.atlas.json.JsonObject;
+import org.apache.jena.atlas.json.JsonValue;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author jturner
+ */
+public class SqliteExporterTest {
+
+    /**
+     * Everything that ever amended an instrument, the way a client without
+     * the closure tables has to find it.
+     */
+    private static final String AMENDERS_CTE = "WITH RECURSIVE A (INSTRUMENT, DEPTH) AS (SELECT ?, 0 UNION SELECT T.OBJECT, A.DEPTH + 1 FROM TRIPLES T JOIN A ON T.SUBJECT = A.INSTRUMENT "
+            + "WHERE T.PREDICATE = 'justice:consolidates') SELECT DISTINCT INSTRUMENT FROM A WHERE INSTRUMENT <> ?";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void layoutsExposeTheSameTriples() throws Exception {
+        Model model = SyntheticCorpus.instruments(20000);
+        Path rows = tempDir.resolve("rows.sqlite3");
+        Path dictionary = tempDir.resolve("dictionary.sqlite3");
+        Path range = tempDir.resolve("range.sqlite3");
+        new SqliteExporter(rows).setLayout(SqliteExporter.Layout.ROWS).setBatchSize(1000).export(model);
+        new SqliteExporter(dictionary).setLayout(SqliteExporter.Layout.DICTIONARY).setBatchSize(1000).export(model);
+        new SqliteExporter(range).setLayout(SqliteExporter.Layout.RANGE).setBatchSize(1000).export(model);
+
+        List<String> rowTriples = triples(rows);
+        Assertions.assertEquals(model.size(), rowTriples.size(), "Every triple should be exported exactly once.");
+        Assertions.assertEquals(rowTriples, triples(dictionary));
+        Assertions.assertEquals(rowTriples, triples(range));
+        Assertions.assertEquals(query(rows, "SELECT COUNT(*) FROM PREFIXES"), query(dictionary, "SELECT COUNT(*) FROM PREFIXES"));
+        Assertions.assertEquals("\"Regulations Respecting Matter 7\"",
+                query(dictionary, "SELECT OBJECT FROM TRIPLES WHERE SUBJECT = 'inst:SOR-1987-7' AND PREDICATE = 'schema:name'"));
+        Assertions.assertTrue(Files.size(dictionary) < Files.size(rows), "The dictionary layout should be smaller.");
+    }
+
+    @Test
+    public void reExportReplacesAnotherLayout() throws Exception {
+        Path db = tempDir.resolve("out.sqlite3");
+        new SqliteExporter(db).setLayout(SqliteExporter.Layout.DICTIONARY).export(SyntheticCorpus.instruments(100));
+        new SqliteExporter(db).setLayout(SqliteExporter.Layout.ROWS).export(SyntheticCorpus.instruments(200));
+        Assertions.assertEquals(String.valueOf(SyntheticCorpus.instruments(200).size()), query(db, "SELECT COUNT(*) FROM TRIPLES"));
+    }
+
+    @Test
+    public void manifestDescribesTheDb() throws Exception {
+        Path db = tempDir.resolve("out.sqlite3");
+        SqliteExporter exporter = new SqliteExporter(db).setLayout(SqliteExporter.Layout.RANGE).setPageSize(1024);
+        exporter.export(SyntheticCorpus.instruments(2000));
+        JsonObject manifest = JSON.read(exporter.getManifestFile().toString());
+        Assertions.assertEquals("range", manifest.get("layout").getAsString().value());
+        Assertions.assertEquals(1024, manifest.get("pageSize").getAsNumber().value().intValue());
+        Assertions.assertEquals(Files.size(db), 1024 * manifest.get("pageCount").getAsNumber().value().longValue());
+        Assertions.assertEquals(query(db, "SELECT COUNT(*) FROM TRIPLES"), String.valueOf(manifest.get("triples").getAsNumber().value()));
+        Assertions.assertEquals(SyntheticCorpus.INST, manifest.get("prefixes").getAsObject().get("inst").getAsString().value());
+        Assertions.assertEquals(query(db, "SELECT rootpage FROM sqlite_master WHERE name = 'TRIPLES_POS'"), String.valueOf(rootPages(manifest).get("TRIPLES_POS")));
+        Assertions.assertTrue(manifest.get("stats").getAsObject().hasKey("TRIPLES_OSP"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new SqliteExporter(db).setPageSize(3000).export(SyntheticCorpus.instruments(10)));
+    }
+
+    @Test
+    public void fullTextFindsWhatLikeFinds() throws Exception {
+        Path db = tempDir.resolve("out.sqlite3");
+        SqliteExporter exporter = new SqliteExporter(db).setFullText(SqliteExporter.DEFAULT_FULL_TEXT_PREDICATES);
+        exporter.export(SyntheticCorpus.instruments(2000));
+
+        // No accents, no case, and French words as well as English ones.
+        Assertions.assertEquals(sql(db, "SELECT SUBJECT FROM TRIPLES WHERE OBJECT LIKE '\"Ministère de la matière 7\"'"),
+                sql(db, "SELECT SUBJECT FROM LITERALS WHERE LITERALS MATCH ?", "MINISTERE matiere 7"));
+        Assertions.assertEquals("fr", query(db, "SELECT LANG FROM LITERALS WHERE LITERALS MATCH 'ministere matiere 7'"));
+        Assertions.assertEquals(sql(db, "SELECT SUBJECT FROM TRIPLES WHERE PREDICATE = 'schema:name' AND OBJECT LIKE '\"Regul%'"),
+                sql(db, "SELECT SUBJECT FROM LITERALS WHERE LITERALS MATCH ?", "regul*"));
+        // Links back to the rest of the subject's triples.
+        Assertions.assertEquals("inst:A-3", query(db, "SELECT T.OBJECT FROM LITERALS L JOIN TRIPLES T ON T.SUBJECT = L.SUBJECT "
+                + "WHERE LITERALS MATCH 'respecting matter 33' AND T.PREDICATE = 'justice:enabling-act'"));
+        Assertions.assertEquals("0", query(db, "SELECT COUNT(*) FROM LITERALS WHERE PREDICATE = 'schema:wordCount'"));
+        Assertions.assertTrue(JSON.read(exporter.getManifestFile().toString()).hasKey("fullText"));
+
+        new SqliteExporter(db).setFullText(null).export(SyntheticCorpus.instruments(100));
+        Assertions.assertEquals("0", query(db, "SELECT COUNT(*) FROM sqlite_master WHERE name = 'LITERALS'"));
+    }
+
+    @Test
+    public void closuresMatchWalkingTheTriples() throws Exception {
+        Model model = SyntheticCorpus.instruments(2000);
+        for (SqliteExporter.Layout layout : SqliteExporter.Layout.values()) {
+            Path db = tempDir.resolve(layout + ".sqlite3");
+            new SqliteExporter(db).setLayout(layout).setClosures(true, 0).export(model);
+            for (String instrument : sql(db, "SELECT SUBJECT FROM TRIPLES WHERE PREDICATE = 'justice:consolidates'")) {
+                Assertions.assertEquals(sql(db, AMENDERS_CTE, instrument, instrument), sql(db, "SELECT AMENDER FROM AMENDMENTS WHERE INSTRUMENT = ?", instrument), layout + " " + instrument);
+            }
+            Assertions.assertEquals("1", query(db, "SELECT DEPTH FROM AMENDMENTS WHERE INSTRUMENT = 'inst:SOR-1990-50' AND AMENDER = 'inst:SOR-1989-49'"));
+            Assertions.assertEquals("3", query(db, "SELECT DEPTH FROM AMENDMENTS WHERE INSTRUMENT = 'inst:SOR-1990-50' AND AMENDER = 'inst:SOR-1987-47'"));
+            Assertions.assertEquals(sql(db, "SELECT SUBJECT FROM TRIPLES WHERE PREDICATE = 'justice:enabling-act' AND OBJECT = 'inst:A-3'"),
+                    sql(db, "SELECT INSTRUMENT FROM ACT_INSTRUMENTS WHERE ACT = 'inst:A-3' AND DEPTH = 1"));
+            Assertions.assertEquals(query(db, "SELECT COUNT(*) FROM TRIPLES WHERE PREDICATE = 'schema:name'"), query(db, "SELECT TRIPLES FROM PREDICATE_STATS WHERE PREDICATE = 'schema:name'"));
+            Assertions.assertEquals("2", query(db, "SELECT MAX_OUT_DEGREE FROM PREDICATE_STATS WHERE PREDICATE = 'recgen:ext/org-name'"));
+        }
+        Path db = tempDir.resolve("shallow.sqlite3");
+        new SqliteExporter(db).setClosures(true, 2).export(model);
+        Assertions.assertEquals("2", query(db, "SELECT MAX(DEPTH) FROM AMENDMENTS"));
+    }
+
+    @Test
+    public void rangeLayoutTouchesFewerPages() throws Exception {
+        Model model = SyntheticCorpus.instruments(20000);
+        Workload workload = new Workload(model, 50);
+        Map<SqliteExporter.Layout, Map<String, Double>> pages = new EnumMap<>(SqliteExporter.Layout.class);
+        for (SqliteExporter.Layout layout : SqliteExporter.Layout.values()) {
+            Path db = tempDir.resolve(layout + ".sqlite3");
+            SqliteExporter exporter = new SqliteExporter(db).setLayout(layout);
+            exporter.export(model);
+            try (PageClient client = new PageClient(layout, db, exporter.getManifestFile())) {
+                // The walker has to come up with what SQLite itself does.
+                for (String subject : workload.subjects) {
+                    Assertions.assertEquals(sql(db, "SELECT PREDICATE || ' ' || OBJECT FROM TRIPLES WHERE SUBJECT = ?", subject), sorted(client.bySubject(subject)), layout + " " + subject);
+                }
+                for (String[] predicateObject : workload.predicateObjects) {
+                    Assertions.assertEquals(sql(db, "SELECT SUBJECT FROM TRIPLES WHERE PREDICATE = ? AND OBJECT = ?", predicateObject), sorted(client.subjectsWith(predicateObject[0], predicateObject[1])), layout.toString());
+                }
+                pages.put(layout, workload.measure(client));
+            }
+        }
+        for (String pattern : pages.get(SqliteExporter.Layout.ROWS).keySet()) {
+            Assertions.assertTrue(pages.get(SqliteExporter.Layout.RANGE).get(pattern) < pages.get(SqliteExporter.Layout.ROWS).get(pattern), pattern + " " + pages);
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "rdfshare.benchmark", matches = "true")
+    public void benchmarkPagesTouched() throws Exception {
+        Model model = SyntheticCorpus.instruments(Integer.getInteger("rdfshare.benchmark.triples", 1_000_000));
+        Workload workload = new Workload(model, 200);
+        for (String pageSize : System.getProperty("rdfshare.benchmark.page-sizes", "1024,4096,65536").split(",")) {
+            for (SqliteExporter.Layout layout : SqliteExporter.Layout.values()) {
+                Path db = tempDir.resolve(layout + ".sqlite3");
+                SqliteExporter exporter = new SqliteExporter(db).setLayout(layout).setPageSize(Integer.parseInt(pageSize.trim()));
+                exporter.export(model);
+                // The page client follows the same access paths as these.
+                String[] predicateObject = workload.predicateObjects.get(0);
+                System.out.println(layout + " plans: " + plan(db, "SELECT * FROM TRIPLES WHERE SUBJECT = ?", workload.subjects.get(0))
+                        + " / " + plan(db, "SELECT SUBJECT FROM TRIPLES WHERE PREDICATE = ? AND OBJECT = ?", predicateObject));
+                try (PageClient client = new PageClient(layout, db, exporter.getManifestFile())) {
+                    for (Map.Entry<String, Double> pattern : workload.measure(client).entrySet()) {
+                        System.out.printf("%s, %s-byte pages, %s: %.1f pages (%.1f KiB) per query, %d KiB file%n", layout, pageSize.trim(), pattern.getKey(),
+                                pattern.getValue(), pattern.getValue() * client.walker.getPageSize() / 1024, Files.size(db) / 1024);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "rdfshare.benchmark", matches = "true")
+    public void benchmarkLayouts() throws Exception {
+        Model model = SyntheticCorpus.instruments(Integer.getInteger("rdfshare.benchmark.triples", 1_000_000));
+        for (int round = 0; round < 2; round++) {
+            for (SqliteExporter.Layout layout : SqliteExporter.Layout.values()) {
+                Path db = tempDir.resolve(layout + ".sqlite3");
+                long start = System.nanoTime();
+                new SqliteExporter(db).setLayout(layout).export(model);
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%s: %d triples in %d ms, %d KiB%n", layout, model.size(), elapsed / 1_000_000, Files.size(db) / 1024);
+            }
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "rdfshare.benchmark", matches = "true")
+    public void benchmarkFullTextSearch() throws Exception {
+        Model model = SyntheticCorpus.instruments(Integer.getInteger("rdfshare.benchmark.triples", 1_000_000));
+        Path db = tempDir.resolve("out.sqlite3");
+        new SqliteExporter(db).setLayout(SqliteExporter.Layout.RANGE).setFullText(SqliteExporter.DEFAULT_FULL_TEXT_PREDICATES).export(model);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            words.add(String.valueOf(i * 37));
+        }
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+                PreparedStatement match = conn.prepareStatement("SELECT SUBJECT FROM LITERALS WHERE LITERALS MATCH ?");
+                PreparedStatement like = conn.prepareStatement("SELECT SUBJECT FROM TRIPLES WHERE OBJECT LIKE ?")) {
+            for (int round = 0; round < 2; round++) {
+                long[] matchNanos = new long[words.size()];
+                long[] likeNanos = new long[words.size()];
+                for (int i = 0; i < words.size(); i++) {
+                    match.setString(1, "matter " + words.get(i));
+                    like.setString(1, "%Matter " + words.get(i) + "\"");
+                    matchNanos[i] = time(match);
+                    likeNanos[i] = time(like);
+                }
+                Arrays.sort(matchNanos);
+                Arrays.sort(likeNanos);
+                System.out.printf("%d triples, %d KiB: MATCH p50 %d us, p99 %d us; LIKE p50 %d us, p99 %d us%n", model.size(), Files.size(db) / 1024,
+                        matchNanos[matchNanos.length / 2] / 1000, matchNanos[matchNanos.length * 99 / 100] / 1000,
+                        likeNanos[likeNanos.length / 2] / 1000, likeNanos[likeNanos.length * 99 / 100] / 1000);
+            }
+        }
+        System.out.println("Plans: " + plan(db, "SELECT SUBJECT FROM LITERALS WHERE LITERALS MATCH ?", "matter 7") + " / " + plan(db, "SELECT SUBJECT FROM TRIPLES WHERE OBJECT LIKE ?", "%Matter 7"));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "rdfshare.benchmark", matches = "true")
+    public void benchmarkClosures() throws Exception {
+        Model model = SyntheticCorpus.instruments(Integer.getInteger("rdfshare.benchmark.triples", 1_000_000));
+        // The synthetic amendments make one long chain, whose full closure grows with the square of its length.
+        int depth = Integer.getInteger("rdfshare.benchmark.depth", 10);
+        Path db = tempDir.resolve("out.sqlite3");
+        long start = System.nanoTime();
+        new SqliteExporter(db).setLayout(SqliteExporter.Layout.RANGE).setClosures(true, depth).export(model);
+        System.out.printf("Exported %d triples with closures %d deep in %d ms: %d KiB, %s amendment rows%n", model.size(), depth,
+                (System.nanoTime() - start) / 1_000_000, Files.size(db) / 1024, query(db, "SELECT COUNT(*) FROM AMENDMENTS"));
+        List<String> instruments = new Workload(model, 200).subjects;
+        String cte = AMENDERS_CTE.replace("WHERE T.PREDICATE", "WHERE A.DEPTH < " + depth + " AND T.PREDICATE");
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+                PreparedStatement closure = conn.prepareStatement("SELECT AMENDER FROM AMENDMENTS WHERE INSTRUMENT = ?");
+                PreparedStatement recursive = conn.prepareStatement(cte)) {
+            for (int round = 0; round < 2; round++) {
+                long[] closureNanos = new long[instruments.size()];
+                long[] recursiveNanos = new long[instruments.size()];
+                for (int i = 0; i < instruments.size(); i++) {
+                    closure.setString(1, instruments.get(i));
+                    recursive.setString(1, instruments.get(i));
+                    recursive.setString(2, instruments.get(i));
+                    closureNanos[i] = time(closure);
+                    recursiveNanos[i] = time(recursive);
+                }
+                Arrays.sort(closureNanos);
+                Arrays.sort(recursiveNanos);
+                System.out.printf("Everything that amended an instrument: closure table p50 %d us, p99 %d us; recursive CTE p50 %d us, p99 %d us%n",
+                        closureNanos[closureNanos.length / 2] / 1000, closureNanos[closureNanos.length * 99 / 100] / 1000,
+                        recursiveNanos[recursiveNanos.length / 2] / 1000, recursiveNanos[recursiveNanos.length * 99 / 100] / 1000);
+            }
+        }
+        System.out.println("Plans: " + plan(db, "SELECT AMENDER FROM AMENDMENTS WHERE INSTRUMENT = ?", instruments.get(0)) + " / " + plan(db, cte, instruments.get(0), instruments.get(0)));
+    }
+
+    private static long time(PreparedStatement stmt) throws Exception {
+        long start = System.nanoTime();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                rs.getString(1);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    static String query(Path db, String sql) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db); Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    private static Map<String, Long> rootPages(JsonObject manifest) {
+        Map<String, Long> rootPages = new HashMap<>();
+        for (JsonValue btree : manifest.get("btrees").getAsArray()) {
+            rootPages.put(btree.getAsObject().get("name").getAsString().value(), btree.getAsObject().get("rootPage").getAsNumber().value().longValue());
+        }
+        return rootPages;
+    }
+
+    private static List<String> sql(Path db, String sql, String... parameters) throws Exception {
+        List<String> results = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                stmt.setString(i + 1, parameters[i]);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    results.add(rs.getString(1));
+                }
+            }
+        }
+        return sorted(results);
+    }
+
+    private static String plan(Path db, String sql, String... parameters) throws Exception {
+        List<String> steps = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db); PreparedStatement stmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                stmt.setString(i + 1, parameters[i]);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    steps.add(rs.getString("detail"));
+                }
+            }
+        }
+        return String.join("; ", steps);
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * The common lookups, sampled from a model: everything about a subject,
+     * the subjects with a given predicate and object, and walks down amendment
+     * chains.
+     */
+    private static final class Workload {
+
+        private static final String CONSOLIDATES = "justice:consolidates";
+        private final List<String> subjects = new ArrayList<>();
+        private final List<String[]> predicateObjects = new ArrayList<>();
+
+        Workload(Model model, int samples) {
+            RdfGatheringAgent agent = new RdfGatheringAgent();
+            TreeSet<String> regulations = new TreeSet<>();
+            for (Resource reg : model.listSubjectsWithProperty(agent.consolidatesProperty).toList()) {
+                regulations.add(model.shortForm(reg.getURI()));
+            }
+            TreeSet<String> acts = new TreeSet<>();
+            for (RDFNode act : model.listObjectsOfProperty(agent.enablingActProperty).toList()) {
+                acts.add(model.shortForm(act.asResource().getURI()));
+            }
+            List<String> regulationList = new ArrayList<>(regulations);
+            List<String> actList = new ArrayList<>(acts);
+            for (int i = 0; i < samples; i++) {
+                subjects.add(regulationList.get((int) ((long) i * regulationList.size() / samples)));
+                predicateObjects.add(new String[]{model.shortForm(agent.enablingActProperty.getURI()), actList.get((int) ((long) i * actList.size() / samples))});
+            }
+        }
+
+        /**
+         * @return the average pages touched per query, by query pattern.
+         */
+        Map<String, Double> measure(PageClient client) throws Exception {
+            Map<String, Double> pages = new LinkedHashMap<>();
+            long touched = 0;
+            for (String subject : subjects) {
+                client.walker.reset();
+                client.bySubject(subject);
+                touched += client.walker.pagesTouched();
+            }
+            pages.put("by subject", (double) touched / subjects.size());
+            touched = 0;
+            for (String[] predicateObject : predicateObjects) {
+                client.walker.reset();
+                client.subjectsWith(predicateObject[0], predicateObject[1]);
+                touched += client.walker.pagesTouched();
+            }
+            pages.put("by predicate and object", (double) touched / predicateObjects.size());
+            touched = 0;
+            for (String subject : subjects) {
+                client.walker.reset();
+                // Follow the chain back ten amendments, the way the instrument pages do.
+                String current = subject;
+                for (int hop = 0; hop < 10 && current != null; hop++) {
+                    List<String> amended = sorted(client.objectsOf(current, CONSOLIDATES));
+                    current = amended.isEmpty() ? null : amended.get(0);
+                }
+                touched += client.walker.pagesTouched();
+            }
+            pages.put("amendment chain", (double) touched / subjects.size());
+            return pages;
+        }
+    }
+
+    /**
+     * Answers the common lookups by walking a layout's b-trees the way SQLite
+     * would, reading pages directly instead of going through SQL.
+     */
+    private static final class PageClient implements AutoCloseable {
+
+        private final SqliteExporter.Layout layout;
+        private final SqlitePageWalker walker;
+        private final Map<String, Long> roots;
+
+        PageClient(SqliteExporter.Layout layout, Path db, Path manifest) throws Exception {
+            this.layout = layout;
+            this.walker = new SqlitePageWalker(db);
+            this.roots = rootPages(JSON.read(manifest.toString()));
+        }
+
+        /**
+         * @return "predicate object" for each of the subject's triples.
+         */
+        List<String> bySubject(String subject) throws Exception {
+            List<String> results = new ArrayList<>();
+            switch (layout) {
+                case ROWS:
+                    for (List<Object> entry : walker.scan(roots.get("SUBJECT_INDEX"), subject)) {
+                        List<Object> row = walker.row(roots.get("TRIPLES"), (Long) entry.get(1));
+                        results.add(row.get(3) + " " + row.get(2));
+                    }
+                    break;
+                case DICTIONARY:
+                    Long subjectId = termId(subject);
+                    for (List<Object> entry : subjectId == null ? List.<List<Object>>of() : walker.scan(roots.get("TRIPLE_IDS"), subjectId)) {
+                        results.add(term((Long) entry.get(1)) + " " + term((Long) entry.get(2)));
+                    }
+                    break;
+                default:
+                    for (List<Object> entry : walker.scan(roots.get("TRIPLES"), subject)) {
+                        results.add(entry.get(1) + " " + entry.get(2));
+                    }
+                    break;
+            }
+            return results;
+        }
+
+        List<String> subjectsWith(String predicate, String object) throws Exception {
+            List<String> results = new ArrayList<>();
+            switch (layout) {
+                case ROWS:
+                    // SQLite picks the object index for these, then checks each row's predicate.
+                    for (List<Object> entry : walker.scan(roots.get("OBJECT_INDEX"), object)) {
+                        List<Object> row = walker.row(roots.get("TRIPLES"), (Long) entry.get(1));
+                        if (predicate.equals(row.get(3))) {
+                            results.add((String) row.get(1));
+                        }
+                    }
+                    break;
+                case DICTIONARY:
+                    Long predicateId = termId(predicate);
+                    Long objectId = termId(object);
+                    if (predicateId != null && objectId != null) {
+                        for (List<Object> entry : walker.scan(roots.get("TRIPLE_OBJECT_INDEX"), objectId, predicateId)) {
+                            results.add(term((Long) entry.get(2)));
+                        }
+                    }
+                    break;
+                default:
+                    for (List<Object> entry : walker.scan(roots.get("TRIPLES_POS"), predicate, object)) {
+                        results.add((String) entry.get(2));
+                    }
+                    break;
+            }
+            return results;
+        }
+
+        List<String> objectsOf(String subject, String predicate) throws Exception {
+            List<String> results = new ArrayList<>();
+            switch (layout) {
+                case ROWS:
+                    for (List<Object> entry : walker.scan(roots.get("SUBJECT_INDEX"), subject)) {
+                        List<Object> row = walker.row(roots.get("TRIPLES"), (Long) entry.get(1));
+                        if (predicate.equals(row.get(3))) {
+                            results.add((String) row.get(2));
+                        }
+                    }
+                    break;
+                case DICTIONARY:
+                    Long subjectId = termId(subject);
+                    Long predicateId = termId(predicate);
+                    if (subjectId != null && predicateId != null) {
+                        for (List<Object> entry : walker.scan(roots.get("TRIPLE_IDS"), subjectId, predicateId)) {
+                            results.add(term((Long) entry.get(2)));
+                        }
+                    }
+                    break;
+                default:
+                    for (List<Object> entry : walker.scan(roots.get("TRIPLES"), subject, predicate)) {
+                        results.add((String) entry.get(2));
+                    }
+                    break;
+            }
+            return results;
+        }
+
+        private Long termId(String term) throws Exception {
+            List<List<Object>> entries = walker.scan(roots.get("TERM_INDEX"), term);
+            return entries.isEmpty() ? null : (Long) entries.get(0).get(1);
+        }
+
+        private String term(long id) throws Exception {
+            return (String) walker.row(roots.get("TERMS"), id).get(1);
+        }
+
+        @Override
+        public void close() throws IOException {
+            walker.close();
+        }
+    }
+
+    static List<String> triples(Path db) throws Exception {
+        List<String> triples = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db); Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT SUBJECT, PREDICATE, OBJECT FROM TRIPLES ORDER BY SUBJECT, PREDICATE, OBJECT")) {
+            while (rs.next()) {
+                triples.add(rs.getString(1) + " " + rs.getString(2) + " " + rs.getString(3));
+            }
+        }
+        return triples;
+    }
+}
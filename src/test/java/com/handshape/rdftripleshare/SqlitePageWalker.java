@@ -0,0 +1,275 @@
+package com.handshape.rdftripleshare;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a SQLite db's b-trees straight from the file, a page at a time, the
+ * way a client reading it over HTTP range requests does, and keeps track of
+ * which pages it had to read. Only handles what the exporter writes: integer
+ * and text keys, compared as SQLite's BINARY collation does.
+ *
+ * @author jturner
+ */
+final class SqlitePageWalker implements Closeable {
+
+    private static final int INTERIOR_INDEX = 0x02;
+    private static final int INTERIOR_TABLE = 0x05;
+    private static final int LEAF_INDEX = 0x0a;
+    private static final int LEAF_TABLE = 0x0d;
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int usableSize;
+    // The pages read since the last reset, which doubles as the client's page cache.
+    private final Map<Integer, ByteBuffer> touched = new HashMap<>();
+
+    SqlitePageWalker(Path db) throws IOException {
+        channel = FileChannel.open(db, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(100);
+        channel.read(header, 0);
+        int size = header.getShort(16) & 0xffff;
+        pageSize = size == 1 ? 65536 : size;
+        usableSize = pageSize - (header.get(20) & 0xff);
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Forgets which pages have been read, as if starting a new query.
+     */
+    void reset() {
+        touched.clear();
+    }
+
+    int pagesTouched() {
+        return touched.size();
+    }
+
+    /**
+     * Finds every entry of an index b-tree (or a WITHOUT ROWID table) whose
+     * leading columns equal the given values, in key order.
+     */
+    List<List<Object>> scan(long rootPage, Object... prefix) throws IOException {
+        List<List<Object>> entries = new ArrayList<>();
+        scan((int) rootPage, prefix, entries);
+        return entries;
+    }
+
+    /**
+     * Finds a row of a rowid table by its rowid.
+     *
+     * @return the row's columns, or null if there's no such row.
+     */
+    List<Object> row(long rootPage, long rowid) throws IOException {
+        int pageNo = (int) rootPage;
+        while (true) {
+            ByteBuffer page = page(pageNo);
+            int header = pageNo == 1 ? 100 : 0;
+            int type = page.get(header) & 0xff;
+            int cells = page.getShort(header + 3) & 0xffff;
+            if (type == INTERIOR_TABLE) {
+                int next = page.getInt(header + 8);
+                for (int i = 0; i < cells; i++) {
+                    int cell = page.getShort(header + 12 + 2 * i) & 0xffff;
+                    if (rowid <= varint(page, cell + 4)[0]) {
+                        next = page.getInt(cell);
+                        break;
+                    }
+                }
+                pageNo = next;
+            } else if (type == LEAF_TABLE) {
+                for (int i = 0; i < cells; i++) {
+                    int cell = page.getShort(header + 8 + 2 * i) & 0xffff;
+                    long[] payloadSize = varint(page, cell);
+                    long[] key = varint(page, cell + (int) payloadSize[1]);
+                    if (key[0] == rowid) {
+                        return record(payload(page, cell + (int) (payloadSize[1] + key[1]), (int) payloadSize[0], true));
+                    }
+                }
+                return null;
+            } else {
+                throw new IOException("Page " + pageNo + " isn't part of a table b-tree");
+            }
+        }
+    }
+
+    private void scan(int pageNo, Object[] prefix, List<List<Object>> entries) throws IOException {
+        ByteBuffer page = page(pageNo);
+        int header = pageNo == 1 ? 100 : 0;
+        int type = page.get(header) & 0xff;
+        if (type != INTERIOR_INDEX && type != LEAF_INDEX) {
+            throw new IOException("Page " + pageNo + " isn't part of an index b-tree");
+        }
+        boolean interior = type == INTERIOR_INDEX;
+        int cells = page.getShort(header + 3) & 0xffff;
+        for (int i = 0; i < cells; i++) {
+            int cell = page.getShort(header + (interior ? 12 : 8) + 2 * i) & 0xffff;
+            int child = interior ? page.getInt(cell) : 0;
+            int payloadAt = interior ? cell + 4 : cell;
+            long[] payloadSize = varint(page, payloadAt);
+            List<Object> entry = record(payload(page, payloadAt + (int) payloadSize[1], (int) payloadSize[0], false));
+            int cmp = comparePrefix(entry, prefix);
+            // An interior cell's left child holds the entries between it and the cell before it.
+            if (interior && cmp >= 0) {
+                scan(child, prefix, entries);
+            }
+            if (cmp == 0) {
+                entries.add(entry);
+            } else if (cmp > 0) {
+                return;
+            }
+        }
+        if (interior) {
+            scan(page.getInt(header + 8), prefix, entries);
+        }
+    }
+
+    private ByteBuffer page(int pageNo) throws IOException {
+        ByteBuffer page = touched.get(pageNo);
+        if (page == null) {
+            page = ByteBuffer.allocate(pageSize);
+            long position = (long) (pageNo - 1) * pageSize;
+            while (page.hasRemaining() && channel.read(page, position + page.position()) > 0) {
+                // Keep reading.
+            }
+            touched.put(pageNo, page);
+        }
+        return page;
+    }
+
+    /**
+     * Reads a cell's payload, following it onto overflow pages if it didn't
+     * fit on its own page.
+     */
+    private ByteBuffer payload(ByteBuffer page, int offset, int size, boolean tableLeaf) throws IOException {
+        int maxLocal = tableLeaf ? usableSize - 35 : ((usableSize - 12) * 64 / 255) - 23;
+        int minLocal = ((usableSize - 12) * 32 / 255) - 23;
+        int local = size;
+        if (size > maxLocal) {
+            int surplus = minLocal + ((size - minLocal) % (usableSize - 4));
+            local = surplus <= maxLocal ? surplus : minLocal;
+        }
+        byte[] data = new byte[size];
+        copy(page, offset, data, 0, local);
+        int copied = local;
+        int overflow = copied < size ? page.getInt(offset + local) : 0;
+        while (copied < size) {
+            ByteBuffer overflowPage = page(overflow);
+            int length = Math.min(usableSize - 4, size - copied);
+            copy(overflowPage, 4, data, copied, length);
+            copied += length;
+            overflow = overflowPage.getInt(0);
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    private static void copy(ByteBuffer from, int offset, byte[] to, int toOffset, int length) {
+        ByteBuffer source = from.duplicate();
+        source.position(offset);
+        source.get(to, toOffset, length);
+    }
+
+    private static List<Object> record(ByteBuffer data) {
+        long[] headerSize = varint(data, 0);
+        List<Long> serialTypes = new ArrayList<>();
+        for (int at = (int) headerSize[1]; at < headerSize[0];) {
+            long[] serialType = varint(data, at);
+            serialTypes.add(serialType[0]);
+            at += serialType[1];
+        }
+        List<Object> columns = new ArrayList<>(serialTypes.size());
+        int at = (int) headerSize[0];
+        for (long serialType : serialTypes) {
+            if (serialType == 0) {
+                columns.add(null);
+            } else if (serialType <= 6) {
+                int length = new int[]{0, 1, 2, 3, 4, 6, 8}[(int) serialType];
+                long value = data.get(at);
+                for (int i = 1; i < length; i++) {
+                    value = (value << 8) | (data.get(at + i) & 0xff);
+                }
+                columns.add(value);
+                at += length;
+            } else if (serialType == 7) {
+                columns.add(data.getDouble(at));
+                at += 8;
+            } else if (serialType == 8 || serialType == 9) {
+                columns.add(serialType - 8);
+            } else {
+                int length = (int) ((serialType - 12) / 2);
+                byte[] bytes = new byte[length];
+                copy(data, at, bytes, 0, length);
+                columns.add(serialType % 2 == 1 ? new String(bytes, StandardCharsets.UTF_8) : bytes);
+                at += length;
+            }
+        }
+        return columns;
+    }
+
+    private static int comparePrefix(List<Object> entry, Object[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            int cmp = compare(entry.get(i), prefix[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static int compare(Object a, Object b) {
+        if (a instanceof Long && b instanceof Long) {
+            return Long.compare((Long) a, (Long) b);
+        } else if (a instanceof String && b instanceof String) {
+            return compareUtf8((String) a, (String) b);
+        }
+        // NULLs sort first, then numbers, then text.
+        return Integer.compare(rank(a), rank(b));
+    }
+
+    private static int rank(Object value) {
+        return value == null ? 0 : value instanceof Number ? 1 : 2;
+    }
+
+    private static int compareUtf8(String a, String b) {
+        byte[] x = a.getBytes(StandardCharsets.UTF_8);
+        byte[] y = b.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < Math.min(x.length, y.length); i++) {
+            if (x[i] != y[i]) {
+                return (x[i] & 0xff) - (y[i] & 0xff);
+            }
+        }
+        return x.length - y.length;
+    }
+
+    /**
+     * @return the value of the varint at the offset, and how many bytes it took.
+     */
+    private static long[] varint(ByteBuffer buffer, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            int b = buffer.get(offset + i) & 0xff;
+            value = (value << 7) | (b & 0x7f);
+            if ((b & 0x80) == 0) {
+                return new long[]{value, i + 1};
+            }
+        }
+        return new long[]{(value << 8) | (buffer.get(offset + 8) & 0xff), 9};
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
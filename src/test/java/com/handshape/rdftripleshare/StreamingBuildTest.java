@@ -0,0 +1,198 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that streaming triples through an external sort to the writers comes
+ * out the same as building a model first, and benchmarks the two in a small
+ * heap when run with -Drdfshare.benchmark=true.
+ *
+ * @author jturner
+ */
+public class StreamingBuildTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void sortedStreamMatchesTheModel() throws Exception {
+        Model expected = SyntheticCorpus.instruments(5000);
+        // A blank node and a literal that needs escaping have to survive the trip through the runs.
+        Node blank = NodeFactory.createBlankNode();
+        RdfGatheringAgent agent = new RdfGatheringAgent();
+        List<Triple> awkward = List.of(
+                Triple.create(blank, agent.titleProperty.asNode(), NodeFactory.createLiteral("Line one\nline \"two\"")),
+                Triple.create(NodeFactory.createURI(SyntheticCorpus.INST + "SOR-1980-0"), agent.consolidatesProperty.asNode(), blank));
+        awkward.forEach(expected.getGraph()::add);
+
+        Model actual = ModelFactory.createDefaultModel();
+        ByteArrayOutputStream nt = new ByteArrayOutputStream();
+        ByteArrayOutputStream ttl = new ByteArrayOutputStream();
+        Path spill = tempDir.resolve("spill");
+        ExternalSortingSink sink = new ExternalSortingSink(spill, 700, StreamRDFLib.graph(actual.getGraph()),
+                StreamRDFWriter.getWriterStream(nt, RDFFormat.NTRIPLES), StreamRDFWriter.getWriterStream(ttl, RDFFormat.TURTLE_BLOCKS));
+        sink.start();
+        SyntheticCorpus.instruments(5000, sink);
+        awkward.forEach(sink::triple);
+        awkward.forEach(sink::triple);
+        Assertions.assertTrue(sink.getRunCount() > 1, "The triples should have been spilled to several runs.");
+        sink.finish();
+
+        Assertions.assertEquals(expected.size(), sink.getDistinctTriples());
+        Assertions.assertTrue(expected.isIsomorphicWith(actual));
+        Assertions.assertEquals(expected.getNsPrefixMap(), actual.getNsPrefixMap());
+        Model fromTurtle = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(fromTurtle, new ByteArrayInputStream(ttl.toByteArray()), Lang.TURTLE);
+        Assertions.assertTrue(expected.isIsomorphicWith(fromTurtle), "The Turtle should read back as the same graph.");
+        String[] lines = nt.toString(StandardCharsets.UTF_8).split("\n");
+        Assertions.assertEquals(expected.size(), lines.length);
+        for (int i = 1; i < lines.length; i++) {
+            if (!lines[i].startsWith("_:")) {
+                Assertions.assertTrue(lines[i - 1].compareTo(lines[i]) < 0, "The N-Triples should be sorted and distinct: " + lines[i]);
+            }
+        }
+        try (Stream<Path> runs = Files.list(spill)) {
+            Assertions.assertEquals(0, runs.count(), "The runs should have been cleaned up.");
+        }
+    }
+
+    @Test
+    public void streamedAgentMatchesModelAgent() throws Exception {
+        try (FixtureHttpServer server = new FixtureHttpServer("/fixtures/justice")) {
+            Model expected = ModelFactory.createDefaultModel();
+            agent(server).fetchAndParseActsAndConsolidatedRegs(expected, new TreeSet<>());
+
+            Model actual = ModelFactory.createDefaultModel();
+            ExternalSortingSink sink = new ExternalSortingSink(tempDir.resolve("spill"), 3, StreamRDFLib.graph(actual.getGraph()));
+            sink.start();
+            agent(server).fetchAndParseActsAndConsolidatedRegs(sink, new TreeSet<>());
+            sink.finish();
+            Assertions.assertTrue(expected.size() > 0);
+            Assertions.assertTrue(expected.isIsomorphicWith(actual));
+        }
+    }
+
+    @Test
+    public void sqliteSinkMatchesModelExport() throws Exception {
+        Model model = SyntheticCorpus.instruments(3000);
+        for (SqliteExporter.Layout layout : SqliteExporter.Layout.values()) {
+            Path fromModel = tempDir.resolve(layout + "-model.sqlite3");
+            Path fromStream = tempDir.resolve(layout + "-stream.sqlite3");
+            new SqliteExporter(fromModel).setLayout(layout).export(model);
+            SqliteExporter exporter = new SqliteExporter(fromStream).setLayout(layout);
+            ExternalSortingSink sink = new ExternalSortingSink(tempDir.resolve("spill"), 1000, exporter.sink());
+            sink.start();
+            SyntheticCorpus.instruments(3000, sink);
+            sink.finish();
+            Assertions.assertEquals(SqliteExporterTest.triples(fromModel), SqliteExporterTest.triples(fromStream), layout.toString());
+            Assertions.assertEquals(SqliteExporterTest.query(fromModel, "SELECT COUNT(*) FROM PREFIXES"), SqliteExporterTest.query(fromStream, "SELECT COUNT(*) FROM PREFIXES"));
+            Assertions.assertTrue(Files.exists(exporter.getManifestFile()));
+        }
+    }
+
+    @Test
+    public void streamedBuildIsPublishedWhole() throws Exception {
+        RdfGatheringAgent agent = new RdfGatheringAgent();
+        agent.setHttpCache(new HttpResponseCache(tempDir.resolve("cache"), Long.MAX_VALUE, false));
+        ReleaseDirectory release = new ReleaseDirectory(tempDir.resolve("release"));
+        agent.writeStreamed(out -> SyntheticCorpus.instruments(3000, out), release);
+        Path published = release.getDirectory();
+        for (String artifact : List.of("out.ttl", "out.nt", "out.trdf", "out.sqlite3", "build-report.json")) {
+            Assertions.assertTrue(Files.isRegularFile(published.resolve(artifact)), artifact);
+        }
+        Assertions.assertFalse(Files.exists(published.resolve("staging")));
+        List<String> nt = Files.readAllLines(published.resolve("out.nt"));
+        Assertions.assertEquals(SqliteExporterTest.triples(published.resolve("out.sqlite3")).size(), nt.size());
+        Assertions.assertEquals(nt.size(), agent.getMetrics().getCounters().get("triples.distinct"));
+
+        // A source that fails partway leaves the last release as it was.
+        Assertions.assertThrows(IOException.class, () -> agent.writeStreamed(out -> {
+            SyntheticCorpus.instruments(5000, out);
+            throw new IOException("Upstream is down");
+        }, release));
+        Assertions.assertEquals(nt, Files.readAllLines(published.resolve("out.nt")));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "rdfshare.benchmark", matches = "true")
+    public void benchmarkInSmallHeap() throws Exception {
+        String heap = System.getProperty("rdfshare.benchmark.heap", "256m");
+        for (String triples : System.getProperty("rdfshare.benchmark.triples", "250000,1000000,2000000").split(",")) {
+            for (String mode : new String[]{"model", "streaming"}) {
+                Path dir = Files.createDirectories(tempDir.resolve(mode + "-" + triples.trim()));
+                List<String> command = new ArrayList<>(List.of(
+                        Path.of(System.getProperty("java.home"), "bin", "java").toString(), "-Xmx" + heap,
+                        "-cp", System.getProperty("java.class.path"), HeapProbe.class.getName(), mode, triples.trim(), dir.toString()));
+                long start = System.nanoTime();
+                Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(dir.resolve("log.txt").toFile()).start();
+                int exit = process.waitFor();
+                long elapsed = System.nanoTime() - start;
+                boolean outOfMemory = Files.readString(dir.resolve("log.txt")).contains("OutOfMemoryError");
+                System.out.printf("%s, %s triples, -Xmx%s: %s in %d ms%n", mode, triples.trim(), heap,
+                        exit == 0 ? "wrote out.ttl, out.nt and out.sqlite3" : outOfMemory ? "ran out of memory" : "failed with exit code " + exit,
+                        elapsed / 1_000_000);
+            }
+        }
+    }
+
+    private RdfGatheringAgent agent(FixtureHttpServer server) throws Exception {
+        RdfGatheringAgent agent = new RdfGatheringAgent();
+        agent.setHttpCache(new HttpResponseCache(tempDir.resolve("cache"), Long.MAX_VALUE, false));
+        agent.setLegisUrl(server.baseUrl() + "Legis.xml");
+        agent.setConsolidatedXmlUrlPrefix(server.baseUrl());
+        return agent;
+    }
+
+    /**
+     * Builds the synthetic corpus's outputs one way or the other, in a JVM of
+     * its own so that it can be given a heap of its own.
+     */
+    public static class HeapProbe {
+
+        public static void main(String[] args) throws Exception {
+            int triples = Integer.parseInt(args[1]);
+            Path dir = Path.of(args[2]);
+            try (OutputStream ttl = Files.newOutputStream(dir.resolve("out.ttl"));
+                    OutputStream nt = Files.newOutputStream(dir.resolve("out.nt"))) {
+                SqliteExporter exporter = new SqliteExporter(dir.resolve("out.sqlite3"));
+                if (args[0].equals("model")) {
+                    Model model = SyntheticCorpus.instruments(triples);
+                    model.write(ttl, "TTL");
+                    model.write(nt, "N-TRIPLES");
+                    exporter.export(model);
+                } else {
+                    StreamRDF sink = new ExternalSortingSink(dir.resolve("spill"),
+                            StreamRDFWriter.getWriterStream(ttl, RDFFormat.TURTLE_BLOCKS), StreamRDFWriter.getWriterStream(nt, RDFFormat.NTRIPLES), exporter.sink());
+                    sink.start();
+                    SyntheticCorpus.instruments(triples, sink);
+                    sink.finish();
+                }
+            }
+        }
+    }
+}
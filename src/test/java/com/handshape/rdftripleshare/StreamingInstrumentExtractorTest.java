@@ -0,0 +1,114 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.IOUtils;
+import org.jdom2.input.SAXBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Checks the streaming extractor against the JDOM reference, and compares the
+ * two when run with -Drdfshare.benchmark=true.
+ *
+ * @author jturner
+ */
+public class StreamingInstrumentExtractorTest {
+
+    private final RdfGatheringAgent agent = new RdfGatheringAgent();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"A-1.xml", "C-46.xml", "SOR-83-507.xml", "C.R.C.,_c._1035.xml"})
+    public void matchesJdomOnFixtures(String fixture) throws Exception {
+        byte[] xml;
+        try (InputStream in = getClass().getResourceAsStream("/fixtures/justice/" + fixture)) {
+            xml = IOUtils.toByteArray(in);
+        }
+        assertSameExtraction(xml);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "<Statute/>",
+        "<Statute>   </Statute>",
+        "<Statute>...</Statute>",
+        "<Statute>-leading punctuation</Statute>",
+        "<Statute> <!-- comment -->— dash, then words</Statute>",
+        "<Statute>split<!-- comment -->word and <b>split</b>word</Statute>",
+        "<Statute>text<![CDATA[cdata]]>text</Statute>",
+        "<Statute>&#233;t&#233; d&#233;l&#233;gu&#233; café naïve 2019_c</Statute>",
+        "<Statute><Body><Section><HistoricalNote><HistoricalNoteSubItem>2001, c. 27, <i>s.</i> 2;SOR/86-1; </HistoricalNoteSubItem>"
+        + "<HistoricalNoteSubItem> <![CDATA[R.S., 1985]]>, c. 1 (2nd Supp.)</HistoricalNoteSubItem></HistoricalNote>"
+        + "<HistoricalNote><Other><HistoricalNoteSubItem>ignored</HistoricalNoteSubItem></Other></HistoricalNote></Section>"
+        + "<Section/><Part><Section/></Part></Body><Body><Section/></Body></Statute>",
+        "<Statute xmlns:x='urn:x'><x:Body><Section/></x:Body><Body><Section/><x:Section/></Body></Statute>"
+    })
+    public void matchesJdomOnEdgeCases(String xml) throws Exception {
+        assertSameExtraction(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "rdfshare.benchmark", matches = "true")
+    public void benchmarkAgainstJdom() throws Exception {
+        byte[] xml = syntheticAct(40000);
+        System.out.println("Synthetic act: " + xml.length / (1024 * 1024) + " MiB");
+        for (int round = 0; round < 3; round++) {
+            measure("JDOM", xml, () -> agent.extractWithJdom("bench", new SAXBuilder().build(new ByteArrayInputStream(xml))));
+            measure("StAX", xml, () -> new StreamingInstrumentExtractor().extract("bench", new ByteArrayInputStream(xml), "bench.xml"));
+        }
+    }
+
+    private void assertSameExtraction(byte[] xml) throws Exception {
+        ConsolidatedInstrument expected = agent.extractWithJdom("test", new SAXBuilder().build(new ByteArrayInputStream(xml)));
+        ConsolidatedInstrument actual = new StreamingInstrumentExtractor().extract("test", new ByteArrayInputStream(xml), "test.xml");
+        Assertions.assertEquals(expected.getWordCount(), actual.getWordCount(), "Word count");
+        Assertions.assertEquals(expected.getSectionCount(), actual.getSectionCount(), "Section count");
+        Assertions.assertEquals(expected.getCitations(), actual.getCitations(), "Citations");
+    }
+
+    private interface Extraction {
+
+        ConsolidatedInstrument run() throws Exception;
+    }
+
+    private static void measure(String name, byte[] xml, Extraction extraction) throws Exception {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long baseline = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        long start = System.nanoTime();
+        ConsolidatedInstrument instrument = extraction.run();
+        long elapsed = System.nanoTime() - start;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%s: %.1f MiB/s, peak heap %d MiB over a %d MiB baseline, %d words, %d sections, %d citations%n",
+                name, (xml.length / (1024.0 * 1024.0)) / (elapsed / 1e9), peak / (1024 * 1024), baseline / (1024 * 1024),
+                instrument.getWordCount(), instrument.getSectionCount(), instrument.getCitations().size());
+    }
+
+    static byte[] syntheticAct(int sections) {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Statute><Identification><ShortTitle>Synthetic Act</ShortTitle></Identification><Body>\n");
+        for (int i = 0; i < sections; i++) {
+            xml.append("<Section><MarginalNote>Marginal note ").append(i).append("</MarginalNote><Label>").append(i).append("</Label>")
+                    .append("<Subsection><Label>(1)</Label><Text>For the purposes of this section, a taxpayer's income for a taxation year ")
+                    .append("is the amount determined under <XRefInternal>paragraph ").append(i).append("(a)</XRefInternal>, ")
+                    .append("less any amount deducted under this Part in respect of the year.</Text></Subsection>")
+                    .append("<HistoricalNote><HistoricalNoteSubItem>R.S., 1985, c. 1 (5th Supp.), s. ").append(i)
+                    .append("; 2001, c. 17, s. ").append(i % 97).append("; SOR/2002-").append(i % 400).append("</HistoricalNoteSubItem></HistoricalNote>")
+                    .append("</Section>\n");
+        }
+        return xml.append("</Body></Statute>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,85 @@
+package com.handshape.rdftripleshare;
+
+import java.util.Random;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+
+/**
+ * Builds models shaped like the real build's output (acts, regulations,
+ * amendment chains and departments) at whatever size a test or benchmark
+ * needs. The same size always gives the same model.
+ *
+ * @author jturner
+ */
+final class SyntheticCorpus {
+
+    static final String INST = "https://www.canada.ca/en/privy-council/ext/statutory-instrument/";
+    static final String JUSTICE = "https://laws-lois.justice.gc.ca/ext/";
+
+    private SyntheticCorpus() {
+    }
+
+    /**
+     * @param triples roughly how many triples to generate.
+     * @return a model of about that many triples.
+     */
+    static Model instruments(int triples) {
+        Model model = ModelFactory.createDefaultModel();
+        instruments(triples, StreamRDFLib.graph(model.getGraph()));
+        return model;
+    }
+
+    /**
+     * Sends the same triples to a stream instead, duplicates included, without
+     * starting or finishing it.
+     *
+     * @param triples roughly how many triples to generate.
+     * @param out where to send them.
+     */
+    static void instruments(int triples, StreamRDF out) {
+        RdfGatheringAgent agent = new RdfGatheringAgent();
+        out.prefix("inst", INST);
+        out.prefix("justice", JUSTICE);
+        out.prefix("schema", "https://schema.org/");
+        out.prefix("recgen", "https://www.tpsgc-pwgsc.gc.ca/recgen/");
+        out.prefix("rias", "https://www.gazette.gc.ca/ext/");
+        Random random = new Random(triples);
+        // Each regulation contributes about ten triples.
+        int regulations = Math.max(1, triples / 10);
+        int acts = Math.max(1, regulations / 20);
+        for (int i = 0; i < regulations; i++) {
+            Node reg = NodeFactory.createURI(INST + "SOR-" + (1980 + i % 40) + "-" + i);
+            Node act = NodeFactory.createURI(INST + "A-" + (i % acts));
+            add(out, reg, agent.titleProperty, NodeFactory.createLiteral("Regulations Respecting Matter " + i));
+            add(out, reg, agent.urlProperty, NodeFactory.createLiteral("https://laws-lois.justice.gc.ca/eng/regulations/SOR-" + (1980 + i % 40) + "-" + i, "en"));
+            add(out, reg, agent.wordCountProperty, NodeFactory.createLiteral(String.valueOf(random.nextInt(100000))));
+            add(out, reg, agent.sectionCountProperty, NodeFactory.createLiteral(String.valueOf(random.nextInt(400))));
+            add(out, reg, agent.sponsorProperty, NodeFactory.createLiteral("Department " + random.nextInt(100)));
+            add(out, reg, agent.enablingActProperty, act);
+            add(out, act, agent.enablesRegProperty, reg);
+            // A few earlier regulations amend this one, which makes for chains.
+            for (int j = 0; j < 3 && i > 0; j++) {
+                Node amending = NodeFactory.createURI(INST + "SOR-" + (1980 + (i - 1 - j) % 40) + "-" + Math.max(0, i - 1 - j * 7));
+                add(out, reg, agent.consolidatesProperty, amending);
+                add(out, amending, agent.amendsInstrumentProperty, reg);
+            }
+        }
+        for (int i = 0; i < acts; i++) {
+            Node act = NodeFactory.createURI(INST + "A-" + i);
+            add(out, act, agent.titleProperty, NodeFactory.createLiteral("Act Number " + i, "en"));
+            Node department = NodeFactory.createURI("https://www.tpsgc-pwgsc.gc.ca/recgen/orgid/" + i);
+            add(out, department, agent.orgnameProperty, NodeFactory.createLiteral("Department of Matter " + i));
+            add(out, department, agent.orgnameProperty, NodeFactory.createLiteral("Ministère de la matière " + i, "fr"));
+        }
+    }
+
+    private static void add(StreamRDF out, Node subject, Property predicate, Node object) {
+        out.triple(Triple.create(subject, predicate.asNode(), object));
+    }
+}
@@ -0,0 +1,164 @@
+package com.handshape.rdftripleshare;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFOps;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Gathers a synthetic corpus into a {@link TdbStore}, and checks what comes
+ * back out of it, and what's skipped on the next build.
+ *
+ * @author jturner
+ */
+public class TdbStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void exportsEverySourceGroupedBySubject() throws Exception {
+        Model model = SyntheticCorpus.instruments(5000);
+        Model extra = ModelFactory.createDefaultModel();
+        // Overlaps the corpus, so the union has to drop the duplicate.
+        Node reg = NodeFactory.createURI(SyntheticCorpus.INST + "SOR-1985-5");
+        extra.getGraph().add(model.getGraph().find(reg, Node.ANY, Node.ANY).next());
+        extra.getGraph().add(Triple.create(reg, NodeFactory.createURI("https://schema.org/description"), NodeFactory.createLiteral("Extra")));
+        try (TdbStore store = new TdbStore(tempDir.resolve("tdb2"), 1000)) {
+            new Pipeline(2)
+                    .stage("corpus", store.source("corpus", null, out -> SyntheticCorpus.instruments(5000, out)))
+                    .stage("extra", store.source("extra", null, out -> StreamRDFOps.sendGraphToStream(extra.getGraph(), out)))
+                    .run(StreamRDFLib.sinkNull());
+
+            Model exported = ModelFactory.createDefaultModel();
+            List<Node> subjects = new ArrayList<>();
+            long triples = store.export(new StreamRDFBase() {
+                @Override
+                public void triple(Triple triple) {
+                    exported.getGraph().add(triple);
+                    if (subjects.isEmpty() || !subjects.get(subjects.size() - 1).equals(triple.getSubject())) {
+                        subjects.add(triple.getSubject());
+                    }
+                }
+
+                @Override
+                public void prefix(String prefix, String iri) {
+                    exported.setNsPrefix(prefix, iri);
+                }
+            });
+            Assertions.assertEquals(model.size() + 1, triples, "Each triple should come out once.");
+            Assertions.assertTrue(exported.isIsomorphicWith(model.union(extra)));
+            Assertions.assertEquals(new HashSet<>(subjects).size(), subjects.size(), "Each subject's triples should come out together.");
+            Assertions.assertEquals(SyntheticCorpus.INST, exported.getNsPrefixURI("inst"));
+        }
+    }
+
+    @Test
+    public void skipsSourcesWhoseInputsHaveNotChanged() throws Exception {
+        Path csv = tempDir.resolve("input.csv");
+        Files.writeString(csv, "one");
+        Path db = tempDir.resolve("tdb2");
+        AtomicInteger runs = new AtomicInteger();
+        Pipeline.Source source = out -> {
+            runs.incrementAndGet();
+            Node subject = NodeFactory.createURI("https://example.com/" + Files.readString(csv));
+            out.triple(Triple.create(subject, NodeFactory.createURI("https://schema.org/name"), NodeFactory.createLiteral("Read")));
+        };
+        try (TdbStore store = new TdbStore(db, 10)) {
+            store.source("csv", TdbStore.fingerprint(csv), source).emit(StreamRDFLib.sinkNull());
+        }
+        // A later build, with the database as the last one left it.
+        try (TdbStore store = new TdbStore(db, 10)) {
+            store.source("csv", TdbStore.fingerprint(csv), source).emit(StreamRDFLib.sinkNull());
+            Assertions.assertEquals(1, runs.get());
+            Assertions.assertEquals(List.of("csv"), store.getSkipped());
+            Assertions.assertEquals(Set.of("https://example.com/one"), subjects(store));
+
+            Files.writeString(csv, "two!");
+            store.source("csv", TdbStore.fingerprint(csv), source).emit(StreamRDFLib.sinkNull());
+            Assertions.assertEquals(2, runs.get());
+            Assertions.assertEquals(Set.of("https://example.com/two!"), subjects(store), "The source's old triples should have been replaced.");
+
+            Path before = store.generations().get(0);
+            store.compact();
+            Assertions.assertEquals(1, store.generations().size(), "The generation compacted from should have been removed.");
+            Assertions.assertNotEquals(before, store.generations().get(0));
+            Assertions.assertEquals(Set.of("https://example.com/two!"), subjects(store));
+            Assertions.assertEquals(List.of("csv"), store.getSkipped());
+        }
+        try (TdbStore store = new TdbStore(db, 10)) {
+            Assertions.assertEquals(Set.of("https://example.com/two!"), subjects(store), "The compacted generation should be the one opened.");
+            store.compact();
+            Assertions.assertEquals(1, store.generations().size(), "Nothing was deleted, so there's nothing to compact.");
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "rdfshare.benchmark", matches = "true")
+    public void benchmarkHeapAndBuildTime() throws Exception {
+        int triples = Integer.getInteger("rdfshare.benchmark.triples", 10_000_000);
+        for (String store : new String[]{"memory", "tdb2"}) {
+            long baseline = liveHeap();
+            long start = System.nanoTime();
+            Path sqlite = tempDir.resolve(store + ".sqlite3");
+            long gathered;
+            long held;
+            long exported;
+            if (store.equals("memory")) {
+                Model model = ModelFactory.createDefaultModel();
+                SyntheticCorpus.instruments(triples, StreamRDFLib.graph(model.getGraph()));
+                gathered = System.nanoTime();
+                held = liveHeap() - baseline;
+                new SqliteExporter(sqlite).export(model);
+                exported = model.size();
+            } else {
+                try (TdbStore tdb = new TdbStore(tempDir.resolve("tdb2"), Integer.getInteger("rdfshare.store.batch-triples", 100000))) {
+                    tdb.source("corpus", null, out -> SyntheticCorpus.instruments(triples, out)).emit(StreamRDFLib.sinkNull());
+                    gathered = System.nanoTime();
+                    held = liveHeap() - baseline;
+                    exported = tdb.export(new SqliteExporter(sqlite).sink());
+                }
+            }
+            long done = System.nanoTime();
+            System.out.printf("%s: %d triples gathered in %d ms, holding %d MiB of heap; exported to SQLite in %d ms%n", store, exported,
+                    (gathered - start) / 1_000_000, held / (1024 * 1024), (done - gathered) / 1_000_000);
+        }
+    }
+
+    private static Set<String> subjects(TdbStore store) {
+        Set<String> subjects = new HashSet<>();
+        store.export(new StreamRDFBase() {
+            @Override
+            public void triple(Triple triple) {
+                subjects.add(triple.getSubject().getURI());
+            }
+        });
+        return subjects;
+    }
+
+    /**
+     * @return how much of the heap is still in use after a collection, which
+     * is what the gathered triples cost, as opposed to the garbage made while
+     * gathering them, which the collector sizes to whatever heap it's given.
+     */
+    private static long liveHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
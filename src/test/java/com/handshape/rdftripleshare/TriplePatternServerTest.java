@@ -0,0 +1,194 @@
+package com.handshape.rdftripleshare;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Exports a synthetic corpus and queries it back through a
+ * {@link TriplePatternServer}.
+ *
+ * @author jturner
+ */
+public class TriplePatternServerTest {
+
+    private static final String VOID_TRIPLES = "http://rdfs.org/ns/void#triples";
+    private static final String HYDRA_NEXT = "http://www.w3.org/ns/hydra/core#next";
+
+    @TempDir
+    Path tempDir;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final RdfGatheringAgent agent = new RdfGatheringAgent();
+
+    @ParameterizedTest
+    @EnumSource(SqliteExporter.Layout.class)
+    public void answersEveryShapeOfPattern(SqliteExporter.Layout layout) throws Exception {
+        Model model = SyntheticCorpus.instruments(2000);
+        Path db = tempDir.resolve("out.sqlite3");
+        new SqliteExporter(db).setLayout(layout).export(model);
+        Node reg = NodeFactory.createURI(SyntheticCorpus.INST + "SOR-1985-5");
+        Node act = NodeFactory.createURI(SyntheticCorpus.INST + "A-5");
+        Node enablingAct = agent.enablingActProperty.asNode();
+        try (TriplePatternServer server = new TriplePatternServer(db, 0, 2, 100)) {
+            server.setPageSize(50);
+            // Full IRIs, prefixed forms and angle brackets all mean the same thing.
+            assertFragment(server, model, reg, null, null, "subject=" + encode(reg.getURI()));
+            assertFragment(server, model, reg, enablingAct, null, "subject=inst:SOR-1985-5&predicate=" + encode("<" + enablingAct.getURI() + ">"));
+            assertFragment(server, model, null, enablingAct, act, "predicate=" + encode(enablingAct.getURI()) + "&object=inst:A-5");
+            assertFragment(server, model, null, null, act, "object=inst:A-5");
+            assertFragment(server, model, reg, null, act, "subject=inst:SOR-1985-5&object=inst:A-5");
+            assertFragment(server, model, reg, enablingAct, act, "subject=inst:SOR-1985-5&predicate=" + encode(enablingAct.getURI()) + "&object=inst:A-5");
+            assertFragment(server, model, null, enablingAct, null, "predicate=" + encode(enablingAct.getURI()));
+            assertFragment(server, model, null, null, null, "");
+            // However many pages each pattern ran to, it was counted only once.
+            Assertions.assertEquals(8, server.getCountQueries());
+        }
+    }
+
+    @Test
+    public void matchesLiteralsAndRevalidates() throws Exception {
+        Model model = SyntheticCorpus.instruments(2000);
+        Path db = tempDir.resolve("out.sqlite3");
+        new SqliteExporter(db).export(model);
+        try (TriplePatternServer server = new TriplePatternServer(db, 0, 2, 100)) {
+            String url = server.baseUrl() + "?object=" + encode("\"Regulations Respecting Matter 7\"");
+            HttpResponse<byte[]> first = get(url, null);
+            Assertions.assertEquals(200, first.statusCode());
+            Graph graph = parse(first.body());
+            Assertions.assertEquals(1, graph.find(null, agent.titleProperty.asNode(), null).toList().size());
+            String etag = first.headers().firstValue("ETag").orElseThrow();
+            Assertions.assertTrue(first.headers().firstValue("Cache-Control").orElseThrow().contains("max-age"));
+
+            HttpResponse<byte[]> second = get(url, etag);
+            Assertions.assertEquals(304, second.statusCode());
+            Assertions.assertEquals(1, server.getCacheMisses());
+            Assertions.assertEquals(1, server.getCacheHits());
+            Assertions.assertEquals(400, get(server.baseUrl() + "?page=0", null).statusCode());
+            Assertions.assertEquals(400, get(server.baseUrl() + "?page=" + Integer.MAX_VALUE, null).statusCode());
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "rdfshare.benchmark", matches = "true")
+    public void benchmarkThroughput() throws Exception {
+        Model model = SyntheticCorpus.instruments(Integer.getInteger("rdfshare.benchmark.triples", 1_000_000));
+        Path db = tempDir.resolve("out.sqlite3");
+        new SqliteExporter(db).setLayout(SqliteExporter.Layout.RANGE).export(model);
+        int clients = Integer.getInteger("rdfshare.benchmark.clients", 8);
+        long seconds = Long.getLong("rdfshare.benchmark.seconds", 10);
+        try (TriplePatternServer server = new TriplePatternServer(db, 0, 4, 10000)) {
+            // A working set of patterns small enough to stay cached, as a client browsing instruments would make.
+            List<String> urls = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                urls.add(server.baseUrl() + "?subject=inst:SOR-" + (1980 + i % 40) + "-" + i);
+                urls.add(server.baseUrl() + "?object=inst:A-" + (i % 50));
+            }
+            for (String url : urls) {
+                get(url, null);
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(clients);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int offset = c;
+                results.add(executor.submit(() -> {
+                    int requests = 0;
+                    while (System.nanoTime() < deadline) {
+                        get(urls.get((offset + requests * 7) % urls.size()), null);
+                        requests++;
+                    }
+                    return requests;
+                }));
+            }
+            long total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get();
+            }
+            executor.shutdown();
+            BuildMetrics.Histogram latencies = server.getLatencies();
+            BuildMetrics.Histogram cached = server.getCachedLatencies();
+            System.out.printf("%d triples, %d clients: %d requests in %d s, %.0f requests/s; %d cache hits, %d misses%n",
+                    model.size(), clients, total, seconds, total / (double) seconds, server.getCacheHits(), server.getCacheMisses());
+            System.out.printf("Server-side: p50 %d us, p99 %d us overall; p50 %d us, p99 %d us, max %d us cached%n",
+                    latencies.getPercentile(50), latencies.getPercentile(99), cached.getPercentile(50), cached.getPercentile(99), cached.getMax());
+        }
+    }
+
+    private void assertFragment(TriplePatternServer server, Model model, Node subject, Node predicate, Node object, String query) throws Exception {
+        List<Triple> expected = model.getGraph().find(subject, predicate, object).toList();
+        Graph all = ModelFactory.createDefaultModel().getGraph();
+        String url = server.baseUrl() + "?" + query;
+        long count = -1;
+        int pages = 0;
+        while (url != null) {
+            HttpResponse<byte[]> response = get(url, null);
+            Assertions.assertEquals(200, response.statusCode(), url);
+            Graph page = parse(response.body());
+            Node self = NodeFactory.createURI(url.contains("page=") ? url : url + (query.isEmpty() ? "" : "&") + "page=1");
+            List<Triple> counts = page.find(null, NodeFactory.createURI(VOID_TRIPLES), null).toList();
+            Assertions.assertEquals(1, counts.size(), url);
+            count = Long.parseLong(counts.get(0).getObject().getLiteralLexicalForm());
+            List<Triple> next = page.find(null, NodeFactory.createURI(HYDRA_NEXT), null).toList();
+            url = next.isEmpty() ? null : next.get(0).getObject().getURI();
+            Assertions.assertEquals(url != null, response.headers().firstValue("Link").isPresent());
+            page.find().forEachRemaining(triple -> {
+                if (!triple.getSubject().getURI().startsWith(server.baseUrl())) {
+                    all.add(triple);
+                }
+            });
+            pages++;
+            Assertions.assertTrue(pages < 1000, "Runaway paging from " + self);
+        }
+        Assertions.assertEquals(expected.size(), count, query);
+        Assertions.assertEquals(expected.size(), all.size(), query);
+        for (Triple triple : expected) {
+            // Literals lose their language tags in the db.
+            Node o = triple.getObject().isLiteral() ? Node.ANY : triple.getObject();
+            Assertions.assertTrue(all.contains(triple.getSubject(), triple.getPredicate(), o), triple.toString());
+        }
+    }
+
+    private HttpResponse<byte[]> get(String url, String etag) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url));
+        if (etag != null) {
+            request.header("If-None-Match", etag);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static Graph parse(byte[] body) {
+        Model model = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(model, new ByteArrayInputStream(body), Lang.NTRIPLES);
+        return model.getGraph();
+    }
+
+    private static String encode(String term) {
+        return URLEncoder.encode(term, StandardCharsets.UTF_8);
+    }
+}